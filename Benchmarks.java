@@ -0,0 +1,567 @@
+import java.util.ArrayList;
+import jpf.*;
+
+/**
+ * This class runs simple timing benchmarks for performance sensitive parts of the package.
+ * Run without arguments to run every benchmark, or pass the names of the benchmarks to run.
+ */
+public class Benchmarks{
+
+    /**
+     * The number of untimed runs done before measuring, so that the JIT compiler has optimized the code.
+     */
+    private static final int WARMUP_RUNS = 3;
+
+    /**
+     * The number of timed runs. The fastest run is reported.
+     */
+    private static final int MEASURED_RUNS = 5;
+
+    private static final String OPTION_STRING = "Arg options (none runs all): matrixmultiply, matrixvector, vectorkernels, densepass, softmax, " +
+                                                "optimizers, parsing, smallpredict, fit, examples";
+
+    /**
+     * Interface for a piece of code to be timed.
+     */
+    private interface Benchmark{
+        public void run();
+    }
+
+    /**
+     * Times a benchmark and returns the fastest run.
+     * @param b The benchmark to time.
+     * @return The time of the fastest run in milliseconds.
+     */
+    private static double time(Benchmark b){
+        for(int i = 0; i < WARMUP_RUNS; i++){
+            b.run();
+        }
+
+        long best = Long.MAX_VALUE;
+
+        for(int i = 0; i < MEASURED_RUNS; i++){
+            long start = System.nanoTime();
+            b.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        return best / 1e6;
+    }
+
+
+    /**
+     * Compares the float[][] matrix multiplication loop against the simple, blocked and parallel Matrix multiplications
+     * on square matricies of increasing size.
+     */
+    public static void matrixMultiplyBenchmark(){
+        System.out.println("Matrix multiplication (n x n) * (n x n), fastest of " + MEASURED_RUNS + " runs in ms:");
+        System.out.println("n, float[][] loop, Matrix simple, Matrix blocked, Matrix parallel (" + LinearAlgebra.getThreadPool().getParallelism() + " threads)");
+
+        int[] sizes = {64, 128, 256, 512, 1024};
+
+        for(int i = 0; i < sizes.length; i++){
+            int n = sizes[i];
+
+            float[][] a = LinearAlgebra.initializeRandomUniformMatrix(n, n, -1f, 1f);
+            float[][] b = LinearAlgebra.initializeRandomUniformMatrix(n, n, -1f, 1f);
+            float[][] result = new float[n][n];
+
+            Matrix aMatrix = new Matrix(a);
+            Matrix bMatrix = new Matrix(b);
+            Matrix resultMatrix = new Matrix(n, n);
+
+            double arrayTime = time(() -> LinearAlgebra.matrixMultiply(a, b, result));
+            double simpleTime = time(() -> LinearAlgebra.matrixMultiplySimple(aMatrix, bMatrix, resultMatrix));
+            double blockedTime = time(() -> LinearAlgebra.matrixMultiplyBlocked(aMatrix, bMatrix, resultMatrix));
+            double parallelTime = time(() -> LinearAlgebra.matrixMultiplyParallel(aMatrix, bMatrix, resultMatrix));
+
+            System.out.println(n + ", " + arrayTime + ", " + simpleTime + ", " + blockedTime + ", " + parallelTime);
+        }
+    }
+
+
+    /**
+     * Compares the serial and parallel matrix-vector products, which is the multiplication done by Dense and LinearModel.
+     */
+    public static void matrixVectorBenchmark(){
+        System.out.println("Matrix-vector multiplication (n x n) * (n x 1), fastest of " + MEASURED_RUNS + " runs in ms:");
+        System.out.println("n, serial, parallel");
+
+        int[] sizes = {256, 1024, 4096};
+
+        for(int i = 0; i < sizes.length; i++){
+            int n = sizes[i];
+
+            Matrix a = new Matrix(n, n);
+            Matrix x = new Matrix(n, 1);
+            Matrix result = new Matrix(n, 1);
+            Utility.initializeUniform(a, -1f, 1f);
+            Utility.initializeUniform(x, -1f, 1f);
+
+            double serialTime = time(() -> LinearAlgebra.matrixMultiply(a, x, result));
+            double parallelTime = time(() -> LinearAlgebra.matrixMultiplyParallel(a, x, result));
+
+            System.out.println(n + ", " + serialTime + ", " + parallelTime);
+        }
+    }
+
+
+    /**
+     * Compares the scalar and vectorized forms of the vector kernels and activation functions.
+     */
+    public static void vectorKernelBenchmark(){
+        int n = 1 << 20;
+        float[] a = Utility.getRandomUniform(-1f, 1f, n);
+        float[] b = Utility.getRandomUniform(-1f, 1f, n);
+        float[] dest = new float[n];
+
+        ActivationFunction[] functions = {new Linear(), new Tanh(), new Sigmoid(), new LeakyReLU(0.1f)};
+
+        System.out.println("Vector kernels on arrays of length " + n + ", fastest of " + MEASURED_RUNS + " runs in ms:");
+        System.out.println("kernel, scalar, vectorized");
+
+        boolean vectorized = LinearAlgebra.getVectorizedKernels();
+
+        double[] scalarTimes = new double[3 + 2 * functions.length];
+        double[] vectorTimes = new double[scalarTimes.length];
+
+        for(int mode = 0; mode < 2; mode++){
+            LinearAlgebra.setVectorizedKernels(mode == 1);
+            double[] times = mode == 0 ? scalarTimes : vectorTimes;
+
+            times[0] = time(() -> LinearAlgebra.dot(a, b));
+            times[1] = time(() -> LinearAlgebra.axpy(0.5f, a, 0, dest, 0, n));
+            times[2] = time(() -> Utility.clip(dest, -0.5f, 0.5f));
+
+            for(int i = 0; i < functions.length; i++){
+                ActivationFunction f = functions[i];
+                times[3 + 2 * i] = time(() -> f.f(a, dest));
+                times[4 + 2 * i] = time(() -> f.fPrime(a, dest));
+            }
+        }
+
+        LinearAlgebra.setVectorizedKernels(vectorized);
+
+        String[] names = new String[scalarTimes.length];
+        names[0] = "dot";
+        names[1] = "axpy";
+        names[2] = "clip";
+
+        for(int i = 0; i < functions.length; i++){
+            names[3 + 2 * i] = functions[i] + " f";
+            names[4 + 2 * i] = functions[i] + " fPrime";
+        }
+
+        for(int i = 0; i < names.length; i++){
+            System.out.println(names[i] + ", " + scalarTimes[i] + ", " + vectorTimes[i]);
+        }
+    }
+
+
+    /**
+     * Measures the time and the memory allocated by one forward and backward pass through two Dense layers.
+     */
+    public static void densePassBenchmark(){
+        int steps = 10000;
+
+        Input input = new Input(256);
+        Dense hidden = new Dense(256, new Tanh(), input);
+        Dense output = new Dense(10, new Linear(), hidden);
+
+        Benchmark pass = () -> {
+            for(int i = 0; i < steps; i++){
+                input.forwardPass();
+                hidden.forwardPass();
+                output.forwardPass();
+                output.backwardPass();
+                hidden.backwardPass();
+            }
+        };
+
+        double passTime = time(pass);
+
+        //Allocation counters are only available on HotSpot based JVMs.
+        java.lang.management.ThreadMXBean threadBean = java.lang.management.ManagementFactory.getThreadMXBean();
+        String allocated = "unavailable";
+
+        if(threadBean instanceof com.sun.management.ThreadMXBean){
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)threadBean;
+            long threadId = Thread.currentThread().getId();
+
+            long before = bean.getThreadAllocatedBytes(threadId);
+            pass.run();
+            allocated = Double.toString((bean.getThreadAllocatedBytes(threadId) - before) / (double)steps);
+        }
+
+        System.out.println("Dense forward and backward passes (256 -> 256 -> 10), " + steps + " steps, fastest of " + MEASURED_RUNS + " runs:");
+        System.out.println("time in ms, bytes allocated per step");
+        System.out.println(passTime + ", " + allocated);
+    }
+
+
+    /**
+     * Times forward and backward passes through a SoftmaxLayer, alone and on a batch.
+     */
+    public static void softmaxBenchmark(){
+        int steps = 10000;
+        int numUnits = 1000;
+        int batchSize = 64;
+
+        Input input = new Input(numUnits);
+        SoftmaxLayer softmax = new SoftmaxLayer(input);
+        Utility.copyArrayContents(Utility.getRandomUniform(-5f, 5f, numUnits), input.getInputVector());
+
+        double passTime = time(() -> {
+            for(int i = 0; i < steps; i++){
+                input.forwardPass();
+                softmax.forwardPass();
+                softmax.backwardPass();
+            }
+        });
+
+        input.initializeBatchArrays(batchSize);
+        softmax.initializeBatchArrays(batchSize);
+        Utility.initializeUniform(input.getInputBatch(), -5f, 5f);
+
+        double batchTime = time(() -> {
+            for(int i = 0; i < steps / batchSize; i++){
+                input.forwardPassBatch();
+                softmax.forwardPassBatch();
+                softmax.backwardPassBatch();
+            }
+        });
+
+        System.out.println("SoftmaxLayer forward and backward passes (" + numUnits + " units), " + steps + " samples, fastest of " + MEASURED_RUNS + " runs in ms:");
+        System.out.println("one sample at a time, batches of " + batchSize);
+        System.out.println(passTime + ", " + batchTime);
+    }
+
+
+    /**
+     * Times processGradient() of each optimizer on a gradient the size of a 256 -> 256 -> 10 network.
+     */
+    public static void optimizerBenchmark(){
+        int steps = 1000;
+
+        ArrayList<Matrix> gradient = new ArrayList<Matrix>();
+        gradient.add(new Matrix(256, 256));
+        gradient.add(new Matrix(256, 1));
+        gradient.add(new Matrix(10, 256));
+        gradient.add(new Matrix(10, 1));
+
+        for(int i = 0; i < gradient.size(); i++){
+            Utility.initializeUniform(gradient.get(i), -1f, 1f);
+        }
+
+        Optimizer[] optimizers = {new SGD(0.01f), new RMSProp(0.001f, 0.9f, 0.0001f)};
+        String[] names = {"SGD", "RMSProp"};
+
+        System.out.println("Optimizer processGradient() on " + (256 * 256 + 256 + 10 * 256 + 10) + " parameters, " + steps + " steps, fastest of " + MEASURED_RUNS + " runs in ms:");
+        System.out.println("optimizer, time");
+
+        for(int i = 0; i < optimizers.length; i++){
+            Optimizer opt = optimizers[i];
+
+            double optTime = time(() -> {
+                for(int j = 0; j < steps; j++){
+                    opt.processGradient(gradient);
+                }
+            });
+
+            System.out.println(names[i] + ", " + optTime);
+        }
+    }
+
+
+    /**
+     * Times converting the parameters of a 256 -> 256 -> 10 network to the text format used when saving models,
+     * and parsing them back with Utility.stringToMatrixList().
+     */
+    public static void parsingBenchmark(){
+        ArrayList<Matrix> parameters = new ArrayList<Matrix>();
+        parameters.add(new Matrix(256, 256));
+        parameters.add(new Matrix(256, 1));
+        parameters.add(new Matrix(10, 256));
+        parameters.add(new Matrix(10, 1));
+
+        for(int i = 0; i < parameters.size(); i++){
+            Utility.initializeUniform(parameters.get(i), -1f, 1f);
+        }
+
+        String text = Utility.arraysToString(parameters);
+
+        double toStringTime = time(() -> Utility.arraysToString(parameters));
+        double parseTime = time(() -> Utility.stringToMatrixList(text));
+
+        System.out.println("Parameter text format (" + text.length() + " characters), fastest of " + MEASURED_RUNS + " runs in ms:");
+        System.out.println("arraysToString, stringToMatrixList");
+        System.out.println(toStringTime + ", " + parseTime);
+    }
+
+
+    /**
+     * Times single sample predictions with a small neural network, where the overhead of walking the layer graph
+     * is large compared to the computations done by the layers.
+     */
+    public static void smallNetworkPredictBenchmark(){
+        int predictions = 100000;
+
+        Input input = new Input(4);
+        Dense hidden = new Dense(8, new Tanh(), input);
+        Dense output = new Dense(1, new Linear(), hidden);
+
+        NeuralNetwork nn = new NeuralNetwork(input, output);
+
+        float[] x = Utility.getRandomUniform(-1f, 1f, 4);
+
+        double predictTime = time(() -> {
+            for(int i = 0; i < predictions; i++){
+                nn.predict(x);
+            }
+        });
+
+        System.out.println("Small neural network predictions (4 -> 8 -> 1), " + predictions + " predictions, fastest of " + MEASURED_RUNS + " runs:");
+        System.out.println("time in ms, predictions per second");
+        System.out.println(predictTime + ", " + (predictions / (predictTime / 1000.0)));
+    }
+
+
+    /**
+     * Times one epoch of fitting a neural network with several minibatch sizes. Larger minibatches
+     * are pushed through the layers as a single batch, so the Dense layers do one matrix multiplication per minibatch.
+     * The data parallel fit splits each minibatch over one replica of the network per thread of the thread pool.
+     */
+    public static void neuralNetworkFitBenchmark(){
+        int numSamples = 4096;
+        int inputSize = 64;
+        int outputSize = 10;
+
+        float[][] x = new float[numSamples][];
+        float[][] y = new float[numSamples][];
+
+        for(int i = 0; i < numSamples; i++){
+            x[i] = Utility.getRandomUniform(-1f, 1f, inputSize);
+            y[i] = Utility.getRandomUniform(-1f, 1f, outputSize);
+        }
+
+        Input input = new Input(inputSize);
+        Dense hidden1 = new Dense(256, new Tanh(), input);
+        Dense hidden2 = new Dense(256, new Tanh(), hidden1);
+        Dense output = new Dense(outputSize, new Linear(), hidden2);
+
+        NeuralNetwork nn = new NeuralNetwork(input, output);
+
+        System.out.println("Neural network fit (" + inputSize + " -> 256 -> 256 -> " + outputSize + "), one epoch of " + numSamples + " samples, fastest of " + MEASURED_RUNS + " runs in ms:");
+        int numThreads = LinearAlgebra.getThreadPool().getParallelism();
+
+        System.out.println("minibatch size, time, time with " + numThreads + " threads");
+
+        int[] minibatchSizes = {1, 32, 256};
+
+        for(int i = 0; i < minibatchSizes.length; i++){
+            int minibatchSize = minibatchSizes[i];
+
+            double fitTime = time(() -> nn.fit(x, y, 1, minibatchSize, -1f, new SGD(0.0001f), new MSE()));
+            double parallelFitTime = time(() -> nn.fit(x, y, 1, minibatchSize, -1f, new SGD(0.0001f), new MSE(), numThreads));
+
+            System.out.println(minibatchSize + ", " + fitTime + ", " + parallelFitTime);
+        }
+    }
+
+
+    /**
+     * Creates random training data for a neural network.
+     * @param n The number of samples.
+     * @param inputSizes The length of each input vector.
+     * @param outputSizes The length of each output vector.
+     * @return The inputs at index 0 and the outputs at index 1.
+     */
+    private static float[][][][] createData(int n, int[] inputSizes, int[] outputSizes){
+        float[][][] x = new float[n][inputSizes.length][];
+        float[][][] y = new float[n][outputSizes.length][];
+
+        for(int i = 0; i < n; i++){
+            for(int j = 0; j < inputSizes.length; j++){
+                x[i][j] = Utility.getRandomUniform(0f, 1f, inputSizes[j]);
+            }
+
+            for(int j = 0; j < outputSizes.length; j++){
+                y[i][j] = Utility.getRandomUniform(0f, 1f, outputSizes[j]);
+            }
+        }
+
+        float[][][][] data = {x, y};
+        return data;
+    }
+
+    /**
+     * Times predictions on every sample and one epoch of fitting for a neural network, and prints the results.
+     * @param name The name of the network.
+     * @param nn The network to time.
+     * @param data The training data created by createData().
+     * @param minibatchSize The minibatch size used when fitting.
+     * @param opt The optimizer used when fitting.
+     * @param losses The loss functions used when fitting.
+     */
+    private static void exampleNetworkBenchmark(String name, NeuralNetwork nn, float[][][][] data, int minibatchSize, Optimizer opt, Loss[] losses){
+        float[][][] x = data[0];
+        float[][][] y = data[1];
+
+        double predictTime = time(() -> {
+            for(int i = 0; i < x.length; i++){
+                nn.predict(x[i]);
+            }
+        });
+
+        double fitTime = time(() -> nn.fit(x, y, 1, minibatchSize, 0.1f, opt, losses));
+
+        System.out.println(name + ", " + predictTime + ", " + fitTime);
+    }
+
+    /**
+     * Times prediction and fitting for the neural networks of the nnquadratic, nnbinaryclassification, nnresnet, nnmulticlass and
+     * nncomplex examples, using random data and the minibatch sizes and optimizers of the examples.
+     */
+    public static void exampleNetworksBenchmark(){
+        int n = 1000;
+
+        System.out.println("Example networks, predictions on " + n + " samples and one epoch of fitting, fastest of " + MEASURED_RUNS + " runs in ms:");
+        System.out.println("example, predict, fit");
+
+        int[] one = {1};
+        int[] two = {2};
+
+        //nnquadratic
+        Input in = new Input(1);
+        Dense h1 = new Dense(16, new Tanh(), in);
+        Dense h2 = new Dense(16, new Tanh(), h1);
+        Dense out = new Dense(1, new Linear(), h2);
+
+        Loss[] mse = {new MSE()};
+        exampleNetworkBenchmark("nnquadratic", new NeuralNetwork(in, out), createData(n, one, one), 32, new RMSProp(0.01f, 0.9f, 0.000001f), mse);
+
+        //nnbinaryclassification
+        in = new Input(2);
+        h1 = new Dense(8, new LeakyReLU(0.1f), in);
+        h2 = new Dense(8, new LeakyReLU(0.1f), h1);
+        out = new Dense(1, new Sigmoid(), h2);
+
+        Loss[] crossEntropy = {new CrossEntropy()};
+        exampleNetworkBenchmark("nnbinaryclassification", new NeuralNetwork(in, out), createData(n, two, one), 32, new RMSProp(), crossEntropy);
+
+        //nnresnet
+        in = new Input(2);
+        ArrayList<Layer> layerList = new ArrayList<Layer>();
+        Layer previous = in;
+
+        for(int i = 0; i < 4; i++){
+            previous = new Dense(8, new Tanh(), previous);
+            layerList.add(previous);
+        }
+
+        out = new Dense(1, new Linear(), new Add(layerList));
+        exampleNetworkBenchmark("nnresnet", new NeuralNetwork(in, out), createData(n, two, one), 32, new SGD(0.0001f), mse);
+
+        //nnmulticlass
+        in = new Input(2);
+        h1 = new Dense(8, new Tanh(), in);
+        h2 = new Dense(8, new Tanh(), h1);
+        SoftmaxLayer softmax = new SoftmaxLayer(new Dense(4, new Linear(), h2));
+
+        int[] four = {4};
+        exampleNetworkBenchmark("nnmulticlass", new NeuralNetwork(in, softmax), createData(n, two, four), 128, new RMSProp(0.001f, 0.9f, 0.00001f), crossEntropy);
+
+        //nncomplex
+        ArrayList<Input> inputLayers = new ArrayList<Input>();
+        layerList = new ArrayList<Layer>();
+        int[] inputSizes = {3, 4, 5};
+
+        for(int i = 0; i < inputSizes.length; i++){
+            inputLayers.add(new Input(inputSizes[i]));
+            layerList.add(new Dense(10, new LeakyReLU(0.1f), inputLayers.get(i)));
+        }
+
+        Dense h4 = new Dense(12, new Tanh(), new Add(layerList));
+        Dense h6 = new Dense(10, new LeakyReLU(0.1f), new Dense(10, new LeakyReLU(0.1f), h4));
+        Dense h8 = new Dense(10, new LeakyReLU(0.1f), new Dense(10, new LeakyReLU(0.1f), h4));
+
+        ArrayList<Layer> outputLayers = new ArrayList<Layer>();
+        outputLayers.add(new Dense(5, new Sigmoid(), h6));
+        outputLayers.add(new SoftmaxLayer(h6));
+        outputLayers.add(new Dense(5, new Sigmoid(), h8));
+
+        int[] outputSizes = {5, 10, 5};
+        Loss[] losses = {new MSE(), new CrossEntropy(), new MSE()};
+        exampleNetworkBenchmark("nncomplex", new NeuralNetwork(inputLayers, outputLayers), createData(n, inputSizes, outputSizes), 32, new RMSProp(), losses);
+    }
+
+
+    /**
+     * Runs a benchmark by name.
+     * @param name The name of the benchmark, see OPTION_STRING.
+     */
+    public static void runBenchmark(String name){
+        switch(name.toLowerCase()){
+            case "matrixmultiply":
+                Benchmarks.matrixMultiplyBenchmark();
+                break;
+
+            case "matrixvector":
+                Benchmarks.matrixVectorBenchmark();
+                break;
+
+            case "vectorkernels":
+                Benchmarks.vectorKernelBenchmark();
+                break;
+
+            case "densepass":
+                Benchmarks.densePassBenchmark();
+                break;
+
+            case "softmax":
+                Benchmarks.softmaxBenchmark();
+                break;
+
+            case "optimizers":
+                Benchmarks.optimizerBenchmark();
+                break;
+
+            case "parsing":
+                Benchmarks.parsingBenchmark();
+                break;
+
+            case "smallpredict":
+                Benchmarks.smallNetworkPredictBenchmark();
+                break;
+
+            case "fit":
+                Benchmarks.neuralNetworkFitBenchmark();
+                break;
+
+            case "examples":
+                Benchmarks.exampleNetworksBenchmark();
+                break;
+
+            default:
+                System.out.println(OPTION_STRING);
+                break;
+        }
+    }
+
+    public static void main(String[] args){
+        System.out.println("Starting benchmarks.");
+
+        String[] names = args;
+
+        if(names.length == 0){
+            names = new String[]{"matrixmultiply", "matrixvector", "vectorkernels", "densepass", "softmax",
+                                 "optimizers", "parsing", "smallpredict", "fit", "examples"};
+        }
+
+        for(int i = 0; i < names.length; i++){
+            Benchmarks.runBenchmark(names[i]);
+        }
+
+        System.out.println("Benchmarks complete.");
+    }
+}
@@ -171,10 +171,10 @@ public class Examples{
         //Print out the learned equation for approximating sin(x)
         float[] coefficients = new float[degree + 1];
         for(int i = 0; i < degree; i++){
-            coefficients[i] = model.getParameters().get(0)[0][i];
+            coefficients[i] = model.getParameters().get(0).get(0, i);
         }
 
-        coefficients[coefficients.length - 1] = model.getParameters().get(1)[0][0];
+        coefficients[coefficients.length - 1] = model.getParameters().get(1).get(0, 0);
 
         //Print function with highest order terms first
         System.out.print("Learned polynomial is: f(x) = ");
@@ -787,6 +787,17 @@ public class Examples{
 
         System.out.println("Training loss after loading: " + loadLoss);
         System.out.println("The before saving and after loading losses should be very similar or equal.");
+
+        //The binary format stores the exact parameter values, so the loss should not change at all.
+        String binaryPath = "nn_complex_model.bin";
+
+        nn.saveModelBinary(binaryPath);
+        nn = new NeuralNetwork(binaryPath);
+
+        float binaryLoadLoss = Utility.mean(nn.calculateScalarLossBatch(trainX, trainY, losses));
+
+        System.out.println("Training loss after saving and loading in the binary format: " + binaryLoadLoss);
+        System.out.println("This loss should be equal to the loss after loading.");
     }
 
     public static void main(String[] args){
@@ -1,8 +1,17 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 import jpf.*;
 
 /**
- * This class defines and runs various unit tests for the LinearAlgebra and Utility classes.
+ * This class defines and runs various unit tests for the LinearAlgebra and Utility classes, for fitting models, model files, parsing and the softmax layers.
  */
 public class Tests{
     public static void initializeConstantTest1(){
@@ -234,6 +243,158 @@ public class Tests{
         assert Utility.equal(expected, output);
     }
 
+    public static void matrixArrayConversionTest(){
+        float[][] input = new float[3][4];
+        Utility.initializeUniform(input, -1f, 1f);
+
+        Matrix m = new Matrix(input);
+
+        assert m.getNumRows() == 3;
+        assert m.getNumColumns() == 4;
+        assert m.get(2, 1) == input[2][1];
+        assert Utility.equal(m.toArray(), input);
+    }
+
+    public static void matrixMultiplyContiguousTest(){
+        //The contiguous Matrix multiplication should match the float[][] multiplication
+        float[][] a = new float[5][3];
+        float[][] b = new float[3][4];
+        Utility.initializeUniform(a, -1f, 1f);
+        Utility.initializeUniform(b, -1f, 1f);
+
+        float[][] expected = LinearAlgebra.matrixMultiply(a, b);
+
+        Matrix output = LinearAlgebra.matrixMultiply(new Matrix(a), new Matrix(b));
+
+        float[][] outputArray = output.toArray();
+
+        for(int r = 0; r < expected.length; r++){
+            for(int c = 0; c < expected[r].length; c++){
+                assert Math.abs(expected[r][c] - outputArray[r][c]) < 0.0001f;
+            }
+        }
+    }
+
+    public static void transposeContiguousTest(){
+        float[][] input = new float[2][3];
+        Utility.initializeUniform(input, -1f, 1f);
+
+        Matrix output = LinearAlgebra.transpose(new Matrix(input));
+
+        assert Utility.equal(output.toArray(), LinearAlgebra.transpose(input));
+    }
+
+    public static void matrixMultiplyBlockedTest(){
+        //Sizes are chosen to not be multiples of the block and tile sizes, so the edge cases are covered.
+        Matrix a = new Matrix(70, 300);
+        Matrix b = new Matrix(300, 530);
+        Utility.initializeUniform(a, -1f, 1f);
+        Utility.initializeUniform(b, -1f, 1f);
+
+        Matrix expected = new Matrix(70, 530);
+        Matrix output = new Matrix(70, 530);
+
+        LinearAlgebra.matrixMultiplySimple(a, b, expected);
+        LinearAlgebra.matrixMultiplyBlocked(a, b, output);
+
+        for(int i = 0; i < expected.getSize(); i++){
+            assert Math.abs(expected.getData()[i] - output.getData()[i]) < 0.001f;
+        }
+    }
+
+    public static void matrixMultiplyParallelTest(){
+        //A product above the parallel threshold, with a row count that does not split evenly into tasks.
+        Matrix a = new Matrix(203, 150);
+        Matrix b = new Matrix(150, 97);
+        Utility.initializeUniform(a, -1f, 1f);
+        Utility.initializeUniform(b, -1f, 1f);
+
+        Matrix expected = new Matrix(203, 97);
+        LinearAlgebra.matrixMultiply(a, b, expected);
+
+        //Use a pool with several threads, so the product is split even on a single core machine.
+        ForkJoinPool previousPool = LinearAlgebra.getThreadPool();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        LinearAlgebra.setThreadPool(pool);
+
+        //Each row is computed by the same code as matrixMultiply(), so the result should be identical.
+        assert Utility.equal(expected, LinearAlgebra.matrixMultiplyParallel(a, b));
+
+        //Matrix-vector product, which is split into dot products per row.
+        Matrix c = new Matrix(600, 500);
+        Matrix x = new Matrix(500, 1);
+        Utility.initializeUniform(c, -1f, 1f);
+        Utility.initializeUniform(x, -1f, 1f);
+
+        assert Utility.equal(LinearAlgebra.matrixMultiply(c, x), LinearAlgebra.matrixMultiplyParallel(c, x));
+
+        LinearAlgebra.setThreadPool(previousPool);
+        pool.shutdown();
+    }
+
+    public static void matrixMultiplyTransposeTest(){
+        //The small sizes use the dot product and outer product loops, the large sizes use the blocked algorithm.
+        int[][] sizes = {{3, 5, 4}, {70, 130, 90}};
+
+        for(int i = 0; i < sizes.length; i++){
+            int m = sizes[i][0];
+            int k = sizes[i][1];
+            int n = sizes[i][2];
+
+            Matrix a = new Matrix(m, k);
+            Matrix b = new Matrix(k, n);
+            Utility.initializeUniform(a, -1f, 1f);
+            Utility.initializeUniform(b, -1f, 1f);
+
+            Matrix expected = LinearAlgebra.matrixMultiply(a, b);
+
+            Matrix outputB = new Matrix(m, n);
+            LinearAlgebra.matrixMultiplyTransposeB(a, LinearAlgebra.transpose(b), outputB);
+
+            Matrix outputA = new Matrix(m, n);
+            LinearAlgebra.matrixMultiplyTransposeA(LinearAlgebra.transpose(a), b, outputA);
+
+            for(int j = 0; j < expected.getSize(); j++){
+                assert Math.abs(expected.getData()[j] - outputB.getData()[j]) < 0.001f;
+                assert Math.abs(expected.getData()[j] - outputA.getData()[j]) < 0.001f;
+            }
+        }
+    }
+
+    public static void dotTest(){
+        float[] a = new float[103];
+        float[] b = new float[103];
+        Utility.initializeUniform(a, -1f, 1f);
+        Utility.initializeUniform(b, -1f, 1f);
+
+        boolean vectorized = LinearAlgebra.getVectorizedKernels();
+
+        LinearAlgebra.setVectorizedKernels(false);
+        float scalarResult = LinearAlgebra.dot(a, b);
+
+        LinearAlgebra.setVectorizedKernels(true);
+        float vectorResult = LinearAlgebra.dot(a, b);
+
+        LinearAlgebra.setVectorizedKernels(vectorized);
+
+        //Results may round differently, but should be very close
+        assert Math.abs(scalarResult - vectorResult) < 0.0001f;
+
+        float[] ones = LinearAlgebra.initializeConstant(10, 1);
+        assert LinearAlgebra.dot(ones, 2, ones, 3, 7) == 7f;
+    }
+
+    public static void axpyTest(){
+        float[] x = LinearAlgebra.initializeConstant(5, 2);
+        float[] y = LinearAlgebra.initializeConstant(5, 1);
+
+        LinearAlgebra.axpy(3f, x, 1, y, 0, 4);
+
+        float[] expected = {7, 7, 7, 7, 1};
+
+        assert Utility.equal(y, expected);
+    }
+
     public static void runLinearAlgebraTests(){
 
         Tests.initializeConstantTest1();
@@ -263,6 +424,16 @@ public class Tests{
         Tests.arrayToMatrixTest();
 
         Tests.matrixToArrayTest(); 
+
+        Tests.matrixArrayConversionTest();
+        Tests.matrixMultiplyContiguousTest();
+        Tests.transposeContiguousTest();
+        Tests.matrixMultiplyBlockedTest();
+        Tests.matrixMultiplyParallelTest();
+        Tests.matrixMultiplyTransposeTest();
+
+        Tests.dotTest();
+        Tests.axpyTest();
     }
 
 
@@ -304,6 +475,28 @@ public class Tests{
     }
 
 
+    private static void clipScalarTest(){
+        //The scalar and vectorized forms of clip should give the same result
+        float[] array = {-3, -0.5f, 0.25f, 2, 7};
+        float[] copy = array.clone();
+
+        boolean vectorized = LinearAlgebra.getVectorizedKernels();
+
+        LinearAlgebra.setVectorizedKernels(false);
+        Utility.clip(array, -1, 1);
+
+        LinearAlgebra.setVectorizedKernels(true);
+        Utility.clip(copy, -1, 1);
+
+        LinearAlgebra.setVectorizedKernels(vectorized);
+
+        float[] expected = {-1, -0.5f, 0.25f, 1, 1};
+
+        assert Utility.equal(array, expected);
+        assert Utility.equal(copy, expected);
+    }
+
+
     private static void sumTest1(){
         float[] input = LinearAlgebra.initializeConstant(5, 1);
 
@@ -499,6 +692,16 @@ public class Tests{
     }
 
 
+    private static void arrayToStringTest4(){
+        //Numbers are written in the shortest form that reads back as the same float, in the notation of Float.toString()
+        float[] input = {0.1f, -0.0f, 1234.5f, 0.001f, 1e-5f, 1e7f, -3.4028235e38f, Float.NaN, Float.NEGATIVE_INFINITY};
+
+        String result = Utility.arrayToString(input);
+        String expected = "[0.1 -0.0 1234.5 0.001 1.0E-5 1.0E7 -3.4028235E38 NaN -Infinity]";
+
+        assert result.equals(expected);
+    }
+
     private static void arrayToStringToArrayTest1(){
         //Tests both arrayToString and stringToArray
         float[] a = new float[5];
@@ -566,10 +769,135 @@ public class Tests{
     }
 
 
+    private static void addListMatrixTest(){
+        ArrayList<Matrix> listA = new ArrayList<Matrix>();
+        listA.add(new Matrix(LinearAlgebra.initializeConstant(3, 3, 2)));
+        listA.add(new Matrix(LinearAlgebra.initializeConstant(4, 4, 3)));
+
+        ArrayList<Matrix> listB = Utility.cloneArrays(listA);
+        Utility.scaleList(listB, 0.5f);
+
+        Utility.addList(listA, listB, 2f);
+
+        assert Utility.equal(listA.get(0).toArray(), LinearAlgebra.initializeConstant(3, 3, 4));
+        assert Utility.equal(listA.get(1).toArray(), LinearAlgebra.initializeConstant(4, 4, 6));
+    }
+
+
+    private static void runInParallelTest(){
+        //Use a pool with several threads, so the tasks can finish out of order even on a single core machine.
+        ForkJoinPool previousPool = LinearAlgebra.getThreadPool();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        LinearAlgebra.setThreadPool(pool);
+
+        ArrayList<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+
+        for(int i = 0; i < 10; i++){
+            int value = i;
+            tasks.add(() -> {
+                Thread.sleep(10 - value);
+                return value * value;
+            });
+        }
+
+        ArrayList<Integer> results = Utility.runInParallel(tasks);
+
+        LinearAlgebra.setThreadPool(previousPool);
+        pool.shutdown();
+
+        //Results are in task order, not in the order the tasks finished.
+        assert results.size() == 10;
+
+        for(int i = 0; i < 10; i++){
+            assert results.get(i) == i * i;
+        }
+    }
+
+
+    private static void getMinibatchIndiciesTest(){
+        ArrayList<ArrayList<Integer>> minibatches = Utility.getMinibatchIndicies(10, 3);
+
+        //Every index is in exactly one minibatch, and only the last minibatch is smaller.
+        assert minibatches.size() == 4;
+        assert minibatches.get(3).size() == 1;
+
+        boolean[] seen = new boolean[10];
+
+        for(int mb = 0; mb < minibatches.size(); mb++){
+            for(int i = 0; i < minibatches.get(mb).size(); i++){
+                int index = minibatches.get(mb).get(i);
+
+                assert !seen[index];
+                seen[index] = true;
+            }
+        }
+
+        for(int i = 0; i < seen.length; i++){
+            assert seen[i];
+        }
+
+        //The same seed gives the same minibatches
+        assert Utility.getMinibatchIndicies(10, 3, 42).equals(Utility.getMinibatchIndicies(10, 3, 42));
+    }
+
+    private static void minibatchIndiciesTest(){
+        MinibatchIndicies first = new MinibatchIndicies(7, 3, 42);
+        MinibatchIndicies second = new MinibatchIndicies(7, 3, 42);
+
+        assert first.getNumMinibatches() == 3;
+        assert first.getStart(2) == 6 && first.getEnd(2) == 7;
+
+        //The same seed gives the same shuffles, and each shuffle is a permutation
+        for(int e = 0; e < 3; e++){
+            assert Arrays.equals(first.getIndicies(), second.getIndicies());
+
+            int[] sorted = first.getIndicies().clone();
+            Arrays.sort(sorted);
+
+            for(int i = 0; i < sorted.length; i++){
+                assert sorted[i] == i;
+            }
+
+            first.shuffle();
+            second.shuffle();
+        }
+    }
+
+
+    private static void validationLevelTest(){
+        int previousLevel = Utility.getValidationLevel();
+        float[][] data = {{1f, 2f}, {3f, Float.NaN}};
+
+        //Data is checked at the boundary level, but not when validation is off.
+        Utility.setValidationLevel(Utility.VALIDATION_BOUNDARY);
+        assert Utility.boundaryValidation() && !Utility.fullValidation();
+
+        boolean thrown = false;
+
+        try{
+            Utility.checkDataReal(data);
+        } catch(AssertionError e){
+            thrown = true;
+        }
+
+        assert thrown;
+
+        Utility.setValidationLevel(Utility.VALIDATION_OFF);
+        Utility.checkDataReal(data);
+
+        //Per element checks only run at the full level.
+        Utility.setValidationLevel(Utility.VALIDATION_FULL);
+        assert Utility.fullValidation();
+
+        Utility.setValidationLevel(previousLevel);
+    }
+
+
     public static void runUtilityTests(){
         Tests.clipTest1();
         Tests.clipTest2();
         Tests.clipTest3();
+        Tests.clipScalarTest();
 
         Tests.sumTest1();
         Tests.sumTest2();
@@ -597,6 +925,7 @@ public class Tests{
         Tests.arrayToStringTest1();
         Tests.arrayToStringTest2();
         Tests.arrayToStringTest3();
+        Tests.arrayToStringTest4();
 
         Tests.arrayToStringToArrayTest1();
         Tests.arrayToStringToArrayTest2();
@@ -606,14 +935,696 @@ public class Tests{
         Tests.copyArrayContentsTest();
 
         Tests.argMaxTest();
+
+        Tests.addListMatrixTest();
+
+        Tests.runInParallelTest();
+
+        Tests.getMinibatchIndiciesTest();
+        Tests.minibatchIndiciesTest();
+
+        Tests.validationLevelTest();
+    }
+
+
+    //Creates a small network with the given parameters, or random parameters if null.
+    private static NeuralNetwork createFitTestNetwork(ArrayList<Matrix> parameters){
+        Input input = new Input(3);
+        Dense hidden = new Dense(8, new Tanh(), input);
+        Dense output = new Dense(2, new Linear(), hidden);
+        NeuralNetwork nn = new NeuralNetwork(input, output);
+
+        if(parameters != null){
+            for(int i = 0; i < parameters.size(); i++){
+                Utility.copyArrayContents(parameters.get(i).getData(), nn.getParameters().get(i).getData());
+            }
+        }
+
+        return nn;
+    }
+
+    private static void seededFitTest(){
+        Random random = new Random(1);
+        float[][] x = new float[64][3];
+        float[][] y = new float[64][2];
+
+        for(int i = 0; i < x.length; i++){
+            for(int j = 0; j < 3; j++){
+                x[i][j] = random.nextFloat() * 2 - 1;
+            }
+
+            y[i][0] = x[i][0] * x[i][1];
+            y[i][1] = x[i][2] - x[i][0];
+        }
+
+        NeuralNetwork serial = Tests.createFitTestNetwork(null);
+        NeuralNetwork sharded = Tests.createFitTestNetwork(serial.getParameters());
+        NeuralNetwork repeated = Tests.createFitTestNetwork(serial.getParameters());
+
+        serial.setSeed(7);
+        sharded.setSeed(7);
+        repeated.setSeed(7);
+
+        serial.fit(x, y, 3, 16, -1, new SGD(0.05f), new MSE(), 1);
+        sharded.fit(x, y, 3, 16, -1, new SGD(0.05f), new MSE(), 4);
+        repeated.fit(x, y, 3, 16, -1, new SGD(0.05f), new MSE(), 4);
+
+        //With the same seed, the shards only change the order the gradients are added in,
+        //and the same number of threads gives identical results.
+        for(int i = 0; i < serial.getParameters().size(); i++){
+            float[] a = serial.getParameters().get(i).getData();
+            float[] b = sharded.getParameters().get(i).getData();
+            float[] c = repeated.getParameters().get(i).getData();
+
+            for(int j = 0; j < a.length; j++){
+                assert Math.abs(a[j] - b[j]) < 1e-5f;
+                assert b[j] == c[j];
+            }
+        }
+    }
+
+    public static void runFitTests(){
+        Tests.seededFitTest();
+    }
+
+
+    //Creates an empty temporary file that is deleted when the tests finish, and returns its path.
+    private static String createTempFile(String suffix){
+        try{
+            File file = File.createTempFile("jpftest", suffix);
+            file.deleteOnExit();
+            return file.getPath();
+        } catch(IOException e){
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] readFile(String filePath){
+        try{
+            return Files.readAllBytes(Paths.get(filePath));
+        } catch(IOException e){
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void writeFile(String filePath, byte[] bytes){
+        try{
+            Files.write(Paths.get(filePath), bytes);
+        } catch(IOException e){
+            throw new AssertionError(e);
+        }
+    }
+
+    //Returns true if running the code throws an AssertionError, which is how models reject invalid files.
+    private static boolean throwsAssertionError(Runnable code){
+        try{
+            code.run();
+        } catch(AssertionError e){
+            return true;
+        }
+
+        return false;
+    }
+
+    //Checks that a reloaded model has bit-identical parameters.
+    private static void assertSameParameters(Model expected, Model actual){
+        assert expected.getParameters().size() == actual.getParameters().size();
+
+        for(int i = 0; i < expected.getParameters().size(); i++){
+            Matrix a = expected.getParameters().get(i);
+            Matrix b = actual.getParameters().get(i);
+
+            assert a.getNumRows() == b.getNumRows();
+            assert a.getNumColumns() == b.getNumColumns();
+            assert Arrays.equals(a.getData(), b.getData());
+        }
+    }
+
+    private static void binaryNeuralNetworkTest(){
+        NeuralNetwork nn = Tests.createFitTestNetwork(null);
+        String filePath = Tests.createTempFile(".bin");
+
+        nn.saveModelBinary(filePath);
+
+        NeuralNetwork loaded = new NeuralNetwork(filePath);
+        float[] x = {0.5f, -0.25f, 1f};
+
+        //Every layer must be connected exactly once, or the reloaded network has extra parameters or predicts differently
+        Tests.assertSameParameters(nn, loaded);
+        assert Arrays.equals(nn.predict(x), loaded.predict(x));
+    }
+
+    private static void binaryLinearModelTest(){
+        LinearModel model = new LinearModel(3, 2);
+        String filePath = Tests.createTempFile(".bin");
+
+        model.saveModelBinary(filePath);
+
+        LinearModel loaded = new LinearModel(filePath);
+        float[] x = {0.5f, -0.25f, 1f};
+
+        Tests.assertSameParameters(model, loaded);
+        assert Arrays.equals(model.predict(x), loaded.predict(x));
+    }
+
+    private static void binaryPolynomialModelTest(){
+        PolynomialModel model = new PolynomialModel(3, 2, 4);
+        String filePath = Tests.createTempFile(".bin");
+
+        model.saveModelBinary(filePath);
+
+        PolynomialModel loaded = new PolynomialModel(filePath);
+
+        float[] x = {0.5f, -0.25f, 1f};
+
+        assert loaded.getDegree() == 4;
+        Tests.assertSameParameters(model, loaded);
+        assert Arrays.equals(model.predict(x), loaded.predict(x));
+    }
+
+    private static void binaryWrongModelTypeTest(){
+        String filePath = Tests.createTempFile(".bin");
+
+        new LinearModel(3, 2).saveModelBinary(filePath);
+
+        assert Tests.throwsAssertionError(() -> new PolynomialModel(filePath));
+        assert Tests.throwsAssertionError(() -> new NeuralNetwork(filePath));
+    }
+
+    private static void binaryNewerVersionTest(){
+        String filePath = Tests.createTempFile(".bin");
+
+        new LinearModel(3, 2).saveModelBinary(filePath);
+
+        //The version is the little-endian int after the magic number
+        byte[] bytes = Tests.readFile(filePath);
+        bytes[4]++;
+        Tests.writeFile(filePath, bytes);
+
+        assert Tests.throwsAssertionError(() -> new LinearModel(filePath));
+    }
+
+    private static void binaryTruncatedFileTest(){
+        String filePath = Tests.createTempFile(".bin");
+
+        Tests.createFitTestNetwork(null).saveModelBinary(filePath);
+
+        byte[] bytes = Tests.readFile(filePath);
+
+        //Missing the last entry, and cut off inside the header
+        Tests.writeFile(filePath, Arrays.copyOf(bytes, bytes.length - 4));
+        assert Tests.throwsAssertionError(() -> new NeuralNetwork(filePath));
+
+        Tests.writeFile(filePath, Arrays.copyOf(bytes, 20));
+        assert Tests.throwsAssertionError(() -> new NeuralNetwork(filePath));
+    }
+
+    private static void textNeuralNetworkTest(){
+        NeuralNetwork nn = Tests.createFitTestNetwork(null);
+        String filePath = Tests.createTempFile(".txt");
+
+        nn.saveModel(filePath);
+
+        NeuralNetwork loaded = new NeuralNetwork(filePath);
+        float[] x = {0.5f, -0.25f, 1f};
+
+        //The text format stores the shortest decimal of each float, which parses back to the same float
+        Tests.assertSameParameters(nn, loaded);
+        assert Arrays.equals(nn.predict(x), loaded.predict(x));
+    }
+
+    private static void textMalformedRowTest(){
+        String filePath = Tests.createTempFile(".txt");
+
+        Tests.createFitTestNetwork(null).saveModel(filePath);
+
+        String[] lines = new String(Tests.readFile(filePath), StandardCharsets.UTF_8).split("\n", -1);
+
+        //Drop all but the first entry from the second row of the first weight matrix
+        int firstRow = 0;
+
+        while(!lines[firstRow].startsWith("[[")){
+            firstRow++;
+        }
+
+        String row = lines[firstRow + 1];
+        lines[firstRow + 1] = row.substring(0, row.indexOf(' ')) + row.substring(row.indexOf(']'));
+
+        Tests.writeFile(filePath, String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+
+        String message = null;
+
+        try{
+            new NeuralNetwork(filePath);
+        } catch(AssertionError e){
+            message = e.getMessage();
+        }
+
+        //The error comes from the reader and names the line of the short row
+        assert message != null && message.contains("line " + (firstRow + 2));
+    }
+
+    public static void runModelFileTests(){
+        Tests.binaryNeuralNetworkTest();
+        Tests.binaryLinearModelTest();
+        Tests.binaryPolynomialModelTest();
+        Tests.binaryWrongModelTypeTest();
+        Tests.binaryNewerVersionTest();
+        Tests.binaryTruncatedFileTest();
+
+        Tests.textNeuralNetworkTest();
+        Tests.textMalformedRowTest();
+    }
+
+
+    //Writes the contents to a .csv file and reads every row with a CSVReader. Each row is the input vector followed by the output vector.
+    private static ArrayList<float[]> readCSV(String contents, int[] inputColumns, int[] outputColumns, int headerLines){
+        String filePath = Tests.createTempFile(".csv");
+        Tests.writeFile(filePath, contents.getBytes(StandardCharsets.UTF_8));
+
+        ArrayList<float[]> rows = new ArrayList<float[]>();
+
+        try(CSVReader reader = new CSVReader(filePath, inputColumns, outputColumns, ',', headerLines)){
+            float[] x = new float[inputColumns.length];
+            float[] y = new float[outputColumns.length];
+
+            while(reader.readSample(x, y)){
+                float[] row = Arrays.copyOf(x, x.length + y.length);
+                System.arraycopy(y, 0, row, x.length, y.length);
+                rows.add(row);
+            }
+        }
+
+        return rows;
+    }
+
+    //CSVReader parses its values with FloatParser, which should give the same float as Float.parseFloat, or reject the same values.
+    private static boolean parsesLikeParseFloat(String value){
+        float expected;
+
+        try{
+            expected = Float.parseFloat(value);
+        } catch(NumberFormatException e){
+            return Tests.throwsAssertionError(() -> Tests.readCSV(value + "\n", new int[]{0}, new int[0], 0));
+        }
+
+        ArrayList<float[]> rows = Tests.readCSV(value + "\n", new int[]{0}, new int[0], 0);
+
+        //Comparing the bits also distinguishes -0.0 from 0.0
+        return rows.size() == 1 && Float.floatToIntBits(rows.get(0)[0]) == Float.floatToIntBits(expected);
+    }
+
+    private static void floatParserEdgeCasesTest(){
+        String[] values = {
+            //Subnormals, Float.MIN_VALUE and the numbers around it and Float.MIN_NORMAL
+            "1.4E-45", "1.401298464324817E-45", "7.0E-46", "7.1E-46", "2.8E-45", "1.1754942E-38", "1.17549435E-38", "1e-50",
+            //Mantissas of 9 or more digits, halfway cases that round to even, and decimals whose double is halfway between two floats
+            "0.123456789", "123456789", "16777217", "16777219", "33554431", "1.00000005960464477539062",
+            "1.000000059604644775390625001", "2.749544946709648e-4", "9.27905598655343e-3", "9007199254740993", "123456789012345678901234567890", "0.000000000000000000001234567891",
+            //Large and small exponents
+            "1e10", "1e-10", "1.5e22", "1e23", "2.5E-30", "123e-40", "3.4028235E38", "3.4028236E38", "1e39", "1E+5", "0.000001",
+            //Special values and signs
+            "NaN", "-NaN", "Infinity", "-Infinity", "-0.0", "0.0", "+0", "-1", ".5", "5.", " 2.5 ",
+            //Values that both reject
+            "abc", "1.2.3", "1e", "e5", "--1", "1 2", ".", "0x", " "
+        };
+
+        for(String value : values){
+            assert Tests.parsesLikeParseFloat(value) : value;
+        }
+    }
+
+    private static void floatParserRandomTest(){
+        Random random = new Random(3);
+        StringBuilder sb = new StringBuilder();
+        ArrayList<String> values = new ArrayList<String>();
+
+        for(int i = 0; i < 2000; i++){
+            //The shortest decimal of a random float, as written by saveModel()
+            values.add(Float.toString(Float.intBitsToFloat(random.nextInt())));
+
+            //A random decimal with up to 20 digits, a random decimal point and a random exponent
+            sb.setLength(0);
+            int numDigits = 1 + random.nextInt(20);
+            int point = random.nextInt(numDigits + 1);
+
+            for(int d = 0; d < numDigits; d++){
+                if(d == point){
+                    sb.append('.');
+                }
+
+                sb.append((char)('0' + random.nextInt(10)));
+            }
+
+            sb.append('e');
+            sb.append(random.nextInt(90) - 50);
+            values.add(sb.toString());
+        }
+
+        ArrayList<float[]> rows = Tests.readCSV(String.join("\n", values), new int[]{0}, new int[0], 0);
+
+        assert rows.size() == values.size();
+
+        for(int i = 0; i < values.size(); i++){
+            assert Float.floatToIntBits(rows.get(i)[0]) == Float.floatToIntBits(Float.parseFloat(values.get(i))) : values.get(i);
+        }
+    }
+
+    private static void csvHeaderTest(){
+        String contents = "a,b\nc,d\n1,2\n3,4\n";
+
+        ArrayList<float[]> rows = Tests.readCSV(contents, new int[]{0}, new int[]{1}, 2);
+
+        assert rows.size() == 2;
+        assert Utility.equal(rows.get(0), new float[]{1, 2});
+        assert Utility.equal(rows.get(1), new float[]{3, 4});
+
+        //Without skipping the header, the column names are parsed as numbers
+        assert Tests.throwsAssertionError(() -> Tests.readCSV(contents, new int[]{0}, new int[]{1}, 1));
+    }
+
+    private static void csvColumnSelectionTest(){
+        //Columns that are not selected are not parsed, so they may contain text
+        ArrayList<float[]> rows = Tests.readCSV("1,name,2,3\n4,other,5,6\n", new int[]{2, 0}, new int[]{3}, 0);
+
+        assert rows.size() == 2;
+        assert Utility.equal(rows.get(0), new float[]{2, 1, 3});
+        assert Utility.equal(rows.get(1), new float[]{5, 4, 6});
+    }
+
+    private static void csvQuotedFieldTest(){
+        //The delimiter and doubled quotes inside quotes belong to the field
+        ArrayList<float[]> rows = Tests.readCSV("1,\"a, \"\"quoted\"\", b\",\"2.5\"\n", new int[]{0}, new int[]{2}, 0);
+
+        assert rows.size() == 1;
+        assert Utility.equal(rows.get(0), new float[]{1, 2.5f});
+    }
+
+    private static void csvLineEndingsTest(){
+        ArrayList<float[]> crlf = Tests.readCSV("1,2\r\n3,4\r\n", new int[]{0}, new int[]{1}, 0);
+
+        assert crlf.size() == 2;
+        assert Utility.equal(crlf.get(0), new float[]{1, 2});
+        assert Utility.equal(crlf.get(1), new float[]{3, 4});
+
+        //The last line does not need a line break
+        ArrayList<float[]> noFinalLineBreak = Tests.readCSV("1,2\n3,4", new int[]{0}, new int[]{1}, 0);
+
+        assert noFinalLineBreak.size() == 2;
+        assert Utility.equal(noFinalLineBreak.get(1), new float[]{3, 4});
+    }
+
+    private static void csvTooFewColumnsTest(){
+        String message = null;
+
+        try{
+            Tests.readCSV("1,2,3\n4,5\n", new int[]{0, 1}, new int[]{2}, 0);
+        } catch(AssertionError e){
+            message = e.getMessage();
+        }
+
+        assert message != null && message.contains("line 2");
+    }
+
+    public static void runParsingTests(){
+        Tests.floatParserEdgeCasesTest();
+        Tests.floatParserRandomTest();
+
+        Tests.csvHeaderTest();
+        Tests.csvColumnSelectionTest();
+        Tests.csvQuotedFieldTest();
+        Tests.csvLineEndingsTest();
+        Tests.csvTooFewColumnsTest();
+    }
+
+
+    //Backpropagates dLdY through a softmax layer at the output the network computed for x, and returns dLdX.
+    private static float[] softmaxBackward(NeuralNetwork nn, SoftmaxLayer softmax, float[] x, float[] dLdY){
+        nn.predict(x);
+
+        softmax.clearBackpropArrays();
+        Utility.copyArrayContents(dLdY, softmax.getdLdY());
+        softmax.backwardPass();
+
+        return softmax.getdLdX().clone();
+    }
+
+    private static void softmaxExtremeLogitsTest(){
+        Input input = new Input(3);
+        NeuralNetwork nn = new NeuralNetwork(input, new SoftmaxLayer(input));
+
+        float[] p = nn.predict(new float[]{500, 499, -1000});
+        float sum = 0;
+
+        for(int i = 0; i < p.length; i++){
+            assert Float.isFinite(p[i]) && p[i] >= 0;
+            sum += p[i];
+        }
+
+        assert Math.abs(sum - 1) < 1e-6f;
+        assert Math.abs(p[0] / p[1] - (float)Math.E) < 1e-4f;
+    }
+
+    private static void softmaxJacobianTest(){
+        Input input = new Input(4);
+        SoftmaxLayer softmax = new SoftmaxLayer(input);
+        NeuralNetwork nn = new NeuralNetwork(input, softmax);
+
+        float[] x = {0.5f, -1f, 2f, 0.1f};
+        float[] v = {1f, -2f, 0.5f, 3f};
+        float[] dLdX = Tests.softmaxBackward(nn, softmax, x, v);
+
+        //Central differences of v . softmax(x)
+        float h = 1e-2f;
+
+        for(int i = 0; i < x.length; i++){
+            float[] xPlus = x.clone();
+            float[] xMinus = x.clone();
+            xPlus[i] += h;
+            xMinus[i] -= h;
+
+            float difference = (LinearAlgebra.dot(v, nn.predict(xPlus)) - LinearAlgebra.dot(v, nn.predict(xMinus))) / (2 * h);
+
+            assert Math.abs(difference - dLdX[i]) < 1e-3f;
+        }
+    }
+
+    private static void softmaxFusedGradientTest(){
+        Input input = new Input(4);
+        SoftmaxLayer softmax = new SoftmaxLayer(input);
+        NeuralNetwork nn = new NeuralNetwork(input, softmax);
+        SoftmaxCrossEntropy loss = new SoftmaxCrossEntropy();
+
+        float[] x = {0.5f, -1f, 2f, 0.1f};
+        float[] y = {0f, 1f, 0.5f, 0f};
+        float[] p = nn.predict(x);
+
+        float[] fused = new float[4];
+        loss.calculateSoftmaxGradient(y, p, fused);
+
+        //The unfused path: the loss gradient wrt the probabilities, backpropagated through the softmax
+        float[] unfused = Tests.softmaxBackward(nn, softmax, x, loss.calculateLossVectorGradient(y, p));
+
+        for(int i = 0; i < 4; i++){
+            assert Math.abs(fused[i] - (p[i] * 1.5f - y[i])) < 1e-6f;
+            assert Math.abs(fused[i] - unfused[i]) < 1e-5f;
+        }
+    }
+
+    //Checks that one SGD step on one sample changes the parameters by the gradient of the loss, found with central differences.
+    //Only SoftmaxCrossEntropy may use the fused gradient, every other loss backpropagates through the softmax Jacobian.
+    private static void softmaxFitStepTest(Loss loss){
+        Input input = new Input(3);
+        Dense logits = new Dense(4, new Linear(), input);
+        NeuralNetwork nn = new NeuralNetwork(input, new SoftmaxLayer(logits));
+
+        float[][] x = {{0.5f, -1f, 2f}};
+        float[][] y = {{0f, 1f, 0f, 0f}};
+
+        ArrayList<Matrix> parameters = nn.getParameters();
+        ArrayList<Matrix> before = Utility.cloneArrays(parameters);
+        float h = 1e-2f;
+        float learningRate = 0.1f;
+
+        nn.fit(x, y, 1, 1, -1, new SGD(learningRate), loss);
+
+        //Measure the loss around the parameters from before the step
+        ArrayList<Matrix> after = Utility.cloneArrays(parameters);
+
+        for(int i = 0; i < parameters.size(); i++){
+            Utility.copyArrayContents(before.get(i).getData(), parameters.get(i).getData());
+        }
+
+        for(int i = 0; i < parameters.size(); i++){
+            float[] p = parameters.get(i).getData();
+
+            for(int j = 0; j < p.length; j++){
+                float original = p[j];
+
+                p[j] = original + h;
+                float lossPlus = Utility.sum(loss.calculateLossVector(y[0], nn.predict(x[0])));
+                p[j] = original - h;
+                float lossMinus = Utility.sum(loss.calculateLossVector(y[0], nn.predict(x[0])));
+                p[j] = original;
+
+                float gradient = (lossPlus - lossMinus) / (2 * h);
+                float step = (original - after.get(i).getData()[j]) / learningRate;
+
+                assert Math.abs(gradient - step) < 2e-3f * Math.max(1, Math.abs(gradient));
+            }
+        }
+    }
+
+    public static void runSoftmaxTests(){
+        Tests.softmaxExtremeLogitsTest();
+        Tests.softmaxJacobianTest();
+        Tests.softmaxFusedGradientTest();
+
+        Tests.softmaxFitStepTest(new SoftmaxCrossEntropy());
+        Tests.softmaxFitStepTest(new CrossEntropy());
+    }
+
+
+    //Checks that two arrays have the same length and that their entries differ by less than the tolerance.
+    private static boolean closeTo(float[] a, float[] b, float tolerance){
+        if(a.length != b.length){
+            return false;
+        }
+
+        for(int i = 0; i < a.length; i++){
+            if(!(Math.abs(a[i] - b[i]) < tolerance)){
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    //Creates a network whose SampledSoftmaxLayer has 6 classes, and samples 3 of them besides the true class.
+    private static NeuralNetwork createSampledSoftmaxTestNetwork(){
+        Input input = new Input(3);
+        Dense hidden = new Dense(5, new Tanh(), input);
+        return new NeuralNetwork(input, new SampledSoftmaxLayer(6, 3, hidden));
+    }
+
+    private static void sampledSoftmaxFullGradientTest(){
+        Input sampledInput = new Input(3);
+        Dense sampledHidden = new Dense(5, new Tanh(), sampledInput);
+        SampledSoftmaxLayer sampled = new SampledSoftmaxLayer(6, 3, sampledHidden);
+        NeuralNetwork sampledNetwork = new NeuralNetwork(sampledInput, sampled);
+
+        Input fullInput = new Input(3);
+        Dense fullHidden = new Dense(5, new Tanh(), fullInput);
+        Dense logits = new Dense(6, new Linear(), fullHidden);
+        NeuralNetwork fullNetwork = new NeuralNetwork(fullInput, new SoftmaxLayer(logits));
+
+        //Both networks start with the same parameters, the dense logits taking the place of the sampled softmax
+        for(int i = 0; i < 2; i++){
+            Utility.copyArrayContents(sampledHidden.getParameters().get(i).getData(), fullHidden.getParameters().get(i).getData());
+            Utility.copyArrayContents(sampled.getParameters().get(i).getData(), logits.getParameters().get(i).getData());
+        }
+
+        float[][] x = {{0.5f, -1f, 2f}, {1f, 0.25f, -0.5f}};
+        float[][] y = {{0f, 1f, 0f, 0f, 0f, 0f}, {0f, 0f, 0f, 0f, 1f, 0f}};
+
+        //With 2 * (1 + 3) >= 6 classes every class is used, so training is the same as with the full softmax
+        sampledNetwork.fit(x, y, 2, 2, -1, new SGD(0.1f), new SoftmaxCrossEntropy());
+        fullNetwork.fit(x, y, 2, 2, -1, new SGD(0.1f), new SoftmaxCrossEntropy());
+
+        for(int i = 0; i < 2; i++){
+            assert Tests.closeTo(sampledHidden.getParameters().get(i).getData(), fullHidden.getParameters().get(i).getData(), 1e-5f);
+            assert Tests.closeTo(sampled.getParameters().get(i).getData(), logits.getParameters().get(i).getData(), 1e-5f);
+        }
+
+        assert Tests.closeTo(sampledNetwork.predict(x[0]), fullNetwork.predict(x[0]), 1e-5f);
+    }
+
+    private static void sampledSoftmaxModelFileTest(){
+        NeuralNetwork nn = Tests.createSampledSoftmaxTestNetwork();
+        String textPath = Tests.createTempFile(".txt");
+        String binaryPath = Tests.createTempFile(".bin");
+        String resavedPath = Tests.createTempFile(".txt");
+        float[] x = {0.5f, -1f, 2f};
+
+        nn.saveModel(textPath);
+        nn.saveModelBinary(binaryPath);
+
+        assert new String(Tests.readFile(textPath), StandardCharsets.UTF_8).contains("SAMPLEDSOFTMAX(6, 3)\n");
+
+        for(String filePath : new String[]{textPath, binaryPath}){
+            NeuralNetwork loaded = new NeuralNetwork(filePath);
+
+            Tests.assertSameParameters(nn, loaded);
+            assert Arrays.equals(nn.predict(x), loaded.predict(x));
+
+            //The reloaded layer keeps the number of sampled classes
+            loaded.saveModel(resavedPath);
+            assert new String(Tests.readFile(resavedPath), StandardCharsets.UTF_8).contains("SAMPLEDSOFTMAX(6, 3)\n");
+        }
+    }
+
+    private static void sampledSoftmaxSeededFitTest(){
+        Random random = new Random(5);
+        float[][] x = new float[64][3];
+        float[][] y = new float[64][20];
+
+        for(int i = 0; i < x.length; i++){
+            for(int j = 0; j < 3; j++){
+                x[i][j] = random.nextFloat() * 2 - 1;
+            }
+
+            y[i][random.nextInt(20)] = 1;
+        }
+
+        //Only 2 of the 20 classes are sampled, so the sampled classes change the result
+        NeuralNetwork[] networks = new NeuralNetwork[3];
+        Input input = new Input(3);
+        networks[0] = new NeuralNetwork(input, new SampledSoftmaxLayer(20, 2, input));
+
+        for(int n = 1; n < networks.length; n++){
+            Input copyInput = new Input(3);
+            networks[n] = new NeuralNetwork(copyInput, new SampledSoftmaxLayer(20, 2, copyInput));
+
+            for(int i = 0; i < 2; i++){
+                Utility.copyArrayContents(networks[0].getParameters().get(i).getData(), networks[n].getParameters().get(i).getData());
+            }
+        }
+
+        networks[0].setSeed(11);
+        networks[1].setSeed(11);
+        networks[2].setSeed(12);
+
+        for(NeuralNetwork nn : networks){
+            nn.fit(x, y, 2, 16, -1, new SGD(0.1f), new SoftmaxCrossEntropy(), 4);
+        }
+
+        boolean sameAsOtherSeed = true;
+
+        for(int i = 0; i < 2; i++){
+            assert Arrays.equals(networks[0].getParameters().get(i).getData(), networks[1].getParameters().get(i).getData());
+            sameAsOtherSeed &= Arrays.equals(networks[0].getParameters().get(i).getData(), networks[2].getParameters().get(i).getData());
+        }
+
+        assert !sameAsOtherSeed;
+    }
+
+    public static void runSampledSoftmaxTests(){
+        Tests.sampledSoftmaxFullGradientTest();
+        Tests.sampledSoftmaxModelFileTest();
+        Tests.sampledSoftmaxSeededFitTest();
     }
 
 
     public static void main(String[] args){
-        System.out.println("Starting tests for the LinearAlgebra and Utility classes.");
+        System.out.println("Starting tests for the LinearAlgebra and Utility classes, for fitting models, model files, parsing and the softmax layers.");
 
         Tests.runLinearAlgebraTests();
         Tests.runUtilityTests();
+        Tests.runFitTests();
+        Tests.runModelFileTests();
+        Tests.runParsingTests();
+        Tests.runSoftmaxTests();
+        Tests.runSampledSoftmaxTests();
 
         System.out.println("Tests successful.");
     }
@@ -1,10 +1,30 @@
 package jpf;
 
 /**
- * Defines the ActivationFunction abstract class for use in neural networks
+ * Defines the ActivationFunction abstract class for use in neural networks.
+ * Activation functions that use transcendental functions (Tanh and Sigmoid) can be created with a precision mode:
+ * PRECISION_EXACT uses the double precision functions of the Math class, while PRECISION_FAST uses float approximations
+ * that are several times faster and within about 1E-7 of the exact results. The mode is saved with the model.
  */
 public abstract class ActivationFunction{
 
+    /**
+     * Precision mode that calculates the activation function with the double precision functions of the Math class,
+     * then rounds the result to a float. This is the default.
+     */
+    public static final int PRECISION_EXACT = 0;
+
+    /**
+     * Precision mode that calculates the activation function with float approximations (see FastMath).
+     * The results differ from PRECISION_EXACT by at most about 1E-7 for tanh and sigmoid.
+     */
+    public static final int PRECISION_FAST = 1;
+
+    /**
+     * The precision mode, either PRECISION_EXACT or PRECISION_FAST.
+     */
+    protected int precision = PRECISION_EXACT;
+
     /**
      * The activation function itself. Should be differentiable.
      * @param x The input scalar
@@ -84,6 +104,64 @@ public abstract class ActivationFunction{
     }
 
 
+    /**
+     * Determines if the derivative can be calculated from the output of the activation function with fPrimeFromOutput().
+     * Layers use this in the backward pass to find the derivative from the output of the forward pass, instead of
+     * evaluating the activation function again on the input. Returns false unless overridden.
+     * @return True if fPrimeFromOutput() is supported.
+     */
+    public boolean supportsFPrimeFromOutput(){
+        return false;
+    }
+
+    /**
+     * The activation function derivative, calculated from the output y = f(x) instead of the input x.
+     * For example, the derivative of tanh is 1 - y^2. Only supported if supportsFPrimeFromOutput() returns true.
+     * @param y The output of the activation function.
+     * @return The derivative of the activation function at the input that produced y.
+     */
+    public float fPrimeFromOutput(float y){
+        throw new AssertionError(this.toString() + " does not support calculating the derivative from the output.");
+    }
+
+    /**
+     * Calculates the derivative of the activation function from each component of the output vector y = f(x).
+     * Only supported if supportsFPrimeFromOutput() returns true.
+     * @param y The output vector of the activation function.
+     * @param dest The vector where the derivatives will be placed. May be the same array as y.
+     */
+    public void fPrimeFromOutput(float[] y, float[] dest){
+        //Check parameters
+        Utility.checkNotNull((Object)y, (Object)dest);
+        Utility.checkArrayLengthsEqual(y, dest);
+
+        for(int i = 0; i < y.length; i++){
+            dest[i] = this.fPrimeFromOutput(y[i]);
+        }
+    }
+
+
+    /**
+     * @return The precision mode, either PRECISION_EXACT or PRECISION_FAST. Activation functions without
+     * transcendental functions always calculate exact results.
+     */
+    public int getPrecision(){
+        return this.precision;
+    }
+
+    /**
+     * Checks that a precision mode is valid.
+     * @param precision The precision mode.
+     * @return The precision mode.
+     */
+    protected static int checkPrecision(int precision){
+        if(precision != PRECISION_EXACT && precision != PRECISION_FAST){
+            throw new AssertionError("Precision should be ActivationFunction.PRECISION_EXACT or ActivationFunction.PRECISION_FAST");
+        }
+
+        return precision;
+    }
+
     /**
      * Constructs the activation function from the string. Used to help construct neural networks from strings/text files.
      * @param s The string containing the activation function name. Check the toString() functions.
@@ -95,6 +173,10 @@ public abstract class ActivationFunction{
 
         if(s.equals("TANH")){
             return new Tanh();
+        } else if(s.equals("TANH(FAST)")){
+            return new Tanh(PRECISION_FAST);
+        } else if(s.equals("SIGMOID(FAST)")){
+            return new Sigmoid(PRECISION_FAST);
         } else if(s.contains("LEAKYRELU")){
             String alphaString = s.replace("LEAKYRELU(", "").replace(")", "");
             float alpha = Float.parseFloat(alphaString);
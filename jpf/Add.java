@@ -98,6 +98,35 @@ public class Add extends Layer{
         }
     }
 
+    @Override
+    public boolean supportsBatch(){
+        return true;
+    }
+
+    @Override
+    public void forwardPassBatch(){
+        Utility.clearArray(this.inputBatch);
+
+        for(int j = 0; j < inputLayers.size(); j++){
+            LinearAlgebra.matrixAdd(this.inputBatch, inputLayers.get(j).getOutputBatch(), this.inputBatch);
+        }
+
+        Utility.copyArrayContents(this.inputBatch.getData(), this.outputBatch.getData());
+    }
+
+    @Override
+    public void backwardPassBatch(){
+        initializedLdYBatch();
+
+        Utility.copyArrayContents(this.dLdYBatch.getData(), this.dLdXBatch.getData());
+    }
+
+    @Override
+    public Layer createReplica(){
+        //This layer has no parameters, so the replica is created the same way as when loading from disk.
+        return Layer.createLayerFromString(this.toString());
+    }
+
     public String toString(){
         return "ADD(" + this.numUnits + ")";
     }
@@ -0,0 +1,303 @@
+package jpf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Defines the binary model file format, which stores the parameters of a model as raw floats rather than text.
+ * All numbers are little-endian. A file has the following layout:
+ *
+ * magic number (the bytes "JPFB"), format version (int)
+ * model type length in bytes (int), model type (UTF-8, e.g. "NEURALNETWORK"), padding to a multiple of 4 bytes
+ * header length in bytes (int), header (UTF-8 text describing the model structure), padding to a multiple of 4 bytes
+ * number of matricies (int), then the number of rows and columns (int, int) of each matrix
+ * the entries of each matrix in row-major order (float), one block per matrix in the same order
+ *
+ * The float blocks are read by memory mapping the file, so the entries are copied straight from the
+ * operating system's page cache into the parameter arrays without any parsing or intermediate objects.
+ */
+class BinaryModelFile{
+
+    /**
+     * The first 4 bytes of every binary model file: "JPFB" read as a little-endian int.
+     */
+    static final int MAGIC_NUMBER = 0x4246504A;
+
+    /**
+     * The current version of the format. Files with a newer version can not be read.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The largest region of the file mapped into memory at once. Larger matricies are read in several regions.
+     */
+    private static final int MAX_MAP_SIZE = 1 << 30;
+
+    /**
+     * The size of the buffer used to write the float blocks.
+     */
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The type of model stored in the file.
+     */
+    private String modelType;
+
+    /**
+     * The header text describing the structure of the model.
+     */
+    private String header;
+
+    /**
+     * The matricies stored in the file.
+     */
+    private ArrayList<Matrix> matricies;
+
+    /**
+     * Creates the contents of a binary model file that has been read from disk.
+     * @param modelType The type of model stored in the file.
+     * @param header The header text describing the structure of the model.
+     * @param matricies The matricies stored in the file.
+     */
+    private BinaryModelFile(String modelType, String header, ArrayList<Matrix> matricies){
+        this.modelType = modelType;
+        this.header = header;
+        this.matricies = matricies;
+    }
+
+    /**
+     * @return The type of model stored in the file.
+     */
+    String getModelType(){
+        return this.modelType;
+    }
+
+    /**
+     * @return The header text describing the structure of the model.
+     */
+    String getHeader(){
+        return this.header;
+    }
+
+    /**
+     * @return The matricies stored in the file, in the order they were written.
+     */
+    ArrayList<Matrix> getMatricies(){
+        return this.matricies;
+    }
+
+    /**
+     * Writes a binary model file.
+     * @param filePath The filepath to write to.
+     * @param modelType The type of model being saved.
+     * @param header The header text describing the structure of the model. May be empty.
+     * @param matricies The matricies to save.
+     * @return True on success, false on failure and prints error message to standard error.
+     */
+    static boolean write(String filePath, String modelType, String header, List<Matrix> matricies){
+        Utility.checkNotNull(filePath, modelType, header, matricies);
+
+        byte[] modelTypeBytes = modelType.getBytes(StandardCharsets.UTF_8);
+        byte[] headerBytes = header.getBytes(StandardCharsets.UTF_8);
+
+        //magic number, version, the two string lengths and the number of matricies, then the strings and shapes
+        int headerSize = 5 * 4 + padded(modelTypeBytes.length) + padded(headerBytes.length) + 8 * matricies.size();
+
+        ByteBuffer headerBuffer = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+        headerBuffer.putInt(MAGIC_NUMBER);
+        headerBuffer.putInt(VERSION);
+
+        headerBuffer.putInt(modelTypeBytes.length);
+        headerBuffer.put(modelTypeBytes);
+        headerBuffer.position(headerBuffer.position() + padded(modelTypeBytes.length) - modelTypeBytes.length);
+
+        headerBuffer.putInt(headerBytes.length);
+        headerBuffer.put(headerBytes);
+        headerBuffer.position(headerBuffer.position() + padded(headerBytes.length) - headerBytes.length);
+
+        headerBuffer.putInt(matricies.size());
+
+        for(int i = 0; i < matricies.size(); i++){
+            Utility.checkNotNull(matricies.get(i));
+            headerBuffer.putInt(matricies.get(i).getNumRows());
+            headerBuffer.putInt(matricies.get(i).getNumColumns());
+        }
+
+        headerBuffer.flip();
+
+        try(FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            writeFully(channel, headerBuffer);
+
+            //Write the entries through a small buffer, converting them to little-endian bytes on the way.
+            ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            FloatBuffer floatBuffer = buffer.asFloatBuffer();
+
+            for(int i = 0; i < matricies.size(); i++){
+                float[] data = matricies.get(i).getData();
+
+                for(int start = 0; start < data.length; start += floatBuffer.capacity()){
+                    int length = Math.min(floatBuffer.capacity(), data.length - start);
+
+                    floatBuffer.clear();
+                    floatBuffer.put(data, start, length);
+
+                    buffer.clear();
+                    buffer.limit(length * 4);
+                    writeFully(channel, buffer);
+                }
+            }
+
+        } catch(IOException e){
+            System.err.println(e.getMessage());
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks if a file starts with the magic number of the binary model format.
+     * @param filePath The filepath of the file to check.
+     * @return True if the file is a binary model file, false if it is not or can not be read.
+     */
+    static boolean isBinaryModelFile(String filePath){
+        Utility.checkNotNull(filePath);
+
+        try(FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)){
+            ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+
+            while(buffer.hasRemaining()){
+                if(channel.read(buffer) < 0){
+                    return false;
+                }
+            }
+
+            buffer.flip();
+            return buffer.getInt() == MAGIC_NUMBER;
+
+        } catch(IOException e){
+            return false;
+        }
+    }
+
+    /**
+     * Reads a binary model file. Throws an AssertionError if the file can not be read, is not a binary model file,
+     * has a newer version or stores a different type of model.
+     * @param filePath The filepath to read from.
+     * @param expectedModelType The type of model the file should contain.
+     * @return The contents of the file.
+     */
+    static BinaryModelFile read(String filePath, String expectedModelType){
+        Utility.checkNotNull(filePath, expectedModelType);
+
+        try(FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)){
+            long fileSize = channel.size();
+
+            ByteBuffer headerBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(fileSize, MAX_MAP_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+
+            if(headerBuffer.remaining() < 8 || headerBuffer.getInt() != MAGIC_NUMBER){
+                throw new AssertionError(filePath + " is not a binary model file.");
+            }
+
+            int version = headerBuffer.getInt();
+
+            if(version <= 0 || version > VERSION){
+                throw new AssertionError(filePath + " has binary format version " + version + ", but only versions up to " + VERSION + " are supported.");
+            }
+
+            String modelType = readString(headerBuffer);
+
+            if(!modelType.equals(expectedModelType)){
+                throw new AssertionError(filePath + " contains a " + modelType + ", expected a " + expectedModelType);
+            }
+
+            String header = readString(headerBuffer);
+
+            int numMatricies = headerBuffer.getInt();
+            ArrayList<Matrix> matricies = new ArrayList<Matrix>(numMatricies);
+
+            for(int i = 0; i < numMatricies; i++){
+                matricies.add(new Matrix(headerBuffer.getInt(), headerBuffer.getInt()));
+            }
+
+            //Check that the file holds all of the entries before reading any of them
+            long offset = headerBuffer.position();
+            long dataSize = 0;
+
+            for(int i = 0; i < numMatricies; i++){
+                dataSize += 4L * matricies.get(i).getSize();
+            }
+
+            if(offset + dataSize != fileSize){
+                throw new AssertionError(filePath + " should be " + (offset + dataSize) + " bytes long but is " + fileSize + " bytes long.");
+            }
+
+            //Copy each float block straight from the mapped file into the matrix
+            for(int i = 0; i < numMatricies; i++){
+                float[] data = matricies.get(i).getData();
+                int start = 0;
+
+                while(start < data.length){
+                    int length = Math.min(MAX_MAP_SIZE / 4, data.length - start);
+
+                    FloatBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, offset, 4L * length).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+                    block.get(data, start, length);
+
+                    start += length;
+                    offset += 4L * length;
+                }
+            }
+
+            return new BinaryModelFile(modelType, header, matricies);
+
+        } catch(IOException e){
+            throw new AssertionError("Exception when trying to read a binary model file: " + e.getMessage());
+        } catch(RuntimeException e){
+            //Thrown by the buffers when the header is truncated or has invalid lengths
+            throw new AssertionError(filePath + " is not a valid binary model file: " + e);
+        }
+    }
+
+    /**
+     * Reads a length prefixed, padded UTF-8 string written by write().
+     * @param buffer The buffer positioned at the length of the string.
+     * @return The string.
+     */
+    private static String readString(ByteBuffer buffer){
+        int length = buffer.getInt();
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        buffer.position(buffer.position() + padded(length) - length);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param length A length in bytes.
+     * @return The length rounded up to a multiple of 4, so that the numbers after it stay aligned.
+     */
+    private static int padded(int length){
+        return (length + 3) & ~3;
+    }
+
+    /**
+     * Writes all remaining bytes of a buffer to a channel.
+     * @param channel The channel to write to.
+     * @param buffer The buffer to write.
+     * @throws IOException If the write fails.
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException{
+        while(buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package jpf;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Class definition for CSVReader, which reads numeric training data from .csv files one row at a time.
+ * Unlike Utility.readFromCSV(), the file is never held in memory as a whole: characters are read through a small
+ * buffer and the selected columns are parsed straight into float vectors, without creating a String for each value.
+ * Rows can be read into fixed-size minibatch buffers with readMinibatch(), or copied into a dataset file with writeTo(),
+ * which can then be used with the fit() methods that take a Dataset (see MappedDataset).
+ *
+ * Columns that are not selected are skipped without being parsed, so they may contain text. Values may be surrounded by
+ * spaces and may be quoted with double quotes. Empty lines are skipped. Malformed rows throw an AssertionError.
+ */
+public class CSVReader implements Closeable{
+
+    /**
+     * The number of characters read from the file at once.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The filepath of the .csv file.
+     */
+    private String filePath;
+
+    /**
+     * The character that separates the values of a row.
+     */
+    private char delimiter;
+
+    /**
+     * The number of lines at the start of the file that are skipped, such as a row of column names.
+     */
+    private int headerLines;
+
+    /**
+     * The number of columns copied into the input vectors.
+     */
+    private int inputSize;
+
+    /**
+     * The number of columns copied into the output vectors.
+     */
+    private int outputSize;
+
+    /**
+     * Where each column goes: 0 if it is not selected, i + 1 for component i of the input vector,
+     * or -(i + 1) for component i of the output vector. Columns past the end of the array are not selected.
+     */
+    private int[] columnTargets;
+
+    /**
+     * The reader the characters come from.
+     */
+    private Reader reader;
+
+    /**
+     * The characters read from the reader that have not been consumed yet are in buffer[position, limit).
+     */
+    private char[] buffer;
+
+    /**
+     * The index of the next unconsumed character in the buffer.
+     */
+    private int position;
+
+    /**
+     * The number of valid characters in the buffer.
+     */
+    private int limit;
+
+    /**
+     * The current line number, used in error messages.
+     */
+    private long lineNumber;
+
+    /**
+     * Workspace holding the characters of the value being parsed.
+     */
+    private char[] token;
+
+    /**
+     * Creates a CSV reader for comma separated files with one header line, such as the files written by CSVWriter.
+     * @param filePath The filepath of the .csv file.
+     * @param inputColumns The indicies of the columns that make up the input vector, in order. Column indicies start at 0.
+     * @param outputColumns The indicies of the columns that make up the output vector, in order.
+     */
+    public CSVReader(String filePath, int[] inputColumns, int[] outputColumns){
+        this(filePath, inputColumns, outputColumns, ',', 1);
+    }
+
+    /**
+     * Creates a CSV reader.
+     * @param filePath The filepath of the .csv file.
+     * @param inputColumns The indicies of the columns that make up the input vector, in order. Column indicies start at 0.
+     * @param outputColumns The indicies of the columns that make up the output vector, in order.
+     * A column can only be selected once, and at least one column should be selected.
+     * @param delimiter The character that separates the values of a row, typically ',' or '\t'.
+     * @param headerLines The number of lines at the start of the file to skip. Should be >= 0.
+     */
+    public CSVReader(String filePath, int[] inputColumns, int[] outputColumns, char delimiter, int headerLines){
+        //Check parameters
+        Utility.checkNotNull(filePath, inputColumns, outputColumns);
+
+        if(headerLines < 0){
+            throw new AssertionError("Number of header lines should be >= 0");
+        }
+
+        if(delimiter == '\n' || delimiter == '\r' || delimiter == '"'){
+            throw new AssertionError("CSV delimiter can not be a line break or a quote.");
+        }
+
+        if(inputColumns.length + outputColumns.length == 0){
+            throw new AssertionError("At least one column should be selected.");
+        }
+
+        int numColumns = 0;
+
+        for(int column : inputColumns){
+            numColumns = Math.max(numColumns, column + 1);
+        }
+
+        for(int column : outputColumns){
+            numColumns = Math.max(numColumns, column + 1);
+        }
+
+        this.columnTargets = new int[numColumns];
+
+        for(int i = 0; i < inputColumns.length + outputColumns.length; i++){
+            boolean isInput = i < inputColumns.length;
+            int column = isInput ? inputColumns[i] : outputColumns[i - inputColumns.length];
+
+            if(column < 0){
+                throw new AssertionError("Column indicies should be >= 0");
+            }
+
+            if(this.columnTargets[column] != 0){
+                throw new AssertionError("Column " + column + " is selected more than once.");
+            }
+
+            this.columnTargets[column] = isInput ? i + 1 : -(i - inputColumns.length + 1);
+        }
+
+        this.filePath = filePath;
+        this.delimiter = delimiter;
+        this.headerLines = headerLines;
+        this.inputSize = inputColumns.length;
+        this.outputSize = outputColumns.length;
+        this.buffer = new char[BUFFER_SIZE];
+        this.token = new char[64];
+
+        this.open();
+    }
+
+    /**
+     * @return The length of the input vectors read from each row.
+     */
+    public int getInputSize(){
+        return this.inputSize;
+    }
+
+    /**
+     * @return The length of the output vectors read from each row.
+     */
+    public int getOutputSize(){
+        return this.outputSize;
+    }
+
+    /**
+     * @return The filepath of the .csv file.
+     */
+    public String getFilePath(){
+        return this.filePath;
+    }
+
+    /**
+     * Opens the file and skips the header lines.
+     */
+    private void open(){
+        try{
+            this.reader = new FileReader(this.filePath);
+        } catch(FileNotFoundException e){
+            throw new AssertionError("Exception when trying to read a CSV file: " + e.getMessage());
+        }
+
+        this.position = 0;
+        this.limit = 0;
+        this.lineNumber = 1;
+
+        for(int i = 0; i < this.headerLines; i++){
+            int c = this.read();
+
+            while(c >= 0 && c != '\n'){
+                c = this.read();
+            }
+        }
+    }
+
+    /**
+     * Goes back to the first row after the header lines, for example to read the file again in the next epoch.
+     */
+    public void reset(){
+        this.close();
+        this.open();
+    }
+
+    /**
+     * Looks at the next character without consuming it.
+     * @return The next character, or -1 at the end of the file.
+     */
+    private int peek(){
+        if(this.position == this.limit){
+            try{
+                int count = this.reader.read(this.buffer, 0, this.buffer.length);
+
+                //Readers may return 0 characters without being at the end
+                while(count == 0){
+                    count = this.reader.read(this.buffer, 0, this.buffer.length);
+                }
+
+                if(count < 0){
+                    return -1;
+                }
+
+                this.position = 0;
+                this.limit = count;
+
+            } catch(IOException e){
+                throw new AssertionError("Exception when trying to read a CSV file: " + e.getMessage());
+            }
+        }
+
+        return this.buffer[this.position];
+    }
+
+    /**
+     * Consumes the next character.
+     * @return The next character, or -1 at the end of the file.
+     */
+    private int read(){
+        int c = this.peek();
+
+        if(c >= 0){
+            this.position++;
+
+            if(c == '\n'){
+                this.lineNumber++;
+            }
+        }
+
+        return c;
+    }
+
+    /**
+     * Reads the next row into the provided vectors.
+     * @param x The vector to read the input columns into. Should have length getInputSize().
+     * @param y The vector to read the output columns into. Should have length getOutputSize().
+     * @return True if a row was read, false at the end of the file.
+     */
+    public boolean readSample(float[] x, float[] y){
+        Utility.checkNotNull(x, y);
+        Utility.checkEqual(x.length, this.inputSize);
+        Utility.checkEqual(y.length, this.outputSize);
+
+        //Skip empty lines
+        int c = this.peek();
+
+        while(c == '\n' || c == '\r'){
+            this.read();
+            c = this.peek();
+        }
+
+        if(c < 0){
+            return false;
+        }
+
+        long rowLine = this.lineNumber;
+        int column = 0;
+
+        while(true){
+            int target = column < this.columnTargets.length ? this.columnTargets[column] : 0;
+            int length = this.readField(target != 0);
+
+            if(target > 0){
+                x[target - 1] = this.parseToken(length, column, rowLine);
+            } else if(target < 0){
+                y[-target - 1] = this.parseToken(length, column, rowLine);
+            }
+
+            column++;
+
+            //The field ends at a delimiter, a line break or the end of the file
+            c = this.read();
+
+            if(c != this.delimiter){
+                break;
+            }
+        }
+
+        if(column < this.columnTargets.length){
+            throw this.error("row has " + column + " columns, but column " + (this.columnTargets.length - 1) + " is selected", rowLine);
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads rows into minibatch buffers until they are full or the file ends.
+     * @param x The buffers for the input vectors. Each should have length getInputSize().
+     * @param y The buffers for the output vectors. Should have as many rows as x, each of length getOutputSize().
+     * @return The number of rows read into the start of the buffers. Less than x.length only at the end of the file,
+     * and 0 once all rows have been read.
+     */
+    public int readMinibatch(float[][] x, float[][] y){
+        Utility.checkNotNull(x, y);
+        Utility.checkEqual(x.length, y.length);
+
+        int count = 0;
+
+        while(count < x.length && this.readSample(x[count], y[count])){
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Copies the remaining rows into a dataset file, so that a .csv file larger than the heap can be converted
+     * to a MappedDataset one row at a time.
+     * @param writer The writer of the dataset file. Its input and output sizes should match this reader's.
+     * @return The number of rows copied.
+     * @throws IOException If writing to the dataset file fails.
+     */
+    public long writeTo(MappedDatasetWriter writer) throws IOException{
+        Utility.checkNotNull(writer);
+
+        float[] x = new float[this.inputSize];
+        float[] y = new float[this.outputSize];
+        long count = 0;
+
+        while(this.readSample(x, y)){
+            writer.addSample(x, y);
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Consumes one field, leaving the delimiter or line break after it unconsumed.
+     * Spaces around the field and the quotes of a quoted field are removed.
+     * @param keep True to copy the field's characters into the token, false to skip them.
+     * @return The number of characters copied into the token.
+     */
+    private int readField(boolean keep){
+        int length = 0;
+        int c = this.peek();
+
+        //Leading whitespace, unless it is the delimiter
+        while((c == ' ' || c == '\t') && c != this.delimiter){
+            this.read();
+            c = this.peek();
+        }
+
+        boolean quoted = c == '"';
+
+        if(quoted){
+            this.read();
+            c = this.peek();
+        }
+
+        while(c >= 0){
+            if(quoted){
+                if(c == '"'){
+                    this.read();
+
+                    //A doubled quote is a quote character, otherwise the quoted part ends
+                    if(this.peek() != '"'){
+                        quoted = false;
+                        c = this.peek();
+                        continue;
+                    }
+                }
+
+            } else if(c == this.delimiter || c == '\n'){
+                break;
+            }
+
+            if(keep){
+                if(length == this.token.length){
+                    this.token = Arrays.copyOf(this.token, 2 * this.token.length);
+                }
+
+                this.token[length++] = (char)c;
+            }
+
+            this.read();
+            c = this.peek();
+        }
+
+        //Trailing whitespace and the \r of \r\n line breaks
+        while(length > 0 && (this.token[length - 1] == ' ' || this.token[length - 1] == '\t' || this.token[length - 1] == '\r')){
+            length--;
+        }
+
+        return length;
+    }
+
+    /**
+     * Parses the characters in the token as a number.
+     * @param length The number of characters in the token.
+     * @param column The index of the column, used in error messages.
+     * @param line The line the row starts on, used in error messages.
+     * @return The number.
+     */
+    private float parseToken(int length, int column, long line){
+        try{
+            return FloatParser.parse(this.token, 0, length);
+        } catch(NumberFormatException e){
+            throw this.error("could not parse \"" + new String(this.token, 0, length) + "\" in column " + column + " as a number", line);
+        }
+    }
+
+    /**
+     * Creates an error for malformed input.
+     * @param message The description of the problem.
+     * @param line The line the problem is on.
+     * @return The error, which includes the file and line number.
+     */
+    private AssertionError error(String message, long line){
+        return new AssertionError("Malformed CSV file " + this.filePath + " on line " + line + ": " + message);
+    }
+
+    /**
+     * Closes the file.
+     */
+    @Override
+    public void close(){
+        try{
+            this.reader.close();
+        } catch(IOException e){
+            System.err.println(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package jpf;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Defines the Checkpointer class, which saves a model to disk at regular intervals while it is being fit.
+ * Pass a checkpointer to fit() to use it. When a checkpoint is due, the model's parameters are copied into a
+ * snapshot between two parameter updates, and the snapshot is written to disk on a background thread while
+ * training continues. Two snapshots are kept, so training only waits for the disk if a checkpoint is due while
+ * the previous two are still being written. Each checkpoint is first written to a temporary file next to the
+ * checkpoint file and flushed to the storage device, which is then renamed over the checkpoint file, so the checkpoint
+ * file is always either the previous complete checkpoint or the new complete checkpoint, never a partially written one,
+ * even after a power loss. The checkpoint file can be loaded with the model's file constructor.
+ * If a checkpoint can not be written, the next checkpoint, or the end of fit(), throws an AssertionError with the reason.
+ */
+public class Checkpointer{
+
+    /**
+     * The number of snapshots that can be in use at once: one being written and one waiting to be written.
+     */
+    private static final int NUM_SNAPSHOTS = 2;
+
+    /**
+     * The filepath the checkpoints are saved to.
+     */
+    private String filePath;
+
+    /**
+     * The absolute path of the checkpoint file, resolved when the checkpointer is created.
+     */
+    private Path target;
+
+    /**
+     * The absolute path of the temporary file each checkpoint is written to before it is renamed over the checkpoint file.
+     */
+    private Path temporary;
+
+    /**
+     * The number of epochs between checkpoints. Values <= 0 turn off checkpoints at the end of epochs.
+     */
+    private int epochInterval;
+
+    /**
+     * The number of parameter updates between checkpoints. Values <= 0 turn off checkpoints within epochs.
+     */
+    private int stepInterval;
+
+    /**
+     * True to save in the binary model format (see Model.saveModelBinary()), false for the text format.
+     */
+    private boolean binary;
+
+    /**
+     * The single thread that writes the checkpoints. Created when fitting starts and shut down when it ends.
+     */
+    private ExecutorService writer;
+
+    /**
+     * The snapshots that are not being written and can be filled with the model's parameters.
+     */
+    private ArrayBlockingQueue<ArrayList<Matrix>> freeSnapshots;
+
+    /**
+     * The number of parameter updates since fitting started.
+     */
+    private int stepCount;
+
+    /**
+     * True if the parameters have been updated since the last checkpoint.
+     */
+    private boolean changed;
+
+    /**
+     * The number of checkpoints that have been written successfully.
+     */
+    private volatile int checkpointCount;
+
+    /**
+     * The reason the first failed checkpoint of the current fit() call could not be written, or null if none failed.
+     */
+    private volatile String error;
+
+    /**
+     * Creates a checkpointer that saves the model in the text format at the end of every epochInterval epochs.
+     * @param filePath The filepath to save the checkpoints to. Each checkpoint replaces the previous one.
+     * @param epochInterval The number of epochs between checkpoints. Should be >= 1.
+     */
+    public Checkpointer(String filePath, int epochInterval){
+        this(filePath, epochInterval, 0, false);
+    }
+
+    /**
+     * Creates a checkpointer.
+     * @param filePath The filepath to save the checkpoints to. Each checkpoint replaces the previous one.
+     * @param epochInterval The number of epochs between checkpoints. Values <= 0 turn off checkpoints at the end of epochs.
+     * @param stepInterval The number of parameter updates (minibatches) between checkpoints. Values <= 0 turn off checkpoints within epochs.
+     * At least one of the intervals should be >= 1.
+     * @param binary True to save in the binary model format, false to save in the human readable text format.
+     * Throws an AssertionError if the filepath is not a valid path, so the problem is found before fitting starts.
+     */
+    public Checkpointer(String filePath, int epochInterval, int stepInterval, boolean binary){
+        Utility.checkNotNull(filePath);
+
+        if(epochInterval <= 0 && stepInterval <= 0){
+            throw new AssertionError("Either the epoch interval or the step interval of a checkpointer should be > 0");
+        }
+
+        try{
+            this.target = Paths.get(filePath).toAbsolutePath();
+            this.temporary = Paths.get(filePath + ".tmp").toAbsolutePath();
+        } catch(InvalidPathException e){
+            throw new AssertionError("Invalid checkpoint filepath: " + e.getMessage());
+        }
+
+        this.filePath = filePath;
+        this.epochInterval = epochInterval;
+        this.stepInterval = stepInterval;
+        this.binary = binary;
+        this.checkpointCount = 0;
+    }
+
+    /**
+     * @return The filepath the checkpoints are saved to.
+     */
+    public String getFilePath(){
+        return this.filePath;
+    }
+
+    /**
+     * @return The number of checkpoints that have been written successfully so far.
+     */
+    public int getCheckpointCount(){
+        return this.checkpointCount;
+    }
+
+    /**
+     * @return The reason the first failed checkpoint of the last fit() call could not be written, or null if every checkpoint was written.
+     */
+    public String getError(){
+        return this.error;
+    }
+
+    /**
+     * Throws an AssertionError if a checkpoint could not be written.
+     */
+    private void checkError(){
+        if(this.error != null){
+            throw new AssertionError("Checkpoint could not be saved to " + this.filePath + ": " + this.error);
+        }
+    }
+
+    /**
+     * Runs the training loop of a fit() call: starts the checkpointer, runs the loop, then waits for the checkpoints
+     * that are still being written. Checkpoint errors are only reported if training itself did not fail, so that error is not hidden.
+     * @param checkpointer The checkpointer passed to fit(), or null to run the loop without checkpoints.
+     * @param model The model being fit.
+     * @param training The training loop, which calls afterStep() and afterEpoch() on the checkpointer if it is not null.
+     */
+    static void run(Checkpointer checkpointer, Model model, Runnable training){
+        Utility.checkNotNull(model, training);
+
+        if(checkpointer == null){
+            training.run();
+            return;
+        }
+
+        checkpointer.start(model);
+
+        boolean completed = false;
+
+        try{
+            training.run();
+            completed = true;
+        } finally {
+            checkpointer.finish(completed);
+        }
+    }
+
+    /**
+     * Prepares for fitting a model. Called by run() before the first parameter update.
+     * @param model The model being fit.
+     */
+    void start(Model model){
+        Utility.checkNotNull(model);
+
+        if(this.writer != null){
+            throw new AssertionError("A checkpointer can only be used by one fit() call at a time.");
+        }
+
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "jpf-checkpointer");
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.freeSnapshots = new ArrayBlockingQueue<ArrayList<Matrix>>(NUM_SNAPSHOTS);
+
+        for(int i = 0; i < NUM_SNAPSHOTS; i++){
+            this.freeSnapshots.add(Utility.cloneArrays(model.getParameters()));
+        }
+
+        this.stepCount = 0;
+        this.changed = false;
+        this.error = null;
+    }
+
+    /**
+     * Called by fit() after every parameter update. Saves a checkpoint every stepInterval updates.
+     * @param model The model being fit.
+     */
+    void afterStep(Model model){
+        this.stepCount++;
+        this.changed = true;
+
+        if(this.stepInterval > 0 && this.stepCount % this.stepInterval == 0){
+            this.checkpoint(model);
+        }
+    }
+
+    /**
+     * Called by fit() at the end of every epoch. Saves a checkpoint every epochInterval epochs, unless one was
+     * just saved after the last parameter update.
+     * @param model The model being fit.
+     * @param epoch The index of the epoch that ended, starting at 0.
+     */
+    void afterEpoch(Model model, int epoch){
+        if(this.epochInterval > 0 && (epoch + 1) % this.epochInterval == 0 && this.changed){
+            this.checkpoint(model);
+        }
+    }
+
+    /**
+     * Copies the model's parameters into a free snapshot and hands it to the writer thread.
+     * Waits only if every snapshot is still being written. Throws an AssertionError if an earlier checkpoint failed.
+     * @param model The model being fit.
+     */
+    private void checkpoint(Model model){
+        this.checkError();
+
+        ArrayList<Matrix> snapshot;
+
+        try{
+            snapshot = this.freeSnapshots.take();
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        ArrayList<Matrix> parameters = model.getParameters();
+
+        for(int i = 0; i < parameters.size(); i++){
+            float[] source = parameters.get(i).getData();
+            System.arraycopy(source, 0, snapshot.get(i).getData(), 0, source.length);
+        }
+
+        this.changed = false;
+
+        this.writer.execute(() -> {
+            try{
+                this.write(model, snapshot);
+                this.checkpointCount++;
+            } catch(IOException e){
+                this.recordError(e.getMessage());
+            } catch(RuntimeException | Error e){
+                //Anything else, such as an AssertionError from saving the model, would otherwise be lost on this thread
+                this.recordError(e.toString());
+            } finally {
+                this.freeSnapshots.add(snapshot);
+            }
+        });
+    }
+
+    /**
+     * Records the reason a checkpoint could not be written. Only the first error is kept, later ones are usually caused by it.
+     * Runs on the writer thread.
+     * @param message The reason the checkpoint could not be written.
+     */
+    private void recordError(String message){
+        if(this.error == null){
+            this.error = message;
+        }
+    }
+
+    /**
+     * Writes a snapshot to a temporary file, flushes it to the storage device and renames it over the checkpoint file.
+     * Runs on the writer thread.
+     * @param model The model the snapshot was taken from.
+     * @param snapshot The snapshot of the model's parameters.
+     * @throws IOException If the checkpoint could not be written.
+     */
+    private void write(Model model, ArrayList<Matrix> snapshot) throws IOException{
+        if(!model.saveSnapshot(this.temporary.toString(), snapshot, this.binary)){
+            throw new IOException("the model could not be saved to " + this.temporary + ", see standard error");
+        }
+
+        //The file's contents must reach the disk before the rename does, or a power loss could leave a renamed but empty file
+        try(FileChannel channel = FileChannel.open(this.temporary, StandardOpenOption.WRITE)){
+            channel.force(true);
+        }
+
+        try{
+            Files.move(this.temporary, this.target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch(AtomicMoveNotSupportedException e){
+            Files.move(this.temporary, this.target, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        //The rename is only durable once the directory is flushed
+        try(FileChannel directory = FileChannel.open(this.target.getParent(), StandardOpenOption.READ)){
+            directory.force(true);
+        } catch(IOException e){
+            //Some platforms, such as Windows, can not open directories. The checkpoint itself is complete either way.
+        }
+    }
+
+    /**
+     * Waits for the checkpoints that are still being written and stops the writer thread. Called by run() when fitting ends.
+     * @param reportError True to throw an AssertionError if a checkpoint could not be written. run() passes false when
+     * training itself failed, so that error is not hidden.
+     */
+    void finish(boolean reportError){
+        if(this.writer == null){
+            return;
+        }
+
+        this.writer.shutdown();
+
+        try{
+            while(!this.writer.awaitTermination(1, TimeUnit.MINUTES)){
+                //Keep waiting, a large checkpoint may take a while to write
+            }
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+
+        this.writer = null;
+        this.freeSnapshots = null;
+
+        if(reportError){
+            this.checkError();
+        }
+    }
+}
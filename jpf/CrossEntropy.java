@@ -66,9 +66,14 @@ public class CrossEntropy implements Loss{
 
         float[] r = new float[yTrue.length];
 
+        //Checking every element is only done at the full validation level, see Utility.setValidationLevel()
+        boolean checkElements = Utility.fullValidation();
+
         for(int i = 0; i < r.length; i++){
             //Check to see if floats are real
-            Utility.checkReal(yTrue[i], yPredicted[i]);
+            if(checkElements){
+                Utility.checkReal(yTrue[i], yPredicted[i]);
+            }
 
             r[i] = this.CELoss(yTrue[i], yPredicted[i]);
         }
@@ -82,9 +87,14 @@ public class CrossEntropy implements Loss{
 
         float[] r = new float[yTrue.length];
 
+        //Checking every element is only done at the full validation level, see Utility.setValidationLevel()
+        boolean checkElements = Utility.fullValidation();
+
         for(int i = 0; i < r.length; i++){
             //Check to see if floats are real
-            Utility.checkReal(yTrue[i], yPredicted[i]);
+            if(checkElements){
+                Utility.checkReal(yTrue[i], yPredicted[i]);
+            }
 
             r[i] = this.CELossPrime(yTrue[i], yPredicted[i]);
         }
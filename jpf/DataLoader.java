@@ -0,0 +1,375 @@
+package jpf;
+
+import java.io.Closeable;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Defines the DataLoader class, which prepares the minibatches of a dataset on background threads while the current
+ * minibatch is being trained on. A scheduler thread shuffles the sample indicies at the start of every epoch and hands
+ * each minibatch to a pool of loader threads, which copy its samples from the dataset into a reusable minibatch buffer.
+ * Up to prefetch minibatches are prepared ahead of the one being trained on, so reading samples from disk
+ * (see MappedDataset) and any parsing or transformation done by the dataset's getSample() overlap with the
+ * gradient calculations. Minibatches are always returned in shuffled order, whatever order the loader threads finish in.
+ *
+ * Pass a data loader to fit() to use it, or use next() directly. The loader threads keep running until the loader is closed.
+ */
+public class DataLoader implements Closeable{
+
+    /**
+     * The number of minibatches prepared ahead by the fit() methods that take a Dataset.
+     */
+    static final int DEFAULT_PREFETCH = 2;
+
+    /**
+     * The dataset the samples are read from.
+     */
+    private Dataset data;
+
+    /**
+     * The shuffled sample indicies of the current epoch. Only used by the scheduler thread.
+     */
+    private MinibatchIndicies minibatches;
+
+    /**
+     * The index of the next minibatch of the current epoch to schedule.
+     */
+    private int nextMinibatch;
+
+    /**
+     * The minibatch buffers that are not being filled or used and can be scheduled.
+     */
+    private ArrayBlockingQueue<Minibatch> freeMinibatches;
+
+    /**
+     * The scheduled minibatches, in the order they are returned by next().
+     */
+    private ArrayBlockingQueue<Future<Minibatch>> readyMinibatches;
+
+    /**
+     * The minibatch most recently returned by next(), which is reused once next() is called again.
+     */
+    private Minibatch current;
+
+    /**
+     * The thread that shuffles the indicies and schedules the minibatches.
+     */
+    private Thread scheduler;
+
+    /**
+     * The threads that copy the samples of the scheduled minibatches from the dataset.
+     */
+    private ExecutorService loaders;
+
+    /**
+     * True once the loader has been closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * A buffer holding the samples of one minibatch. The buffers are reused, so a minibatch returned by next()
+     * is only valid until next() is called again.
+     */
+    public static class Minibatch{
+
+        /**
+         * The input vectors. Only the first size rows belong to the minibatch.
+         */
+        float[][] x;
+
+        /**
+         * The output vectors. Only the first size rows belong to the minibatch.
+         */
+        float[][] y;
+
+        /**
+         * The input vectors in the layout of the fit() methods with 3d inputs, sharing their rows with x.
+         */
+        float[][][] x3d;
+
+        /**
+         * The output vectors in the layout of the fit() methods with 3d inputs, sharing their rows with y.
+         */
+        float[][][] y3d;
+
+        /**
+         * The dataset indicies of the samples. Only the first size entries belong to the minibatch.
+         */
+        int[] indicies;
+
+        /**
+         * The number of samples in the minibatch.
+         */
+        int size;
+
+        /**
+         * The error thrown while loading the samples, or null if they were loaded.
+         */
+        Throwable error;
+
+        /**
+         * Creates an empty minibatch buffer.
+         * @param capacity The maximum number of samples.
+         * @param inputSize The length of the input vectors.
+         * @param outputSize The length of the output vectors.
+         */
+        Minibatch(int capacity, int inputSize, int outputSize){
+            this.x = new float[capacity][inputSize];
+            this.y = new float[capacity][outputSize];
+            this.x3d = new float[capacity][1][];
+            this.y3d = new float[capacity][1][];
+            this.indicies = new int[capacity];
+            this.size = 0;
+
+            for(int i = 0; i < capacity; i++){
+                this.x3d[i][0] = this.x[i];
+                this.y3d[i][0] = this.y[i];
+            }
+        }
+
+        /**
+         * @return The number of samples in the minibatch.
+         */
+        public int getSize(){
+            return this.size;
+        }
+
+        /**
+         * @return The input vectors. Only the first getSize() rows belong to the minibatch.
+         */
+        public float[][] getInputs(){
+            return this.x;
+        }
+
+        /**
+         * @return The output vectors. Only the first getSize() rows belong to the minibatch.
+         */
+        public float[][] getOutputs(){
+            return this.y;
+        }
+    }
+
+    /**
+     * Creates a data loader and starts its threads.
+     * @param data The dataset to read the samples from. Should have at least one sample. Its getSample() is called
+     * from several threads at once.
+     * @param minibatchSize The number of samples in a minibatch. Should be >= 1.
+     * @param prefetch The number of minibatches prepared ahead of the one being used. Should be >= 1.
+     * @param numThreads The number of threads that copy samples from the dataset. Should be >= 1.
+     */
+    public DataLoader(Dataset data, int minibatchSize, int prefetch, int numThreads){
+        this(data, minibatchSize, prefetch, numThreads, new Random().nextLong());
+    }
+
+    /**
+     * Creates a data loader that shuffles the samples in the same order every time it is created with the same seed,
+     * and starts its threads.
+     * @param data The dataset to read the samples from. Should have at least one sample. Its getSample() is called
+     * from several threads at once.
+     * @param minibatchSize The number of samples in a minibatch. Should be >= 1.
+     * @param prefetch The number of minibatches prepared ahead of the one being used. Should be >= 1.
+     * @param numThreads The number of threads that copy samples from the dataset. Should be >= 1.
+     * @param seed The seed of the random number generator that shuffles the samples.
+     */
+    public DataLoader(Dataset data, int minibatchSize, int prefetch, int numThreads, long seed){
+        //Check parameters
+        Utility.checkNotNull(data);
+
+        if(data.getNumSamples() < 1){
+            throw new AssertionError("Dataset should have at least one sample.");
+        }
+
+        if(minibatchSize <= 0){
+            throw new AssertionError("Minibatch size should be > 0");
+        }
+
+        if(prefetch <= 0){
+            throw new AssertionError("Number of prefetched minibatches should be > 0");
+        }
+
+        if(numThreads <= 0){
+            throw new AssertionError("Number of threads should be > 0");
+        }
+
+        this.data = data;
+        this.minibatches = new MinibatchIndicies(data.getNumSamples(), minibatchSize, seed);
+        this.nextMinibatch = 0;
+
+        //One buffer for each prefetched minibatch and one for the minibatch being used
+        this.freeMinibatches = new ArrayBlockingQueue<Minibatch>(prefetch + 1);
+        this.readyMinibatches = new ArrayBlockingQueue<Future<Minibatch>>(prefetch + 1);
+
+        for(int i = 0; i < prefetch + 1; i++){
+            this.freeMinibatches.add(new Minibatch(this.minibatches.getMinibatchSize(), data.getInputSize(), data.getOutputSize()));
+        }
+        this.closed = false;
+
+        this.loaders = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread t = new Thread(r, "jpf-data-loader-worker");
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.scheduler = new Thread(this::schedule, "jpf-data-loader");
+        this.scheduler.setDaemon(true);
+        this.scheduler.start();
+    }
+
+    /**
+     * @return The dataset the samples are read from.
+     */
+    public Dataset getDataset(){
+        return this.data;
+    }
+
+    /**
+     * @return The maximum number of samples in a minibatch.
+     */
+    public int getMinibatchSize(){
+        return this.minibatches.getMinibatchSize();
+    }
+
+    /**
+     * @return The number of minibatches in an epoch (a full pass over the dataset).
+     */
+    public int getNumMinibatches(){
+        return this.minibatches.getNumMinibatches();
+    }
+
+    /**
+     * Schedules minibatches until the loader is closed. Runs on the scheduler thread, which waits whenever
+     * every minibatch buffer is in use.
+     */
+    private void schedule(){
+        try{
+            while(!this.closed){
+                Minibatch minibatch = this.freeMinibatches.take();
+
+                //Start a new epoch
+                if(this.nextMinibatch == this.minibatches.getNumMinibatches()){
+                    this.minibatches.shuffle();
+                    this.nextMinibatch = 0;
+                }
+
+                int start = this.minibatches.getStart(this.nextMinibatch);
+                minibatch.size = this.minibatches.getEnd(this.nextMinibatch) - start;
+                System.arraycopy(this.minibatches.getIndicies(), start, minibatch.indicies, 0, minibatch.size);
+                this.nextMinibatch++;
+
+                this.readyMinibatches.put(this.loaders.submit(() -> this.load(minibatch)));
+            }
+
+        } catch(InterruptedException | RejectedExecutionException e){
+            //The loader was closed
+        }
+    }
+
+    /**
+     * Copies the samples of a scheduled minibatch from the dataset. Runs on a loader thread.
+     * An error thrown by the dataset is stored in the minibatch rather than thrown, so next() still gets the buffer
+     * back and can return it to the free buffers before rethrowing the error.
+     * @param minibatch The minibatch to fill.
+     * @return The filled minibatch.
+     */
+    private Minibatch load(Minibatch minibatch){
+        boolean checkData = Utility.boundaryValidation();
+        minibatch.error = null;
+
+        try{
+            for(int i = 0; i < minibatch.size; i++){
+                this.data.getSample(minibatch.indicies[i], minibatch.x[i], minibatch.y[i]);
+
+                //The samples enter the package here, so this is where they are checked (see Utility.setValidationLevel())
+                if(checkData){
+                    Utility.checkReal(minibatch.x[i]);
+                    Utility.checkReal(minibatch.y[i]);
+                }
+            }
+        } catch(RuntimeException | Error e){
+            minibatch.error = e;
+        }
+
+        return minibatch;
+    }
+
+    /**
+     * Returns the next minibatch, waiting for it to be loaded if it is not ready yet. The minibatch returned by the
+     * previous call is handed back to the loader to be refilled, so it should no longer be used.
+     * Throws the error thrown by the dataset if a sample could not be read. That minibatch is then skipped, and next()
+     * can be called again to get the one after it.
+     * @return The next minibatch. Each epoch has getNumMinibatches() minibatches.
+     */
+    public Minibatch next(){
+        if(this.closed){
+            throw new AssertionError("Data loader is closed.");
+        }
+
+        if(this.current != null){
+            this.freeMinibatches.add(this.current);
+            this.current = null;
+        }
+
+        Minibatch minibatch;
+
+        try{
+            minibatch = this.readyMinibatches.take().get();
+        } catch(ExecutionException e){
+            throw new AssertionError(e.getCause());
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new AssertionError("Interrupted while waiting for a minibatch to be loaded.");
+        }
+
+        if(minibatch.error != null){
+            Throwable error = minibatch.error;
+            minibatch.error = null;
+
+            //Hand the buffer back, so the loader keeps running if the caller catches the error
+            this.freeMinibatches.add(minibatch);
+
+            //Rethrow the dataset's error as is, so assertion errors keep their message.
+            if(error instanceof Error){
+                throw (Error)error;
+            }
+
+            throw (RuntimeException)error;
+        }
+
+        this.current = minibatch;
+
+        return this.current;
+    }
+
+    /**
+     * Stops the scheduler and loader threads and waits for them to finish.
+     */
+    @Override
+    public void close(){
+        if(this.closed){
+            return;
+        }
+
+        this.closed = true;
+        this.scheduler.interrupt();
+        this.loaders.shutdownNow();
+
+        try{
+            this.scheduler.join();
+
+            while(!this.loaders.awaitTermination(1, TimeUnit.MINUTES)){
+                //Keep waiting, a slow dataset may take a while to return a sample
+            }
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+
+        this.readyMinibatches.clear();
+        this.current = null;
+    }
+}
@@ -0,0 +1,33 @@
+package jpf;
+
+/**
+ * Interface that defines a training dataset of samples that each have one input vector and one output vector.
+ * Unlike the float[][] arrays taken by fit(), a dataset does not need to hold its samples in memory:
+ * fit() copies the samples of one minibatch at a time into its own buffers with getSample().
+ */
+public interface Dataset{
+
+    /**
+     * @return The number of samples in the dataset.
+     */
+    public int getNumSamples();
+
+    /**
+     * @return The length of the input vector of each sample.
+     */
+    public int getInputSize();
+
+    /**
+     * @return The length of the output vector of each sample.
+     */
+    public int getOutputSize();
+
+    /**
+     * Copies one sample into the provided vectors. Implementations should allow several threads to read
+     * samples at once.
+     * @param index The index of the sample. Should be in [0, getNumSamples()).
+     * @param x The vector to copy the input vector into. Should have length getInputSize().
+     * @param y The vector to copy the output vector into. Should have length getOutputSize().
+     */
+    public void getSample(int index, float[] x, float[] y);
+}
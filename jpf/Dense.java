@@ -1,5 +1,8 @@
 package jpf;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Class that defines the Dense layer that makes up much of a typical neural network.
  */
@@ -16,20 +19,43 @@ public class Dense extends Layer {
      * These parameters are used to determine how much influence the inputs have
      * on the layer's output.
      */
-    private float[][] weightMatrix;
+    private Matrix weightMatrix;
 
     /**
      * The biasMatrix is a representation of a bias vector which influence the
      * layer's outputs without using the layer's inputs.
      */
-    private float[][] biasMatrix;
+    private Matrix biasMatrix;
 
     /**
      * The sum matrix is a representation of the sum vector which is expressed as
      * Wx + b where W is the weight matrix, x is the input vector, and b is the bias
      * vector. This matrix is used for both the forward and backward passes.
      */
-    private float[][] sumMatrix;
+    private Matrix sumMatrix;
+
+    /**
+     * The input vector wrapped as a 1 column matrix. Shares its storage with the input vector, so it
+     * always holds the current input and can be used directly in the matrix multiplication.
+     */
+    private Matrix inputMatrix;
+
+    /**
+     * Workspace for the backward pass that stores the dLdS vector, which is the gradient of the loss
+     * function wrt the sum vector.
+     */
+    private float[] dLdS;
+
+    /**
+     * The sum vectors of a minibatch, one row per sample. This is the batched version of the sum matrix.
+     */
+    private Matrix sumBatch;
+
+    /**
+     * Workspace for the batched backward pass that stores dLdS for each sample in the minibatch.
+     */
+    private Matrix dLdSBatch;
+
 
     /**
      * The standard Dense layer constructor with user specified properties.
@@ -66,10 +92,10 @@ public class Dense extends Layer {
         this.outputVector = new float[numUnits];
 
         //Initialize the weight and bias parameter matricies. Randomize the weight matrix entries.
-        this.weightMatrix = new float[numUnits][inputLayerOutputSize];
+        this.weightMatrix = new Matrix(numUnits, inputLayerOutputSize);
         Utility.initializeUniform(weightMatrix, -1f, 1f);
 
-        this.biasMatrix = new float[numUnits][1];
+        this.biasMatrix = new Matrix(numUnits, 1);
 
         //Add matricies to parameter list
         this.parameters.add(weightMatrix);
@@ -82,6 +108,8 @@ public class Dense extends Layer {
         //Set up backprop arrays
         this.dLdX = new float[inputLayerOutputSize];
         this.dLdY = new float[numUnits];
+
+        this.initializeWorkspaces();
     }
 
 
@@ -99,19 +127,45 @@ public class Dense extends Layer {
         this.initializeActivationFunctionFromString(layerInfoString);
 
         String paramString = layerInfoString.substring(layerInfoString.indexOf(")\n") + 2, layerInfoString.lastIndexOf("\n"));
-        this.parameters = Utility.stringToMatrixList(paramString);
+        this.initializeFromParameters(Matrix.fromArrays(Utility.stringToMatrixList(paramString)));
+    }
+
+    /**
+     * Constructs a dense layer from the description returned by toSpecString() and already loaded parameters.
+     * Used by the binary model format. The parameter matricies are used directly, not copied.
+     * @param layerSpecString The layer description returned by the toSpecString() method.
+     * @param parameters The weight and bias matricies, in that order.
+     */
+    public Dense(String layerSpecString, List<Matrix> parameters){
+        super();
+        Utility.checkNotNull(layerSpecString, parameters);
+        Utility.checkEqual(parameters.size(), 2);
+
+        this.initializeActivationFunctionFromString(layerSpecString);
+        this.initializeFromParameters(new ArrayList<Matrix>(parameters));
+    }
+
+    /**
+     * Initializes the parameters, vectors, gradients and workspaces of a layer whose parameters were loaded from disk.
+     * The activation function should already be initialized.
+     * @param parameters The weight and bias matricies, in that order.
+     */
+    private void initializeFromParameters(ArrayList<Matrix> parameters){
+        this.parameters = parameters;
 
-        
         this.weightMatrix = this.parameters.get(0);
         this.biasMatrix = this.parameters.get(1);
 
+        Utility.checkEqual(this.biasMatrix.getNumColumns(), 1);
+        Utility.checkEqual(this.weightMatrix.getNumRows(), this.biasMatrix.getNumRows());
+
         //From the parsed parameters, get the layer size and the input vector size
-        int numUnits = this.biasMatrix.length;
+        int numUnits = this.biasMatrix.getNumRows();
         if(numUnits <= 0){
             throw new AssertionError("numUnits must be >= 1");
         }
 
-        int inputSize = this.weightMatrix[0].length;
+        int inputSize = this.weightMatrix.getNumColumns();
 
         //Allocate and initialize vectors
         this.inputVector = new float[inputSize];
@@ -124,7 +178,51 @@ public class Dense extends Layer {
         this.gradient = Utility.cloneArrays(getParameters());
         Utility.clearArrays(this.gradient);
 
-        
+        this.initializeWorkspaces();
+    }
+
+    /**
+     * Allocates the workspaces used by the forward and backward passes. These are reused on every pass,
+     * so the passes themselves do not allocate any memory. The input vector, output vector and parameters
+     * should already be initialized.
+     */
+    private void initializeWorkspaces(){
+        int numUnits = this.outputVector.length;
+
+        this.inputMatrix = new Matrix(this.inputVector, this.inputVector.length, 1);
+        this.sumMatrix = new Matrix(numUnits, 1);
+        this.dLdS = new float[numUnits];
+    }
+
+    /**
+     * Constructs a replica of a dense layer, which shares the source layer's activation function and parameter matricies.
+     * See createReplica().
+     * @param source The layer to replicate.
+     */
+    private Dense(Dense source){
+        super();
+
+        this.activationFunction = source.activationFunction;
+
+        //Share the parameter matricies with the source layer
+        this.weightMatrix = source.weightMatrix;
+        this.biasMatrix = source.biasMatrix;
+
+        this.parameters.add(this.weightMatrix);
+        this.parameters.add(this.biasMatrix);
+
+        int numUnits = this.biasMatrix.getNumRows();
+        int inputSize = this.weightMatrix.getNumColumns();
+
+        //Allocate this replica's own vectors and workspaces. The gradient is allocated by the first backward pass,
+        //so replicas that only make predictions do not use any memory for it.
+        this.inputVector = new float[inputSize];
+        this.outputVector = new float[numUnits];
+
+        this.dLdX = new float[inputSize];
+        this.dLdY = new float[numUnits];
+
+        this.initializeWorkspaces();
     }
 
     /**
@@ -135,7 +233,9 @@ public class Dense extends Layer {
      * for specific syntax.
      */
     private void initializeActivationFunctionFromString(String layerInfoString){
-        String headerInfo = layerInfoString.substring(0, layerInfoString.indexOf("\n"));
+        //The header is the first line. Descriptions from toSpecString() only have the header.
+        int headerEnd = layerInfoString.indexOf("\n");
+        String headerInfo = headerEnd >= 0 ? layerInfoString.substring(0, headerEnd) : layerInfoString;
 
         String[] headerInfoSplit = headerInfo.split(",");
         headerInfoSplit[1] = headerInfoSplit[1].substring(0, headerInfoSplit[1].lastIndexOf(")"));
@@ -147,51 +247,158 @@ public class Dense extends Layer {
         //Bring over the previous layer's output into this layer's input vector
         this.initializeInputVectorCopy();
 
-        //Do matrix multiplication on the input vector: Wx
-        float[][] wx = LinearAlgebra.matrixMultiply(weightMatrix, LinearAlgebra.arrayToMatrix(inputVector));
+        //Do matrix multiplication on the input vector: Wx. Large layers split the rows across threads.
+        LinearAlgebra.matrixMultiplyParallel(this.weightMatrix, this.inputMatrix, this.sumMatrix);
 
-        //add bias
-        this.sumMatrix = LinearAlgebra.matrixAdd(wx, biasMatrix);
+        //add bias. The shapes are fixed when the layer is created, so the kernel is called directly without checks.
+        LinearAlgebra.axpy(1f, this.biasMatrix.getData(), 0, this.sumMatrix.getData(), 0, this.outputVector.length);
 
         //use as input to activation function.
-        this.outputVector = activationFunction.f(LinearAlgebra.matrixToArray(sumMatrix));
+        this.activationFunction.f(this.sumMatrix.getData(), this.outputVector);
+    }
+
+    /**
+     * Calculates dYdS, the derivative of the activation function at each sum. When the activation function supports it,
+     * the derivative is found from the outputs of the forward pass (for example 1 - y^2 for tanh), so the activation function
+     * is not evaluated a second time.
+     * @param sums The sums of the forward pass.
+     * @param outputs The outputs of the forward pass, f(sums).
+     * @param dest The array to place the derivatives in. Has the same length as sums.
+     */
+    private void activationDerivative(float[] sums, float[] outputs, float[] dest){
+        if(this.activationFunction.supportsFPrimeFromOutput()){
+            this.activationFunction.fPrimeFromOutput(outputs, dest);
+        } else {
+            this.activationFunction.fPrime(sums, dest);
+        }
     }
 
     public void backwardPass(){
         //Determine the error vector from the next layers
         this.initializedLdY();
+        this.initializeGradient();
 
         //Determine the dLdS vector by applying the chain rule: dLdS = dLdY * dYdS
-        float[] dLdS = LinearAlgebra.elementwiseMultiply(this.dLdY, activationFunction.fPrime(LinearAlgebra.matrixToArray(this.sumMatrix)));
+        float[] dLdS = this.dLdS;
+        this.activationDerivative(this.sumMatrix.getData(), this.outputVector, dLdS);
+        LinearAlgebra.elementwiseMultiply(this.dLdY, dLdS, dLdS);
 
         //In a dense layer, the bias gradient is just the dLdS vector.
-        float[] biasGradient = dLdS.clone();
-        this.gradient.set(1, LinearAlgebra.arrayToMatrix(biasGradient));
+        Utility.copyArrayContents(dLdS, this.gradient.get(1).getData());
 
 
         //Determine the weight gradient, dLdW by applying the chain rule: dLdW = dLdS * dSdW
-        float[][] weightGradient = new float[weightMatrix.length][weightMatrix[0].length];
+        int numUnits = weightMatrix.getNumRows();
+        int inputSize = weightMatrix.getNumColumns();
+        float[] weights = weightMatrix.getData();
+
+        float[] weightGradientData = this.gradient.get(0).getData();
 
-        for(int r = 0; r < weightMatrix.length; r++){
-            for(int c = 0; c < weightMatrix[0].length; c++){
+        for(int r = 0; r < numUnits; r++){
+            for(int c = 0; c < inputSize; c++){
                 /**
                  * Note: dSdW is just the components of the input vector since the input vector multiplied
                  * by the weight matrix influences the sum (multiplication rule).
                  */
-                weightGradient[r][c] = dLdS[r] * this.inputVector[c];
+                weightGradientData[r * inputSize + c] = dLdS[r] * this.inputVector[c];
             }
         }
 
-        this.gradient.set(0, weightGradient);
-
 
         //Finally, populate dLdX for the input layer's backprop step using the chain and addition rules: dLdX = dLdS * dSdX
-        for(int i = 0; i < this.inputVector.length; i++){
-            for(int j = 0; j < this.outputVector.length; j++){
-                //dLdX is the weight matrix because of the multiplication rule.
-                this.dLdX[i] += weightMatrix[j][i] * dLdS[j];
+        //Walk the weight matrix row by row so that the memory accesses are contiguous.
+        for(int j = 0; j < numUnits; j++){
+            //dLdX is the weight matrix because of the multiplication rule.
+            LinearAlgebra.axpy(dLdS[j], weights, j * inputSize, this.dLdX, 0, inputSize);
+        }
+    }
+
+    /**
+     * Allocates the gradient list if it has not been allocated yet, which is only the case for replicas.
+     */
+    private void initializeGradient(){
+        if(this.gradient == null){
+            this.gradient = Utility.cloneArrays(getParameters());
+            Utility.clearArrays(this.gradient);
+        }
+    }
+
+    @Override
+    public Layer createReplica(){
+        return new Dense(this);
+    }
+
+    /**
+     * Describes the layer size and activation function, for example "DENSE(16, TANH)".
+     */
+    @Override
+    public String toSpecString(){
+        return "DENSE(" + biasMatrix.getNumRows() + ", " + activationFunction.toString() + ")";
+    }
+
+    @Override
+    public boolean supportsBatch(){
+        return true;
+    }
+
+    @Override
+    public void forwardPassBatch(){
+        //Bring over the previous layer's output batch into this layer's input batch
+        this.initializeInputBatchCopy();
+
+        int batchSize = this.inputBatch.getNumRows();
+        int numUnits = this.weightMatrix.getNumRows();
+
+        //Each row of the input batch is an input vector, so all sums are found with one multiplication: S = XW^T
+        this.sumBatch = Layer.resizeBatch(this.sumBatch, batchSize, numUnits);
+        LinearAlgebra.matrixMultiplyTransposeB(this.inputBatch, this.weightMatrix, this.sumBatch);
+
+        //add the bias to every row
+        float[] sums = this.sumBatch.getData();
+        float[] bias = this.biasMatrix.getData();
+
+        for(int r = 0; r < batchSize; r++){
+            for(int c = 0; c < numUnits; c++){
+                sums[r * numUnits + c] += bias[c];
+            }
+        }
+
+        //use as input to activation function.
+        this.activationFunction.f(sums, this.outputBatch.getData());
+    }
+
+    @Override
+    public void backwardPassBatch(){
+        //Determine the error batch from the next layers
+        this.initializedLdYBatch();
+        this.initializeGradient();
+
+        int batchSize = this.inputBatch.getNumRows();
+        int numUnits = this.weightMatrix.getNumRows();
+
+        //Determine dLdS for every sample by applying the chain rule: dLdS = dLdY * dYdS
+        this.dLdSBatch = Layer.resizeBatch(this.dLdSBatch, batchSize, numUnits);
+        this.activationDerivative(this.sumBatch.getData(), this.outputBatch.getData(), this.dLdSBatch.getData());
+        LinearAlgebra.elementwiseMultiply(this.dLdYBatch, this.dLdSBatch, this.dLdSBatch);
+
+        //The bias gradient is the sum of the dLdS vectors of the minibatch (column sums).
+        Matrix biasGradient = this.gradient.get(1);
+        Utility.clearArray(biasGradient);
+
+        float[] biasGradientData = biasGradient.getData();
+        float[] dLdS = this.dLdSBatch.getData();
+
+        for(int r = 0; r < batchSize; r++){
+            for(int c = 0; c < numUnits; c++){
+                biasGradientData[c] += dLdS[r * numUnits + c];
             }
         }
+
+        //The weight gradient summed over the minibatch is a single multiplication: dLdW = dLdS^T X
+        LinearAlgebra.matrixMultiplyTransposeA(this.dLdSBatch, this.inputBatch, this.gradient.get(0));
+
+        //Finally, populate the dLdX batch for the input layer's backprop step: dLdX = dLdS W
+        LinearAlgebra.matrixMultiplyParallel(this.dLdSBatch, this.weightMatrix, this.dLdXBatch);
     }
 
     /**
@@ -201,10 +408,9 @@ public class Dense extends Layer {
     public String toString(){
         StringBuilder sb = new StringBuilder();
 
-        int layerSize = biasMatrix.length;
-
         //Provide basic constructor information
-        sb.append("DENSE(" + layerSize + ", " + activationFunction.toString() + ")\n");
+        sb.append(this.toSpecString());
+        sb.append("\n");
 
         //Provide parameter information
         sb.append(Utility.arraysToString(this.getParameters()));
@@ -0,0 +1,390 @@
+package jpf;
+
+import java.math.BigInteger;
+
+/**
+ * Formats floats as the shortest decimal string that parses back to the same float, in the same notation as
+ * Float.toString(): plain decimals such as "0.125" or "1234.0" for magnitudes in [1e-3, 1e7), and computerized
+ * scientific notation such as "1.0E-5" otherwise. The digits are found with the Ryu algorithm (Ulf Adams, 2018),
+ * which only uses integer arithmetic, and are written directly into a char array, so no objects are allocated.
+ */
+class FloatFormatter{
+
+    /**
+     * The largest number of characters a formatted float can have, for example "-1.23456789E-38".
+     */
+    static final int MAX_LENGTH = 15;
+
+    private static final int FLOAT_MANTISSA_BITS = 23;
+
+    private static final int FLOAT_EXPONENT_BITS = 8;
+
+    private static final int FLOAT_BIAS = 127;
+
+    /**
+     * The number of bits of the entries of POW5_SPLIT, which hold 5^i scaled to this many bits.
+     */
+    private static final int POW5_BITCOUNT = 61;
+
+    /**
+     * The number of extra bits of precision in the entries of POW5_INV_SPLIT, which hold 2^k / 5^q.
+     */
+    private static final int POW5_INV_BITCOUNT = 59;
+
+    /**
+     * POW5_SPLIT[i] is 5^i scaled by a power of two so that it has exactly POW5_BITCOUNT bits.
+     */
+    private static final long[] POW5_SPLIT = new long[48];
+
+    /**
+     * POW5_INV_SPLIT[q] is floor(2^(floor(log2(5^q)) + POW5_INV_BITCOUNT) / 5^q) + 1.
+     */
+    private static final long[] POW5_INV_SPLIT = new long[31];
+
+    static{
+        for(int i = 0; i < POW5_SPLIT.length; i++){
+            BigInteger pow = BigInteger.valueOf(5).pow(i);
+
+            //shiftRight() with a negative distance shifts left
+            POW5_SPLIT[i] = pow.shiftRight(pow.bitLength() - POW5_BITCOUNT).longValue();
+
+            if(i < POW5_INV_SPLIT.length){
+                POW5_INV_SPLIT[i] = BigInteger.ONE.shiftLeft(pow.bitLength() - 1 + POW5_INV_BITCOUNT).divide(pow).add(BigInteger.ONE).longValue();
+            }
+        }
+    }
+
+    /**
+     * Writes the shortest decimal representation of a float into a char array.
+     * @param value The float to format.
+     * @param result The array to write to. Should have at least MAX_LENGTH characters available after offset.
+     * @param offset The index to start writing at.
+     * @return The index after the last character written.
+     */
+    static int format(float value, char[] result, int offset){
+        int bits = Float.floatToRawIntBits(value);
+        int ieeeMantissa = bits & ((1 << FLOAT_MANTISSA_BITS) - 1);
+        int ieeeExponent = (bits >>> FLOAT_MANTISSA_BITS) & ((1 << FLOAT_EXPONENT_BITS) - 1);
+
+        int index = offset;
+
+        //Special cases
+        if(ieeeExponent == (1 << FLOAT_EXPONENT_BITS) - 1){
+            String special = ieeeMantissa != 0 ? "NaN" : (bits < 0 ? "-Infinity" : "Infinity");
+            special.getChars(0, special.length(), result, index);
+            return index + special.length();
+        }
+
+        if(bits < 0){
+            result[index++] = '-';
+        }
+
+        if(ieeeExponent == 0 && ieeeMantissa == 0){
+            result[index++] = '0';
+            result[index++] = '.';
+            result[index++] = '0';
+            return index;
+        }
+
+        //Step 1: decode the float. Subtract 2 from the exponent so the bounds below have 2 additional bits.
+        int e2;
+        long m2;
+
+        if(ieeeExponent == 0){
+            e2 = 1 - FLOAT_BIAS - FLOAT_MANTISSA_BITS - 2;
+            m2 = ieeeMantissa;
+        } else {
+            e2 = ieeeExponent - FLOAT_BIAS - FLOAT_MANTISSA_BITS - 2;
+            m2 = (1L << FLOAT_MANTISSA_BITS) | ieeeMantissa;
+        }
+
+        boolean acceptBounds = (m2 & 1) == 0;
+
+        //Step 2: determine the interval of decimal representations that round to this float.
+        long mv = 4 * m2;
+        long mp = 4 * m2 + 2;
+        int mmShift = (ieeeMantissa != 0 || ieeeExponent <= 1) ? 1 : 0;
+        long mm = 4 * m2 - 1 - mmShift;
+
+        //Step 3: convert the interval to a decimal power base.
+        long vr;
+        long vp;
+        long vm;
+        int e10;
+        boolean vmIsTrailingZeros = false;
+        boolean vrIsTrailingZeros = false;
+        long lastRemovedDigit = 0;
+
+        if(e2 >= 0){
+            int q = log10Pow2(e2);
+            e10 = q;
+            int k = POW5_INV_BITCOUNT + pow5bits(q) - 1;
+            int i = -e2 + q + k;
+
+            vr = mulShift(mv, POW5_INV_SPLIT[q], i);
+            vp = mulShift(mp, POW5_INV_SPLIT[q], i);
+            vm = mulShift(mm, POW5_INV_SPLIT[q], i);
+
+            if(q != 0 && (vp - 1) / 10 <= vm / 10){
+                //One removed digit is needed even if the loop below does not run
+                int l = POW5_INV_BITCOUNT + pow5bits(q - 1) - 1;
+                lastRemovedDigit = mulShift(mv, POW5_INV_SPLIT[q - 1], -e2 + q - 1 + l) % 10;
+            }
+
+            if(q <= 9){
+                //Only one of mp, mv, and mm can be a multiple of 5, if any.
+                if(mv % 5 == 0){
+                    vrIsTrailingZeros = pow5Factor(mv) >= q;
+                } else if(acceptBounds){
+                    vmIsTrailingZeros = pow5Factor(mm) >= q;
+                } else if(pow5Factor(mp) >= q){
+                    vp--;
+                }
+            }
+
+        } else {
+            int q = log10Pow5(-e2);
+            e10 = q + e2;
+            int i = -e2 - q;
+            int k = pow5bits(i) - POW5_BITCOUNT;
+            int j = q - k;
+
+            vr = mulShift(mv, POW5_SPLIT[i], j);
+            vp = mulShift(mp, POW5_SPLIT[i], j);
+            vm = mulShift(mm, POW5_SPLIT[i], j);
+
+            if(q != 0 && (vp - 1) / 10 <= vm / 10){
+                j = q - 1 - (pow5bits(i + 1) - POW5_BITCOUNT);
+                lastRemovedDigit = mulShift(mv, POW5_SPLIT[i + 1], j) % 10;
+            }
+
+            if(q <= 1){
+                //mv = 4 * m2 always has at least two trailing 0 bits.
+                vrIsTrailingZeros = true;
+
+                if(acceptBounds){
+                    //mm = mv - 1 - mmShift has 1 trailing 0 bit iff mmShift == 1.
+                    vmIsTrailingZeros = mmShift == 1;
+                } else {
+                    //mp = mv + 2 always has at least one trailing 0 bit.
+                    vp--;
+                }
+
+            } else if(q < 31){
+                vrIsTrailingZeros = (mv & ((1L << (q - 1)) - 1)) == 0;
+            }
+        }
+
+        //Step 4: find the shortest decimal representation in the interval.
+        int removed = 0;
+        long output;
+
+        if(vmIsTrailingZeros || vrIsTrailingZeros){
+            //General case, which happens rarely.
+            while(vp / 10 > vm / 10){
+                vmIsTrailingZeros &= vm % 10 == 0;
+                vrIsTrailingZeros &= lastRemovedDigit == 0;
+                lastRemovedDigit = vr % 10;
+                vr /= 10;
+                vp /= 10;
+                vm /= 10;
+                removed++;
+            }
+
+            if(vmIsTrailingZeros){
+                while(vm % 10 == 0){
+                    vrIsTrailingZeros &= lastRemovedDigit == 0;
+                    lastRemovedDigit = vr % 10;
+                    vr /= 10;
+                    vp /= 10;
+                    vm /= 10;
+                    removed++;
+                }
+            }
+
+            if(vrIsTrailingZeros && lastRemovedDigit == 5 && vr % 2 == 0){
+                //Round to even if the exact number is .....50..0.
+                lastRemovedDigit = 4;
+            }
+
+            //Take vr + 1 if vr is outside the bounds or should be rounded up.
+            output = vr + (((vr == vm && (!acceptBounds || !vmIsTrailingZeros)) || lastRemovedDigit >= 5) ? 1 : 0);
+
+        } else {
+            //Common case
+            while(vp / 10 > vm / 10){
+                lastRemovedDigit = vr % 10;
+                vr /= 10;
+                vp /= 10;
+                vm /= 10;
+                removed++;
+            }
+
+            output = vr + ((vr == vm || lastRemovedDigit >= 5) ? 1 : 0);
+        }
+
+        return writeDigits(output, e10 + removed, result, index, offset + MAX_LENGTH);
+    }
+
+    /**
+     * Writes the decimal number digits * 10^exponent in the notation of Float.toString().
+     * @param digits The significant digits. Should be > 0.
+     * @param exponent The power of ten the digits are multiplied by.
+     * @param result The array to write to.
+     * @param index The index to start writing at.
+     * @param end The end of the space available for the whole formatted number, including any sign.
+     * @return The index after the last character written.
+     */
+    private static int writeDigits(long digits, int exponent, char[] result, int index, int end){
+        int length = decimalLength(digits);
+
+        //The power of ten of the first digit
+        int scientificExponent = exponent + length - 1;
+
+        //Write the digits at the end of the available space, then move them into place. They are always far
+        //enough to the right that moving them left never overwrites a digit that has not been moved yet.
+        int digitsStart = end - length;
+
+        for(int i = length - 1; i >= 0; i--){
+            result[digitsStart + i] = (char)('0' + digits % 10);
+            digits /= 10;
+        }
+
+        if(scientificExponent >= -3 && scientificExponent < 7){
+            if(scientificExponent >= 0){
+                //Integer part, padded with zeros if there are not enough digits
+                int integerLength = scientificExponent + 1;
+
+                for(int i = 0; i < integerLength; i++){
+                    result[index++] = i < length ? result[digitsStart + i] : '0';
+                }
+
+                result[index++] = '.';
+
+                if(length <= integerLength){
+                    result[index++] = '0';
+                } else {
+                    for(int i = integerLength; i < length; i++){
+                        result[index++] = result[digitsStart + i];
+                    }
+                }
+
+            } else {
+                //The digits are moved right, so copy them first
+                int zeros = -scientificExponent - 1;
+                int target = index + 2 + zeros;
+
+                System.arraycopy(result, digitsStart, result, target, length);
+
+                result[index++] = '0';
+                result[index++] = '.';
+
+                for(int i = 0; i < zeros; i++){
+                    result[index++] = '0';
+                }
+
+                index += length;
+            }
+
+        } else {
+            result[index++] = result[digitsStart];
+            result[index++] = '.';
+
+            if(length == 1){
+                result[index++] = '0';
+            } else {
+                for(int i = 1; i < length; i++){
+                    result[index++] = result[digitsStart + i];
+                }
+            }
+
+            result[index++] = 'E';
+
+            if(scientificExponent < 0){
+                result[index++] = '-';
+                scientificExponent = -scientificExponent;
+            }
+
+            if(scientificExponent >= 10){
+                result[index++] = (char)('0' + scientificExponent / 10);
+            }
+
+            result[index++] = (char)('0' + scientificExponent % 10);
+        }
+
+        return index;
+    }
+
+    /**
+     * @param value A positive number with at most 10 digits.
+     * @return The number of decimal digits of the value.
+     */
+    private static int decimalLength(long value){
+        int length = 1;
+
+        while(value >= 10){
+            value /= 10;
+            length++;
+        }
+
+        return length;
+    }
+
+    /**
+     * Computes (m * factor) >> shift without overflowing, where m has at most 32 bits and factor at most 63 bits.
+     * @param m The number to multiply.
+     * @param factor The factor to multiply by.
+     * @param shift The number of bits to shift right by. Should be > 32.
+     * @return The result.
+     */
+    private static long mulShift(long m, long factor, int shift){
+        long factorLo = factor & 0xFFFFFFFFL;
+        long factorHi = factor >>> 32;
+
+        long bits0 = m * factorLo;
+        long bits1 = m * factorHi;
+
+        long sum = (bits0 >>> 32) + bits1;
+
+        return sum >>> (shift - 32);
+    }
+
+    /**
+     * @param e An exponent in [0, 3528].
+     * @return ceil(log2(5^e)), or 1 if e is 0.
+     */
+    private static int pow5bits(int e){
+        return ((e * 1217359) >>> 19) + 1;
+    }
+
+    /**
+     * @param e An exponent in [0, 1650].
+     * @return floor(log10(2^e)).
+     */
+    private static int log10Pow2(int e){
+        return (e * 78913) >>> 18;
+    }
+
+    /**
+     * @param e An exponent in [0, 2620].
+     * @return floor(log10(5^e)).
+     */
+    private static int log10Pow5(int e){
+        return (e * 732923) >>> 20;
+    }
+
+    /**
+     * @param value A positive number.
+     * @return The largest p such that 5^p divides the value.
+     */
+    private static int pow5Factor(long value){
+        int count = 0;
+
+        while(value % 5 == 0){
+            value /= 5;
+            count++;
+        }
+
+        return count;
+    }
+}
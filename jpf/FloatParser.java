@@ -0,0 +1,169 @@
+package jpf;
+
+/**
+ * Parses decimal numbers straight from a char array into floats without creating a String for each number.
+ * Numbers with at most 18 significant digits and a small decimal exponent, which covers nearly all numbers in model
+ * and CSV files, are converted exactly with one or two floating point operations. Anything else, such as "NaN",
+ * very long numbers or malformed input, is passed on to Float.parseFloat(), so the results and errors are always
+ * the same as Float.parseFloat().
+ */
+class FloatParser{
+
+    /**
+     * Powers of ten that are exact floats.
+     */
+    private static final float[] FLOAT_POWERS_OF_TEN = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    /**
+     * Powers of ten that are exact doubles.
+     */
+    private static final double[] DOUBLE_POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    /**
+     * The largest number of significant digits collected into the mantissa. Any 18 digit number fits in a long.
+     */
+    private static final int MAX_DIGITS = 18;
+
+    /**
+     * Parses a number in the same way as Float.parseFloat().
+     * @param chars The array holding the number.
+     * @param start The index of the first character of the number.
+     * @param end The index after the last character of the number.
+     * @return The float closest to the number.
+     * @throws NumberFormatException If the characters are not a number.
+     */
+    static float parse(char[] chars, int start, int end){
+        int i = start;
+        boolean negative = false;
+
+        if(i < end && (chars[i] == '-' || chars[i] == '+')){
+            negative = chars[i] == '-';
+            i++;
+        }
+
+        //The number is mantissa * 10^exponent
+        long mantissa = 0;
+        int exponent = 0;
+        int numDigits = 0;
+        int numSignificantDigits = 0;
+
+        //Integer part
+        while(i < end && chars[i] >= '0' && chars[i] <= '9'){
+            if(numSignificantDigits < MAX_DIGITS){
+                mantissa = 10 * mantissa + (chars[i] - '0');
+
+                if(mantissa != 0){
+                    numSignificantDigits++;
+                }
+
+            } else {
+                return parseSlow(chars, start, end);
+            }
+
+            numDigits++;
+            i++;
+        }
+
+        //Fractional part
+        if(i < end && chars[i] == '.'){
+            i++;
+
+            while(i < end && chars[i] >= '0' && chars[i] <= '9'){
+                if(numSignificantDigits < MAX_DIGITS){
+                    mantissa = 10 * mantissa + (chars[i] - '0');
+                    exponent--;
+
+                    if(mantissa != 0){
+                        numSignificantDigits++;
+                    }
+
+                } else {
+                    return parseSlow(chars, start, end);
+                }
+
+                numDigits++;
+                i++;
+            }
+        }
+
+        if(numDigits == 0){
+            return parseSlow(chars, start, end);
+        }
+
+        //Exponent
+        if(i < end && (chars[i] == 'e' || chars[i] == 'E')){
+            i++;
+
+            boolean negativeExponent = false;
+
+            if(i < end && (chars[i] == '-' || chars[i] == '+')){
+                negativeExponent = chars[i] == '-';
+                i++;
+            }
+
+            int exponentStart = i;
+            int value = 0;
+
+            while(i < end && chars[i] >= '0' && chars[i] <= '9'){
+                //Larger exponents are out of range anyway, Float.parseFloat() handles them
+                if(value > 1000){
+                    return parseSlow(chars, start, end);
+                }
+
+                value = 10 * value + (chars[i] - '0');
+                i++;
+            }
+
+            if(i == exponentStart){
+                return parseSlow(chars, start, end);
+            }
+
+            exponent += negativeExponent ? -value : value;
+        }
+
+        if(i != end){
+            return parseSlow(chars, start, end);
+        }
+
+        if(mantissa == 0){
+            return negative ? -0f : 0f;
+        }
+
+        //Both operands are exact floats, so the single rounding of the operation gives the correct float
+        if(mantissa <= (1 << 24) && exponent >= -10 && exponent <= 10){
+            float f = exponent >= 0 ? mantissa * FLOAT_POWERS_OF_TEN[exponent] : mantissa / FLOAT_POWERS_OF_TEN[-exponent];
+            return negative ? -f : f;
+        }
+
+        //Both operands are exact doubles, so d is the correctly rounded double. Rounding it to a float gives the
+        //correct float unless d lies exactly halfway between two floats, where the exact number might not.
+        if(mantissa < (1L << 53) && exponent >= -22 && exponent <= 22){
+            double d = exponent >= 0 ? mantissa * DOUBLE_POWERS_OF_TEN[exponent] : mantissa / DOUBLE_POWERS_OF_TEN[-exponent];
+
+            if(d >= Float.MIN_NORMAL && d <= Float.MAX_VALUE){
+                long bits = Double.doubleToRawLongBits(d);
+
+                //The low 29 of the 52 stored mantissa bits are the ones dropped when rounding to a float
+                if((bits & ((1L << 29) - 1)) != (1L << 28)){
+                    float f = (float)d;
+                    return negative ? -f : f;
+                }
+            }
+        }
+
+        return parseSlow(chars, start, end);
+    }
+
+    /**
+     * Parses a number with Float.parseFloat().
+     * @param chars The array holding the number.
+     * @param start The index of the first character of the number.
+     * @param end The index after the last character of the number.
+     * @return The parsed number.
+     * @throws NumberFormatException If the characters are not a number.
+     */
+    private static float parseSlow(char[] chars, int start, int end){
+        return Float.parseFloat(new String(chars, start, end - start));
+    }
+}
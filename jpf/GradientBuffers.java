@@ -0,0 +1,103 @@
+package jpf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Defines the GradientBuffers class, which holds the lists of matricies that the gradients are accumulated in during fit().
+ * The buffers are allocated once when fitting starts, have the same shapes as the model's parameters, and are cleared and
+ * reused for every minibatch, so the parameter updates do not allocate any gradient sized memory.
+ */
+class GradientBuffers{
+
+    /**
+     * The gradient averaged over the current minibatch.
+     */
+    private ArrayList<Matrix> minibatchGradient;
+
+    /**
+     * The gradient summed over each shard of the current minibatch, one list per shard.
+     */
+    private ArrayList<ArrayList<Matrix>> shardGradients;
+
+    /**
+     * Workspaces for the gradient of a single sample, one list per shard. Empty if not requested.
+     */
+    private ArrayList<ArrayList<Matrix>> sampleGradients;
+
+    /**
+     * Allocates the buffers.
+     * @param parameters The parameters of the model being fit, which give the shapes of the buffers.
+     * @param numShards The largest number of shards a minibatch is split into. Should be >= 1.
+     * @param sampleGradients True to also allocate a single sample gradient workspace for each shard.
+     */
+    GradientBuffers(List<Matrix> parameters, int numShards, boolean sampleGradients){
+        Utility.checkNotNull(parameters);
+
+        if(numShards <= 0){
+            throw new AssertionError("Number of shards should be > 0");
+        }
+
+        this.minibatchGradient = GradientBuffers.allocate(parameters);
+        this.shardGradients = new ArrayList<ArrayList<Matrix>>(numShards);
+        this.sampleGradients = new ArrayList<ArrayList<Matrix>>(sampleGradients ? numShards : 0);
+
+        for(int s = 0; s < numShards; s++){
+            this.shardGradients.add(GradientBuffers.allocate(parameters));
+
+            if(sampleGradients){
+                this.sampleGradients.add(GradientBuffers.allocate(parameters));
+            }
+        }
+    }
+
+    /**
+     * Allocates a list of zero matricies with the same shapes as a list of parameters.
+     * @param parameters The parameters.
+     * @return The list of zero matricies.
+     */
+    private static ArrayList<Matrix> allocate(List<Matrix> parameters){
+        ArrayList<Matrix> r = new ArrayList<Matrix>(parameters.size());
+
+        for(int i = 0; i < parameters.size(); i++){
+            r.add(new Matrix(parameters.get(i).getNumRows(), parameters.get(i).getNumColumns()));
+        }
+
+        return r;
+    }
+
+    /**
+     * @return The largest number of shards a minibatch can be split into.
+     */
+    int getNumShards(){
+        return this.shardGradients.size();
+    }
+
+    /**
+     * Clears the minibatch gradient so that a new minibatch can be accumulated into it.
+     * @return The cleared minibatch gradient.
+     */
+    ArrayList<Matrix> clearMinibatchGradient(){
+        Utility.clearArrays(this.minibatchGradient);
+        return this.minibatchGradient;
+    }
+
+    /**
+     * Clears the gradient of a shard so that the shard's samples can be accumulated into it.
+     * @param shard The index of the shard.
+     * @return The cleared shard gradient.
+     */
+    ArrayList<Matrix> clearShardGradient(int shard){
+        ArrayList<Matrix> shardGradient = this.shardGradients.get(shard);
+        Utility.clearArrays(shardGradient);
+        return shardGradient;
+    }
+
+    /**
+     * @param shard The index of the shard.
+     * @return The single sample gradient workspace of a shard.
+     */
+    ArrayList<Matrix> getSampleGradient(int shard){
+        return this.sampleGradients.get(shard);
+    }
+}
@@ -0,0 +1,45 @@
+package jpf;
+
+/**
+ * Defines the InferenceSession class, which makes predictions with a neural network from one thread.
+ * The layers of a neural network store their vectors as fields, so a single NeuralNetwork cannot make
+ * predictions on several threads at once. A session holds replicas of the network's layers, which share
+ * the network's parameter matricies but have their own vectors. Sessions are cheap compared to loading
+ * another copy of the network, so one loaded network can serve many threads by giving each thread
+ * its own session. A session itself should only be used by one thread at a time.
+ */
+public class InferenceSession{
+
+    /**
+     * The replica of the neural network that the predictions are made with.
+     */
+    private NeuralNetwork replica;
+
+    /**
+     * Creates an inference session for a neural network. Use NeuralNetwork.createInferenceSession().
+     * @param network The neural network to make predictions with. Every layer must support replicas (see Layer.createReplica()).
+     */
+    InferenceSession(NeuralNetwork network){
+        Utility.checkNotNull(network);
+
+        this.replica = new NeuralNetwork(network);
+    }
+
+    /**
+     * Makes a prediction on one data sample for neural networks that have only one input vector and one output vector.
+     * @param x The input vector.
+     * @return The output vector.
+     */
+    public float[] predict(float[] x){
+        return this.replica.predict(x);
+    }
+
+    /**
+     * Makes a prediction on one data sample. Can be used for both simple and complex neural networks.
+     * @param x The input vectors, one for each input layer.
+     * @return The output vectors, one for each output layer.
+     */
+    public float[][] predict(float[][] x){
+        return this.replica.predict(x);
+    }
+}
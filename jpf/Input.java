@@ -56,6 +56,28 @@ public class Input extends Layer{
         return;
     }
 
+    @Override
+    public boolean supportsBatch(){
+        return true;
+    }
+
+    @Override
+    public void forwardPassBatch(){
+        //The input batch is populated by the neural network and is copied to the output batch, just like forwardPass().
+        Utility.copyArrayContents(this.inputBatch.getData(), this.outputBatch.getData());
+    }
+
+    @Override
+    public void backwardPassBatch(){
+        //No work required since there is no parameters or computations done.
+        return;
+    }
+
+    @Override
+    public Layer createReplica(){
+        return new Input(this.inputVector.length);
+    }
+
     @Override
     public String toString(){
         //Only need to provide the length of the input vector.
@@ -1,6 +1,7 @@
 package jpf;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Defines the abstract Layer class which provides the basic functionality
@@ -12,7 +13,7 @@ public abstract class Layer {
     /**
      * The parameters of the layer represented as an ArrayList of float matricies.
      */
-    protected ArrayList<float[][]> parameters;
+    protected ArrayList<Matrix> parameters;
 
     /**
      * The input layers that connect with this layer. Outputs of these layers
@@ -40,7 +41,7 @@ public abstract class Layer {
     /**
      * The gradient of the loss function wrt the layer's parameters.
      */
-    protected ArrayList<float[][]> gradient;
+    protected ArrayList<Matrix> gradient;
 
     /**
      * Gradient of the loss function wrt this layer's output vector
@@ -52,20 +53,41 @@ public abstract class Layer {
      */
     protected float[] dLdX;
 
+    /**
+     * The input vectors of a minibatch, one row per sample ([batch size x input vector length]).
+     * Used by forwardPassBatch() and backwardPassBatch() in place of the input vector.
+     */
+    protected Matrix inputBatch;
+
+    /**
+     * The output vectors of a minibatch, one row per sample ([batch size x output vector length]).
+     */
+    protected Matrix outputBatch;
+
+    /**
+     * Gradient of the loss function wrt this layer's output vectors, one row per sample in the minibatch.
+     */
+    protected Matrix dLdYBatch;
+
+    /**
+     * Gradient of the loss function wrt this layer's input vectors, one row per sample in the minibatch.
+     */
+    protected Matrix dLdXBatch;
+
 
     /**
      * Basic constructor that initializes the lists of the method. Other fields are not initialized
      * because they need more information, such as the number of units in the layer.
      */
     public Layer(){
-        this.parameters = new ArrayList<float[][]>();
+        this.parameters = new ArrayList<Matrix>();
         this.inputLayers = new ArrayList<Layer>();
         this.outputLayers = new ArrayList<Layer>();
     }
 
     //getters and setters for class fields
 
-    public ArrayList<float[][]> getParameters(){
+    public ArrayList<Matrix> getParameters(){
         return parameters;
     }
 
@@ -85,7 +107,7 @@ public abstract class Layer {
         return outputVector;
     }
 
-    public ArrayList<float[][]> getGradient(){
+    public ArrayList<Matrix> getGradient(){
         return gradient;
     }
 
@@ -98,6 +120,22 @@ public abstract class Layer {
         return dLdX;
     }
 
+    public Matrix getInputBatch(){
+        return inputBatch;
+    }
+
+    public Matrix getOutputBatch(){
+        return outputBatch;
+    }
+
+    public Matrix getdLdYBatch(){
+        return dLdYBatch;
+    }
+
+    public Matrix getdLdXBatch(){
+        return dLdXBatch;
+    }
+
     /**
      * Populates the dLdY vector with the sum of dLdX vector from this layer's output layers
      */
@@ -122,6 +160,71 @@ public abstract class Layer {
 
     }
 
+    /**
+     * Populates the dLdY batch with the sum of the dLdX batches from this layer's output layers.
+     * The dLdY batch should be cleared first (see initializeBatchArrays()).
+     */
+    protected void initializedLdYBatch(){
+        for(int i = 0; i < this.getOutputLayers().size(); i++){
+            LinearAlgebra.matrixAdd(this.dLdYBatch, this.getOutputLayers().get(i).getdLdXBatch(), this.dLdYBatch);
+        }
+    }
+
+    /**
+     * Populates the input batch by copying the output batch contents of the previous layer
+     * into the input batch of this layer. Should only be used for Layers that only have 1
+     * input layer.
+     */
+    protected void initializeInputBatchCopy(){
+
+        if(this.inputLayers.size() == 1){
+            Utility.copyArrayContents(this.inputLayers.get(0).outputBatch.getData(), this.inputBatch.getData());
+        }
+
+    }
+
+    /**
+     * Allocates the batch matricies for a minibatch of the given size and clears the dLdY batch.
+     * The matricies are only reallocated when the batch size changes, so consecutive minibatches
+     * of the same size reuse them. Each batch matrix has the same number of columns as the length
+     * of the corresponding vector, and batch matricies are only created for vectors that exist.
+     * @param batchSize The number of samples in the minibatch. Should be >= 1.
+     */
+    public void initializeBatchArrays(int batchSize){
+        if(this.inputVector != null){
+            this.inputBatch = Layer.resizeBatch(this.inputBatch, batchSize, this.inputVector.length);
+        }
+
+        if(this.outputVector != null){
+            this.outputBatch = Layer.resizeBatch(this.outputBatch, batchSize, this.outputVector.length);
+        }
+
+        if(this.dLdX != null){
+            this.dLdXBatch = Layer.resizeBatch(this.dLdXBatch, batchSize, this.dLdX.length);
+        }
+
+        if(this.dLdY != null){
+            this.dLdYBatch = Layer.resizeBatch(this.dLdYBatch, batchSize, this.dLdY.length);
+            Utility.clearArray(this.dLdYBatch);
+        }
+    }
+
+    /**
+     * Returns a matrix of the given shape, reusing the current matrix if it already has that shape.
+     * Used for the batch matricies and any other per minibatch workspaces.
+     * @param current The current matrix. May be null.
+     * @param numRows The number of rows of the matrix.
+     * @param numColumns The number of columns of the matrix.
+     * @return The current matrix if it has the right shape, else a newly allocated matrix.
+     */
+    protected static Matrix resizeBatch(Matrix current, int numRows, int numColumns){
+        if(current != null && current.getNumRows() == numRows && current.getNumColumns() == numColumns){
+            return current;
+        }
+
+        return new Matrix(numRows, numColumns);
+    }
+
     /**
      * Connects this layer to the input and output layers so that the forward and backward pass
      * methods can work properly.
@@ -184,6 +287,121 @@ public abstract class Layer {
      */
     public abstract void backwardPass();
 
+    /**
+     * Determines if this layer implements forwardPassBatch() and backwardPassBatch(). Neural networks only use the
+     * batched passes when every layer supports them, and otherwise fall back to one forwardPass() and backwardPass()
+     * per sample. Layers that implement the batched passes should override this method to return true.
+     * @return True if the batched passes are implemented, else false.
+     */
+    public boolean supportsBatch(){
+        return false;
+    }
+
+    /**
+     * Performs the forward pass on a whole minibatch at once. This is the same computation as forwardPass(),
+     * but on the batch matricies, where each row is one sample. The batch matricies are set up beforehand with
+     * initializeBatchArrays().
+     * 
+     * When implementing this method, the layer should "pull" the input batch from the layer's input layers,
+     * perform some computation, then place the result in the layer's output batch.
+     */
+    public void forwardPassBatch(){
+        throw new AssertionError(this.getClass().getSimpleName() + " does not support batched passes.");
+    }
+
+    /**
+     * Performs the backward pass on a whole minibatch at once. The gradient list should be populated with the
+     * sum of the gradients of all samples in the minibatch.
+     * 
+     * When implementing this method, the layer should first initialize the dLdY batch from the layer's
+     * output layers, populate the gradient list, then populate the dLdX batch.
+     */
+    public void backwardPassBatch(){
+        throw new AssertionError(this.getClass().getSimpleName() + " does not support batched passes.");
+    }
+
+
+    /**
+     * Creates a replica of this layer for running passes on another thread. The replica has the same properties and
+     * shares this layer's parameter matricies (and so sees all updates to them), but has its own vectors, batch
+     * matricies, gradient list and workspaces. The replica is not connected to any layers.
+     * 
+     * Layers that can be used with data parallel fitting should override this method.
+     * @return The replica, or null if this layer does not support replicas.
+     */
+    public Layer createReplica(){
+        return null;
+    }
+
+    /**
+     * Creates a text description of the layer's type and properties, but not its parameters. This is used by the
+     * binary model format, which stores the parameters separately. Layers without parameters use the toString()
+     * description. Layers with parameters should override this method, and createLayerFromSpecString() should be
+     * expanded to construct the layer from this description and its parameters.
+     * @return The description of the layer, or null if the layer does not support the binary model format.
+     */
+    public String toSpecString(){
+        if(this.parameters.size() == 0){
+            return this.toString();
+        }
+
+        return null;
+    }
+
+    /**
+     * Creates a Layer from the description produced by a layer's toSpecString method and the layer's parameters.
+     * When creating new layers with parameters, the if/else chain should be expanded to include a way to construct the
+     * new layer.
+     * 
+     * @param layerSpecString The string produced from a layer's toSpecString method.
+     * @param parameters The layer's parameters, in the same order as getParameters().
+     * @return The constructed layer with the correct parameters and properties. Returns null if unsuccessful.
+     */
+    public static Layer createLayerFromSpecString(String layerSpecString, List<Matrix> parameters){
+        Utility.checkNotNull(layerSpecString, parameters);
+
+        if(layerSpecString.contains("DENSE")){
+            return new Dense(layerSpecString, parameters);
+        } else if(layerSpecString.contains("SAMPLEDSOFTMAX")){
+            return new SampledSoftmaxLayer(layerSpecString, parameters);
+        } else if(parameters.size() == 0){
+            //Layers without parameters are described by their toString()
+            return Layer.createLayerFromString(layerSpecString);
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads the shapes of a layer's parameter matricies from the description produced by its toSpecString method,
+     * so that the text model format can allocate each matrix once before parsing it. Should be expanded together with
+     * createLayerFromSpecString() when the new layer's description determines the shapes of its parameters.
+     * @param layerSpecString The string produced from a layer's toSpecString method.
+     * @return The number of rows and columns of each parameter matrix, where a number of columns of -1 depends on
+     * the input layer. Returns null if the shapes are not known from the description.
+     */
+    static int[][] parameterShapesFromSpecString(String layerSpecString){
+        if(layerSpecString == null || !(layerSpecString.contains("DENSE") || layerSpecString.contains("SAMPLEDSOFTMAX"))){
+            return null;
+        }
+
+        //Both descriptions start with the number of rows of the weight and bias matricies, for example "DENSE(16, TANH)"
+        int start = layerSpecString.indexOf("(");
+        int end = layerSpecString.indexOf(",");
+
+        if(start < 0 || end < start){
+            return null;
+        }
+
+        try{
+            int numRows = Integer.parseInt(layerSpecString.substring(start + 1, end).trim());
+            return numRows > 0 ? new int[][]{{numRows, -1}, {numRows, 1}} : null;
+
+        } catch(NumberFormatException e){
+            //The layer constructor reports the malformed description
+            return null;
+        }
+    }
 
     /**
      * Creates a Layer solely from the layerInfoString that is produced from a layer's toString method.
@@ -204,6 +422,8 @@ public abstract class Layer {
             return new Dense(layerInfoString);
         } else if(layerInfoString.contains("ADD")){
             return new Add(layerInfoString);
+        } else if(layerInfoString.contains("SAMPLEDSOFTMAX")){
+            return new SampledSoftmaxLayer(layerInfoString);
         } else if(layerInfoString.contains("SOFTMAX")){
             return new SoftmaxLayer(layerInfoString);
         }
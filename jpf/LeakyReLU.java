@@ -28,7 +28,9 @@ public class LeakyReLU extends ActivationFunction{
      * @return The output number.
      */
     public float f(float x){
-        Utility.checkReal(x);
+        if(Utility.fullValidation()){
+            Utility.checkReal(x);
+        }
 
         if(x > 0){
             return x;
@@ -38,7 +40,9 @@ public class LeakyReLU extends ActivationFunction{
     }
 
     public float fPrime(float x){
-        Utility.checkReal(x);
+        if(Utility.fullValidation()){
+            Utility.checkReal(x);
+        }
 
         if(x > 0){
             return 1;
@@ -48,6 +52,55 @@ public class LeakyReLU extends ActivationFunction{
     }
 
 
+    @Override
+    public void f(float[] x, float[] dest){
+        if(!LinearAlgebra.getVectorizedKernels()){
+            super.f(x, dest);
+            return;
+        }
+
+        Utility.checkArrayLengthsEqual(x, dest);
+
+        //Branch free form: the positive part passes through, the negative part is scaled by alpha.
+        for(int i = 0; i < x.length; i++){
+            dest[i] = Math.max(x[i], 0f) + (alpha * Math.min(x[i], 0f));
+        }
+    }
+
+    @Override
+    public void fPrime(float[] x, float[] dest){
+        if(!LinearAlgebra.getVectorizedKernels()){
+            super.fPrime(x, dest);
+            return;
+        }
+
+        Utility.checkArrayLengthsEqual(x, dest);
+
+        for(int i = 0; i < x.length; i++){
+            dest[i] = x[i] > 0 ? 1f : alpha;
+        }
+    }
+
+
+    /**
+     * @return True if alpha >= 0. Then the output is positive exactly when the input is, so the output
+     * determines which slope applies. A negative alpha also gives positive outputs for negative inputs.
+     */
+    @Override
+    public boolean supportsFPrimeFromOutput(){
+        return this.alpha >= 0;
+    }
+
+    @Override
+    public float fPrimeFromOutput(float y){
+        if(!this.supportsFPrimeFromOutput()){
+            return super.fPrimeFromOutput(y);
+        }
+
+        return y > 0 ? 1f : alpha;
+    }
+
+
     public String toString(){
         return "LEAKYRELU(" + this.alpha + ")";
     }
@@ -7,17 +7,34 @@ package jpf;
 public class Linear extends ActivationFunction{
 
     public float f(float x){
-        Utility.checkReal(x);
+        if(Utility.fullValidation()){
+            Utility.checkReal(x);
+        }
 
         return x;
     }
 
     public float fPrime(float x){
-        Utility.checkReal(x);
+        if(Utility.fullValidation()){
+            Utility.checkReal(x);
+        }
         
         return 1;
     }
 
+    /**
+     * @return True, the derivative is always 1.
+     */
+    @Override
+    public boolean supportsFPrimeFromOutput(){
+        return true;
+    }
+
+    @Override
+    public float fPrimeFromOutput(float y){
+        return 1;
+    }
+
     public String toString(){
         return "LINEAR";
     }
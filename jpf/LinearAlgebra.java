@@ -1,6 +1,9 @@
 package jpf;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
 /**
@@ -8,6 +11,81 @@ import java.util.ArrayList;
  */
 public class LinearAlgebra{
 
+    /**
+     * The number of multiply-adds (rows * inner dimension * columns) at which matrixMultiply() switches
+     * from the simple loop to the cache blocked algorithm.
+     */
+    public static final long BLOCKED_MULTIPLY_THRESHOLD = 64L * 64L * 64L;
+
+    /**
+     * The number of rows of a that are packed together in the blocked multiplication. Sized so that a packed
+     * block of a (BLOCK_M x BLOCK_K) fits into the L2 cache.
+     */
+    private static final int BLOCK_M = 64;
+
+    /**
+     * The length of the inner dimension that is processed at once in the blocked multiplication. Sized so that a
+     * panel of a and a panel of b fit into the L1 cache.
+     */
+    private static final int BLOCK_K = 256;
+
+    /**
+     * The number of columns of b that are packed together in the blocked multiplication.
+     */
+    private static final int BLOCK_N = 512;
+
+    /**
+     * Determines if the vector kernels (dot(), axpy() and the array versions of the activation functions and clip())
+     * use their vectorized form or the plain scalar loop. The vectorized forms are written so the JIT compiler can
+     * use SIMD instructions (independent accumulators, no branches), but they may round differently from the scalar
+     * loops since floating point addition is not associative. Can be turned off to compare results.
+     */
+    private static volatile boolean vectorizedKernels = true;
+
+    /**
+     * The number of independent accumulators/lanes used in the vectorized kernels.
+     */
+    private static final int VECTOR_LANES = 8;
+
+    /**
+     * The number of rows in a tile computed by the micro kernel.
+     */
+    private static final int MICRO_ROWS = 4;
+
+    /**
+     * The number of columns in a tile computed by the micro kernel.
+     */
+    private static final int MICRO_COLUMNS = 4;
+
+    /**
+     * The number of multiply-adds (rows * inner dimension * columns) at which matrixMultiplyParallel() splits the
+     * product across threads. Below this the cost of scheduling tasks outweighs the gain, so the product is
+     * computed serially on the calling thread.
+     */
+    public static final long PARALLEL_MULTIPLY_THRESHOLD = 1L << 18;
+
+    /**
+     * The number of tasks created per thread of the pool in matrixMultiplyParallel(). Using a few tasks per
+     * thread lets the pool balance the work when some threads are busy with something else.
+     */
+    private static final int TASKS_PER_THREAD = 4;
+
+    /**
+     * The thread pool that is used by matrixMultiplyParallel(). Shared by all parallel operations so that
+     * the package does not create more threads than the pool allows.
+     */
+    private static volatile ForkJoinPool threadPool = ForkJoinPool.commonPool();
+
+    /**
+     * The algorithms that the rows of a product can be computed with, used by the parallel multiplications.
+     */
+    private static final int MULTIPLY_SIMPLE = 0;
+    private static final int MULTIPLY_BLOCKED = 1;
+    private static final int MULTIPLY_TRANSPOSE_A = 2;
+    private static final int MULTIPLY_TRANSPOSE_B = 3;
+    private static final int MULTIPLY_BLOCKED_TRANSPOSE_A = 4;
+    private static final int MULTIPLY_BLOCKED_TRANSPOSE_B = 5;
+
     //Initialization methods
 
     /**
@@ -201,7 +279,11 @@ public class LinearAlgebra{
      */
     private static void matrixMultiplyParamCheck(float[][] a, float[][] b, float[][] result){
         Utility.checkNotNull((Object)a, (Object)b, (Object)result);
-        Utility.checkMatrixRectangle(a, b, result);
+
+        //Walking every row is left to the full validation level, the dimension checks below only use the first row
+        if(Utility.fullValidation()){
+            Utility.checkMatrixRectangle(a, b, result);
+        }
 
         int aRows = LinearAlgebra.getNumRows(a);
         int aCols = LinearAlgebra.getNumColumns(a);
@@ -229,7 +311,9 @@ public class LinearAlgebra{
     public static float[][] matrixMultiply(float[][] a, float[][] b){
         //Check parameters
         Utility.checkNotNull((Object)a, (Object)b);
-        Utility.checkMatrixRectangle(a, b);
+        if(Utility.fullValidation()){
+            Utility.checkMatrixRectangle(a, b);
+        }
 
         int aCols = LinearAlgebra.getNumColumns(a);
         int bRows = LinearAlgebra.getNumRows(b);
@@ -252,7 +336,9 @@ public class LinearAlgebra{
     public static void matrixAdd(float[][] a, float[][] b, float[][] result){
         //Check parameters
         Utility.checkNotNull((Object)a, (Object)b, (Object)result);
-        Utility.checkMatrixRectangle(a, b, result);
+        if(Utility.fullValidation()){
+            Utility.checkMatrixRectangle(a, b, result);
+        }
         Utility.checkMatrixDimensionsEqual(a, b, result);
 
         for(int r = 0; r < LinearAlgebra.getNumRows(a); r++){
@@ -272,7 +358,9 @@ public class LinearAlgebra{
     public static float[][] matrixAdd(float[][] a, float[][] b){
         //Check parameters
         Utility.checkNotNull((Object)a, (Object)b);
-        Utility.checkMatrixRectangle(a, b);
+        if(Utility.fullValidation()){
+            Utility.checkMatrixRectangle(a, b);
+        }
         Utility.checkMatrixDimensionsEqual(a, b);
 
         float[][] r = new float[getNumRows(a)][getNumColumns(a)];
@@ -293,7 +381,9 @@ public class LinearAlgebra{
     public static void elementwiseMultiply(float[][] a, float[][] b, float[][] result){
         //Check parameters
         Utility.checkNotNull((Object)a, (Object)b, (Object) result);
-        Utility.checkMatrixRectangle(a, b, result);
+        if(Utility.fullValidation()){
+            Utility.checkMatrixRectangle(a, b, result);
+        }
         Utility.checkMatrixDimensionsEqual(a, b, result);
 
         for(int r = 0; r < a.length; r++){
@@ -314,7 +404,9 @@ public class LinearAlgebra{
     public static float[][] elementwiseMultiply(float[][] a, float[][] b){
         //Check parameters
         Utility.checkNotNull((Object)a, (Object)b);
-        Utility.checkMatrixRectangle(a, b);
+        if(Utility.fullValidation()){
+            Utility.checkMatrixRectangle(a, b);
+        }
         Utility.checkMatrixDimensionsEqual(a, b);
 
         float[][] r = new float[LinearAlgebra.getNumRows(a)][LinearAlgebra.getNumColumns(a)];
@@ -400,4 +492,811 @@ public class LinearAlgebra{
 
         return r;
     }
+
+
+    //Vector kernels. These work on ranges of float arrays and are used by the hot loops of the package.
+
+    /**
+     * Turns the vectorized form of the vector kernels on or off. When off, the kernels use plain scalar loops.
+     * @param enabled True to use the vectorized kernels, false to use the scalar kernels.
+     */
+    public static void setVectorizedKernels(boolean enabled){
+        LinearAlgebra.vectorizedKernels = enabled;
+    }
+
+    /**
+     * @return True if the vectorized form of the vector kernels is used, false if the scalar loops are used.
+     */
+    public static boolean getVectorizedKernels(){
+        return LinearAlgebra.vectorizedKernels;
+    }
+
+    /**
+     * Calculates the dot product of two ranges of arrays.
+     * @param a The first array.
+     * @param aOffset The index where the range in the first array starts.
+     * @param b The second array.
+     * @param bOffset The index where the range in the second array starts.
+     * @param length The number of elements in the ranges.
+     * @return The sum of a[aOffset + i] * b[bOffset + i] for i in [0, length)
+     */
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset, int length){
+        if(!LinearAlgebra.vectorizedKernels){
+            float sum = 0;
+
+            for(int i = 0; i < length; i++){
+                sum += a[aOffset + i] * b[bOffset + i];
+            }
+
+            return sum;
+        }
+
+        //Independent accumulators remove the dependency between iterations so they can run in parallel.
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0, s4 = 0, s5 = 0, s6 = 0, s7 = 0;
+
+        int i = 0;
+        int vectorEnd = length - (length % VECTOR_LANES);
+
+        for(; i < vectorEnd; i += VECTOR_LANES){
+            int ai = aOffset + i;
+            int bi = bOffset + i;
+
+            s0 += a[ai] * b[bi];
+            s1 += a[ai + 1] * b[bi + 1];
+            s2 += a[ai + 2] * b[bi + 2];
+            s3 += a[ai + 3] * b[bi + 3];
+            s4 += a[ai + 4] * b[bi + 4];
+            s5 += a[ai + 5] * b[bi + 5];
+            s6 += a[ai + 6] * b[bi + 6];
+            s7 += a[ai + 7] * b[bi + 7];
+        }
+
+        //Remaining elements that do not fill all of the lanes
+        for(; i < length; i++){
+            s0 += a[aOffset + i] * b[bOffset + i];
+        }
+
+        return ((s0 + s1) + (s2 + s3)) + ((s4 + s5) + (s6 + s7));
+    }
+
+    /**
+     * Calculates the dot product of two arrays of equal length.
+     * @param a The first array.
+     * @param b The second array.
+     * @return The dot product of a and b.
+     */
+    public static float dot(float[] a, float[] b){
+        Utility.checkArrayLengthsEqual(a, b);
+
+        return LinearAlgebra.dot(a, 0, b, 0, a.length);
+    }
+
+    /**
+     * Adds a scaled range of one array to a range of another array: y = alpha * x + y.
+     * @param alpha The scalar to multiply the x range by.
+     * @param x The array that is scaled.
+     * @param xOffset The index where the range in x starts.
+     * @param y The array that is added to. This is where the result is placed.
+     * @param yOffset The index where the range in y starts.
+     * @param length The number of elements in the ranges.
+     */
+    public static void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length){
+        //This loop has no dependencies between iterations, so the JIT compiler vectorizes the plain form.
+        for(int i = 0; i < length; i++){
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    //Matrix methods. These work on the contiguous Matrix class rather than float[][]
+
+    /**
+     * Transposes one matrix into another matrix
+     * @param a The matrix to transpose.
+     * @param t The matrix to place the result in.
+     */
+    public static void transpose(Matrix a, Matrix t){
+        Utility.checkNotNull(a, t);
+        Utility.checkEqual(a.getNumColumns(), t.getNumRows());
+        Utility.checkEqual(t.getNumColumns(), a.getNumRows());
+
+        float[] aData = a.getData();
+        float[] tData = t.getData();
+
+        int rows = a.getNumRows();
+        int cols = a.getNumColumns();
+
+        for(int r = 0; r < rows; r++){
+            for(int c = 0; c < cols; c++){
+                tData[c * rows + r] = aData[r * cols + c];
+            }
+        }
+    }
+
+    /**
+     * Transposes the input matrix.
+     * @param a The matrix to transpose.
+     * @return The newly allocated transposed matrix.
+     */
+    public static Matrix transpose(Matrix a){
+        Utility.checkNotNull(a);
+
+        Matrix t = new Matrix(a.getNumColumns(), a.getNumRows());
+
+        LinearAlgebra.transpose(a, t);
+        return t;
+    }
+
+    /**
+     * Performs matrix multiplication. Matrix dimensions should be valid.
+     * Small products use the simple loop, while larger products (at least BLOCKED_MULTIPLY_THRESHOLD
+     * multiply-adds) use the cache blocked algorithm in matrixMultiplyBlocked().
+     * @param a The first matrix.
+     * @param b The second matrix.
+     * @param result The resulting matrix where a * b will be placed. Should not be the same object as a or b.
+     */
+    public static void matrixMultiply(Matrix a, Matrix b, Matrix result){
+        LinearAlgebra.matrixMultiplyParamCheck(a, b, result);
+
+        if(LinearAlgebra.useBlockedMultiply(a.getNumRows(), a.getNumColumns(), b.getNumColumns())){
+            LinearAlgebra.matrixMultiplyBlocked(a, b, result);
+        } else {
+            LinearAlgebra.matrixMultiplySimple(a, b, result);
+        }
+    }
+
+    /**
+     * Sets the thread pool used by matrixMultiplyParallel(). Defaults to the common ForkJoinPool.
+     * A pool with parallelism 1 effectively turns the parallel multiplication off.
+     * @param pool The thread pool to use.
+     */
+    public static void setThreadPool(ForkJoinPool pool){
+        Utility.checkNotNull(pool);
+
+        LinearAlgebra.threadPool = pool;
+    }
+
+    /**
+     * @return The thread pool used by matrixMultiplyParallel().
+     */
+    public static ForkJoinPool getThreadPool(){
+        return LinearAlgebra.threadPool;
+    }
+
+    /**
+     * Performs matrix multiplication, splitting blocks of result rows across the threads of the thread pool
+     * (see setThreadPool()). Every task writes a separate range of rows, so no synchronization is needed and
+     * the result is identical to matrixMultiply(). Products with less than PARALLEL_MULTIPLY_THRESHOLD
+     * multiply-adds are computed serially with matrixMultiply().
+     * @param a The first matrix.
+     * @param b The second matrix.
+     * @param result The matrix that stores the product of a and b. Should not be a or b.
+     */
+    public static void matrixMultiplyParallel(Matrix a, Matrix b, Matrix result){
+        LinearAlgebra.matrixMultiplyParamCheck(a, b, result);
+
+        int m = a.getNumRows();
+
+        //Use the same algorithm as matrixMultiply() would for the whole product, so that the results are identical.
+        int algorithm = LinearAlgebra.useBlockedMultiply(m, a.getNumColumns(), b.getNumColumns()) ? MULTIPLY_BLOCKED : MULTIPLY_SIMPLE;
+
+        LinearAlgebra.multiplyRowsParallel(algorithm, a, b, result, m, ((long)a.getNumColumns()) * b.getNumColumns());
+    }
+
+    /**
+     * Performs matrix multiplication on multiple threads and returns the result (see matrixMultiplyParallel(Matrix, Matrix, Matrix)).
+     * @param a The first matrix.
+     * @param b The second matrix.
+     * @return The newly allocated product of a and b.
+     */
+    public static Matrix matrixMultiplyParallel(Matrix a, Matrix b){
+        Utility.checkNotNull(a, b);
+
+        Matrix r = new Matrix(a.getNumRows(), b.getNumColumns());
+
+        LinearAlgebra.matrixMultiplyParallel(a, b, r);
+
+        return r;
+    }
+
+    /**
+     * Multiplies a by the transpose of b (a * b^T) without transposing b. For small products, each result entry is the
+     * dot product of a row of a and a row of b, which are both contiguous in memory. Like matrixMultiplyParallel(), large products are split
+     * across the threads of the thread pool.
+     * @param a The first matrix.
+     * @param b The second matrix, which is used transposed. Should have the same number of columns as a.
+     * @param result The matrix that stores a * b^T. Should not be a or b.
+     */
+    public static void matrixMultiplyTransposeB(Matrix a, Matrix b, Matrix result){
+        //Check parameters
+        Utility.checkNotNull(a, b, result);
+        Utility.checkEqual(a.getNumColumns(), b.getNumColumns());
+        Utility.checkEqual(result.getNumRows(), a.getNumRows());
+        Utility.checkEqual(result.getNumColumns(), b.getNumRows());
+        LinearAlgebra.checkNotSameMatrix(a, b, result);
+
+        //Large products use the blocked algorithm, which reads b transposed while packing it.
+        int algorithm = LinearAlgebra.useBlockedMultiply(a.getNumRows(), a.getNumColumns(), b.getNumRows()) ? MULTIPLY_BLOCKED_TRANSPOSE_B : MULTIPLY_TRANSPOSE_B;
+
+        LinearAlgebra.multiplyRowsParallel(algorithm, a, b, result, a.getNumRows(), ((long)a.getNumColumns()) * b.getNumRows());
+    }
+
+    /**
+     * Multiplies the transpose of a by b (a^T * b) without transposing a. For small products, the result is computed as the
+     * sum of the outer products of the rows of a and b, so the innermost loop walks along rows of b and the result. Like matrixMultiplyParallel(),
+     * large products are split across the threads of the thread pool.
+     * @param a The first matrix, which is used transposed. Should have the same number of rows as b.
+     * @param b The second matrix.
+     * @param result The matrix that stores a^T * b. Should not be a or b.
+     */
+    public static void matrixMultiplyTransposeA(Matrix a, Matrix b, Matrix result){
+        //Check parameters
+        Utility.checkNotNull(a, b, result);
+        Utility.checkEqual(a.getNumRows(), b.getNumRows());
+        Utility.checkEqual(result.getNumRows(), a.getNumColumns());
+        Utility.checkEqual(result.getNumColumns(), b.getNumColumns());
+        LinearAlgebra.checkNotSameMatrix(a, b, result);
+
+        //Large products use the blocked algorithm, which reads a transposed while packing it.
+        int algorithm = LinearAlgebra.useBlockedMultiply(a.getNumColumns(), a.getNumRows(), b.getNumColumns()) ? MULTIPLY_BLOCKED_TRANSPOSE_A : MULTIPLY_TRANSPOSE_A;
+
+        LinearAlgebra.multiplyRowsParallel(algorithm, a, b, result, a.getNumColumns(), ((long)a.getNumRows()) * b.getNumColumns());
+    }
+
+    /**
+     * Checks that the result matrix of a multiplication is not also one of the operands, which would overwrite
+     * the operand while it is being read.
+     * @param a The first matrix.
+     * @param b The second matrix.
+     * @param result The result matrix.
+     */
+    private static void checkNotSameMatrix(Matrix a, Matrix b, Matrix result){
+        if(result == a || result == b){
+            throw new AssertionError("Result matrix of a multiplication cannot be one of the operands.");
+        }
+    }
+
+    /**
+     * Computes the rows of a product with the given algorithm, splitting the rows across the thread pool if
+     * the product is large enough. Every task writes a separate range of rows, so no synchronization is needed
+     * and the result does not depend on the number of threads.
+     * @param algorithm The algorithm to compute the rows with (one of the MULTIPLY_ constants).
+     * @param a The first matrix.
+     * @param b The second matrix.
+     * @param result The matrix that stores the product.
+     * @param m The number of rows of the result.
+     * @param rowWork The number of multiply-adds needed for one row of the result.
+     */
+    private static void multiplyRowsParallel(int algorithm, Matrix a, Matrix b, Matrix result, int m, long rowWork){
+        ForkJoinPool pool = LinearAlgebra.threadPool;
+
+        if(m < 2 || pool.getParallelism() < 2 || m * rowWork < PARALLEL_MULTIPLY_THRESHOLD){
+            LinearAlgebra.multiplyRows(algorithm, a, b, result, 0, m);
+            return;
+        }
+
+        //Split the rows into a few tasks per thread, but keep every task above a minimum amount of work.
+        int maxTasks = pool.getParallelism() * TASKS_PER_THREAD;
+        int minRowsForWork = (int)Math.min(m, (PARALLEL_MULTIPLY_THRESHOLD / TASKS_PER_THREAD + rowWork - 1) / rowWork);
+        int rowsPerTask = Math.max(Math.max((m + maxTasks - 1) / maxTasks, minRowsForWork), 1);
+
+        pool.invoke(new MatrixMultiplyTask(algorithm, a, b, result, 0, m, rowsPerTask));
+    }
+
+    /**
+     * Computes rows [rowStart, rowEnd) of a product with the given algorithm.
+     * @param algorithm The algorithm to compute the rows with (one of the MULTIPLY_ constants).
+     * @param a The first matrix.
+     * @param b The second matrix.
+     * @param result The matrix that stores the product.
+     * @param rowStart The first row of the result to compute.
+     * @param rowEnd One past the last row of the result to compute.
+     */
+    private static void multiplyRows(int algorithm, Matrix a, Matrix b, Matrix result, int rowStart, int rowEnd){
+        if(algorithm == MULTIPLY_BLOCKED){
+            LinearAlgebra.matrixMultiplyBlocked(a, false, b, false, result, rowStart, rowEnd);
+        } else if(algorithm == MULTIPLY_BLOCKED_TRANSPOSE_A){
+            LinearAlgebra.matrixMultiplyBlocked(a, true, b, false, result, rowStart, rowEnd);
+        } else if(algorithm == MULTIPLY_BLOCKED_TRANSPOSE_B){
+            LinearAlgebra.matrixMultiplyBlocked(a, false, b, true, result, rowStart, rowEnd);
+        } else if(algorithm == MULTIPLY_TRANSPOSE_A){
+            LinearAlgebra.matrixMultiplyTransposeA(a, b, result, rowStart, rowEnd);
+        } else if(algorithm == MULTIPLY_TRANSPOSE_B){
+            LinearAlgebra.matrixMultiplyTransposeB(a, b, result, rowStart, rowEnd);
+        } else {
+            LinearAlgebra.matrixMultiplySimple(a, b, result, rowStart, rowEnd);
+        }
+    }
+
+    /**
+     * Computes rows [rowStart, rowEnd) of a * b^T.
+     * @param a The first matrix.
+     * @param b The second matrix, which is used transposed.
+     * @param result The matrix that stores a * b^T.
+     * @param rowStart The first row of the result to compute.
+     * @param rowEnd One past the last row of the result to compute.
+     */
+    private static void matrixMultiplyTransposeB(Matrix a, Matrix b, Matrix result, int rowStart, int rowEnd){
+        float[] aData = a.getData();
+        float[] bData = b.getData();
+        float[] resultData = result.getData();
+
+        int k = a.getNumColumns();
+        int n = b.getNumRows();
+
+        for(int r = rowStart; r < rowEnd; r++){
+            for(int c = 0; c < n; c++){
+                resultData[r * n + c] = LinearAlgebra.dot(aData, r * k, bData, c * k, k);
+            }
+        }
+    }
+
+    /**
+     * Computes rows [rowStart, rowEnd) of a^T * b.
+     * @param a The first matrix, which is used transposed.
+     * @param b The second matrix.
+     * @param result The matrix that stores a^T * b.
+     * @param rowStart The first row of the result to compute.
+     * @param rowEnd One past the last row of the result to compute.
+     */
+    private static void matrixMultiplyTransposeA(Matrix a, Matrix b, Matrix result, int rowStart, int rowEnd){
+        float[] aData = a.getData();
+        float[] bData = b.getData();
+        float[] resultData = result.getData();
+
+        int m = a.getNumColumns();
+        int n = b.getNumColumns();
+
+        Arrays.fill(resultData, rowStart * n, rowEnd * n, 0f);
+
+        //Add the outer product of row p of a and row p of b to the result rows.
+        for(int p = 0; p < a.getNumRows(); p++){
+            for(int r = rowStart; r < rowEnd; r++){
+                LinearAlgebra.axpy(aData[p * m + r], bData, p * n, resultData, r * n, n);
+            }
+        }
+    }
+
+    /**
+     * Task that computes a range of rows of a matrix product. Ranges larger than rowsPerTask are split in half
+     * and computed as two subtasks.
+     */
+    private static class MatrixMultiplyTask extends RecursiveAction{
+
+        private static final long serialVersionUID = 1L;
+
+        private final int algorithm;
+        private final Matrix a;
+        private final Matrix b;
+        private final Matrix result;
+        private final int rowStart;
+        private final int rowEnd;
+        private final int rowsPerTask;
+
+        private MatrixMultiplyTask(int algorithm, Matrix a, Matrix b, Matrix result, int rowStart, int rowEnd, int rowsPerTask){
+            this.algorithm = algorithm;
+            this.a = a;
+            this.b = b;
+            this.result = result;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+            this.rowsPerTask = rowsPerTask;
+        }
+
+        @Override
+        protected void compute(){
+            if(this.rowEnd - this.rowStart <= this.rowsPerTask){
+                LinearAlgebra.multiplyRows(this.algorithm, this.a, this.b, this.result, this.rowStart, this.rowEnd);
+                return;
+            }
+
+            //Split on a multiple of the micro kernel height so the blocked algorithm gets full tiles.
+            int middle = this.rowStart + LinearAlgebra.roundUp((this.rowEnd - this.rowStart) / 2, MICRO_ROWS);
+
+            if(middle >= this.rowEnd){
+                middle = (this.rowStart + this.rowEnd) >>> 1;
+            }
+
+            invokeAll(
+                new MatrixMultiplyTask(this.algorithm, this.a, this.b, this.result, this.rowStart, middle, this.rowsPerTask),
+                new MatrixMultiplyTask(this.algorithm, this.a, this.b, this.result, middle, this.rowEnd, this.rowsPerTask)
+            );
+        }
+    }
+
+    /**
+     * Determines if a product is large enough for the blocked multiplication to be worth the cost of packing.
+     * @param m The number of rows in the first matrix.
+     * @param k The number of columns in the first matrix (rows in the second matrix).
+     * @param n The number of columns in the second matrix.
+     * @return True if the blocked multiplication should be used.
+     */
+    private static boolean useBlockedMultiply(int m, int k, int n){
+        //Products with a very thin side (such as matrix-vector products) gain nothing from the micro kernel tiles.
+        if(m < MICRO_ROWS * 2 || n < MICRO_COLUMNS * 2){
+            return false;
+        }
+
+        return ((long)m) * k * n >= BLOCKED_MULTIPLY_THRESHOLD;
+    }
+
+    /**
+     * Performs matrix multiplication with a simple loop. Matrix dimensions should be valid.
+     * The loops are ordered so that the innermost loop walks along a row of b and a row of the result,
+     * which are both contiguous in memory.
+     * @param a The first matrix.
+     * @param b The second matrix.
+     * @param result The resulting matrix where a * b will be placed. Should not be the same object as a or b.
+     */
+    public static void matrixMultiplySimple(Matrix a, Matrix b, Matrix result){
+        LinearAlgebra.matrixMultiplyParamCheck(a, b, result);
+
+        LinearAlgebra.matrixMultiplySimple(a, b, result, 0, a.getNumRows());
+    }
+
+    /**
+     * Computes rows [rowStart, rowEnd) of the matrix product a * b using the simple loop. Matrix dimensions should be valid.
+     * Only those rows of the result are written, so different row ranges can be computed at the same time.
+     * @param a The first matrix.
+     * @param b The second matrix.
+     * @param result The matrix that stores the product of a and b.
+     * @param rowStart The first row of the result to compute.
+     * @param rowEnd One past the last row of the result to compute.
+     */
+    private static void matrixMultiplySimple(Matrix a, Matrix b, Matrix result, int rowStart, int rowEnd){
+        float[] aData = a.getData();
+        float[] bData = b.getData();
+        float[] resultData = result.getData();
+
+        int aCols = a.getNumColumns();
+        int bCols = b.getNumColumns();
+
+        //A single column b is a matrix-vector product, where each result entry is a dot product.
+        if(bCols == 1){
+            for(int r = rowStart; r < rowEnd; r++){
+                resultData[r] = LinearAlgebra.dot(aData, r * aCols, bData, 0, aCols);
+            }
+
+            return;
+        }
+
+        for(int r = rowStart; r < rowEnd; r++){
+            int resultRow = r * bCols;
+
+            for(int c = 0; c < bCols; c++){
+                resultData[resultRow + c] = 0f;
+            }
+
+            for(int i = 0; i < aCols; i++){
+                float aEntry = aData[r * aCols + i];
+                int bRow = i * bCols;
+
+                for(int c = 0; c < bCols; c++){
+                    resultData[resultRow + c] += aEntry * bData[bRow + c];
+                }
+            }
+        }
+    }
+
+    /**
+     * Performs matrix multiplication using cache blocking. Matrix dimensions should be valid.
+     * 
+     * The product is split into blocks so that the working set stays in cache: a BLOCK_K x BLOCK_N block of b
+     * is copied ("packed") into a buffer of MICRO_COLUMNS wide column panels, then each BLOCK_M x BLOCK_K block of a
+     * is packed into MICRO_ROWS tall row panels. The micro kernel then computes a MICRO_ROWS x MICRO_COLUMNS tile of
+     * the result from one panel of each, keeping the whole tile in local variables (registers) while it
+     * streams through the packed panels sequentially.
+     * @param a The first matrix.
+     * @param b The second matrix.
+     * @param result The resulting matrix where a * b will be placed. Should not be the same object as a or b.
+     */
+    public static void matrixMultiplyBlocked(Matrix a, Matrix b, Matrix result){
+        LinearAlgebra.matrixMultiplyParamCheck(a, b, result);
+
+        LinearAlgebra.matrixMultiplyBlocked(a, false, b, false, result, 0, a.getNumRows());
+    }
+
+    /**
+     * Performs the cache blocked matrix multiplication on a range of rows of the result. Either operand can be used
+     * transposed, which only changes how its entries are read while packing.
+     * @param a The first matrix.
+     * @param transposeA If true, a^T is used in place of a.
+     * @param b The second matrix.
+     * @param transposeB If true, b^T is used in place of b.
+     * @param result The resulting matrix where a * b will be placed.
+     * @param rowStart The first row of the result to compute (inclusive).
+     * @param rowEnd The last row of the result to compute (exclusive).
+     */
+    private static void matrixMultiplyBlocked(Matrix a, boolean transposeA, Matrix b, boolean transposeB, Matrix result, int rowStart, int rowEnd){
+        int k = transposeA ? a.getNumRows() : a.getNumColumns();
+        int n = result.getNumColumns();
+
+        //Distance between consecutive rows and consecutive columns of the (possibly transposed) operands
+        int aRowStride = transposeA ? 1 : a.getNumColumns();
+        int aColStride = transposeA ? a.getNumColumns() : 1;
+        int bRowStride = transposeB ? 1 : b.getNumColumns();
+        int bColStride = transposeB ? b.getNumColumns() : 1;
+
+        float[] resultData = result.getData();
+
+        //Clear the rows of the result, since the blocks accumulate into it.
+        Arrays.fill(resultData, rowStart * n, rowEnd * n, 0f);
+
+        float[] packedA = new float[roundUp(Math.min(BLOCK_M, rowEnd - rowStart), MICRO_ROWS) * Math.min(BLOCK_K, k)];
+        float[] packedB = new float[roundUp(Math.min(BLOCK_N, n), MICRO_COLUMNS) * Math.min(BLOCK_K, k)];
+
+        for(int jc = 0; jc < n; jc += BLOCK_N){
+            int nc = Math.min(BLOCK_N, n - jc);
+
+            for(int pc = 0; pc < k; pc += BLOCK_K){
+                int kc = Math.min(BLOCK_K, k - pc);
+
+                LinearAlgebra.packColumnPanels(b.getData(), bRowStride, bColStride, pc, kc, jc, nc, packedB);
+
+                for(int ic = rowStart; ic < rowEnd; ic += BLOCK_M){
+                    int mc = Math.min(BLOCK_M, rowEnd - ic);
+
+                    LinearAlgebra.packRowPanels(a.getData(), aRowStride, aColStride, ic, mc, pc, kc, packedA);
+
+                    for(int jr = 0; jr < nc; jr += MICRO_COLUMNS){
+                        for(int ir = 0; ir < mc; ir += MICRO_ROWS){
+                            LinearAlgebra.multiplyMicroKernel(packedA, ir * kc, packedB, jr * kc, kc, resultData, n,
+                                ic + ir, Math.min(MICRO_ROWS, mc - ir), jc + jr, Math.min(MICRO_COLUMNS, nc - jr));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies a block of a into panels that are MICRO_ROWS tall. Within a panel, the entries are stored column by column,
+     * so the micro kernel reads them sequentially. Rows past the end of the block are padded with zeros.
+     * @param aData The data array of the matrix to pack.
+     * @param rowStride The distance between the starts of consecutive rows in the data array.
+     * @param colStride The distance between consecutive entries of a row in the data array.
+     * @param rowStart The first row of the block.
+     * @param numRows The number of rows in the block.
+     * @param colStart The first column of the block.
+     * @param numCols The number of columns in the block.
+     * @param packed The buffer to pack into.
+     */
+    private static void packRowPanels(float[] aData, int rowStride, int colStride, int rowStart, int numRows, int colStart, int numCols, float[] packed){
+        int index = 0;
+
+        for(int panel = 0; panel < numRows; panel += MICRO_ROWS){
+            for(int p = 0; p < numCols; p++){
+                for(int i = 0; i < MICRO_ROWS; i++){
+                    int row = panel + i;
+
+                    if(row < numRows){
+                        packed[index] = aData[(rowStart + row) * rowStride + (colStart + p) * colStride];
+                    } else {
+                        packed[index] = 0f;
+                    }
+
+                    index++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies a block of b into panels that are MICRO_COLUMNS wide. Within a panel, the entries are stored row by row,
+     * so the micro kernel reads them sequentially. Columns past the end of the block are padded with zeros.
+     * @param bData The data array of the matrix to pack.
+     * @param rowStride The distance between the starts of consecutive rows in the data array.
+     * @param colStride The distance between consecutive entries of a row in the data array.
+     * @param rowStart The first row of the block.
+     * @param numRows The number of rows in the block.
+     * @param colStart The first column of the block.
+     * @param numCols The number of columns in the block.
+     * @param packed The buffer to pack into.
+     */
+    private static void packColumnPanels(float[] bData, int rowStride, int colStride, int rowStart, int numRows, int colStart, int numCols, float[] packed){
+        int index = 0;
+
+        for(int panel = 0; panel < numCols; panel += MICRO_COLUMNS){
+            for(int p = 0; p < numRows; p++){
+                int bRow = (rowStart + p) * rowStride + (colStart + panel) * colStride;
+
+                for(int j = 0; j < MICRO_COLUMNS; j++){
+                    if(panel + j < numCols){
+                        packed[index] = bData[bRow + j * colStride];
+                    } else {
+                        packed[index] = 0f;
+                    }
+
+                    index++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes a MICRO_ROWS x MICRO_COLUMNS tile of a * b from one packed panel of a and one packed panel of b,
+     * and adds the tile to the result. The tile is kept in local variables for the entire loop.
+     * @param packedA The packed panels of a.
+     * @param aOffset The index where the panel of a starts.
+     * @param packedB The packed panels of b.
+     * @param bOffset The index where the panel of b starts.
+     * @param kc The length of the panels (number of multiply-adds per tile entry).
+     * @param result The data array of the result matrix.
+     * @param resultCols The number of columns of the result matrix.
+     * @param row The row of the result where the tile starts.
+     * @param numRows The number of valid rows in the tile (the rest is padding).
+     * @param col The column of the result where the tile starts.
+     * @param numCols The number of valid columns in the tile (the rest is padding).
+     */
+    private static void multiplyMicroKernel(float[] packedA, int aOffset, float[] packedB, int bOffset, int kc,
+                                            float[] result, int resultCols, int row, int numRows, int col, int numCols){
+        float c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+        float c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+        float c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+        float c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+
+        int ai = aOffset;
+        int bi = bOffset;
+
+        for(int p = 0; p < kc; p++){
+            float a0 = packedA[ai];
+            float a1 = packedA[ai + 1];
+            float a2 = packedA[ai + 2];
+            float a3 = packedA[ai + 3];
+
+            float b0 = packedB[bi];
+            float b1 = packedB[bi + 1];
+            float b2 = packedB[bi + 2];
+            float b3 = packedB[bi + 3];
+
+            c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+            c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+            c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+            c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+
+            ai += MICRO_ROWS;
+            bi += MICRO_COLUMNS;
+        }
+
+        if(numRows == MICRO_ROWS && numCols == MICRO_COLUMNS){
+            int r0 = row * resultCols + col;
+            int r1 = r0 + resultCols;
+            int r2 = r1 + resultCols;
+            int r3 = r2 + resultCols;
+
+            result[r0] += c00; result[r0 + 1] += c01; result[r0 + 2] += c02; result[r0 + 3] += c03;
+            result[r1] += c10; result[r1 + 1] += c11; result[r1 + 2] += c12; result[r1 + 3] += c13;
+            result[r2] += c20; result[r2 + 1] += c21; result[r2 + 2] += c22; result[r2 + 3] += c23;
+            result[r3] += c30; result[r3 + 1] += c31; result[r3 + 2] += c32; result[r3 + 3] += c33;
+        } else {
+            //Edge tile: only write the entries that are inside the result matrix.
+            float[] tile = {c00, c01, c02, c03, c10, c11, c12, c13, c20, c21, c22, c23, c30, c31, c32, c33};
+
+            for(int i = 0; i < numRows; i++){
+                for(int j = 0; j < numCols; j++){
+                    result[(row + i) * resultCols + col + j] += tile[i * MICRO_COLUMNS + j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Rounds a number up to the nearest multiple.
+     * @param x The number to round up.
+     * @param multiple The multiple to round to.
+     * @return The smallest multiple of the multiple parameter that is >= x.
+     */
+    private static int roundUp(int x, int multiple){
+        return ((x + multiple - 1) / multiple) * multiple;
+    }
+
+    /**
+     * Checks the parameters for the static void matrix multiplication for correctness.
+     * @param a The first matrix in a * b
+     * @param b The second matrix in a * b
+     * @param result The result matrix to place results into
+     */
+    private static void matrixMultiplyParamCheck(Matrix a, Matrix b, Matrix result){
+        Utility.checkNotNull(a, b, result);
+
+        //Check if a * b is possible
+        Utility.checkEqual(a.getNumColumns(), b.getNumRows());
+
+        //Check that result dimensions are correct
+        Utility.checkEqual(a.getNumRows(), result.getNumRows());
+        Utility.checkEqual(b.getNumColumns(), result.getNumColumns());
+
+        LinearAlgebra.checkNotSameMatrix(a, b, result);
+    }
+
+    /**
+     * Performs matrix multiplication. Matrix dimensions should be valid.
+     * @param a The first matrix.
+     * @param b The second matrix.
+     * @return The newly allocated result matrix a * b
+     */
+    public static Matrix matrixMultiply(Matrix a, Matrix b){
+        //Check parameters
+        Utility.checkNotNull(a, b);
+        Utility.checkEqual(a.getNumColumns(), b.getNumRows());
+
+        Matrix r = new Matrix(a.getNumRows(), b.getNumColumns());
+
+        LinearAlgebra.matrixMultiply(a, b, r);
+
+        return r;
+    }
+
+    /**
+     * Performs matrix addition. Matrix dimensions should be the same on both
+     * input matricies.
+     * @param a The first matrix.
+     * @param b The second matrix.
+     * @param result The matrix to place a + b into.
+     */
+    public static void matrixAdd(Matrix a, Matrix b, Matrix result){
+        //Check parameters
+        Utility.checkNotNull(a, b, result);
+        Utility.checkMatrixDimensionsEqual(a, b, result);
+
+        float[] aData = a.getData();
+        float[] bData = b.getData();
+        float[] resultData = result.getData();
+
+        for(int i = 0; i < resultData.length; i++){
+            resultData[i] = aData[i] + bData[i];
+        }
+    }
+
+    /**
+     * Performs matrix addition. Matrix dimensions should be the same on both
+     * input matricies.
+     * @param a The first matrix.
+     * @param b The second matrix.
+     * @return The newly allocated result of a + b
+     */
+    public static Matrix matrixAdd(Matrix a, Matrix b){
+        //Check parameters
+        Utility.checkNotNull(a, b);
+        Utility.checkMatrixDimensionsEqual(a, b);
+
+        Matrix r = new Matrix(a.getNumRows(), a.getNumColumns());
+
+        LinearAlgebra.matrixAdd(a, b, r);
+
+        return r;
+    }
+
+    /**
+     * Performs elementwise matrix multiplication. Matrix dimensions should be
+     * the same on both input matricies.
+     * @param a The first matrix.
+     * @param b The second matrix.
+     * @param result The matrix where the elementwise multiplication result will be placed.
+     */
+    public static void elementwiseMultiply(Matrix a, Matrix b, Matrix result){
+        //Check parameters
+        Utility.checkNotNull(a, b, result);
+        Utility.checkMatrixDimensionsEqual(a, b, result);
+
+        LinearAlgebra.elementwiseMultiply(a.getData(), b.getData(), result.getData());
+    }
+
+    /**
+     * Performs elementwise matrix multiplication. Matrix dimensions should be
+     * the same on both input matricies.
+     * @param a The first matrix.
+     * @param b The second matrix.
+     * @return The newly allocated result of the elementwise matrix multiplication.
+     */
+    public static Matrix elementwiseMultiply(Matrix a, Matrix b){
+        //Check parameters
+        Utility.checkNotNull(a, b);
+        Utility.checkMatrixDimensionsEqual(a, b);
+
+        Matrix r = new Matrix(a.getNumRows(), a.getNumColumns());
+
+        LinearAlgebra.elementwiseMultiply(a, b, r);
+
+        return r;
+    }
 }
\ No newline at end of file
@@ -1,6 +1,8 @@
 package jpf;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Class for the structure and behavior of Linear Models, which inherit from the abstract Model class.
@@ -11,12 +13,12 @@ public class LinearModel extends SimpleModel{
     /**
      * The transformation or weight matrix of the model. This is the matrix A in y = Ax + b
      */
-    private float[][] transformationMatrix;
+    private Matrix transformationMatrix;
 
     /**
      * The bias vector of the model represented as a 1 column matrix. This is the vector b in y = Ax + b
      */
-    private float[][] biasMatrix;
+    private Matrix biasMatrix;
 
     
     /**
@@ -28,33 +30,42 @@ public class LinearModel extends SimpleModel{
         //Invalid parameters already checked in the super constructor.
         super(numInputs, numOutputs);
 
-        this.transformationMatrix = LinearAlgebra.initializeRandomUniformMatrix(numOutputs, numInputs, -1f, 1f);
+        this.transformationMatrix = new Matrix(numOutputs, numInputs);
+        Utility.initializeUniform(this.transformationMatrix, -1f, 1f);
 
-        this.biasMatrix = new float[numOutputs][1];
+        this.biasMatrix = new Matrix(numOutputs, 1);
 
         this.parameters.add(this.transformationMatrix);
         this.parameters.add(this.biasMatrix);
     }
 
     /**
-     * Constructs a linear model based on the human readable format in saveModel()
+     * Constructs a linear model based on the human readable format in saveModel() or the binary format in saveModelBinary()
      * @param filePath The file to read the model data from.
      */
     public LinearModel(String filePath){
         
-        String fileContents = Utility.getTextFileContents(filePath);
-
-        fileContents = fileContents.replace("LINEARMODEL\n", "");
+        ArrayList<Matrix> params;
+
+        if(BinaryModelFile.isBinaryModelFile(filePath)){
+            params = BinaryModelFile.read(filePath, "LINEARMODEL").getMatricies();
+        } else {
+            //Parse the parameters while reading the file, without holding the whole file in memory
+            try(ModelTextReader reader = ModelTextReader.open(filePath)){
+                reader.expectLine("LINEARMODEL");
+                params = reader.readMatrixList();
+            }
+        }
 
-        ArrayList<float[][]> params = Utility.stringToMatrixList(fileContents);
+        Utility.checkEqual(params.size(), 2);
 
         this.parameters = params;
 
         this.transformationMatrix = params.get(0);
         this.biasMatrix = params.get(1);
         
-        this.numInputs = LinearAlgebra.getNumColumns(transformationMatrix);
-        this.numOutputs = LinearAlgebra.getNumRows(biasMatrix);
+        this.numInputs = transformationMatrix.getNumColumns();
+        this.numOutputs = biasMatrix.getNumRows();
 
         this.checkInputOutputSize(this.numInputs, this.numOutputs);
     }
@@ -66,32 +77,43 @@ public class LinearModel extends SimpleModel{
      * @param loss The loss function used to calculate the gradient
      * @return The gradient as an ArrayList of matricies. These are in the same order as getParameters (transformation, bias)
      */
-    protected ArrayList<float[][]> calculateGradient(float[] inputVector, float[] outputVector, Loss loss){
+    protected ArrayList<Matrix> calculateGradient(float[] inputVector, float[] outputVector, Loss loss){
+        ArrayList<Matrix> gradient = new ArrayList<Matrix>(2);
+        gradient.add(new Matrix(this.numOutputs, this.numInputs));
+        gradient.add(new Matrix(this.numOutputs, 1));
+
+        this.calculateGradient(inputVector, outputVector, loss, gradient);
+
+        return gradient;
+    }
+
+    /**
+     * Calculates gradient of Loss function with respect to the model parameters and stores it in a provided list
+     * @param inputVector The data sample's input used to calculate the gradient
+     * @param outputVector The data sample's associated output used to calculate the gradient
+     * @param loss The loss function used to calculate the gradient
+     * @param gradient The list to store the gradient in (transformation, bias). All entries are overwritten.
+     */
+    @Override
+    protected void calculateGradient(float[] inputVector, float[] outputVector, Loss loss, ArrayList<Matrix> gradient){
         //Check parameters
         this.checkInputOutputVectorsAndLoss(inputVector, outputVector, loss);
 
-        ArrayList<float[][]> gradient = new ArrayList<float[][]>(2);
-
         float[] yPredicted = this.predict(inputVector);
 
         float[] errorArray = loss.calculateLossVectorGradient(outputVector, yPredicted);
 
         //Calculate the error for the final step (adding the bias)
-        float[][] biasGradient = LinearAlgebra.arrayToMatrix(errorArray);
-        
+        Utility.copyArrayContents(errorArray, gradient.get(1).getData());
+
         //Calculate error for the transformation matrix
-        float[][] transformationGradient = new float[LinearAlgebra.getNumRows(transformationMatrix)][LinearAlgebra.getNumColumns(transformationMatrix)];
+        float[] transformationGradient = gradient.get(0).getData();
 
-        for(int r = 0; r < LinearAlgebra.getNumRows(transformationGradient); r++){
-            for(int c = 0; c < LinearAlgebra.getNumColumns(transformationGradient); c++){
-                transformationGradient[r][c] = inputVector[c] * biasGradient[r][0];
+        for(int r = 0; r < this.numOutputs; r++){
+            for(int c = 0; c < this.numInputs; c++){
+                transformationGradient[r * this.numInputs + c] = inputVector[c] * errorArray[r];
             }
         }
-
-        gradient.add(0, transformationGradient);
-        gradient.add(1, biasGradient);
-
-        return gradient;
     }
 
 
@@ -108,25 +130,17 @@ public class LinearModel extends SimpleModel{
         Utility.checkEqual(inputVector.length, this.numInputs);
 
 
+        //Wrap the vectors as 1 column matricies. The result matrix writes directly into the result vector.
         float[] result = new float[numOutputs];
-        float[][] resultMatrix = new float[numOutputs][1];
+        Matrix resultMatrix = new Matrix(result, numOutputs, 1);
 
-        float[][] matrixB = new float[inputVector.length][1];
+        Matrix matrixB = new Matrix(inputVector, inputVector.length, 1);
 
-        for(int i = 0; i < inputVector.length; i++){
-            matrixB[i][0] = inputVector[i];
-        }
-
-        LinearAlgebra.matrixMultiply(transformationMatrix, matrixB, resultMatrix);
+        LinearAlgebra.matrixMultiplyParallel(transformationMatrix, matrixB, resultMatrix);
 
         //Add the bias
         LinearAlgebra.matrixAdd(resultMatrix, biasMatrix, resultMatrix);
 
-        //Turn back into a vector
-        for(int i = 0; i < result.length; i++){
-            result[i] = resultMatrix[i][0];
-        }
-
         return result;
     }
 
@@ -137,17 +151,48 @@ public class LinearModel extends SimpleModel{
      * @param filePath The file path to save the model to.
      */
     public void saveModel(String filePath){
-        //Construct the string
-        String contents = Utility.arraysToString(this.getParameters());
+        if(!this.saveSnapshot(filePath, this.getParameters(), false)){
+            System.err.println("Error: Linear model could not be saved.");
+        }
+    }
 
-        contents = "LINEARMODEL\n" + contents; 
+    /**
+     * Saves the model in the binary model format, which is smaller and faster to load than the format of saveModel().
+     * @param filePath The file to save the model to.
+     */
+    @Override
+    public void saveModelBinary(String filePath){
+        if(!this.saveSnapshot(filePath, this.getParameters(), true)){
+            System.err.println("Error: Linear model could not be saved.");
+        }
+    }
 
-        //write the string to disk
-        boolean success = Utility.writeStringToFile(filePath, contents);
+    /**
+     * Saves the model as if its parameters were the given matricies, in either format. See Model.saveSnapshot().
+     * @param filePath The file to save the model to.
+     * @param parameters The parameters to save, with the same shapes and order as getParameters().
+     * @param binary True to use the binary model format, false to use the human readable format.
+     * @return True on success, false on failure and prints error message to standard error.
+     */
+    @Override
+    protected boolean saveSnapshot(String filePath, List<Matrix> parameters, boolean binary){
+        Utility.checkNotNull(filePath, parameters);
+        Utility.checkEqual(parameters.size(), this.getParameters().size());
 
-        if(!success){
-            System.err.println("Error: Linear model could not be saved.");
+        if(binary){
+            return BinaryModelFile.write(filePath, "LINEARMODEL", "", parameters);
         }
-        
+
+        //Write the parameters straight to disk through a buffer
+        try(ModelTextWriter writer = ModelTextWriter.open(filePath)){
+            writer.write("LINEARMODEL\n");
+            writer.writeMatrixList(parameters);
+
+        } catch(IOException e){
+            System.err.println(e.getMessage());
+            return false;
+        }
+
+        return true;
     }
 }
\ No newline at end of file
@@ -16,8 +16,13 @@ public class MSE implements Loss{
 
         float[] r = new float[yTrue.length];
 
+        //Checking every element is only done at the full validation level, see Utility.setValidationLevel()
+        boolean checkElements = Utility.fullValidation();
+
         for(int i = 0; i < r.length; i++){
-            Utility.checkReal(yPredicted[i], yTrue[i]);
+            if(checkElements){
+                Utility.checkReal(yPredicted[i], yTrue[i]);
+            }
             
             float difference = yTrue[i] - yPredicted[i];
 
@@ -39,8 +44,13 @@ public class MSE implements Loss{
 
         float[] r = new float[yTrue.length];
 
+        //Checking every element is only done at the full validation level, see Utility.setValidationLevel()
+        boolean checkElements = Utility.fullValidation();
+
         for(int i = 0; i < r.length; i++){
-            Utility.checkReal(yPredicted[i], yTrue[i]);
+            if(checkElements){
+                Utility.checkReal(yPredicted[i], yTrue[i]);
+            }
 
             float difference = yPredicted[i] - yTrue[i];
 
@@ -0,0 +1,212 @@
+package jpf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Defines the MappedDataset class, a dataset stored in a binary file that is read through memory mapping, so datasets
+ * larger than the heap (or the machine's memory) can be used for training. Only the pages holding the samples of the
+ * current minibatch need to be in memory; the operating system loads and evicts them as needed.
+ *
+ * Files are created with MappedDatasetWriter. All numbers are little-endian. A file has the following layout:
+ *
+ * magic number (the bytes "JPFD"), format version (int), input size (int), output size (int), number of samples (long)
+ * one record per sample: the input vector followed by the output vector (float)
+ *
+ * The columns of a sample are stored next to each other, so gathering a random minibatch reads one
+ * contiguous record per sample instead of one value from each column's region of the file.
+ */
+public class MappedDataset implements Dataset{
+
+    /**
+     * The first 4 bytes of every dataset file: "JPFD" read as a little-endian int.
+     */
+    static final int MAGIC_NUMBER = 0x4446504A;
+
+    /**
+     * The current version of the format. Files with a newer version can not be read.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The size of the header in bytes. The records start right after it.
+     */
+    static final int HEADER_SIZE = 24;
+
+    /**
+     * The position of the number of samples in the header, which is written last.
+     */
+    static final int NUM_SAMPLES_POSITION = 16;
+
+    /**
+     * The largest region of the file mapped into memory at once. Larger files are mapped in several regions,
+     * each holding a whole number of records.
+     */
+    private static final long MAX_MAP_SIZE = 1 << 30;
+
+    /**
+     * The number of samples in the dataset.
+     */
+    private int numSamples;
+
+    /**
+     * The length of the input vector of each sample.
+     */
+    private int inputSize;
+
+    /**
+     * The length of the output vector of each sample.
+     */
+    private int outputSize;
+
+    /**
+     * The number of samples in each mapped region, except for the last region which may have fewer.
+     */
+    private int samplesPerRegion;
+
+    /**
+     * The mapped regions of the file.
+     */
+    private FloatBuffer[] regions;
+
+    /**
+     * Opens a dataset file created by MappedDatasetWriter. Throws an AssertionError if the file can not be read
+     * or is not a valid dataset file.
+     * @param filePath The filepath of the dataset file.
+     */
+    public MappedDataset(String filePath){
+        Utility.checkNotNull(filePath);
+
+        //The mappings stay valid after the channel is closed
+        try(FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)){
+            long fileSize = channel.size();
+
+            if(fileSize < HEADER_SIZE){
+                throw new AssertionError(filePath + " is not a dataset file.");
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            while(header.hasRemaining()){
+                if(channel.read(header, header.position()) < 0){
+                    throw new AssertionError(filePath + " is not a dataset file.");
+                }
+            }
+
+            header.flip();
+
+            if(header.getInt() != MAGIC_NUMBER){
+                throw new AssertionError(filePath + " is not a dataset file.");
+            }
+
+            int version = header.getInt();
+
+            if(version <= 0 || version > VERSION){
+                throw new AssertionError(filePath + " has dataset format version " + version + ", but only versions up to " + VERSION + " are supported.");
+            }
+
+            this.inputSize = header.getInt();
+            this.outputSize = header.getInt();
+            long samples = header.getLong();
+
+            if(this.inputSize < 0 || this.outputSize < 0 || this.inputSize + this.outputSize <= 0 || samples < 0 || samples > Integer.MAX_VALUE){
+                throw new AssertionError(filePath + " is not a valid dataset file.");
+            }
+
+            this.numSamples = (int)samples;
+
+            long recordSize = 4L * (this.inputSize + this.outputSize);
+
+            if(HEADER_SIZE + recordSize * this.numSamples != fileSize){
+                throw new AssertionError(filePath + " should be " + (HEADER_SIZE + recordSize * this.numSamples) + " bytes long but is " + fileSize + " bytes long.");
+            }
+
+            //Map the records in regions of whole records
+            this.samplesPerRegion = (int)Math.max(1, MAX_MAP_SIZE / recordSize);
+            int numRegions = (int)((this.numSamples + (long)this.samplesPerRegion - 1) / this.samplesPerRegion);
+            this.regions = new FloatBuffer[numRegions];
+
+            for(int i = 0; i < numRegions; i++){
+                long firstSample = (long)i * this.samplesPerRegion;
+                long regionSamples = Math.min(this.samplesPerRegion, this.numSamples - firstSample);
+
+                this.regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + firstSample * recordSize, regionSamples * recordSize).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            }
+
+        } catch(IOException e){
+            throw new AssertionError("Exception when trying to read a dataset file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a dataset held in memory to a dataset file.
+     * @param filePath The filepath to write to.
+     * @param x The input vectors of the samples. Should be rectangular and not empty.
+     * @param y The output vectors of the samples. Should be rectangular and have the same number of rows as x.
+     * @return True on success, false on failure and prints error message to standard error.
+     */
+    public static boolean write(String filePath, float[][] x, float[][] y){
+        Utility.checkNotNull(filePath, x, y);
+        Utility.checkArrayNotEmpty(x);
+        Utility.checkArrayNotEmpty(y);
+        Utility.checkMatrixRectangle(x);
+        Utility.checkMatrixRectangle(y);
+        Utility.checkArrayLengthsEqual(x, y);
+
+        try(MappedDatasetWriter writer = new MappedDatasetWriter(filePath, x[0].length, y[0].length)){
+            for(int i = 0; i < x.length; i++){
+                writer.addSample(x[i], y[i]);
+            }
+
+        } catch(IOException e){
+            System.err.println(e.getMessage());
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public int getNumSamples(){
+        return this.numSamples;
+    }
+
+    @Override
+    public int getInputSize(){
+        return this.inputSize;
+    }
+
+    @Override
+    public int getOutputSize(){
+        return this.outputSize;
+    }
+
+    /**
+     * Copies one sample from the mapped file into the provided vectors. Safe to call from several threads at once.
+     * @param index The index of the sample. Should be in [0, getNumSamples()).
+     * @param x The vector to copy the input vector into. Should have length getInputSize().
+     * @param y The vector to copy the output vector into. Should have length getOutputSize().
+     */
+    @Override
+    public void getSample(int index, float[] x, float[] y){
+        if(index < 0 || index >= this.numSamples){
+            throw new AssertionError("Sample index " + index + " is out of range for a dataset of " + this.numSamples + " samples.");
+        }
+
+        Utility.checkNotNull(x, y);
+        Utility.checkEqual(x.length, this.inputSize);
+        Utility.checkEqual(y.length, this.outputSize);
+
+        FloatBuffer region = this.regions[index / this.samplesPerRegion];
+        int offset = (index % this.samplesPerRegion) * (this.inputSize + this.outputSize);
+
+        //Absolute bulk reads do not move the buffer's position, so threads can share it
+        region.get(offset, x, 0, this.inputSize);
+        region.get(offset + this.inputSize, y, 0, this.outputSize);
+    }
+}
@@ -0,0 +1,175 @@
+package jpf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Defines the MappedDatasetWriter class, which creates the dataset files read by MappedDataset one sample at a time,
+ * so datasets larger than the heap can be written from a stream of samples (for example, a CSVReader).
+ * The number of samples is written to the header when the writer is closed.
+ */
+public class MappedDatasetWriter implements Closeable{
+
+    /**
+     * The size of the buffer the samples are collected in before they are written.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The channel of the file being written.
+     */
+    private FileChannel channel;
+
+    /**
+     * The buffer the samples are collected in, as little-endian bytes.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * A float view of buffer.
+     */
+    private FloatBuffer floatBuffer;
+
+    /**
+     * The length of the input vector of each sample.
+     */
+    private int inputSize;
+
+    /**
+     * The length of the output vector of each sample.
+     */
+    private int outputSize;
+
+    /**
+     * The number of samples written so far.
+     */
+    private long numSamples;
+
+    /**
+     * Creates a dataset file, replacing any existing file, and writes its header.
+     * @param filePath The filepath to write to.
+     * @param inputSize The length of the input vector of each sample. Should be >= 0.
+     * @param outputSize The length of the output vector of each sample. Should be >= 0, and at least one of the sizes should be >= 1.
+     * @throws IOException If the file can not be created.
+     */
+    public MappedDatasetWriter(String filePath, int inputSize, int outputSize) throws IOException{
+        Utility.checkNotNull(filePath);
+
+        if(inputSize < 0 || outputSize < 0 || inputSize + outputSize <= 0){
+            throw new AssertionError("Dataset input and output sizes should be >= 0 and not both 0.");
+        }
+
+        this.inputSize = inputSize;
+        this.outputSize = outputSize;
+        this.numSamples = 0;
+
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.floatBuffer = this.buffer.asFloatBuffer();
+
+        this.channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        ByteBuffer header = ByteBuffer.allocate(MappedDataset.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MappedDataset.MAGIC_NUMBER);
+        header.putInt(MappedDataset.VERSION);
+        header.putInt(inputSize);
+        header.putInt(outputSize);
+        header.putLong(0);
+        header.flip();
+
+        this.writeFully(header);
+    }
+
+    /**
+     * @return The number of samples written so far.
+     */
+    public long getNumSamples(){
+        return this.numSamples;
+    }
+
+    /**
+     * Appends a sample to the dataset.
+     * @param x The input vector. Should have the writer's input size.
+     * @param y The output vector. Should have the writer's output size.
+     * @throws IOException If writing to the file fails.
+     */
+    public void addSample(float[] x, float[] y) throws IOException{
+        Utility.checkNotNull(x, y);
+        Utility.checkEqual(x.length, this.inputSize);
+        Utility.checkEqual(y.length, this.outputSize);
+
+        this.put(x);
+        this.put(y);
+
+        this.numSamples++;
+    }
+
+    /**
+     * Copies a vector into the buffer, writing the buffer to the file whenever it fills up.
+     * @param vector The vector to copy.
+     * @throws IOException If writing to the file fails.
+     */
+    private void put(float[] vector) throws IOException{
+        int start = 0;
+
+        while(start < vector.length){
+            if(!this.floatBuffer.hasRemaining()){
+                this.flush();
+            }
+
+            int length = Math.min(this.floatBuffer.remaining(), vector.length - start);
+            this.floatBuffer.put(vector, start, length);
+            start += length;
+        }
+    }
+
+    /**
+     * Writes the buffered samples to the file.
+     * @throws IOException If writing to the file fails.
+     */
+    private void flush() throws IOException{
+        this.buffer.clear();
+        this.buffer.limit(4 * this.floatBuffer.position());
+        this.writeFully(this.buffer);
+
+        this.floatBuffer.clear();
+    }
+
+    /**
+     * Writes all remaining bytes of a buffer to the file.
+     * @param b The buffer to write.
+     * @throws IOException If writing to the file fails.
+     */
+    private void writeFully(ByteBuffer b) throws IOException{
+        while(b.hasRemaining()){
+            this.channel.write(b);
+        }
+    }
+
+    /**
+     * Writes any buffered samples and the number of samples, then closes the file.
+     * @throws IOException If writing to the file fails.
+     */
+    @Override
+    public void close() throws IOException{
+        try{
+            this.flush();
+
+            ByteBuffer count = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            count.putLong(this.numSamples);
+            count.flip();
+
+            while(count.hasRemaining()){
+                this.channel.write(count, MappedDataset.NUM_SAMPLES_POSITION + 8 - count.remaining());
+            }
+
+        } finally {
+            this.channel.close();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package jpf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Defines the Matrix class, which stores a 2d matrix of floats in a single contiguous array.
+ * Entries are stored in row-major order, so the entry at (r, c) is located at index r * numColumns + c
+ * of the data array. Compared to a float[][], a whole matrix is one heap object and neighboring rows are
+ * next to each other in memory, which keeps the inner loops of the matrix operations cache friendly.
+ */
+public class Matrix{
+
+    /**
+     * The entries of the matrix in row-major order.
+     */
+    private float[] data;
+
+    /**
+     * The number of rows in the matrix.
+     */
+    private int numRows;
+
+    /**
+     * The number of columns in the matrix. This is also the distance (stride) between the
+     * start of one row and the start of the next row in the data array.
+     */
+    private int numColumns;
+
+    /**
+     * Allocates a matrix of the given shape with all entries set to zero.
+     * @param numRows The number of rows in the matrix. Should be >= 1.
+     * @param numColumns The number of columns in the matrix. Should be >= 1.
+     */
+    public Matrix(int numRows, int numColumns){
+        Utility.checkGreaterThanZero(numRows, numColumns);
+
+        this.numRows = numRows;
+        this.numColumns = numColumns;
+        this.data = new float[numRows * numColumns];
+    }
+
+    /**
+     * Creates a matrix that uses the provided array as its storage. No copy is made, so changes to the
+     * matrix are visible in the array and vice versa. Useful to treat a vector as a 1 column matrix.
+     * @param data The row-major entries of the matrix. Length should be numRows * numColumns.
+     * @param numRows The number of rows in the matrix. Should be >= 1.
+     * @param numColumns The number of columns in the matrix. Should be >= 1.
+     */
+    public Matrix(float[] data, int numRows, int numColumns){
+        Utility.checkNotNull((Object)data);
+        Utility.checkGreaterThanZero(numRows, numColumns);
+        Utility.checkEqual(data.length, numRows * numColumns);
+
+        this.numRows = numRows;
+        this.numColumns = numColumns;
+        this.data = data;
+    }
+
+    /**
+     * Creates a matrix by copying the contents of a 2d array.
+     * @param array The 2d array to copy. Should be rectangular and not empty.
+     */
+    public Matrix(float[][] array){
+        this(LinearAlgebra.getNumRows(array), LinearAlgebra.getNumColumns(array));
+        Utility.checkMatrixRectangle(array);
+
+        for(int r = 0; r < this.numRows; r++){
+            System.arraycopy(array[r], 0, this.data, r * this.numColumns, this.numColumns);
+        }
+    }
+
+    /**
+     * @return The row-major array that stores the entries of this matrix.
+     */
+    public float[] getData(){
+        return this.data;
+    }
+
+    /**
+     * @return The number of rows in the matrix.
+     */
+    public int getNumRows(){
+        return this.numRows;
+    }
+
+    /**
+     * @return The number of columns in the matrix.
+     */
+    public int getNumColumns(){
+        return this.numColumns;
+    }
+
+    /**
+     * @return The total number of entries in the matrix (rows * columns).
+     */
+    public int getSize(){
+        return this.data.length;
+    }
+
+    /**
+     * Retrieves a single entry of the matrix.
+     * @param r The row index of the entry.
+     * @param c The column index of the entry.
+     * @return The entry at (r, c)
+     */
+    public float get(int r, int c){
+        return this.data[r * this.numColumns + c];
+    }
+
+    /**
+     * Sets a single entry of the matrix.
+     * @param r The row index of the entry.
+     * @param c The column index of the entry.
+     * @param value The new value of the entry.
+     */
+    public void set(int r, int c, float value){
+        this.data[r * this.numColumns + c] = value;
+    }
+
+    /**
+     * Checks if this matrix has the same number of rows and columns as another matrix.
+     * @param m The matrix to compare shapes with.
+     * @return True if both matricies have the same shape, else false.
+     */
+    public boolean sameShape(Matrix m){
+        Utility.checkNotNull(m);
+
+        return this.numRows == m.numRows && this.numColumns == m.numColumns;
+    }
+
+    /**
+     * @return A newly allocated matrix with the same shape and contents as this matrix.
+     */
+    public Matrix copy(){
+        return new Matrix(this.data.clone(), this.numRows, this.numColumns);
+    }
+
+    /**
+     * Converts the matrix into a newly allocated 2d array for code that still works with float[][].
+     * @return The 2d array containing the same entries as this matrix.
+     */
+    public float[][] toArray(){
+        float[][] r = new float[this.numRows][this.numColumns];
+
+        for(int i = 0; i < this.numRows; i++){
+            System.arraycopy(this.data, i * this.numColumns, r[i], 0, this.numColumns);
+        }
+
+        return r;
+    }
+
+    /**
+     * Converts a list of 2d arrays into a list of matricies. The entries are copied.
+     * @param arrays The list of 2d arrays to convert.
+     * @return The newly allocated list of matricies.
+     */
+    public static ArrayList<Matrix> fromArrays(List<float[][]> arrays){
+        Utility.checkNotNull(arrays);
+
+        ArrayList<Matrix> r = new ArrayList<Matrix>(arrays.size());
+
+        for(int i = 0; i < arrays.size(); i++){
+            r.add(new Matrix(arrays.get(i)));
+        }
+
+        return r;
+    }
+
+    /**
+     * Converts a list of matricies into a list of 2d arrays. The entries are copied.
+     * @param matricies The list of matricies to convert.
+     * @return The newly allocated list of 2d arrays.
+     */
+    public static ArrayList<float[][]> toArrays(List<Matrix> matricies){
+        Utility.checkNotNull(matricies);
+
+        ArrayList<float[][]> r = new ArrayList<float[][]>(matricies.size());
+
+        for(int i = 0; i < matricies.size(); i++){
+            Utility.checkNotNull(matricies.get(i));
+            r.add(matricies.get(i).toArray());
+        }
+
+        return r;
+    }
+
+    /**
+     * Creates a formatted string of the matrix contents. Uses the same format as Utility.arrayToString(float[][]).
+     */
+    @Override
+    public String toString(){
+        return Utility.arrayToString(this.toArray());
+    }
+}
@@ -0,0 +1,129 @@
+package jpf;
+
+import java.util.Random;
+
+/**
+ * Defines the MinibatchIndicies class, which splits the sample indicies {0, 1, ..., n - 1} into randomly shuffled
+ * minibatches. The indicies are kept in a single int[] permutation that is shuffled in place with the Fisher-Yates
+ * shuffle at the start of every epoch, and minibatch mb is the range [getStart(mb), getEnd(mb)) of that array, so no
+ * memory is allocated after construction. Every minibatch is full except possibly the last one.
+ */
+public class MinibatchIndicies{
+
+    /**
+     * The sample indicies in the order of the current epoch.
+     */
+    private int[] permutation;
+
+    /**
+     * The maximum number of indicies in a minibatch.
+     */
+    private int minibatchSize;
+
+    /**
+     * The number of minibatches.
+     */
+    private int numMinibatches;
+
+    /**
+     * The random number generator used to shuffle the indicies.
+     */
+    private Random random;
+
+    /**
+     * Creates shuffled minibatch indicies with a randomly seeded random number generator.
+     * @param n The number of indicies. Should be >= 1.
+     * @param minibatchSize The maximum number of indicies in a minibatch. Should be >= 1.
+     */
+    public MinibatchIndicies(int n, int minibatchSize){
+        this(n, minibatchSize, new Random());
+    }
+
+    /**
+     * Creates shuffled minibatch indicies. The same seed always gives the same sequence of shuffles.
+     * @param n The number of indicies. Should be >= 1.
+     * @param minibatchSize The maximum number of indicies in a minibatch. Should be >= 1.
+     * @param seed The seed of the random number generator used to shuffle the indicies.
+     */
+    public MinibatchIndicies(int n, int minibatchSize, long seed){
+        this(n, minibatchSize, new Random(seed));
+    }
+
+    /**
+     * Creates shuffled minibatch indicies.
+     * @param n The number of indicies. Should be >= 1.
+     * @param minibatchSize The maximum number of indicies in a minibatch. Should be >= 1.
+     * @param random The random number generator used to shuffle the indicies.
+     */
+    private MinibatchIndicies(int n, int minibatchSize, Random random){
+        if(n < 1){
+            throw new AssertionError("n (number of indicies) needs to be >= 1");
+        }
+
+        if(minibatchSize < 1){
+            throw new AssertionError("Minibatch size needs to be >= 1");
+        }
+
+        this.minibatchSize = Math.min(minibatchSize, n);
+        this.numMinibatches = (n + this.minibatchSize - 1) / this.minibatchSize;
+        this.random = random;
+
+        this.permutation = new int[n];
+
+        for(int i = 0; i < n; i++){
+            this.permutation[i] = i;
+        }
+
+        this.shuffle();
+    }
+
+    /**
+     * Randomly shuffles the indicies for a new epoch with the Fisher-Yates shuffle.
+     */
+    public void shuffle(){
+        for(int i = this.permutation.length - 1; i > 0; i--){
+            int j = this.random.nextInt(i + 1);
+            int temp = this.permutation[i];
+            this.permutation[i] = this.permutation[j];
+            this.permutation[j] = temp;
+        }
+    }
+
+    /**
+     * @return The number of minibatches.
+     */
+    public int getNumMinibatches(){
+        return this.numMinibatches;
+    }
+
+    /**
+     * @return The maximum number of indicies in a minibatch.
+     */
+    public int getMinibatchSize(){
+        return this.minibatchSize;
+    }
+
+    /**
+     * Returns the shuffled indicies. The array is reused by every shuffle and should not be modified.
+     * @return All indicies in the order of the current epoch.
+     */
+    public int[] getIndicies(){
+        return this.permutation;
+    }
+
+    /**
+     * @param mb The index of the minibatch. Should be in [0, getNumMinibatches()).
+     * @return The position in getIndicies() of the first index of the minibatch.
+     */
+    public int getStart(int mb){
+        return mb * this.minibatchSize;
+    }
+
+    /**
+     * @param mb The index of the minibatch. Should be in [0, getNumMinibatches()).
+     * @return The position in getIndicies() after the last index of the minibatch.
+     */
+    public int getEnd(int mb){
+        return Math.min((mb + 1) * this.minibatchSize, this.permutation.length);
+    }
+}
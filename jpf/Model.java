@@ -1,6 +1,8 @@
 package jpf;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 
 /**
@@ -11,29 +13,58 @@ public abstract class Model{
     /**
      * The collection of parameters used by the model for prediction.
      */
-    protected ArrayList<float[][]> parameters;
+    protected ArrayList<Matrix> parameters;
 
     /**
      * The total number of parameters, represented as floating point numbers, used in the model.
      */
     protected int parameterCount;
 
+    /**
+     * Generates the seeds of the random number generators used by fit(), see setSeed(). Null until setSeed() is called.
+     */
+    private Random seedGenerator;
+
 
     /**
      * Initializes the parameter and parameter count fields in the abstract class.
      */
     public Model(){
-        this.parameters = new ArrayList<float[][]>();
+        this.parameters = new ArrayList<Matrix>();
 
         this.parameterCount = -1;
     }
 
+    /**
+     * Seeds the random number generators used by fit(), which shuffle the training data into minibatches.
+     * After setSeed(), the same sequence of fit() calls on models with equal parameters shuffles the data the same way,
+     * so the results can be reproduced, and runs with different numbers of threads can be compared. Does not affect
+     * how the parameters are initialized. Without a seed, every fit() call is seeded randomly.
+     * @param seed The seed.
+     */
+    public void setSeed(long seed){
+        this.seedGenerator = new Random(seed);
+    }
+
+    /**
+     * Returns the seed for the random number generators of a fit() call. Each call returns the next seed of the
+     * sequence started by setSeed(), or a random seed if setSeed() has not been called.
+     * @return The seed.
+     */
+    protected long nextFitSeed(){
+        if(this.seedGenerator == null){
+            return new Random().nextLong();
+        }
+
+        return this.seedGenerator.nextLong();
+    }
+
     /**
      * Retrieves the model's current collection of parameters.
      * Time complexity: O(1)
      * @return The model's current collection of parameters
      */
-    public ArrayList<float[][]> getParameters(){
+    public ArrayList<Matrix> getParameters(){
         return this.parameters;
     }
 
@@ -52,7 +83,7 @@ public abstract class Model{
         int count = 0;
         
         for(int i = 0; i < parameters.size(); i++){
-            count += parameters.get(i).length * parameters.get(i)[0].length;
+            count += parameters.get(i).getSize();
         }
 
         this.parameterCount = count;
@@ -67,4 +98,26 @@ public abstract class Model{
      */
     public abstract void saveModel(String filePath);
 
+    /**
+     * Saves the model to disc using the compact binary model format. The model's file constructor
+     * loads both this and the human readable format.
+     * @param filePath The file path to save the model to.
+     */
+    public abstract void saveModelBinary(String filePath);
+
+    /**
+     * Saves the model to disc as if its parameters were the given matricies. Used by Checkpointer, which saves
+     * snapshots of the parameters on a background thread while the model keeps training, so implementations should
+     * only read the model's structure, which does not change during fitting, and not its parameters.
+     * Models that do not support this return false, so they can not be checkpointed.
+     * @param filePath The file path to save the model to.
+     * @param parameters The parameters to save, with the same shapes and order as getParameters().
+     * @param binary True to use the format of saveModelBinary(), false to use the format of saveModel().
+     * @return True on success, false on failure and prints error message to standard error.
+     */
+    protected boolean saveSnapshot(String filePath, List<Matrix> parameters, boolean binary){
+        System.err.println(this.getClass().getSimpleName() + " does not support saving snapshots. Check Model.saveSnapshot().");
+        return false;
+    }
+
 }
\ No newline at end of file
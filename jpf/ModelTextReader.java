@@ -0,0 +1,513 @@
+package jpf;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Reads the human readable model format written by saveModel() incrementally from a Reader.
+ * Unlike Utility.getTextFileContents() followed by Utility.stringToMatrixList(), the file is never held in memory
+ * as a whole: characters are read through a small buffer, and the numbers are parsed straight into the float
+ * arrays that become the parameter matricies. Malformed input throws an AssertionError.
+ */
+class ModelTextReader implements Closeable{
+
+    /**
+     * The number of characters read from the underlying reader at once.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The reader the characters come from.
+     */
+    private Reader reader;
+
+    /**
+     * The characters read from the reader that have not been consumed yet are in buffer[position, limit).
+     */
+    private char[] buffer;
+
+    /**
+     * The index of the next unconsumed character in the buffer.
+     */
+    private int position;
+
+    /**
+     * The number of valid characters in the buffer.
+     */
+    private int limit;
+
+    /**
+     * The current line number, used in error messages.
+     */
+    private int lineNumber;
+
+    /**
+     * Workspace holding the characters of the number being parsed.
+     */
+    private char[] token;
+
+    /**
+     * Workspace holding the first row of a matrix whose number of columns is not known in advance.
+     */
+    private float[] rowWorkspace;
+
+    /**
+     * Creates a model text reader.
+     * @param reader The reader to read the model text from. Does not need to be buffered.
+     */
+    ModelTextReader(Reader reader){
+        Utility.checkNotNull(reader);
+
+        this.reader = reader;
+        this.buffer = new char[BUFFER_SIZE];
+        this.position = 0;
+        this.limit = 0;
+        this.lineNumber = 1;
+        this.token = new char[32];
+        this.rowWorkspace = new float[16];
+    }
+
+    /**
+     * Opens a model text reader on a file.
+     * @param filePath The filepath of the file created by saveModel().
+     * @return The reader, which should be closed when done.
+     */
+    static ModelTextReader open(String filePath){
+        Utility.checkNotNull(filePath);
+
+        try{
+            return new ModelTextReader(new FileReader(filePath));
+        } catch(FileNotFoundException e){
+            throw new AssertionError("Exception when trying to read a model file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Looks at the next character without consuming it.
+     * @return The next character, or -1 at the end of the input.
+     */
+    private int peek(){
+        if(this.position == this.limit){
+            try{
+                int count = this.reader.read(this.buffer, 0, this.buffer.length);
+
+                //Readers may return 0 characters without being at the end
+                while(count == 0){
+                    count = this.reader.read(this.buffer, 0, this.buffer.length);
+                }
+
+                if(count < 0){
+                    return -1;
+                }
+
+                this.position = 0;
+                this.limit = count;
+
+            } catch(IOException e){
+                throw new AssertionError("Exception when trying to read a model file: " + e.getMessage());
+            }
+        }
+
+        return this.buffer[this.position];
+    }
+
+    /**
+     * Consumes the next character.
+     * @return The next character, or -1 at the end of the input.
+     */
+    private int read(){
+        int c = this.peek();
+
+        if(c >= 0){
+            this.position++;
+
+            if(c == '\n'){
+                this.lineNumber++;
+            }
+        }
+
+        return c;
+    }
+
+    /**
+     * Consumes whitespace characters (spaces, tabs and line breaks).
+     */
+    private void skipWhitespace(){
+        int c = this.peek();
+
+        while(c == ' ' || c == '\n' || c == '\r' || c == '\t'){
+            this.read();
+            c = this.peek();
+        }
+    }
+
+    /**
+     * Consumes the next character and checks that it is the expected character.
+     * @param expected The expected character.
+     */
+    private void expect(char expected){
+        int c = this.read();
+
+        if(c != expected){
+            throw this.error("expected '" + expected + "' but found " + describe(c));
+        }
+    }
+
+    /**
+     * Reads the rest of the current line.
+     * @return The line without the line break, or null at the end of the input.
+     */
+    String readLine(){
+        if(this.peek() < 0){
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        int c = this.read();
+
+        while(c >= 0 && c != '\n'){
+            if(c != '\r'){
+                sb.append((char)c);
+            }
+
+            c = this.read();
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Reads lines until a line that is not empty.
+     * @return The line, or null at the end of the input.
+     */
+    String readNonEmptyLine(){
+        String line = this.readLine();
+
+        while(line != null && line.trim().isEmpty()){
+            line = this.readLine();
+        }
+
+        return line;
+    }
+
+    /**
+     * Reads the next non empty line and checks that it is the expected line.
+     * @param expected The expected contents of the line.
+     */
+    void expectLine(String expected){
+        String line = this.readNonEmptyLine();
+
+        if(line == null || !line.trim().equals(expected)){
+            throw this.error("expected \"" + expected + "\" but found " + (line == null ? "the end of the file" : "\"" + line + "\""));
+        }
+    }
+
+    /**
+     * @return True if the next character that is not whitespace starts a matrix list or matrix.
+     */
+    boolean atMatrixList(){
+        this.skipWhitespace();
+
+        return this.peek() == '[';
+    }
+
+    /**
+     * Reads a list of matricies in the format of Utility.arraysToString(), for example:
+     * [
+     * [[1.0 2.0]
+     * [3.0 4.0]],
+     * [[5.0]
+     * [6.0]]
+     * ]
+     * @return The list of matricies.
+     */
+    ArrayList<Matrix> readMatrixList(){
+        ArrayList<Matrix> matricies = new ArrayList<Matrix>();
+
+        this.skipWhitespace();
+        this.expect('[');
+        this.skipWhitespace();
+
+        if(this.peek() == ']'){
+            this.read();
+            return matricies;
+        }
+
+        while(true){
+            matricies.add(this.readMatrix());
+            this.skipWhitespace();
+
+            int c = this.read();
+
+            if(c == ']'){
+                return matricies;
+            } else if(c != ','){
+                throw this.error("expected ',' or ']' after a matrix but found " + describe(c));
+            }
+        }
+    }
+
+    /**
+     * Reads a list of matricies whose shapes are known in advance, see readMatrix(int, int).
+     * @param shapes The number of rows and columns of each matrix. A number of columns of -1 is taken from the first row.
+     * @return The list of matricies.
+     */
+    ArrayList<Matrix> readMatrixList(int[][] shapes){
+        ArrayList<Matrix> matricies = new ArrayList<Matrix>(shapes.length);
+
+        this.skipWhitespace();
+        this.expect('[');
+
+        for(int i = 0; i < shapes.length; i++){
+            matricies.add(this.readMatrix(shapes[i][0], shapes[i][1]));
+            this.skipWhitespace();
+
+            int c = this.read();
+
+            if(c != (i == shapes.length - 1 ? ']' : ',')){
+                throw this.error("expected " + shapes.length + " matricies but found " + describe(c) + " after matrix " + (i + 1));
+            }
+        }
+
+        return matricies;
+    }
+
+    /**
+     * Reads a matrix whose shape is known in advance, in the format of Utility.arrayToString(float[][]).
+     * The matrix is allocated once and the entries are parsed directly into its storage.
+     * @param numRows The number of rows the matrix should have.
+     * @param numColumns The number of columns the matrix should have, or -1 to take it from the length of the first row.
+     * @return The matrix.
+     */
+    Matrix readMatrix(int numRows, int numColumns){
+        if(numRows <= 0 || (numColumns <= 0 && numColumns != -1)){
+            throw new AssertionError("Invalid matrix shape: " + numRows + " by " + numColumns);
+        }
+
+        this.skipWhitespace();
+        this.expect('[');
+
+        float[] data = null;
+
+        if(numColumns != -1){
+            data = new float[numRows * numColumns];
+        }
+
+        for(int r = 0; r < numRows; r++){
+            this.skipWhitespace();
+
+            if(this.peek() == ']'){
+                throw this.error("matrix has " + r + " rows, expected " + numRows);
+            }
+
+            this.expect('[');
+
+            if(data == null){
+                //Only the first row is collected in a growing workspace, then the whole matrix is allocated
+                int length = this.readRowIntoWorkspace();
+
+                if(length == 0){
+                    throw this.error("matrix is empty");
+                }
+
+                numColumns = length;
+                data = new float[numRows * numColumns];
+                System.arraycopy(this.rowWorkspace, 0, data, 0, numColumns);
+                continue;
+            }
+
+            int length = this.readRow(data, r * numColumns, numColumns);
+
+            if(length != numColumns){
+                throw this.error("matrix row has " + length + " entries, expected " + numColumns);
+            }
+        }
+
+        this.skipWhitespace();
+
+        if(this.peek() != ']'){
+            throw this.error("matrix has more than " + numRows + " rows");
+        }
+
+        this.read();
+
+        return new Matrix(data, numRows, numColumns);
+    }
+
+    /**
+     * Reads the entries of a matrix row after its opening bracket, up to and including the closing bracket.
+     * @param dest The array to parse the entries into.
+     * @param offset The index of dest where the first entry is placed.
+     * @param maxEntries The largest number of entries the row may have.
+     * @return The number of entries in the row.
+     */
+    private int readRow(float[] dest, int offset, int maxEntries){
+        int length = 0;
+
+        while(true){
+            this.skipWhitespace();
+
+            if(this.peek() == ']'){
+                this.read();
+                return length;
+            }
+
+            if(length == maxEntries){
+                throw this.error("matrix row has more than " + maxEntries + " entries");
+            }
+
+            dest[offset + length] = this.readFloat();
+            length++;
+        }
+    }
+
+    /**
+     * Reads the entries of a matrix row of unknown length into the row workspace, which grows when it is full.
+     * @return The number of entries in the row.
+     */
+    private int readRowIntoWorkspace(){
+        int length = 0;
+
+        while(true){
+            this.skipWhitespace();
+
+            if(this.peek() == ']'){
+                this.read();
+                return length;
+            }
+
+            if(length == this.rowWorkspace.length){
+                this.rowWorkspace = Arrays.copyOf(this.rowWorkspace, 2 * this.rowWorkspace.length);
+            }
+
+            this.rowWorkspace[length++] = this.readFloat();
+        }
+    }
+
+    /**
+     * Reads a matrix in the format of Utility.arrayToString(float[][]), for example:
+     * [[1.0 2.0]
+     * [3.0 4.0]]
+     * Every row should have the same length. Since the shape is not known in advance, the entries are collected in a
+     * growing array. Used for matricies whose shape is not described before them, like those of the toString() format
+     * of layers, see readMatrix(int, int) for the others.
+     * @return The matrix.
+     */
+    Matrix readMatrix(){
+        this.skipWhitespace();
+        this.expect('[');
+
+        //The entries are collected in a growing array, since the shape is only known at the end.
+        float[] data = new float[16];
+        int size = 0;
+        int numRows = 0;
+        int numColumns = -1;
+
+        while(true){
+            this.skipWhitespace();
+
+            if(this.peek() == ']'){
+                this.read();
+                break;
+            }
+
+            this.expect('[');
+            int rowStart = size;
+
+            while(true){
+                this.skipWhitespace();
+
+                if(this.peek() == ']'){
+                    this.read();
+                    break;
+                }
+
+                if(size == data.length){
+                    data = Arrays.copyOf(data, 2 * data.length);
+                }
+
+                data[size++] = this.readFloat();
+            }
+
+            int rowLength = size - rowStart;
+
+            if(numColumns == -1){
+                numColumns = rowLength;
+
+            } else if(rowLength != numColumns){
+                throw this.error("matrix row has " + rowLength + " entries, expected " + numColumns);
+            }
+
+            numRows++;
+        }
+
+        if(numRows == 0 || numColumns <= 0){
+            throw this.error("matrix is empty");
+        }
+
+        if(size != data.length){
+            data = Arrays.copyOf(data, size);
+        }
+
+        return new Matrix(data, numRows, numColumns);
+    }
+
+    /**
+     * Reads a number, which ends at whitespace or a closing bracket. Accepts anything Float.parseFloat() accepts.
+     * The number is parsed with FloatParser, so no String is created for it.
+     * @return The number.
+     */
+    private float readFloat(){
+        int length = 0;
+        int c = this.peek();
+
+        while(c >= 0 && c != ' ' && c != ']' && c != '\n' && c != '\r' && c != '\t'){
+            if(length == this.token.length){
+                this.token = Arrays.copyOf(this.token, 2 * this.token.length);
+            }
+
+            this.token[length++] = (char)this.read();
+            c = this.peek();
+        }
+
+        try{
+            return FloatParser.parse(this.token, 0, length);
+        } catch(NumberFormatException e){
+            throw this.error("could not parse \"" + new String(this.token, 0, length) + "\" as a number");
+        }
+    }
+
+    /**
+     * Creates an error for malformed input.
+     * @param message The description of the problem.
+     * @return The error, which includes the line number.
+     */
+    private AssertionError error(String message){
+        return new AssertionError("Malformed model file on line " + this.lineNumber + ": " + message);
+    }
+
+    /**
+     * @param c A character, or -1 for the end of the input.
+     * @return A readable description of the character.
+     */
+    private static String describe(int c){
+        return c < 0 ? "the end of the file" : "'" + (char)c + "'";
+    }
+
+    /**
+     * Closes the underlying reader.
+     */
+    @Override
+    public void close(){
+        try{
+            this.reader.close();
+        } catch(IOException e){
+            System.err.println(e.getMessage());
+        }
+    }
+}
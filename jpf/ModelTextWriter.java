@@ -0,0 +1,201 @@
+package jpf;
+
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes the human readable model format read by ModelTextReader incrementally to a Writer.
+ * Unlike Utility.arraysToString() followed by Utility.writeStringToFile(), the text is never held in memory
+ * as a whole: the numbers are formatted with FloatFormatter straight from the parameter matricies into a small
+ * buffer, which is passed to the writer whenever it fills up. The output is the same as Utility.arraysToString().
+ */
+class ModelTextWriter implements Closeable{
+
+    /**
+     * The number of characters collected before they are passed to the underlying writer.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The writer the characters go to.
+     */
+    private Writer writer;
+
+    /**
+     * The characters that have not been passed to the writer yet are in buffer[0, position).
+     */
+    private char[] buffer;
+
+    /**
+     * The number of characters in the buffer.
+     */
+    private int position;
+
+    /**
+     * Creates a model text writer.
+     * @param writer The writer to write the model text to. Does not need to be buffered.
+     */
+    ModelTextWriter(Writer writer){
+        Utility.checkNotNull(writer);
+
+        this.writer = writer;
+        this.buffer = new char[BUFFER_SIZE];
+        this.position = 0;
+    }
+
+    /**
+     * Opens a model text writer on a file, replacing its contents.
+     * @param filePath The filepath to write to.
+     * @return The writer, which should be closed when done.
+     * @throws IOException If the file can not be opened.
+     */
+    static ModelTextWriter open(String filePath) throws IOException{
+        Utility.checkNotNull(filePath);
+
+        return new ModelTextWriter(new FileWriter(filePath));
+    }
+
+    /**
+     * Makes sure the buffer has room for a number of characters, passing its contents to the writer if needed.
+     * @param length The number of characters that will be written. Should be at most BUFFER_SIZE.
+     * @throws IOException If the underlying writer fails.
+     */
+    private void ensureCapacity(int length) throws IOException{
+        if(this.position + length > this.buffer.length){
+            this.flush();
+        }
+    }
+
+    /**
+     * Writes a string.
+     * @param s The string to write.
+     * @throws IOException If the underlying writer fails.
+     */
+    void write(String s) throws IOException{
+        int start = 0;
+
+        while(start < s.length()){
+            this.ensureCapacity(1);
+
+            int length = Math.min(s.length() - start, this.buffer.length - this.position);
+            s.getChars(start, start + length, this.buffer, this.position);
+
+            this.position += length;
+            start += length;
+        }
+    }
+
+    /**
+     * Writes a single character.
+     * @param c The character to write.
+     * @throws IOException If the underlying writer fails.
+     */
+    void write(char c) throws IOException{
+        this.ensureCapacity(1);
+        this.buffer[this.position++] = c;
+    }
+
+    /**
+     * Writes a number in the shortest form that is read back as the same float.
+     * @param value The number to write.
+     * @throws IOException If the underlying writer fails.
+     */
+    void writeFloat(float value) throws IOException{
+        this.ensureCapacity(FloatFormatter.MAX_LENGTH);
+        this.position = FloatFormatter.format(value, this.buffer, this.position);
+    }
+
+    /**
+     * Writes a list of matricies in the format of Utility.arraysToString(), for example:
+     * [
+     * [[1.0 2.0]
+     * [3.0 4.0]],
+     * [[5.0]
+     * [6.0]]
+     * ]
+     * @param matricies The matricies to write.
+     * @throws IOException If the underlying writer fails.
+     */
+    void writeMatrixList(List<Matrix> matricies) throws IOException{
+        Utility.checkNotNull(matricies);
+
+        if(matricies.size() == 0){
+            this.write("[]");
+            return;
+        }
+
+        this.write("[\n");
+
+        for(int i = 0; i < matricies.size(); i++){
+            if(i > 0){
+                this.write(",\n");
+            }
+
+            this.writeMatrix(matricies.get(i));
+        }
+
+        this.write("\n]");
+    }
+
+    /**
+     * Writes a matrix in the format of Utility.arrayToString(float[][]), for example:
+     * [[1.0 2.0]
+     * [3.0 4.0]]
+     * The entries are formatted directly from the matrix's storage.
+     * @param m The matrix to write.
+     * @throws IOException If the underlying writer fails.
+     */
+    void writeMatrix(Matrix m) throws IOException{
+        Utility.checkNotNull(m);
+
+        float[] data = m.getData();
+        int numColumns = m.getNumColumns();
+
+        this.write('[');
+
+        for(int i = 0; i < m.getNumRows(); i++){
+            if(i > 0){
+                this.write('\n');
+            }
+
+            this.write('[');
+
+            for(int j = 0; j < numColumns; j++){
+                if(j > 0){
+                    this.write(' ');
+                }
+
+                this.writeFloat(data[i * numColumns + j]);
+            }
+
+            this.write(']');
+        }
+
+        this.write(']');
+    }
+
+    /**
+     * Passes the buffered characters to the underlying writer.
+     * @throws IOException If the underlying writer fails.
+     */
+    void flush() throws IOException{
+        this.writer.write(this.buffer, 0, this.position);
+        this.position = 0;
+    }
+
+    /**
+     * Writes any buffered characters and closes the underlying writer.
+     * @throws IOException If the underlying writer fails.
+     */
+    @Override
+    public void close() throws IOException{
+        try{
+            this.flush();
+        } finally {
+            this.writer.close();
+        }
+    }
+}
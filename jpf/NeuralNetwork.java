@@ -1,9 +1,13 @@
 package jpf;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Defines the NeuralNetwork class, which allows users to construct Neural Networks of various
@@ -28,6 +32,23 @@ public class NeuralNetwork extends Model{
      */
     private ArrayList<Layer> allLayers;
 
+    /**
+     * The execution plan for forward passes: the layers in an order where every layer comes after all of its input layers.
+     * Computed once when the network is constructed, so predictions simply iterate over it.
+     */
+    private Layer[] forwardOrder;
+
+    /**
+     * The execution plan for backward passes, which is the reverse of forwardOrder. Every layer comes after all of its output layers.
+     */
+    private Layer[] backwardOrder;
+
+    /**
+     * The inference sessions that are not currently used by predictConcurrent(). Sessions are created when all of
+     * them are in use, so there are at most as many sessions as the largest number of concurrent predictions.
+     */
+    private ConcurrentLinkedQueue<InferenceSession> idleSessions = new ConcurrentLinkedQueue<InferenceSession>();
+
     /**
      * Constructor for creating Neural Networks using lists of input and output vectors.
      * This is the most common way of constructing complex (multi input and output) neural networks.
@@ -60,6 +81,8 @@ public class NeuralNetwork extends Model{
         if(this.hasCycle()){
             throw new AssertionError("Neural network contains a cycle, which is forbidden.");
         }
+
+        this.createExecutionPlan();
     }
 
 
@@ -88,12 +111,15 @@ public class NeuralNetwork extends Model{
         if(this.hasCycle()){
             throw new AssertionError("Neural network contains a cycle, which is forbidden.");
         }
+
+        this.createExecutionPlan();
     }
 
     /**
-     * Constructs a neural network from a file that was created using the saveModel() method.
+     * Constructs a neural network from a file that was created using the saveModel() or saveModelBinary() method.
+     * The format of the file is detected automatically.
      * Useful when loading a pretrained neural network rather than training a fresh neural network.
-     * @param filePath The filepath of the file created by saveModel()
+     * @param filePath The filepath of the file created by saveModel() or saveModelBinary()
      */
     public NeuralNetwork(String filePath){
         super();
@@ -101,20 +127,83 @@ public class NeuralNetwork extends Model{
         //Check param
         Utility.checkNotNull(filePath);
 
+        String neuralNetworkInfo;
 
-        String neuralNetworkInfo = Utility.getTextFileContents(filePath);
+        if(BinaryModelFile.isBinaryModelFile(filePath)){
+            BinaryModelFile file = BinaryModelFile.read(filePath, "NEURALNETWORK");
 
-        this.allLayers = this.layersFromString(neuralNetworkInfo);
+            neuralNetworkInfo = file.getHeader();
+            this.allLayers = this.layersFromSpecs(neuralNetworkInfo, file.getMatricies());
+        } else {
+            try(ModelTextReader reader = ModelTextReader.open(filePath)){
+                neuralNetworkInfo = this.readTextModel(reader);
+            }
+        }
 
         this.connectLayers(neuralNetworkInfo);
 
         //Connect all the layers input and output layers, also, create the input and output layers lists
         this.inputLayers = this.createInputLayerList();
         this.outputLayers = this.createOutputLayerList();
+        this.updateParameters();
 
         if(this.hasCycle()){
             throw new AssertionError("Neural network contains a cycle, which is forbidden.");
         }
+
+        this.createExecutionPlan();
+    }
+
+    /**
+     * Constructs a replica of a neural network, which is used to run passes on another thread. The replica has the
+     * same structure as the source network and shares its parameter matricies, but every layer has its own vectors,
+     * gradients and workspaces (see Layer.createReplica()).
+     * @param source The neural network to replicate.
+     */
+    NeuralNetwork(NeuralNetwork source){
+        super();
+
+        HashMap<Layer, Integer> indexMap = source.getLayerIndexMap();
+
+        //Replicate the layers in the same order as the source network
+        this.allLayers = new ArrayList<Layer>(source.allLayers.size());
+
+        for(int i = 0; i < source.allLayers.size(); i++){
+            Layer replica = source.allLayers.get(i).createReplica();
+
+            if(replica == null){
+                throw new AssertionError(source.allLayers.get(i).getClass().getSimpleName() + " layer does not support replicas. Check Layer.createReplica().");
+            }
+
+            this.allLayers.add(replica);
+        }
+
+        //Connect the replicas the same way as the source layers
+        for(int i = 0; i < source.allLayers.size(); i++){
+            Layer from = source.allLayers.get(i);
+            Layer to = this.allLayers.get(i);
+
+            for(int j = 0; j < from.getInputLayers().size(); j++){
+                to.getInputLayers().add(this.allLayers.get(indexMap.get(from.getInputLayers().get(j))));
+            }
+
+            for(int j = 0; j < from.getOutputLayers().size(); j++){
+                to.getOutputLayers().add(this.allLayers.get(indexMap.get(from.getOutputLayers().get(j))));
+            }
+        }
+
+        this.inputLayers = new ArrayList<Input>(source.inputLayers.size());
+        for(int i = 0; i < source.inputLayers.size(); i++){
+            this.inputLayers.add((Input)this.allLayers.get(indexMap.get(source.inputLayers.get(i))));
+        }
+
+        this.outputLayers = new ArrayList<Layer>(source.outputLayers.size());
+        for(int i = 0; i < source.outputLayers.size(); i++){
+            this.outputLayers.add(this.allLayers.get(indexMap.get(source.outputLayers.get(i))));
+        }
+
+        this.updateParameters();
+        this.createExecutionPlan();
     }
 
     /**
@@ -222,49 +311,123 @@ public class NeuralNetwork extends Model{
                 int index = adjList.get(i).get(j);
                 Layer to = this.allLayers.get(index);
 
+                //Connect both directions at once. Connecting the "backwards" connections afterwards with
+                //connectInputAndOutputLayers() would add every output layer a second time.
                 from.getOutputLayers().add(to);
+                to.getInputLayers().add(from);
             }
         }
+    }
 
-        //Connect the "backwards" connections (connect from output to input layers)
-        for(int i = 0; i < this.allLayers.size(); i++){
-            this.allLayers.get(i).connectInputAndOutputLayers();
+    /**
+     * Reads a neural network written by saveModel() and initializes the layers in allLayers from it. The file is read
+     * incrementally and the parameters are parsed directly into the layers' matricies, so the whole file is never held
+     * in memory as a string. Throws an Assertion error on failure to create a layer.
+     * @param reader The reader positioned at the start of the file.
+     * @return The layer connection information, which is used to connect the layers with connectLayers().
+     */
+    private String readTextModel(ModelTextReader reader){
+        //The connection information is small, so it is kept as a string.
+        StringBuilder connectionInfo = new StringBuilder();
+
+        reader.expectLine("START LAYER CONNECTIONS INFO");
+        connectionInfo.append("START LAYER CONNECTIONS INFO\n");
+
+        String line = reader.readNonEmptyLine();
+
+        while(line != null && !line.equals("END LAYER CONNECTIONS INFO")){
+            connectionInfo.append(line);
+            connectionInfo.append("\n");
+            line = reader.readNonEmptyLine();
+        }
+
+        if(line == null){
+            throw new AssertionError("Model file is missing \"END LAYER CONNECTIONS INFO\"");
         }
+
+        connectionInfo.append("END LAYER CONNECTIONS INFO");
+
+        reader.expectLine("START ALL LAYER INFO");
+
+        ArrayList<Layer> layers = new ArrayList<Layer>();
+        line = reader.readNonEmptyLine();
+
+        while("LAYER START".equals(line)){
+            //The first line of a layer describes it, the parameters (if any) follow.
+            String layerSpec = reader.readNonEmptyLine();
+            int[][] parameterShapes = Layer.parameterShapesFromSpecString(layerSpec);
+            ArrayList<Matrix> layerParameters;
+
+            //When the description gives the shapes, each matrix is allocated once and parsed in place
+            if(!reader.atMatrixList()){
+                layerParameters = new ArrayList<Matrix>();
+            } else if(parameterShapes != null){
+                layerParameters = reader.readMatrixList(parameterShapes);
+            } else {
+                layerParameters = reader.readMatrixList();
+            }
+
+            reader.expectLine("LAYER END");
+
+            Layer l = Layer.createLayerFromSpecString(layerSpec, layerParameters);
+
+            //Layers that do not support spec strings are created from their toString() format instead.
+            if(l == null && layerParameters.size() > 0){
+                l = Layer.createLayerFromString(layerSpec + "\n" + Utility.arraysToString(layerParameters));
+            }
+
+            if(l == null){
+                throw new AssertionError("Layer creation from string failed on index " + layers.size());
+            }
+
+            layers.add(l);
+            line = reader.readNonEmptyLine();
+        }
+
+        if(!"END ALL LAYER INFO".equals(line)){
+            throw new AssertionError("Model file is missing \"END ALL LAYER INFO\"");
+        }
+
+        this.allLayers = layers;
+
+        return connectionInfo.toString();
     }
 
     /**
-     * Initializes the layers of the neural network from a string. Throws an Assertion error on failure to create a layer.
-     * @param neuralNetworkInfo The string that is output from the contents written to disk from the saveModel() method
+     * Initializes the layers of the neural network from the header of a binary model file, which has a line with the
+     * number of parameter matricies and the toSpecString() description of each layer. Throws an Assertion error on failure to create a layer.
+     * @param neuralNetworkInfo The header written by the saveModelBinary() method.
+     * @param parameters The parameter matricies of all layers, in layer order.
      * @return An ArrayList of initialized layers.
      */
-    private ArrayList<Layer> layersFromString(String neuralNetworkInfo){
-        //Isolate the layer information
-        String layerInfo = neuralNetworkInfo.substring(neuralNetworkInfo.indexOf("START ALL LAYER INFO"));
+    private ArrayList<Layer> layersFromSpecs(String neuralNetworkInfo, ArrayList<Matrix> parameters){
+        //Isolate the layer specs
+        String layerInfo = neuralNetworkInfo.substring(neuralNetworkInfo.indexOf("START LAYER SPECS\n") + "START LAYER SPECS\n".length(), neuralNetworkInfo.indexOf("END LAYER SPECS"));
+        String[] layerSpecs = layerInfo.split("\n");
 
-        //Remove the header and footer
-        layerInfo = layerInfo.replace("START ALL LAYER INFO\n", "");
-        layerInfo = layerInfo.replace("\nEND ALL LAYER INFO", "");
+        ArrayList<Layer> layers = new ArrayList<Layer>(layerSpecs.length);
+        int parameterIndex = 0;
 
-        //Split the strings based on layer
-        String[] layerStrings = layerInfo.split("LAYER START\n");
+        for(int i = 0; i < layerSpecs.length; i++){
+            //Each line is "numParameters spec"
+            int split = layerSpecs[i].indexOf(" ");
+            int numParameters = Integer.parseInt(layerSpecs[i].substring(0, split));
 
-        ArrayList<Layer> layers = new ArrayList<Layer>();
-        //Construct the layers. Start at index 1 since index 0 is an empty string.
-        for(int i = 0; i < layerStrings.length; i++){
-            //Remove the footer string
-            layerStrings[i] = layerStrings[i].replace("\nLAYER END\n", "");
-
-            //Due to the way split works, there may be empty strings in layerStrings array, which should not be read from.
-            if(!layerStrings[i].equals("")){
-                Layer l = Layer.createLayerFromString(layerStrings[i]);
-                if(l == null){
-                    throw new AssertionError("Layer creation from string failed on index " + i);
-                }
-                
-                layers.add(l);
+            if(parameterIndex + numParameters > parameters.size()){
+                throw new AssertionError("Binary model file has fewer parameter matricies than its layers need.");
             }
+
+            Layer l = Layer.createLayerFromSpecString(layerSpecs[i].substring(split + 1), parameters.subList(parameterIndex, parameterIndex + numParameters));
+            if(l == null){
+                throw new AssertionError("Layer creation from spec string failed on index " + i);
+            }
+
+            layers.add(l);
+            parameterIndex += numParameters;
         }
 
+        Utility.checkEqual(parameterIndex, parameters.size());
+
         return layers;
     }
 
@@ -557,6 +720,7 @@ public class NeuralNetwork extends Model{
             Utility.checkNotNull((Object)x[i]);
             Utility.checkEqual(x[i].length, this.inputLayers.get(i).inputVector.length);
         }
+        Utility.checkDataReal(x);
         
 
         //Create the output vectors
@@ -566,49 +730,68 @@ public class NeuralNetwork extends Model{
             y[i] = new float[this.outputLayers.get(i).getOutputVector().length];
         }
 
-        Stack<Layer> stack = new Stack<Layer>();
-
-        HashSet<Layer> completedPass = new HashSet<Layer>();
-
         for(int i = 0; i < inputLayers.size(); i++){
             Utility.copyArrayContents(x[i], inputLayers.get(i).getInputVector());
         }
 
+        //Every layer comes after its input layers in the execution plan, so the layers can simply be passed in order.
+        for(int i = 0; i < this.forwardOrder.length; i++){
+            this.forwardOrder[i].forwardPass();
+        }
+
+        //Allocate copies of the output vectors from the output layers
         for(int i = 0; i < outputLayers.size(); i++){
-            stack.push(outputLayers.get(i));
+            Utility.copyArrayContents(outputLayers.get(i).getOutputVector(), y[i]);
         }
 
+        return y;
+    }
 
-        while(!stack.empty()){
-            Layer top = stack.peek();
+    /**
+     * Creates an inference session, which makes predictions with this network's parameters using its own layer buffers.
+     * Each thread that makes predictions concurrently should use its own session. See InferenceSession.
+     * @return The new inference session.
+     */
+    public InferenceSession createInferenceSession(){
+        return new InferenceSession(this);
+    }
 
-            if(completedPass.contains(top)){
-                stack.pop();
-            } else {
+    /**
+     * Makes a prediction on one data sample. Unlike predict(), this method can be called by many threads at once:
+     * each call borrows an idle inference session, creating one if all of them are in use, and returns it afterwards.
+     * Should not be called while the network is being fit.
+     * @param x The input vectors, one for each input layer.
+     * @return The output vectors, one for each output layer.
+     */
+    public float[][] predictConcurrent(float[][] x){
+        InferenceSession session = this.idleSessions.poll();
 
-                //check to see if all of the required input passes have been completed
-                boolean canForwardPass = true;
-                for(int i = 0; i < top.getInputLayers().size(); i++){
-                    if(!completedPass.contains(top.getInputLayers().get(i))){
-                        stack.push(top.getInputLayers().get(i));
-                        canForwardPass = false;
-                    }
-                }
+        if(session == null){
+            session = this.createInferenceSession();
+        }
 
-                if(canForwardPass){
-                    top.forwardPass();
-                    completedPass.add(top);
-                    stack.pop();
-                }
-            }
+        try{
+            return session.predict(x);
+        } finally {
+            this.idleSessions.offer(session);
         }
+    }
 
-        //Allocate copies of the output vectors from the output layers
-        for(int i = 0; i < outputLayers.size(); i++){
-            Utility.copyArrayContents(outputLayers.get(i).getOutputVector(), y[i]);
+    /**
+     * Makes a prediction on one data sample for neural networks that have only one input vector and one output vector.
+     * Can be called by many threads at once, see predictConcurrent() with 2d input.
+     * @param x The input vector.
+     * @return The output vector.
+     */
+    public float[] predictConcurrent(float[] x){
+        if(!this.isSimple()){
+            throw new AssertionError("Called simple method when the complex version should have been called. Check other predictConcurrent with 2d input");
         }
 
-        return y;
+        Utility.checkNotNull((Object)x);
+
+        float[][] xVectors = {x};
+        return this.predictConcurrent(xVectors)[0];
     }
 
     /**
@@ -637,71 +820,276 @@ public class NeuralNetwork extends Model{
      * @param losses The loss functions, one per output layer.
      * @return The gradient list, which matches the same shape as the parameters list.
      */
-    private ArrayList<float[][]> calculateGradient(float[][] inputVectors, float[][] outputVectors, Loss[] losses){
+    private ArrayList<Matrix> calculateGradient(float[][] inputVectors, float[][] outputVectors, Loss[] losses){
         //Check params
         this.checkCalculateGradientParams(inputVectors, outputVectors, losses);
 
         //Clear the dLdX and dLdY vectors from all layers
-        for(int i = 0; i < allLayers.size(); i++){
-            if(allLayers.get(i).getdLdX() != null){
-                Utility.clearArray(allLayers.get(i).getdLdX());
+        for(int i = 0; i < this.backwardOrder.length; i++){
+            if(this.backwardOrder[i].getdLdX() != null){
+                Utility.clearArray(this.backwardOrder[i].getdLdX());
             }
-            if(allLayers.get(i).getdLdY() != null){
-                Utility.clearArray(allLayers.get(i).getdLdY());
+            if(this.backwardOrder[i].getdLdY() != null){
+                Utility.clearArray(this.backwardOrder[i].getdLdY());
             }
         }
 
 
-        ArrayList<float[][]> grad = new ArrayList<float[][]>();
+        //Sampled softmax outputs choose the classes to calculate from the labels, see SampledSoftmaxLayer
+        for(int i = 0; i < outputLayers.size(); i++){
+            if(outputLayers.get(i) instanceof SampledSoftmaxLayer && this.useFusedSoftmaxGradient(i, losses[i])){
+                SampledSoftmaxLayer sampledSoftmax = (SampledSoftmaxLayer)outputLayers.get(i);
+                sampledSoftmax.setTarget(outputVectors[i]);
+                sampledSoftmax.sampleNextPass();
+            }
+        }
+
+        ArrayList<Matrix> grad = new ArrayList<Matrix>();
         //complete the forward pass
         float[][] yPreds = predict(inputVectors);
 
-        Stack<Layer> stack = new Stack<Layer>();
-        HashSet<Layer> completed = new HashSet<Layer>();
-
         for(int i = 0; i < outputLayers.size(); i++){
-            float[] error = losses[i].calculateLossVectorGradient(outputVectors[i], yPreds[i]);
-            Utility.copyArrayContents(error, outputLayers.get(i).getdLdY());
-            outputLayers.get(i).backwardPass();
-            completed.add(outputLayers.get(i));
+            if(this.useFusedSoftmaxGradient(i, losses[i])){
+                ((SoftmaxCrossEntropy)losses[i]).calculateSoftmaxGradient(outputVectors[i], yPreds[i], outputLayers.get(i).getdLdY());
+            } else {
+                float[] error = losses[i].calculateLossVectorGradient(outputVectors[i], yPreds[i]);
+                Utility.copyArrayContents(error, outputLayers.get(i).getdLdY());
+            }
         }
 
-        for(int i = 0; i < inputLayers.size(); i++){
-            stack.push(inputLayers.get(i));
+        //Every layer comes after its output layers in the backward execution plan.
+        for(int i = 0; i < this.backwardOrder.length; i++){
+            this.backwardOrder[i].backwardPass();
         }
 
-        while(!stack.empty()){
-            Layer top = stack.peek();
 
-            boolean canComplete = true;
 
-            for(int i = 0; i < top.getOutputLayers().size(); i++){
-                if(!completed.contains(top.getOutputLayers().get(i))){
-                    canComplete = false;
-                    stack.push(top.getOutputLayers().get(i));
-                }
+        //Iterate over the layers and collect the gradients into one ArrayList.
+        for(int i = 0; i < allLayers.size(); i++){
+            if(allLayers.get(i).getGradient() != null){
+                grad.addAll(allLayers.get(i).getGradient());
             }
 
-            if(canComplete){
-                top.backwardPass();
-                stack.pop();
-                completed.add(top);
+        }
+
+        return grad;
+    }
+
+    /**
+     * Calculates the gradient of the loss functions wrt the model's parameters, summed over a minibatch.
+     * The whole minibatch is pushed through the layers at once using the batched passes, so each layer
+     * processes all samples in a single forwardPassBatch() and backwardPassBatch() call.
+     * All layers should support the batched passes (see supportsBatch()).
+     * @param x The input samples of the training data.
+     * @param y The output samples of the training data.
+     * @param indicies The sample indicies, of which the minibatch is the range [start, end).
+     * @param start The position in indicies of the first sample of the minibatch.
+     * @param end The position in indicies after the last sample of the minibatch.
+     * @param losses The loss functions, one per output layer.
+     * @return The gradient list summed over all samples in the minibatch, which matches the same shape as the parameters list.
+     */
+    private ArrayList<Matrix> calculateGradientBatch(float[][][] x, float[][][] y, int[] indicies, int start, int end, Loss[] losses){
+        int batchSize = end - start;
+
+        //Check params
+        for(int b = start; b < end; b++){
+            this.checkCalculateGradientParams(x[indicies[b]], y[indicies[b]], losses);
+        }
+
+        //Set up the batch matricies, which also clears the dLdY batches from all layers
+        for(int i = 0; i < this.forwardOrder.length; i++){
+            this.forwardOrder[i].initializeBatchArrays(batchSize);
+        }
+
+        //Place each sample's input vectors in the rows of the input batches
+        for(int i = 0; i < this.inputLayers.size(); i++){
+            float[] inputBatch = this.inputLayers.get(i).getInputBatch().getData();
+            int length = this.inputLayers.get(i).getInputVector().length;
+
+            for(int b = 0; b < batchSize; b++){
+                System.arraycopy(x[indicies[start + b]][i], 0, inputBatch, b * length, length);
             }
         }
 
+        //Sampled softmax outputs choose the classes to calculate from the labels, see SampledSoftmaxLayer
+        for(int i = 0; i < this.outputLayers.size(); i++){
+            if(this.outputLayers.get(i) instanceof SampledSoftmaxLayer && this.useFusedSoftmaxGradient(i, losses[i])){
+                SampledSoftmaxLayer sampledSoftmax = (SampledSoftmaxLayer)this.outputLayers.get(i);
 
+                for(int b = 0; b < batchSize; b++){
+                    sampledSoftmax.setTargetRow(b, y[indicies[start + b]][i]);
+                }
+                sampledSoftmax.sampleNextPass();
+            }
+        }
+
+        //complete the forward pass
+        for(int i = 0; i < this.forwardOrder.length; i++){
+            this.forwardOrder[i].forwardPassBatch();
+        }
+
+        //Calculate the loss gradients for each sample and place them in the rows of the output layers' dLdY batches
+        for(int i = 0; i < this.outputLayers.size(); i++){
+            float[] outputBatch = this.outputLayers.get(i).getOutputBatch().getData();
+            float[] dLdYBatch = this.outputLayers.get(i).getdLdYBatch().getData();
+            int length = this.outputLayers.get(i).getOutputVector().length;
+
+            float[] yPred = new float[length];
+            boolean fused = this.useFusedSoftmaxGradient(i, losses[i]);
+            float[] fusedError = fused ? new float[length] : null;
+
+            for(int b = 0; b < batchSize; b++){
+                System.arraycopy(outputBatch, b * length, yPred, 0, length);
+
+                float[] error = fusedError;
+
+                if(fused){
+                    ((SoftmaxCrossEntropy)losses[i]).calculateSoftmaxGradient(y[indicies[start + b]][i], yPred, fusedError);
+                } else {
+                    error = losses[i].calculateLossVectorGradient(y[indicies[start + b]][i], yPred);
+                }
+
+                System.arraycopy(error, 0, dLdYBatch, b * length, length);
+            }
+        }
+
+        //complete the backward pass
+        for(int i = 0; i < this.backwardOrder.length; i++){
+            this.backwardOrder[i].backwardPassBatch();
+        }
 
         //Iterate over the layers and collect the gradients into one ArrayList.
+        ArrayList<Matrix> grad = new ArrayList<Matrix>();
+
         for(int i = 0; i < allLayers.size(); i++){
             if(allLayers.get(i).getGradient() != null){
                 grad.addAll(allLayers.get(i).getGradient());
             }
-
         }
 
         return grad;
     }
 
+    /**
+     * Determines if the loss gradient of an output layer is calculated with the fused softmax cross entropy gradient,
+     * which is the case when a SoftmaxLayer that feeds no other layers is trained with a SoftmaxCrossEntropy loss. The gradient
+     * wrt the softmax inputs is then p - y (see SoftmaxCrossEntropy.calculateSoftmaxGradient()), which skips the softmax jacobian.
+     * Other losses, including the per component CrossEntropy, are passed through the softmax jacobian as usual.
+     * Also tells the softmax layer which gradient its next backward pass receives.
+     * A SampledSoftmaxLayer under the same conditions also receives the fused gradient, see SampledSoftmaxLayer.sampleNextPass().
+     * @param outputIndex The index of the output layer.
+     * @param loss The loss function of the output layer.
+     * @return True if the fused gradient should be placed in the output layer's dLdY.
+     */
+    private boolean useFusedSoftmaxGradient(int outputIndex, Loss loss){
+        Layer outputLayer = this.outputLayers.get(outputIndex);
+
+        if(outputLayer instanceof SampledSoftmaxLayer){
+            return (loss instanceof SoftmaxCrossEntropy) && outputLayer.getOutputLayers().isEmpty();
+        }
+
+        if(!(outputLayer instanceof SoftmaxLayer)){
+            return false;
+        }
+
+        boolean fused = (loss instanceof SoftmaxCrossEntropy) && outputLayer.getOutputLayers().isEmpty();
+        ((SoftmaxLayer)outputLayer).setFusedCrossEntropy(fused);
+
+        return fused;
+    }
+
+    /**
+     * Creates the forward and backward execution plans. The forward order is found with a depth first search
+     * from the output layers, where a layer is added once all of its input layers have been added.
+     * The network should not contain a cycle.
+     */
+    private void createExecutionPlan(){
+        ArrayList<Layer> order = new ArrayList<Layer>(this.allLayers.size());
+
+        Stack<Layer> stack = new Stack<Layer>();
+        HashSet<Layer> completed = new HashSet<Layer>();
+
+        for(int i = 0; i < this.outputLayers.size(); i++){
+            stack.push(this.outputLayers.get(i));
+        }
+
+        while(!stack.empty()){
+            Layer top = stack.peek();
+
+            if(completed.contains(top)){
+                stack.pop();
+            } else {
+
+                //check to see if all of the input layers are already in the order
+                boolean canAdd = true;
+                for(int i = 0; i < top.getInputLayers().size(); i++){
+                    if(!completed.contains(top.getInputLayers().get(i))){
+                        stack.push(top.getInputLayers().get(i));
+                        canAdd = false;
+                    }
+                }
+
+                if(canAdd){
+                    order.add(top);
+                    completed.add(top);
+                    stack.pop();
+                }
+            }
+        }
+
+        this.forwardOrder = order.toArray(new Layer[order.size()]);
+
+        this.backwardOrder = new Layer[this.forwardOrder.length];
+        for(int i = 0; i < this.forwardOrder.length; i++){
+            this.backwardOrder[i] = this.forwardOrder[this.forwardOrder.length - 1 - i];
+        }
+    }
+
+    /**
+     * Calculates the gradient of the loss functions wrt the model's parameters, summed over several samples.
+     * Uses the batched passes if all layers support them, else calculates the gradient one sample at a time.
+     * @param x The input samples of the training data.
+     * @param y The output samples of the training data.
+     * @param indicies The sample indicies, of which the gradient is summed over the range [start, end).
+     * @param start The position in indicies of the first sample to sum the gradient over.
+     * @param end The position in indicies after the last sample to sum the gradient over.
+     * @param losses The loss functions, one per output layer.
+     * @param sum The accumulator used to sum the gradients one sample at a time, which is cleared first.
+     * Not used when the batched passes are used, since the layers then sum the gradients themselves.
+     * @return The summed gradient list, which matches the same shape as the parameters list.
+     */
+    private ArrayList<Matrix> calculateGradientSum(float[][][] x, float[][][] y, int[] indicies, int start, int end, Loss[] losses, ArrayList<Matrix> sum){
+        if(this.supportsBatch()){
+            return this.calculateGradientBatch(x, y, indicies, start, end, losses);
+        }
+
+        Utility.clearArrays(sum);
+
+        //calculate gradients based on each data sample
+        for(int i = start; i < end; i++){
+            ArrayList<Matrix> rawGradient = this.calculateGradient(x[indicies[i]], y[indicies[i]], losses);
+
+            Utility.addList(sum, rawGradient, 1f);
+        }
+
+        return sum;
+    }
+
+    /**
+     * Determines if every layer in the neural network supports the batched forward and backward passes.
+     * When this is true, fit() pushes whole minibatches through the layers at once instead of one sample at a time.
+     * @return True if every layer supports batched passes, else false.
+     */
+    public boolean supportsBatch(){
+        for(int i = 0; i < this.allLayers.size(); i++){
+            if(!this.allLayers.get(i).supportsBatch()){
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /**
      * Checks the parameters for the calculateGradient method.
      * @param inputVectors The input vectors to check compatibility.
@@ -736,45 +1124,270 @@ public class NeuralNetwork extends Model{
      * @param losses The loss functions to use. Each loss function corresponds to an output layer.
      */
     public void fit(float[][][] x, float[][][] y, int epochs, int minibatchSize, float valueClip, Optimizer opt, Loss[] losses){
+        this.fit(x, y, epochs, minibatchSize, valueClip, opt, losses, 1);
+    }
+
+    /**
+     * Fits the neural network to the training data using multiple threads. Each minibatch is split into numThreads
+     * contiguous shards, whose gradients are calculated concurrently on the shared thread pool (see LinearAlgebra.setThreadPool())
+     * by replicas of this network. The replicas share this network's parameters but have their own layer buffers.
+     * The shard gradients are then added together in shard order, so for the same minibatches and number of threads,
+     * the result is always the same. Use setSeed() to get the same minibatches in every run. Different numbers of
+     * threads only differ by the order the gradients are added in.
+     * @param x The training inputs. Should be consistent with number of input layers and lengths of input vectors.
+     * @param y The training output. Should be consistent with number of output layers and the lengths of output vectors.
+     * @param epochs The number of epochs, or full passes over the dataset, to complete. Should be >= 0.
+     * @param minibatchSize The number of training data samples used in a single parameter update. Larger number increases stability. Should be >= 1.
+     * @param valueClip The maximum absoulte value a component of the gradient can be. This helps prevent unstable updates. Values below 0 turn off clipping.
+     * @param opt The optimizer to use, which processes the raw gradients in hopes of increasing the rate of learning.
+     * @param losses The loss functions to use. Each loss function corresponds to an output layer.
+     * @param numThreads The number of shards (and threads) each minibatch is split into. Should be >= 1. 1 fits on the calling thread only.
+     */
+    public void fit(float[][][] x, float[][][] y, int epochs, int minibatchSize, float valueClip, Optimizer opt, Loss[] losses, int numThreads){
+        this.fit(x, y, epochs, minibatchSize, valueClip, opt, losses, numThreads, null);
+    }
+
+    /**
+     * Fits the neural network to the training data using multiple threads, saving checkpoints along the way.
+     * The checkpoints are written on a background thread while training continues (see Checkpointer).
+     * This method returns once the last checkpoint has been written.
+     * @param x The training inputs. Should be consistent with number of input layers and lengths of input vectors.
+     * @param y The training output. Should be consistent with number of output layers and the lengths of output vectors.
+     * @param epochs The number of epochs, or full passes over the dataset, to complete. Should be >= 0.
+     * @param minibatchSize The number of training data samples used in a single parameter update. Larger number increases stability. Should be >= 1.
+     * @param valueClip The maximum absoulte value a component of the gradient can be. This helps prevent unstable updates. Values below 0 turn off clipping.
+     * @param opt The optimizer to use, which processes the raw gradients in hopes of increasing the rate of learning.
+     * @param losses The loss functions to use. Each loss function corresponds to an output layer.
+     * @param numThreads The number of shards (and threads) each minibatch is split into. Should be >= 1. 1 fits on the calling thread only.
+     * @param checkpointer Decides when and where checkpoints are saved. Null turns off checkpoints.
+     */
+    public void fit(float[][][] x, float[][][] y, int epochs, int minibatchSize, float valueClip, Optimizer opt, Loss[] losses, int numThreads, Checkpointer checkpointer){
         //Check parameters
         this.checkFitParams(x, y, epochs, minibatchSize, valueClip, opt, losses);
-        
-        for(int e = 0; e < epochs; e++){
-            //calculate minibatch indicies
-            ArrayList<ArrayList<Integer>> indicies = Utility.getMinibatchIndicies(x.length, minibatchSize);
-            
 
-            for(int mb = 0; mb < indicies.size(); mb++){
-                //create space to store the averaged collection of gradients
-                ArrayList<float[][]> minibatchGradient = Utility.cloneArrays(getParameters());
-                Utility.clearArrays(minibatchGradient);
+        if(numThreads <= 0){
+            throw new AssertionError("Number of threads should be > 0");
+        }
 
-                //calculate gradients based on each data sample in the minibatch
-                for(int i = 0; i < indicies.get(mb).size(); i++){
+        Checkpointer.run(checkpointer, this, () -> {
+            this.fitMinibatches(x, y, epochs, minibatchSize, valueClip, opt, losses, numThreads, checkpointer);
+        });
+    }
 
-                    float[][] trainX = x[indicies.get(mb).get(i)];
-                    float[][] trainY = y[indicies.get(mb).get(i)];
+    /**
+     * Runs the training loop of fit() after the parameters have been checked.
+     * @param x The training inputs.
+     * @param y The training output.
+     * @param epochs The number of epochs to complete.
+     * @param minibatchSize The number of training data samples used in a single parameter update.
+     * @param valueClip The maximum absoulte value a component of the gradient can be.
+     * @param opt The optimizer to use.
+     * @param losses The loss functions to use.
+     * @param numThreads The number of shards (and threads) each minibatch is split into.
+     * @param checkpointer Decides when checkpoints are saved. May be null.
+     */
+    private void fitMinibatches(float[][][] x, float[][][] y, int epochs, int minibatchSize, float valueClip, Optimizer opt, Loss[] losses, int numThreads, Checkpointer checkpointer){
+        MinibatchIndicies minibatches = new MinibatchIndicies(x.length, minibatchSize, this.nextFitSeed());
+        NeuralNetwork[] replicas = this.createReplicas(numThreads, this.nextFitSeed());
+        GradientBuffers buffers = new GradientBuffers(this.getParameters(), numThreads, false);
+
+        for(int e = 0; e < epochs; e++){
+            //shuffle the minibatch indicies
+            if(e > 0){
+                minibatches.shuffle();
+            }
 
-                    ArrayList<float[][]> rawGradient = this.calculateGradient(trainX, trainY, losses);
+            for(int mb = 0; mb < minibatches.getNumMinibatches(); mb++){
+                this.fitMinibatch(x, y, minibatches.getIndicies(), minibatches.getStart(mb), minibatches.getEnd(mb), valueClip, opt, losses, replicas, buffers);
 
-                    //add gradient to minibatch pool
-                    Utility.addList(minibatchGradient, rawGradient, 1.0f / indicies.get(mb).size());
+                if(checkpointer != null){
+                    checkpointer.afterStep(this);
                 }
+            }
 
-                //clip the gradient if applicable
-                if(valueClip > 0){
-                    Utility.clip(minibatchGradient, -valueClip, valueClip);
+            if(checkpointer != null){
+                checkpointer.afterEpoch(this, e);
+            }
+        }
+    }
+
+    /**
+     * Creates the networks that calculate the gradients of the shards of each minibatch during fit(), and seeds the
+     * layers that sample randomly while training (see SampledSoftmaxLayer.setSeed()).
+     * @param numThreads The number of shards each minibatch is split into.
+     * @param seed The seed the layer seeds are derived from. Every layer of every replica gets a different seed, so the shards sample differently.
+     * @return This network followed by numThreads - 1 replicas of it.
+     */
+    private NeuralNetwork[] createReplicas(int numThreads, long seed){
+        //The first shard uses this network, every other shard uses its own replica.
+        NeuralNetwork[] replicas = new NeuralNetwork[numThreads];
+        replicas[0] = this;
+
+        for(int i = 1; i < numThreads; i++){
+            replicas[i] = new NeuralNetwork(this);
+        }
+
+        int numLayers = this.allLayers.size();
+
+        for(int r = 0; r < numThreads; r++){
+            for(int i = 0; i < numLayers; i++){
+                if(replicas[r].allLayers.get(i) instanceof SampledSoftmaxLayer){
+                    ((SampledSoftmaxLayer)replicas[r].allLayers.get(i)).setSeed(seed + (long)r * numLayers + i);
                 }
+            }
+        }
 
-                //System.out.println(Utility.arraysToString(minibatchGradient));
+        return replicas;
+    }
+
+    /**
+     * Makes a single parameter update from one minibatch.
+     * @param x The training inputs.
+     * @param y The training output.
+     * @param indicies The sample indicies, of which the minibatch is the range [start, end).
+     * @param start The position in indicies of the first sample of the minibatch.
+     * @param end The position in indicies after the last sample of the minibatch.
+     * @param valueClip The maximum absoulte value a component of the gradient can be. Values below 0 turn off clipping.
+     * @param opt The optimizer to use.
+     * @param losses The loss functions to use.
+     * @param replicas The networks that calculate the gradients of the shards, from createReplicas().
+     * @param buffers The gradient buffers, with one shard per replica.
+     */
+    private void fitMinibatch(float[][][] x, float[][][] y, int[] indicies, int start, int end, float valueClip, Optimizer opt, Loss[] losses, NeuralNetwork[] replicas, GradientBuffers buffers){
+        //reuse the space that stores the averaged collection of gradients
+        ArrayList<Matrix> minibatchGradient = buffers.clearMinibatchGradient();
+
+        int size = end - start;
+        int numShards = Math.min(replicas.length, size);
+
+        if(numShards == 1){
+            //calculate the gradient on this thread and average it
+            ArrayList<Matrix> rawGradient = this.calculateGradientSum(x, y, indicies, start, end, losses, buffers.clearShardGradient(0));
+            Utility.addList(minibatchGradient, rawGradient, 1.0f / size);
+        } else {
+            //calculate the gradient of each shard concurrently, each with its own replica
+            ArrayList<Callable<ArrayList<Matrix>>> tasks = new ArrayList<Callable<ArrayList<Matrix>>>(numShards);
 
-                minibatchGradient = opt.processGradient(minibatchGradient);
+            for(int s = 0; s < numShards; s++){
+                NeuralNetwork replica = replicas[s];
+                int shardStart = start + s * size / numShards;
+                int shardEnd = start + (s + 1) * size / numShards;
 
-                //minibatch processed. Add to Network's parameters
-                Utility.addList(getParameters(), minibatchGradient, -1f);
+                ArrayList<Matrix> shardGradient = buffers.clearShardGradient(s);
 
+                tasks.add(() -> replica.calculateGradientSum(x, y, indicies, shardStart, shardEnd, losses, shardGradient));
+            }
+
+            ArrayList<ArrayList<Matrix>> shardGradients = Utility.runInParallel(tasks);
+
+            //reduce the shard gradients in shard order and average them
+            for(int s = 0; s < numShards; s++){
+                Utility.addList(minibatchGradient, shardGradients.get(s), 1.0f / size);
             }
         }
+
+        //clip the gradient if applicable
+        if(valueClip > 0){
+            Utility.clip(minibatchGradient, -valueClip, valueClip);
+        }
+
+        //minibatch gradient is calculated. Let the optimizer update the parameters in place
+        opt.step(getParameters(), minibatchGradient);
+    }
+
+    /**
+     * Fits a neural network with one input and one output layer to a dataset, which may be stored on disk
+     * (see MappedDataset). Only a few minibatches of samples are held in memory at a time.
+     * @param data The training dataset. Its input and output sizes should match the input and output layers.
+     * @param epochs The number of epochs, or full passes over the dataset, to complete. Should be >= 1.
+     * @param minibatchSize The number of training data samples used in a single parameter update. Should be >= 1.
+     * @param valueClip The maximum absoulte value a component of the gradient can be. Values below 0 turn off clipping.
+     * @param opt The optimizer to use, which processes the raw gradients in hopes of increasing the rate of learning.
+     * @param loss The loss function to minimize during training.
+     */
+    public void fit(Dataset data, int epochs, int minibatchSize, float valueClip, Optimizer opt, Loss loss){
+        this.fit(data, epochs, minibatchSize, valueClip, opt, loss, 1, null);
+    }
+
+    /**
+     * Fits a neural network with one input and one output layer to a dataset using multiple threads, saving checkpoints
+     * along the way. The minibatches are loaded by a DataLoader on a background thread while the previous minibatch is
+     * being trained on, so only a few minibatches of samples are held in memory at a time. See fit() with 3d inputs and a checkpointer.
+     * @param data The training dataset. Its input and output sizes should match the input and output layers.
+     * @param epochs The number of epochs, or full passes over the dataset, to complete. Should be >= 1.
+     * @param minibatchSize The number of training data samples used in a single parameter update. Should be >= 1.
+     * @param valueClip The maximum absoulte value a component of the gradient can be. Values below 0 turn off clipping.
+     * @param opt The optimizer to use, which processes the raw gradients in hopes of increasing the rate of learning.
+     * @param loss The loss function to minimize during training.
+     * @param numThreads The number of shards (and threads) each minibatch is split into. Should be >= 1.
+     * @param checkpointer Decides when and where checkpoints are saved. Null turns off checkpoints.
+     */
+    public void fit(Dataset data, int epochs, int minibatchSize, float valueClip, Optimizer opt, Loss loss, int numThreads, Checkpointer checkpointer){
+        try(DataLoader loader = new DataLoader(data, minibatchSize, DataLoader.DEFAULT_PREFETCH, 1, this.nextFitSeed())){
+            this.fit(loader, epochs, valueClip, opt, loss, numThreads, checkpointer);
+        }
+    }
+
+    /**
+     * Fits a neural network with one input and one output layer to the minibatches of a data loader, which prepares
+     * the next minibatches on its own threads while the current one is being trained on. Each epoch uses
+     * loader.getNumMinibatches() minibatches. The loader is not closed, so it can be used for several fit() calls.
+     * @param loader The data loader. Its dataset's input and output sizes should match the input and output layers.
+     * @param epochs The number of epochs, or full passes over the dataset, to complete. Should be >= 1.
+     * @param valueClip The maximum absoulte value a component of the gradient can be. Values below 0 turn off clipping.
+     * @param opt The optimizer to use, which processes the raw gradients in hopes of increasing the rate of learning.
+     * @param loss The loss function to minimize during training.
+     * @param numThreads The number of shards (and threads) each minibatch is split into. Should be >= 1.
+     * @param checkpointer Decides when and where checkpoints are saved. Null turns off checkpoints.
+     */
+    public void fit(DataLoader loader, int epochs, float valueClip, Optimizer opt, Loss loss, int numThreads, Checkpointer checkpointer){
+        //Check parameters
+        if(!this.isSimple()){
+            throw new AssertionError("Dataset version of fit called when the model is complex. Check the fit method with 3d inputs.");
+        }
+
+        Utility.checkNotNull(loader, loss);
+        Dataset data = loader.getDataset();
+        Utility.checkEqual(data.getInputSize(), this.inputLayers.get(0).outputVector.length);
+        Utility.checkEqual(data.getOutputSize(), this.outputLayers.get(0).outputVector.length);
+
+        if(numThreads <= 0){
+            throw new AssertionError("Number of threads should be > 0");
+        }
+
+        Loss[] losses = new Loss[1];
+        losses[0] = loss;
+
+        //Only the shapes of the inputs are checked
+        this.checkFitParams(new float[1][1][data.getInputSize()], new float[1][1][data.getOutputSize()], epochs, loader.getMinibatchSize(), valueClip, opt, losses);
+
+        //The samples of a minibatch are always at the start of its buffers
+        int[] positions = new int[loader.getMinibatchSize()];
+
+        for(int i = 0; i < positions.length; i++){
+            positions[i] = i;
+        }
+
+        Checkpointer.run(checkpointer, this, () -> {
+            NeuralNetwork[] replicas = this.createReplicas(numThreads, this.nextFitSeed());
+            GradientBuffers buffers = new GradientBuffers(this.getParameters(), numThreads, false);
+
+            for(int e = 0; e < epochs; e++){
+                for(int mb = 0; mb < loader.getNumMinibatches(); mb++){
+                    DataLoader.Minibatch minibatch = loader.next();
+
+                    this.fitMinibatch(minibatch.x3d, minibatch.y3d, positions, 0, minibatch.size, valueClip, opt, losses, replicas, buffers);
+
+                    if(checkpointer != null){
+                        checkpointer.afterStep(this);
+                    }
+                }
+
+                if(checkpointer != null){
+                    checkpointer.afterEpoch(this, e);
+                }
+            }
+        });
     }
 
     /**
@@ -805,6 +1418,15 @@ public class NeuralNetwork extends Model{
         for(int i = 0; i < losses.length; i++){
             Utility.checkNotNull(losses[i]);
         }
+
+        //Check the training data once here, the layers and losses only check each element at the full validation level
+        for(int i = 0; i < x.length; i++){
+            Utility.checkDataReal(x[i]);
+        }
+
+        for(int i = 0; i < y.length; i++){
+            Utility.checkDataReal(y[i]);
+        }
     }
 
     /**
@@ -836,6 +1458,39 @@ public class NeuralNetwork extends Model{
      * @param loss The loss function to minimize during training.
      */
     public void fit(float[][] x, float[][] y, int epochs, int minibatchSize, float valueClip, Optimizer opt, Loss loss){
+        this.fit(x, y, epochs, minibatchSize, valueClip, opt, loss, 1);
+    }
+
+    /**
+     * Fits a single input, single output vector dataset to this model using multiple threads. Used for simple models.
+     * See fit() with 3d inputs and numThreads for how the work is split.
+     * @param x The training input data.
+     * @param y The training output data.
+     * @param epochs The number of epochs or number of passes, to train the model for.
+     * @param minibatchSize The number of samples used per parameter update.
+     * @param valueClip The maximum absolute value a gradient component is limited to being.
+     * @param opt The optimizer used to process the raw gradients.
+     * @param loss The loss function to minimize during training.
+     * @param numThreads The number of shards (and threads) each minibatch is split into. Should be >= 1.
+     */
+    public void fit(float[][] x, float[][] y, int epochs, int minibatchSize, float valueClip, Optimizer opt, Loss loss, int numThreads){
+        this.fit(x, y, epochs, minibatchSize, valueClip, opt, loss, numThreads, null);
+    }
+
+    /**
+     * Fits a single input, single output vector dataset to this model using multiple threads, saving checkpoints along the way.
+     * Used for simple models. See fit() with 3d inputs and a checkpointer.
+     * @param x The training input data.
+     * @param y The training output data.
+     * @param epochs The number of epochs or number of passes, to train the model for.
+     * @param minibatchSize The number of samples used per parameter update.
+     * @param valueClip The maximum absolute value a gradient component is limited to being.
+     * @param opt The optimizer used to process the raw gradients.
+     * @param loss The loss function to minimize during training.
+     * @param numThreads The number of shards (and threads) each minibatch is split into. Should be >= 1.
+     * @param checkpointer Decides when and where checkpoints are saved. Null turns off checkpoints.
+     */
+    public void fit(float[][] x, float[][] y, int epochs, int minibatchSize, float valueClip, Optimizer opt, Loss loss, int numThreads, Checkpointer checkpointer){
         //Do some basic parameter checking.
         if(!this.isSimple()){
             throw new AssertionError("Simple version of fit called when the model is complex. Check the fit method with 3d inputs.");
@@ -858,7 +1513,7 @@ public class NeuralNetwork extends Model{
         losses[0] = loss;
 
         //Much of the parameter checking will be done in this call
-        this.fit(trainX, trainY, epochs, minibatchSize, valueClip, opt, losses);
+        this.fit(trainX, trainY, epochs, minibatchSize, valueClip, opt, losses, numThreads, checkpointer);
     }
 
     /**
@@ -917,22 +1572,71 @@ public class NeuralNetwork extends Model{
     }
 
     /**
-     * Converts all of the layers in the neural network into a String representation that can be saved.
-     * @return The string representation of the layers.
+     * Writes all of the layers in the neural network in the representation that can be saved. Layers that have a
+     * toSpecString() are written as their spec followed by their parameter matricies, one number at a time,
+     * so the text of a large layer is never built in memory. Other layers are written with toString(), which uses
+     * their own parameters.
+     * @param writer The writer to write the layers to.
+     * @param parameters The parameters to write for the layers, in the order of the parameters list.
+     * @throws IOException If the writer fails.
      */
-    private String layerInfoToString(){
+    private void writeLayerInfo(ModelTextWriter writer, List<Matrix> parameters) throws IOException{
+        writer.write("START ALL LAYER INFO\n");
+
+        //The parameters list holds the parameters of each layer in layer order
+        int parameterIndex = 0;
+
+        for(int i = 0; i < this.allLayers.size(); i++){
+            Layer layer = this.allLayers.get(i);
+            String spec = layer.toSpecString();
+            int numParameters = layer.getParameters().size();
+
+            writer.write("LAYER START\n");
+
+            if(spec != null){
+                //Same text as toString(): the spec, then the parameters in the format of Utility.arraysToString()
+                writer.write(spec);
+
+                if(numParameters > 0){
+                    writer.write("\n");
+                    writer.writeMatrixList(parameters.subList(parameterIndex, parameterIndex + numParameters));
+                }
+
+            } else {
+                writer.write(layer.toString());
+            }
+
+            parameterIndex += numParameters;
+
+            writer.write("\n");
+            writer.write("LAYER END\n");
+        }
+
+        writer.write("END ALL LAYER INFO");
+    }
+
+    /**
+     * Creates the header of the binary model format, which lists the number of parameter matricies and
+     * the toSpecString() description of each layer.
+     * @return The layer spec string.
+     */
+    private String layerSpecsToString(){
         StringBuilder sb = new StringBuilder();
 
-        sb.append("START ALL LAYER INFO\n");
+        sb.append("START LAYER SPECS\n");
 
         for(int i = 0; i < this.allLayers.size(); i++){
-            sb.append("LAYER START\n");
-            sb.append(this.allLayers.get(i).toString());
-            sb.append("\n");
-            sb.append("LAYER END\n");
+            Layer layer = this.allLayers.get(i);
+            String spec = layer.toSpecString();
+
+            if(spec == null){
+                throw new AssertionError(layer.getClass().getSimpleName() + " layer does not support the binary model format. Check Layer.toSpecString().");
+            }
+
+            sb.append(layer.getParameters().size() + " " + spec + "\n");
         }
 
-        sb.append("END ALL LAYER INFO");
+        sb.append("END LAYER SPECS");
 
         return sb.toString();
     }
@@ -954,11 +1658,58 @@ public class NeuralNetwork extends Model{
         //Check param
         Utility.checkNotNull(filePath);
 
-        String connectionInfo = connectionInfoToString();
-        String layerInfo = layerInfoToString();
-        String modelInfo = connectionInfo + "\n" + layerInfo;
+        if(!this.saveSnapshot(filePath, this.getParameters(), false)){
+            System.err.println("Error: Neural network could not be saved.");
+        }
+    }
+
+    /**
+     * Saves the neural network to disk in the binary model format, which is much smaller and faster to save and load
+     * than the text format of saveModel(), but not human readable. The neural network constructor that takes a
+     * filepath loads both formats.
+     * @param filePath The filepath to save the neural network to.
+     */
+    public void saveModelBinary(String filePath){
+        //Check param
+        Utility.checkNotNull(filePath);
+
+        if(!this.saveSnapshot(filePath, this.getParameters(), true)){
+            System.err.println("Error: Neural network could not be saved.");
+        }
+    }
+
+    /**
+     * Saves the neural network as if its parameters were the given matricies, in either format. See Model.saveSnapshot().
+     * Layers without a toSpecString() are saved with their own parameters in the text format and are not supported
+     * in the binary format.
+     * @param filePath The filepath to save the neural network to.
+     * @param parameters The parameters to save, with the same shapes and order as getParameters().
+     * @param binary True to use the format of saveModelBinary(), false to use the format of saveModel().
+     * @return True on success, false on failure and prints error message to standard error.
+     */
+    @Override
+    protected boolean saveSnapshot(String filePath, List<Matrix> parameters, boolean binary){
+        Utility.checkNotNull(filePath, parameters);
+        Utility.checkEqual(parameters.size(), this.getParameters().size());
+
+        if(binary){
+            String modelInfo = connectionInfoToString() + "\n" + layerSpecsToString();
+
+            //The layers' parameters are written in layer order, which is the order of the parameters list.
+            return BinaryModelFile.write(filePath, "NEURALNETWORK", modelInfo, parameters);
+        }
+
+        //Write the layers one at a time through a buffer instead of building the whole file as a string
+        try(ModelTextWriter writer = ModelTextWriter.open(filePath)){
+            writer.write(connectionInfoToString());
+            writer.write("\n");
+            this.writeLayerInfo(writer, parameters);
 
-        Utility.writeStringToFile(filePath, modelInfo);
+        } catch(IOException e){
+            System.err.println(e.getMessage());
+            return false;
+        }
 
+        return true;
     }
 }
\ No newline at end of file
@@ -3,7 +3,9 @@ package jpf;
 import java.util.ArrayList;
 
 /**
- * Interface used by all optimizers that enforces the implementation of the processGradient() function
+ * Interface used by all optimizers that enforces the implementation of the processGradient() function.
+ * fit() updates the parameters with step(), which optimizers can override to update the parameters in place
+ * in a single pass, without allocating a processed gradient.
  */
 public interface Optimizer {
     
@@ -13,5 +15,19 @@ public interface Optimizer {
      * @param rawGradient The raw, unprocessed gradient for the model evaluated at a data point
      * @return The processed gradient
      */
-    public ArrayList<float[][]> processGradient(ArrayList<float[][]> rawGradient);
+    public ArrayList<Matrix> processGradient(ArrayList<Matrix> rawGradient);
+
+    /**
+     * Makes a parameter update: processes a raw gradient and subtracts the processed gradient from the parameters.
+     * The default implementation calls processGradient() and then subtracts its result.
+     * @param parameters The model's parameters, which are updated in place.
+     * @param rawGradient The raw, unprocessed gradient of the parameters. May be modified.
+     */
+    public default void step(ArrayList<Matrix> parameters, ArrayList<Matrix> rawGradient){
+        Utility.checkNotNull(parameters, rawGradient);
+
+        ArrayList<Matrix> gradient = this.processGradient(rawGradient);
+
+        Utility.addList(parameters, gradient, -1f);
+    }
 }
\ No newline at end of file
@@ -1,6 +1,8 @@
 package jpf;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Defines the PolynomialModel class, which aims to learn polynomial relationships between data.
@@ -21,13 +23,13 @@ public class PolynomialModel extends SimpleModel{
      * where x is the input vector component index, y is the output vector component index,
      * and p is the index of the coefficient multiplied by x raised to the (p - 1)th power.
      */
-    private ArrayList<float[][]> weightMatricies;
+    private ArrayList<Matrix> weightMatricies;
 
     /**
      * The bias vector contains the constants added to the output vector.
      * This is like the b in y = mx + b.
      */
-    private float[][] biasMatrix;
+    private Matrix biasMatrix;
 
     
     /**
@@ -44,15 +46,15 @@ public class PolynomialModel extends SimpleModel{
         this.checkDegree(degree);
         this.degree = degree;
 
-        weightMatricies = new ArrayList<float[][]>();
+        weightMatricies = new ArrayList<Matrix>();
 
         //Create the polynomial weight matricies and initialize
         for(int i = 0; i < this.numInputs; i++){
-            weightMatricies.add(new float[this.numOutputs][this.degree]);
+            weightMatricies.add(new Matrix(this.numOutputs, this.degree));
             this.parameters.add(this.weightMatricies.get(i));
         }
 
-        this.biasMatrix = new float[this.numOutputs][1];
+        this.biasMatrix = new Matrix(this.numOutputs, 1);
 
         this.parameters.add(this.biasMatrix);
 
@@ -61,19 +63,25 @@ public class PolynomialModel extends SimpleModel{
 
     /**
      * Creates a PolynomialModel from a file saved to disk.
-     * @param filePath The filepath to the file generated from the saveModel() method
+     * @param filePath The filepath to the file generated from the saveModel() or saveModelBinary() method
      */
     public PolynomialModel(String filePath){
         super();
-        //Load file contents
-        String contents = Utility.getTextFileContents(filePath);
-        contents = contents.replace("POLYNOMIALMODEL\n", "");
-
-        ArrayList<float[][]> arrays = Utility.stringToMatrixList(contents);
+        ArrayList<Matrix> arrays;
+
+        if(BinaryModelFile.isBinaryModelFile(filePath)){
+            arrays = BinaryModelFile.read(filePath, "POLYNOMIALMODEL").getMatricies();
+        } else {
+            //Parse the parameters while reading the file, without holding the whole file in memory
+            try(ModelTextReader reader = ModelTextReader.open(filePath)){
+                reader.expectLine("POLYNOMIALMODEL");
+                arrays = reader.readMatrixList();
+            }
+        }
 
         this.parameters = arrays;
 
-        weightMatricies = new ArrayList<float[][]>();
+        weightMatricies = new ArrayList<Matrix>();
         for(int i = 0; i < arrays.size() - 1; i++){
             weightMatricies.add(arrays.get(i));
         }
@@ -82,9 +90,9 @@ public class PolynomialModel extends SimpleModel{
 
         this.numInputs = arrays.size() - 1;
 
-        this.numOutputs = LinearAlgebra.getNumRows(biasMatrix);
+        this.numOutputs = biasMatrix.getNumRows();
 
-        this.degree = LinearAlgebra.getNumColumns(arrays.get(0));
+        this.degree = arrays.get(0).getNumColumns();
 
         this.checkDegree(this.degree);
         this.checkInputOutputSize(this.numInputs, this.numOutputs);
@@ -109,17 +117,20 @@ public class PolynomialModel extends SimpleModel{
 
         for(int x = 0; x < inputVector.length; x++){
             float[] powers = this.calculatePowers(inputVector[x], degree);
+            float[] weights = weightMatricies.get(x).getData();
+
             for(int y = 0; y < numOutputs; y++){
 
                 for(int d = 0; d < powers.length; d++){
-                    outputVector[y] += weightMatricies.get(x)[y][d] * powers[d];
+                    outputVector[y] += weights[y * degree + d] * powers[d];
                 }
             }
         }
 
         //Add bias matrix
+        float[] bias = biasMatrix.getData();
         for(int y = 0; y < numOutputs; y++){
-            outputVector[y] += biasMatrix[y][0];
+            outputVector[y] += bias[y];
         }
 
         return outputVector;
@@ -144,13 +155,27 @@ public class PolynomialModel extends SimpleModel{
     }
     
 
-    public ArrayList<float[][]> calculateGradient(float[] inputVector, float[] outputVector, Loss loss){
+    public ArrayList<Matrix> calculateGradient(float[] inputVector, float[] outputVector, Loss loss){
+        ArrayList<Matrix> grad = Utility.cloneArrays(getParameters());
+        Utility.clearArrays(grad);
+
+        this.calculateGradient(inputVector, outputVector, loss, grad);
+
+        return grad;
+    }
+
+    /**
+     * Calculates the gradient of the loss function wrt the model's parameters and stores it in a provided list.
+     * @param inputVector The data sample's input.
+     * @param outputVector The data sample's output.
+     * @param loss The loss function.
+     * @param grad The list to store the gradient in, in the same order as getParameters(). All entries are overwritten.
+     */
+    @Override
+    protected void calculateGradient(float[] inputVector, float[] outputVector, Loss loss, ArrayList<Matrix> grad){
         //Check parameters
         this.checkInputOutputVectorsAndLoss(inputVector, outputVector, loss);
 
-        ArrayList<float[][]> grad = Utility.cloneArrays(getParameters());
-        Utility.clearArrays(grad);
-
         float[] yPred = this.predict(inputVector);
 
         float[] dLdY = loss.calculateLossVectorGradient(outputVector, yPred);
@@ -162,30 +187,62 @@ public class PolynomialModel extends SimpleModel{
 
                 for(int d = 0; d < degree; d++){
                     //Using the chain rule:
-                    grad.get(i)[j][d] = powers[d] * dLdY[j];
+                    grad.get(i).set(j, d, powers[d] * dLdY[j]);
                 }
             }
         }
 
-        
-        grad.set(grad.size() - 1, LinearAlgebra.arrayToMatrix(dLdY));
 
-        return grad;
+        Utility.copyArrayContents(dLdY, grad.get(grad.size() - 1).getData());
     }
 
     
     public void saveModel(String filePath) {
-        //create the model string
-        String contents = Utility.arraysToString(this.getParameters());
-        contents = "POLYNOMIALMODEL\n" + contents;
-
-        boolean success = Utility.writeStringToFile(filePath, contents);
+        if(!this.saveSnapshot(filePath, this.getParameters(), false)){
+            System.err.println("Error: Polynomial model could not be saved.");
+        }
+    }
 
-        if(!success){
+    /**
+     * Saves the model in the binary model format, which is smaller and faster to load than the format of saveModel().
+     * @param filePath The file to save the model to.
+     */
+    @Override
+    public void saveModelBinary(String filePath){
+        if(!this.saveSnapshot(filePath, this.getParameters(), true)){
             System.err.println("Error: Polynomial model could not be saved.");
         }
     }
 
+    /**
+     * Saves the model as if its parameters were the given matricies, in either format. See Model.saveSnapshot().
+     * @param filePath The file to save the model to.
+     * @param parameters The parameters to save, with the same shapes and order as getParameters().
+     * @param binary True to use the binary model format, false to use the human readable format.
+     * @return True on success, false on failure and prints error message to standard error.
+     */
+    @Override
+    protected boolean saveSnapshot(String filePath, List<Matrix> parameters, boolean binary){
+        Utility.checkNotNull(filePath, parameters);
+        Utility.checkEqual(parameters.size(), this.getParameters().size());
+
+        if(binary){
+            return BinaryModelFile.write(filePath, "POLYNOMIALMODEL", "", parameters);
+        }
+
+        //Write the parameters straight to disk through a buffer
+        try(ModelTextWriter writer = ModelTextWriter.open(filePath)){
+            writer.write("POLYNOMIALMODEL\n");
+            writer.writeMatrixList(parameters);
+
+        } catch(IOException e){
+            System.err.println(e.getMessage());
+            return false;
+        }
+
+        return true;
+    }
+
     /**
      * Checks the degree parameter to see if it is valid. Must be >= 1.
      * Throws an assertion error if invalid
@@ -28,7 +28,7 @@ public class RMSProp implements Optimizer{
     /**
      * The exponentially decaying memory of each gradient component squared.
      */
-    ArrayList<float[][]> gradSquare;
+    ArrayList<Matrix> gradSquare;
 
     /**
      * Default constructor for the RMSProp optimizer. Sets the learning rate to 0.0001, rho to 0.9, epsilon to 0.000001.
@@ -124,43 +124,71 @@ public class RMSProp implements Optimizer{
      * @param rawGradient The unprocessed gradient from a model.
      * @return The processed model with the applied per-parameter adaptive learning rate.
      */
-    public ArrayList<float[][]> processGradient(ArrayList<float[][]> rawGradient){
+    public ArrayList<Matrix> processGradient(ArrayList<Matrix> rawGradient){
         //Check parameters
         Utility.checkNotNull(rawGradient);
 
-        //Create internal state if it isn't already there.
-        if(gradSquare == null){
-            ArrayList<float[][]> newState = Utility.cloneArrays(rawGradient);
-            Utility.clearArrays(newState);
-            this.gradSquare = newState;
-        }
+        this.initializeState(rawGradient);
 
+        ArrayList<Matrix> grad = Utility.cloneArrays(rawGradient);
 
+        //Update the state and populate the gradient in one pass
+        for(int i = 0; i < grad.size(); i++){
+            float[] g = grad.get(i).getData();
+            float[] state = gradSquare.get(i).getData();
+            float[] raw = rawGradient.get(i).getData();
+
+            for(int j = 0; j < g.length; j++){
+                //maintain exponentially decaying average (estimation for avg squared gradient)
+                state[j] = (rho * state[j]) + ((1 - rho) * (raw[j] * raw[j]));
 
-        //Update the state of the optimizer (estimation for avg squared gradient)
-        for(int i = 0; i < gradSquare.size(); i++){
-            for(int r = 0; r < gradSquare.get(i).length; r++){
-                for(int c = 0; c < gradSquare.get(i)[r].length; c++){
-                    //maintain exponentially decaying average
-                    this.gradSquare.get(i)[r][c] = (rho * gradSquare.get(i)[r][c]) + ((1 - rho) * ((float)Math.pow(rawGradient.get(i)[r][c], 2)));
-                }
+                g[j] = learningRate * (1f / (float)Math.sqrt(state[j] + epsilon)) * raw[j];
             }
         }
 
+        return grad;
+    }
 
-        ArrayList<float[][]> grad = Utility.cloneArrays(rawGradient);
-        Utility.clearArrays(grad);
-        
-        //populate gradient
-        for(int i = 0; i < grad.size(); i++){
-            for(int r = 0; r < grad.get(i).length; r++){
-                for(int c = 0; c < grad.get(i)[r].length; c++){
-                    grad.get(i)[r][c] = learningRate * (1f / (float)Math.sqrt(gradSquare.get(i)[r][c] + epsilon)) * rawGradient.get(i)[r][c];
-                }
+    /**
+     * Updates the internal state and subtracts the gradient with the per-parameter adaptive learning rate from the
+     * parameters, in a single pass over each parameter matrix and without allocating a processed gradient.
+     * @param parameters The model's parameters, which are updated in place.
+     * @param rawGradient The unprocessed gradient from a model. Not modified.
+     */
+    @Override
+    public void step(ArrayList<Matrix> parameters, ArrayList<Matrix> rawGradient){
+        //Check parameters
+        Utility.checkNotNull(parameters, rawGradient);
+        Utility.checkMatrixListDimensionsEqual(parameters, rawGradient);
+
+        this.initializeState(rawGradient);
+
+        for(int i = 0; i < parameters.size(); i++){
+            float[] p = parameters.get(i).getData();
+            float[] state = gradSquare.get(i).getData();
+            float[] raw = rawGradient.get(i).getData();
+
+            for(int j = 0; j < p.length; j++){
+                //maintain exponentially decaying average, then apply the adaptive learning rate
+                state[j] = (rho * state[j]) + ((1 - rho) * (raw[j] * raw[j]));
+
+                p[j] -= learningRate * (1f / (float)Math.sqrt(state[j] + epsilon)) * raw[j];
             }
         }
+    }
 
-        return grad;
+    /**
+     * Creates the internal state if it isn't already there.
+     * @param rawGradient A gradient with the shapes of the model's parameters.
+     */
+    private void initializeState(ArrayList<Matrix> rawGradient){
+        if(gradSquare == null){
+            ArrayList<Matrix> newState = Utility.cloneArrays(rawGradient);
+            Utility.clearArrays(newState);
+            this.gradSquare = newState;
+        }
+
+        Utility.checkMatrixListDimensionsEqual(gradSquare, rawGradient);
     }
 
     /**
@@ -44,7 +44,7 @@ public class SGD implements Optimizer{
      * @param rawGradient A raw, unprocessed gradient of the model's parameters evaluated at a data point.
      * @return The processed gradient, ready to be applied to the model.
      */
-    public ArrayList<float[][]> processGradient(ArrayList<float[][]> rawGradient){
+    public ArrayList<Matrix> processGradient(ArrayList<Matrix> rawGradient){
         //Check parameter
         Utility.checkNotNull(rawGradient);
         
@@ -52,4 +52,21 @@ public class SGD implements Optimizer{
 
         return rawGradient;
     }
+
+    /**
+     * Subtracts the gradient scaled by the learning rate from the parameters in a single pass.
+     * @param parameters The model's parameters, which are updated in place.
+     * @param rawGradient A raw, unprocessed gradient of the model's parameters. Not modified.
+     */
+    @Override
+    public void step(ArrayList<Matrix> parameters, ArrayList<Matrix> rawGradient){
+        //Check parameters
+        Utility.checkNotNull(parameters, rawGradient);
+        Utility.checkMatrixListDimensionsEqual(parameters, rawGradient);
+
+        for(int i = 0; i < parameters.size(); i++){
+            float[] p = parameters.get(i).getData();
+            LinearAlgebra.axpy(-this.learningRate, rawGradient.get(i).getData(), 0, p, 0, p.length);
+        }
+    }
 }
\ No newline at end of file
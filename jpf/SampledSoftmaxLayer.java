@@ -0,0 +1,647 @@
+package jpf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Class that defines the SampledSoftmaxLayer, an output layer for classification tasks with a very large number of classes.
+ * The layer combines a dense layer with a linear activation function and a softmax: it calculates the logits Wx + b, one
+ * for each class, and outputs the softmax of the logits, a discrete probability distribution over the classes.
+ *
+ * When making predictions, every class is calculated. When the layer is trained with a SoftmaxCrossEntropy loss, each forward pass
+ * only calculates the true classes of the samples (the non zero labels) and numSampled other classes chosen uniformly at
+ * random, and the softmax is taken over those classes only. Since the classes are sampled uniformly, the usual correction
+ * of the logits by the log of the sampling probability is the same for every class and cancels in the softmax.
+ * The cost of training the layer then depends on numSampled instead of the number of classes. The parameters of the classes
+ * that were not sampled receive no gradient in that pass. With other losses, every class is calculated during training too.
+ */
+public class SampledSoftmaxLayer extends Layer{
+
+    /**
+     * The weight matrix, one row per class, which is multiplied with the input vector to find the logits.
+     */
+    private Matrix weightMatrix;
+
+    /**
+     * The bias of each class, as a 1 column matrix.
+     */
+    private Matrix biasMatrix;
+
+    /**
+     * The number of classes sampled in addition to the true classes during training.
+     */
+    private int numSampled;
+
+    /**
+     * The random number generator used to sample the classes. fit() seeds it, see setSeed().
+     */
+    private Random random;
+
+    /**
+     * True if the next forward pass should sample the classes using the labels, see sampleNextPass().
+     */
+    private boolean sampleNext;
+
+    /**
+     * True if the current forward and backward pass only calculate the candidate classes chosen with the labels.
+     * dLdY then holds the fused cross entropy gradient wrt the logits, not the gradient wrt the probabilities.
+     */
+    private boolean sampledPass;
+
+    /**
+     * True if the candidates of the current pass are all classes, in order.
+     */
+    private boolean allClasses;
+
+    /**
+     * The labels of the next single sample forward pass.
+     */
+    private float[] target;
+
+    /**
+     * The labels of the next batched forward pass, one row per sample.
+     */
+    private Matrix targetBatch;
+
+    /**
+     * The classes calculated in the current pass. Only the first numCandidates entries are used.
+     */
+    private int[] candidates;
+
+    /**
+     * The number of classes calculated in the current pass.
+     */
+    private int numCandidates;
+
+    /**
+     * Marks the classes already chosen while choosing the candidates. All false outside of chooseCandidates().
+     */
+    private boolean[] isCandidate;
+
+    /**
+     * The rows of the weight matrix used in the current pass. The weight matrix itself when all classes are used.
+     */
+    private Matrix passWeights;
+
+    /**
+     * Workspace holding the weight rows of the candidate classes.
+     */
+    private Matrix candidateWeights;
+
+    /**
+     * Workspace holding the weight gradient of the candidate classes, before it is placed in the gradient list.
+     */
+    private Matrix candidateWeightGradient;
+
+    /**
+     * The probabilities of the candidate classes, one row per sample.
+     */
+    private Matrix probabilities;
+
+    /**
+     * Workspace that stores the loss gradient wrt the logits of the candidate classes, one row per sample.
+     */
+    private Matrix dLdZ;
+
+    /**
+     * The classes whose gradient rows were written by the last backward pass. Only the first numGradientRows entries are used.
+     */
+    private int[] gradientRows;
+
+    /**
+     * The number of gradient rows written by the last backward pass, or -1 if the whole gradient was written.
+     */
+    private int numGradientRows;
+
+    /**
+     * The input vector wrapped as a 1 row matrix, so the single sample passes can use the batched kernels.
+     */
+    private Matrix inputMatrix;
+
+    /**
+     * The output vector wrapped as a 1 row matrix.
+     */
+    private Matrix outputMatrix;
+
+    /**
+     * The labels of the single sample pass wrapped as a 1 row matrix.
+     */
+    private Matrix targetMatrix;
+
+    /**
+     * The dLdY vector wrapped as a 1 row matrix.
+     */
+    private Matrix dLdYMatrix;
+
+    /**
+     * The dLdX vector wrapped as a 1 row matrix.
+     */
+    private Matrix dLdXMatrix;
+
+
+    /**
+     * Creates a sampled softmax layer with randomly initialized weights.
+     * @param numClasses The number of classes, which is the length of the output vector. Should be >= 1.
+     * @param numSampled The number of classes sampled in addition to the true classes when training with a SoftmaxCrossEntropy loss.
+     * Should be >= 1. Larger values make the training closer to training with the full softmax, but slower.
+     * @param inputLayer The layer whose output vector is the input vector for this layer.
+     */
+    public SampledSoftmaxLayer(int numClasses, int numSampled, Layer inputLayer){
+        super();
+        Utility.checkNotNull(inputLayer);
+
+        if(numClasses <= 0){
+            throw new AssertionError("numClasses must be >= 1");
+        }
+
+        this.inputLayers.add(inputLayer);
+
+        //Connect the input layer with this layer
+        this.connectInputAndOutputLayers();
+
+        int inputSize = inputLayer.getOutputVector().length;
+
+        //Initialize the weight and bias parameter matricies. Randomize the weight matrix entries.
+        Matrix weights = new Matrix(numClasses, inputSize);
+        Utility.initializeUniform(weights, -1f, 1f);
+
+        ArrayList<Matrix> parameters = new ArrayList<Matrix>();
+        parameters.add(weights);
+        parameters.add(new Matrix(numClasses, 1));
+
+        this.initializeFromParameters(parameters, numSampled);
+    }
+
+    /**
+     * Constructs a sampled softmax layer from a string description. Check toString().
+     * This string should start with "SAMPLEDSOFTMAX(" and ends with "\n]".
+     * @param layerInfoString The layer info string returned by the toString() method.
+     */
+    public SampledSoftmaxLayer(String layerInfoString){
+        super();
+        Utility.checkNotNull(layerInfoString);
+
+        String paramString = layerInfoString.substring(layerInfoString.indexOf(")\n") + 2, layerInfoString.lastIndexOf("\n"));
+        this.initializeFromParameters(Matrix.fromArrays(Utility.stringToMatrixList(paramString)), SampledSoftmaxLayer.parseNumSampled(layerInfoString));
+    }
+
+    /**
+     * Constructs a sampled softmax layer from the description returned by toSpecString() and already loaded parameters.
+     * Used by the binary model format. The parameter matricies are used directly, not copied.
+     * @param layerSpecString The layer description returned by the toSpecString() method.
+     * @param parameters The weight and bias matricies, in that order.
+     */
+    public SampledSoftmaxLayer(String layerSpecString, List<Matrix> parameters){
+        super();
+        Utility.checkNotNull(layerSpecString, parameters);
+        Utility.checkEqual(parameters.size(), 2);
+
+        this.initializeFromParameters(new ArrayList<Matrix>(parameters), SampledSoftmaxLayer.parseNumSampled(layerSpecString));
+    }
+
+    /**
+     * Constructs a replica of a sampled softmax layer, which shares the source layer's parameter matricies.
+     * See createReplica().
+     * @param source The layer to replicate.
+     */
+    private SampledSoftmaxLayer(SampledSoftmaxLayer source){
+        super();
+
+        //Share the parameter matricies with the source layer
+        this.weightMatrix = source.weightMatrix;
+        this.biasMatrix = source.biasMatrix;
+
+        this.parameters.add(this.weightMatrix);
+        this.parameters.add(this.biasMatrix);
+        this.numSampled = source.numSampled;
+
+        //The gradient is allocated by the first backward pass, see initializeGradient()
+        this.initializeWorkspaces();
+    }
+
+    /**
+     * Reads the number of sampled classes from the header of a layer description, for example "SAMPLEDSOFTMAX(10000, 64)".
+     * @param layerInfoString The layer description. Only the first line is read.
+     * @return The number of sampled classes.
+     */
+    private static int parseNumSampled(String layerInfoString){
+        //The header is the first line. Descriptions from toSpecString() only have the header.
+        int headerEnd = layerInfoString.indexOf("\n");
+        String headerInfo = headerEnd >= 0 ? layerInfoString.substring(0, headerEnd) : layerInfoString;
+
+        String[] headerInfoSplit = headerInfo.substring(headerInfo.indexOf("(") + 1, headerInfo.lastIndexOf(")")).split(",");
+        Utility.checkEqual(headerInfoSplit.length, 2);
+
+        return Integer.parseInt(headerInfoSplit[1].trim());
+    }
+
+    /**
+     * Initializes the parameters, vectors and workspaces of the layer.
+     * @param parameters The weight and bias matricies, in that order.
+     * @param numSampled The number of sampled classes. Should be >= 1.
+     */
+    private void initializeFromParameters(ArrayList<Matrix> parameters, int numSampled){
+        this.parameters = parameters;
+
+        this.weightMatrix = this.parameters.get(0);
+        this.biasMatrix = this.parameters.get(1);
+
+        Utility.checkEqual(this.biasMatrix.getNumColumns(), 1);
+        Utility.checkEqual(this.weightMatrix.getNumRows(), this.biasMatrix.getNumRows());
+
+        if(numSampled <= 0){
+            throw new AssertionError("numSampled must be >= 1");
+        }
+
+        this.numSampled = numSampled;
+
+        //Allocate and initialize gradients
+        this.gradient = Utility.cloneArrays(getParameters());
+        Utility.clearArrays(this.gradient);
+
+        this.initializeWorkspaces();
+    }
+
+    /**
+     * Allocates the vectors and workspaces of the layer. The parameters should already be initialized.
+     */
+    private void initializeWorkspaces(){
+        int numClasses = this.weightMatrix.getNumRows();
+        int inputSize = this.weightMatrix.getNumColumns();
+
+        this.inputVector = new float[inputSize];
+        this.outputVector = new float[numClasses];
+
+        this.dLdX = new float[inputSize];
+        this.dLdY = new float[numClasses];
+        this.target = new float[numClasses];
+
+        this.inputMatrix = new Matrix(this.inputVector, 1, inputSize);
+        this.outputMatrix = new Matrix(this.outputVector, 1, numClasses);
+        this.targetMatrix = new Matrix(this.target, 1, numClasses);
+        this.dLdYMatrix = new Matrix(this.dLdY, 1, numClasses);
+        this.dLdXMatrix = new Matrix(this.dLdX, 1, inputSize);
+
+        this.candidates = new int[numClasses];
+        this.isCandidate = new boolean[numClasses];
+        this.gradientRows = new int[numClasses];
+        this.numGradientRows = 0;
+
+        this.random = new Random();
+    }
+
+    /**
+     * Allocates the gradient list if it has not been allocated yet, which is only the case for replicas.
+     */
+    private void initializeGradient(){
+        if(this.gradient == null){
+            this.gradient = Utility.cloneArrays(getParameters());
+            Utility.clearArrays(this.gradient);
+            this.numGradientRows = 0;
+        }
+    }
+
+    /**
+     * @return The number of classes sampled in addition to the true classes during training.
+     */
+    public int getNumSampled(){
+        return this.numSampled;
+    }
+
+    /**
+     * Seeds the random number generator that samples the classes. NeuralNetwork calls this when fitting starts, with a seed
+     * derived from the fit() seed (see Model.setSeed()) and different for each replica, so the sampled classes can be reproduced.
+     * @param seed The seed.
+     */
+    void setSeed(long seed){
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Sets the labels of the next single sample forward pass. Used by NeuralNetwork together with sampleNextPass().
+     * @param target The labels. Should have one component per class.
+     */
+    void setTarget(float[] target){
+        Utility.copyArrayContents(target, this.target);
+    }
+
+    /**
+     * Sets the labels of one sample of the next batched forward pass. The batch arrays should already be initialized
+     * with initializeBatchArrays(). Used by NeuralNetwork together with sampleNextPass().
+     * @param row The index of the sample in the minibatch.
+     * @param target The labels. Should have one component per class.
+     */
+    void setTargetRow(int row, float[] target){
+        int numClasses = this.outputVector.length;
+        Utility.checkEqual(target.length, numClasses);
+
+        System.arraycopy(target, 0, this.targetBatch.getData(), row * numClasses, numClasses);
+    }
+
+    /**
+     * Makes the next forward pass only calculate the true classes of the labels set with setTarget() or setTargetRow()
+     * and the sampled classes. The network should then place the gradient of the loss wrt the logits, instead of the
+     * probabilities, in dLdY (see SoftmaxCrossEntropy.calculateSoftmaxGradient()). Only applies to the next forward pass,
+     * later passes calculate every class again.
+     */
+    void sampleNextPass(){
+        this.sampleNext = true;
+    }
+
+    @Override
+    public void initializeBatchArrays(int batchSize){
+        super.initializeBatchArrays(batchSize);
+
+        this.targetBatch = Layer.resizeBatch(this.targetBatch, batchSize, this.outputVector.length);
+    }
+
+    public void forwardPass(){
+        //Bring over the previous layer's output into this layer's input vector
+        this.initializeInputVectorCopy();
+
+        this.forward(this.inputMatrix, this.targetMatrix, this.outputMatrix);
+    }
+
+    public void backwardPass(){
+        //Determine the error vector from the next layers
+        this.initializedLdY();
+        this.initializeGradient();
+
+        this.backward(this.inputMatrix, this.dLdYMatrix, this.dLdXMatrix);
+    }
+
+    @Override
+    public boolean supportsBatch(){
+        return true;
+    }
+
+    @Override
+    public void forwardPassBatch(){
+        this.initializeInputBatchCopy();
+
+        this.forward(this.inputBatch, this.targetBatch, this.outputBatch);
+    }
+
+    @Override
+    public void backwardPassBatch(){
+        this.initializedLdYBatch();
+        this.initializeGradient();
+
+        this.backward(this.inputBatch, this.dLdYBatch, this.dLdXBatch);
+    }
+
+    /**
+     * Chooses the classes calculated in a sampled pass: the classes with a non zero label in any sample, and numSampled
+     * other classes chosen uniformly at random. If that would be at least half of the classes, all classes are used instead.
+     * @param targets The labels, one row per sample.
+     */
+    private void chooseCandidates(Matrix targets){
+        int numClasses = this.outputVector.length;
+        float[] labels = targets.getData();
+        int count = 0;
+
+        //The true classes are always calculated
+        for(int i = 0; i < labels.length; i++){
+            int c = i % numClasses;
+
+            if(labels[i] != 0 && !this.isCandidate[c]){
+                this.isCandidate[c] = true;
+                this.candidates[count] = c;
+                count++;
+            }
+        }
+
+        int numNeeded = count + this.numSampled;
+
+        //Rejection sampling is only fast while most classes are not chosen
+        if(2 * numNeeded < numClasses){
+            while(count < numNeeded){
+                int c = this.random.nextInt(numClasses);
+
+                if(!this.isCandidate[c]){
+                    this.isCandidate[c] = true;
+                    this.candidates[count] = c;
+                    count++;
+                }
+            }
+        }
+
+        //Clear the marks for the next pass
+        for(int k = 0; k < count; k++){
+            this.isCandidate[this.candidates[k]] = false;
+        }
+
+        if(count < numNeeded){
+            this.useAllClasses();
+            return;
+        }
+
+        this.numCandidates = count;
+        this.allClasses = false;
+    }
+
+    /**
+     * Makes every class a candidate, in order.
+     */
+    private void useAllClasses(){
+        int numClasses = this.outputVector.length;
+
+        for(int c = 0; c < numClasses; c++){
+            this.candidates[c] = c;
+        }
+
+        this.numCandidates = numClasses;
+        this.allClasses = true;
+    }
+
+    /**
+     * Calculates the probabilities of the candidate classes for each sample, and places them in the output.
+     * @param input The input vectors, one row per sample.
+     * @param targets The labels, one row per sample. Only used in a sampled pass.
+     * @param output The matrix to place the output vectors in, one row per sample. Classes that are not calculated have probability 0.
+     */
+    private void forward(Matrix input, Matrix targets, Matrix output){
+        //A sampled pass only applies to the forward pass right after sampleNextPass()
+        this.sampledPass = this.sampleNext;
+        this.sampleNext = false;
+
+        if(this.sampledPass){
+            this.chooseCandidates(targets);
+        } else {
+            this.useAllClasses();
+        }
+
+        int batchSize = input.getNumRows();
+        int numClasses = this.outputVector.length;
+        int inputSize = this.inputVector.length;
+        int numCandidates = this.numCandidates;
+
+        //Gather the weight rows of the candidates, unless every class is used
+        if(this.allClasses){
+            this.passWeights = this.weightMatrix;
+        } else {
+            this.candidateWeights = Layer.resizeBatch(this.candidateWeights, numCandidates, inputSize);
+
+            float[] weights = this.weightMatrix.getData();
+            float[] candidateWeightData = this.candidateWeights.getData();
+
+            for(int k = 0; k < numCandidates; k++){
+                System.arraycopy(weights, this.candidates[k] * inputSize, candidateWeightData, k * inputSize, inputSize);
+            }
+
+            this.passWeights = this.candidateWeights;
+        }
+
+        //The logits of all samples are found with one multiplication: Z = XW^T, then the bias is added to every row
+        this.probabilities = Layer.resizeBatch(this.probabilities, batchSize, numCandidates);
+        LinearAlgebra.matrixMultiplyTransposeB(input, this.passWeights, this.probabilities);
+
+        float[] p = this.probabilities.getData();
+        float[] bias = this.biasMatrix.getData();
+
+        for(int r = 0; r < batchSize; r++){
+            for(int k = 0; k < numCandidates; k++){
+                p[r * numCandidates + k] += bias[this.candidates[k]];
+            }
+
+            SoftmaxLayer.softmax(p, p, r * numCandidates, numCandidates);
+        }
+
+        //Place the probabilities in the output
+        float[] out = output.getData();
+
+        if(this.allClasses){
+            System.arraycopy(p, 0, out, 0, batchSize * numClasses);
+        } else {
+            Arrays.fill(out, 0f);
+
+            for(int r = 0; r < batchSize; r++){
+                for(int k = 0; k < numCandidates; k++){
+                    out[r * numClasses + this.candidates[k]] = p[r * numCandidates + k];
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates the gradient and dLdX of the current pass.
+     * @param input The input vectors of the forward pass, one row per sample.
+     * @param dLdY The loss gradient, one row per sample. In a sampled pass this is the gradient wrt the logits,
+     * else the gradient wrt the probabilities.
+     * @param dLdX The matrix to place the loss gradient wrt the input vectors in, one row per sample.
+     */
+    private void backward(Matrix input, Matrix dLdY, Matrix dLdX){
+        int batchSize = input.getNumRows();
+        int numClasses = this.outputVector.length;
+        int inputSize = this.inputVector.length;
+        int numCandidates = this.numCandidates;
+
+        //Gather the loss gradient of the candidates
+        this.dLdZ = Layer.resizeBatch(this.dLdZ, batchSize, numCandidates);
+
+        float[] g = this.dLdZ.getData();
+        float[] dy = dLdY.getData();
+
+        for(int r = 0; r < batchSize; r++){
+            for(int k = 0; k < numCandidates; k++){
+                g[r * numCandidates + k] = dy[r * numClasses + this.candidates[k]];
+            }
+        }
+
+        //Outside of sampled passes, dLdY is the gradient wrt the probabilities, so the softmax jacobian is applied
+        if(!this.sampledPass){
+            float[] p = this.probabilities.getData();
+
+            for(int r = 0; r < batchSize; r++){
+                SoftmaxLayer.softmaxJacobianProduct(p, g, g, r * numCandidates, numCandidates);
+            }
+        }
+
+        this.clearGradientRows();
+
+        //The bias gradient is the sum of the dLdZ vectors of the minibatch
+        float[] biasGradient = this.gradient.get(1).getData();
+
+        for(int r = 0; r < batchSize; r++){
+            for(int k = 0; k < numCandidates; k++){
+                biasGradient[this.candidates[k]] += g[r * numCandidates + k];
+            }
+        }
+
+        //The weight gradient of the candidates is a single multiplication: dLdW = dLdZ^T X
+        if(this.allClasses){
+            LinearAlgebra.matrixMultiplyTransposeA(this.dLdZ, input, this.gradient.get(0));
+            this.numGradientRows = -1;
+        } else {
+            this.candidateWeightGradient = Layer.resizeBatch(this.candidateWeightGradient, numCandidates, inputSize);
+            LinearAlgebra.matrixMultiplyTransposeA(this.dLdZ, input, this.candidateWeightGradient);
+
+            //Place each candidate's row in the weight gradient, and remember the rows so they can be cleared later
+            float[] weightGradient = this.gradient.get(0).getData();
+            float[] candidateWeightGradientData = this.candidateWeightGradient.getData();
+
+            for(int k = 0; k < numCandidates; k++){
+                System.arraycopy(candidateWeightGradientData, k * inputSize, weightGradient, this.candidates[k] * inputSize, inputSize);
+            }
+
+            System.arraycopy(this.candidates, 0, this.gradientRows, 0, numCandidates);
+            this.numGradientRows = numCandidates;
+        }
+
+        //Finally, populate dLdX for the input layer's backprop step: dLdX = dLdZ W
+        LinearAlgebra.matrixMultiplyParallel(this.dLdZ, this.passWeights, dLdX);
+    }
+
+    /**
+     * Clears the gradient rows written by the last backward pass, so that a sampled pass only needs to clear the rows it used.
+     */
+    private void clearGradientRows(){
+        if(this.numGradientRows < 0){
+            Utility.clearArrays(this.gradient);
+            return;
+        }
+
+        int inputSize = this.inputVector.length;
+        float[] weightGradient = this.gradient.get(0).getData();
+        float[] biasGradient = this.gradient.get(1).getData();
+
+        for(int k = 0; k < this.numGradientRows; k++){
+            int row = this.gradientRows[k];
+
+            Arrays.fill(weightGradient, row * inputSize, (row + 1) * inputSize, 0f);
+            biasGradient[row] = 0;
+        }
+    }
+
+    @Override
+    public Layer createReplica(){
+        return new SampledSoftmaxLayer(this);
+    }
+
+    /**
+     * Describes the number of classes and sampled classes, for example "SAMPLEDSOFTMAX(10000, 64)".
+     */
+    @Override
+    public String toSpecString(){
+        return "SAMPLEDSOFTMAX(" + this.biasMatrix.getNumRows() + ", " + this.numSampled + ")";
+    }
+
+    /**
+     * Converts the layer into a text format that can be written to disk. The resulting string contains
+     * all of the information needed to reconstruct the layer and it's parameters.
+     */
+    public String toString(){
+        StringBuilder sb = new StringBuilder();
+
+        //Provide basic constructor information
+        sb.append(this.toSpecString());
+        sb.append("\n");
+
+        //Provide parameter information
+        sb.append(Utility.arraysToString(this.getParameters()));
+
+        return sb.toString();
+    }
+}
@@ -7,11 +7,19 @@ package jpf;
 public class Sigmoid extends ActivationFunction{
 
     /**
-     * The basic constructor for the sigmoid activation function.
-     * There are no user defined parameters for this function.
+     * The basic constructor for the sigmoid activation function, which calculates exact results.
      */
     public Sigmoid(){
+        this(PRECISION_EXACT);
+    }
 
+    /**
+     * Creates a sigmoid activation function with the given precision mode.
+     * @param precision ActivationFunction.PRECISION_EXACT, or ActivationFunction.PRECISION_FAST for a float
+     * approximation that is within 1.2E-7 of the exact result and faster.
+     */
+    public Sigmoid(int precision){
+        this.precision = ActivationFunction.checkPrecision(precision);
     }
 
     /**
@@ -21,7 +29,13 @@ public class Sigmoid extends ActivationFunction{
      */
     public float f(float x){
         //Check parameter
-        Utility.checkReal(x);
+        if(Utility.fullValidation()){
+            Utility.checkReal(x);
+        }
+
+        if(this.precision == PRECISION_FAST){
+            return FastMath.sigmoid(x);
+        }
 
         float xExp = (float)(Math.exp((double)x));
 
@@ -29,12 +43,77 @@ public class Sigmoid extends ActivationFunction{
     }
 
     public float fPrime(float x){
-        Utility.checkReal(x);
+        if(Utility.fullValidation()){
+            Utility.checkReal(x);
+        }
+
+        float s = this.f(x);
         
-        return f(x) * (1 - f(x));
+        return s * (1 - s);
+    }
+
+    @Override
+    public void f(float[] x, float[] dest){
+        if(!LinearAlgebra.getVectorizedKernels()){
+            super.f(x, dest);
+            return;
+        }
+
+        Utility.checkArrayLengthsEqual(x, dest);
+
+        if(this.precision == PRECISION_FAST){
+            for(int i = 0; i < x.length; i++){
+                dest[i] = FastMath.sigmoid(x[i]);
+            }
+        } else {
+            for(int i = 0; i < x.length; i++){
+                dest[i] = 1f / (1f + (float)Math.exp(-x[i]));
+            }
+        }
+    }
+
+    @Override
+    public void fPrime(float[] x, float[] dest){
+        if(!LinearAlgebra.getVectorizedKernels()){
+            super.fPrime(x, dest);
+            return;
+        }
+
+        Utility.checkArrayLengthsEqual(x, dest);
+
+        //Evaluate the sigmoid once per element instead of twice.
+        this.f(x, dest);
+
+        for(int i = 0; i < x.length; i++){
+            float s = dest[i];
+            dest[i] = s * (1 - s);
+        }
+    }
+
+    /**
+     * @return True, since the derivative of the sigmoid is y * (1 - y) where y is the output.
+     */
+    @Override
+    public boolean supportsFPrimeFromOutput(){
+        return true;
+    }
+
+    @Override
+    public float fPrimeFromOutput(float y){
+        return y * (1 - y);
+    }
+
+    @Override
+    public void fPrimeFromOutput(float[] y, float[] dest){
+        Utility.checkArrayLengthsEqual(y, dest);
+
+        for(int i = 0; i < y.length; i++){
+            float s = y[i];
+            dest[i] = s * (1 - s);
+        }
     }
 
     public String toString(){
-        return "SIGMOID";
+        return this.precision == PRECISION_FAST ? "SIGMOID(FAST)" : "SIGMOID";
     }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package jpf;
 
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
 
 /**
  * Defines abstract class for simple models which have one input vector and one output vector.
@@ -77,6 +78,7 @@ public abstract class SimpleModel extends Model{
         Utility.checkMatrixRectangle(inputVectors);
         Utility.checkArrayNotEmpty(inputVectors);
         Utility.checkEqual(inputVectors[0].length, this.numInputs);
+        Utility.checkDataReal(inputVectors);
 
         //Make predictions
         float[][] outputVectors = new float[inputVectors.length][];
@@ -118,7 +120,25 @@ public abstract class SimpleModel extends Model{
      * @param loss The loss function which is to be minimized during training.
      * @return The gradient as an ArrayList of matricies of the same shape as the model's parameters.
      */
-    protected abstract ArrayList<float[][]> calculateGradient(float[] x, float[] y, Loss loss);
+    protected abstract ArrayList<Matrix> calculateGradient(float[] x, float[] y, Loss loss);
+
+    /**
+     * Calculates the gradient of the loss function wrt the model's parameters for a single data sample, and stores it in
+     * a provided gradient list instead of allocating a new one. fit() calls this for every sample. The default
+     * implementation copies the result of calculateGradient(x, y, loss); subclasses can override it to write the
+     * gradient in place.
+     * @param x The input vector of the sample.
+     * @param y The output vector of the sample.
+     * @param loss The loss function.
+     * @param gradient The list to store the gradient in. Has the same shapes as getParameters(), and all of its entries are overwritten.
+     */
+    protected void calculateGradient(float[] x, float[] y, Loss loss, ArrayList<Matrix> gradient){
+        ArrayList<Matrix> result = this.calculateGradient(x, y, loss);
+
+        for(int i = 0; i < gradient.size(); i++){
+            Utility.copyArrayContents(result.get(i).getData(), gradient.get(i).getData());
+        }
+    }
 
     /**
      * Fits the model's parameters to minimize the loss on the training dataset.
@@ -132,41 +152,254 @@ public abstract class SimpleModel extends Model{
      * @param Loss The loss function used to make the model more accurate to the training dataset.
      */
     public void fit(float[][] x, float[][] y, int epochs, int minibatchSize, float valueClip, Optimizer opt, Loss loss){
+        this.fit(x, y, epochs, minibatchSize, valueClip, opt, loss, 1);
+    }
+
+    /**
+     * Fits the model to the training data using multiple threads. Each minibatch is split into numThreads contiguous
+     * shards, whose gradients are calculated concurrently on the shared thread pool (see LinearAlgebra.setThreadPool()).
+     * The shard gradients are added together in shard order, so for the same minibatches and number of threads,
+     * the result is always the same. Use setSeed() to get the same minibatches in every run. Different numbers of
+     * threads only differ by the order the gradients are added in.
+     * @param x The training inputs.
+     * @param y The training outputs.
+     * @param epochs The number of epochs to train for.
+     * @param minibatchSize The number of training examples used in a single parameter update.
+     * @param valueClip The maximum absolute value of a gradient component. Values <= 0 turn off clipping.
+     * @param opt The optimizer to use during fitting.
+     * @param loss The loss function to minimize during training.
+     * @param numThreads The number of shards (and threads) each minibatch is split into. Should be >= 1.
+     */
+    public void fit(float[][] x, float[][] y, int epochs, int minibatchSize, float valueClip, Optimizer opt, Loss loss, int numThreads){
+        this.fit(x, y, epochs, minibatchSize, valueClip, opt, loss, numThreads, null);
+    }
+
+    /**
+     * Fits the model to the training data using multiple threads, saving checkpoints along the way. The checkpoints
+     * are written on a background thread while training continues (see Checkpointer). This method returns once the
+     * last checkpoint has been written.
+     * @param x The training inputs.
+     * @param y The training outputs.
+     * @param epochs The number of epochs to train for.
+     * @param minibatchSize The number of training examples used in a single parameter update.
+     * @param valueClip The maximum absolute value of a gradient component. Values <= 0 turn off clipping.
+     * @param opt The optimizer to use during fitting.
+     * @param loss The loss function to minimize during training.
+     * @param numThreads The number of shards (and threads) each minibatch is split into. Should be >= 1.
+     * @param checkpointer Decides when and where checkpoints are saved. Null turns off checkpoints.
+     */
+    public void fit(float[][] x, float[][] y, int epochs, int minibatchSize, float valueClip, Optimizer opt, Loss loss, int numThreads, Checkpointer checkpointer){
         this.fitParameterCheck(x, y, epochs, minibatchSize, valueClip, opt, loss);
 
+        if(numThreads <= 0){
+            throw new AssertionError("Number of threads should be > 0");
+        }
+
+        Checkpointer.run(checkpointer, this, () -> {
+            this.fitMinibatches(x, y, epochs, minibatchSize, valueClip, opt, loss, numThreads, checkpointer);
+        });
+    }
+
+    /**
+     * Runs the training loop of fit() after the parameters have been checked.
+     * @param x The training inputs.
+     * @param y The training outputs.
+     * @param epochs The number of epochs to train for.
+     * @param minibatchSize The number of training examples used in a single parameter update.
+     * @param valueClip The maximum absolute value of a gradient component.
+     * @param opt The optimizer to use during fitting.
+     * @param loss The loss function to minimize during training.
+     * @param numThreads The number of shards (and threads) each minibatch is split into.
+     * @param checkpointer Decides when checkpoints are saved. May be null.
+     */
+    private void fitMinibatches(float[][] x, float[][] y, int epochs, int minibatchSize, float valueClip, Optimizer opt, Loss loss, int numThreads, Checkpointer checkpointer){
+        MinibatchIndicies minibatches = new MinibatchIndicies(x.length, minibatchSize, this.nextFitSeed());
+        GradientBuffers buffers = new GradientBuffers(this.getParameters(), numThreads, true);
+
         for(int e = 0; e < epochs; e++){
-            //calculate minibatch indicies
-            ArrayList<ArrayList<Integer>> indicies = Utility.getMinibatchIndicies(x.length, minibatchSize);
+            //shuffle the minibatch indicies
+            if(e > 0){
+                minibatches.shuffle();
+            }
+
             //for each minibatch...
-            for(int mb = 0; mb < indicies.size(); mb++){
+            for(int mb = 0; mb < minibatches.getNumMinibatches(); mb++){
+                this.fitMinibatch(x, y, minibatches.getIndicies(), minibatches.getStart(mb), minibatches.getEnd(mb), valueClip, opt, loss, buffers);
+
+                if(checkpointer != null){
+                    checkpointer.afterStep(this);
+                }
+            }
+
+            if(checkpointer != null){
+                checkpointer.afterEpoch(this, e);
+            }
+        }
+    }
+
+    /**
+     * Makes a single parameter update from one minibatch.
+     * @param x The training inputs.
+     * @param y The training outputs.
+     * @param indicies The sample indicies, of which the minibatch is the range [start, end).
+     * @param start The position in indicies of the first sample of the minibatch.
+     * @param end The position in indicies after the last sample of the minibatch.
+     * @param valueClip The maximum absolute value of a gradient component. Values <= 0 turn off clipping.
+     * @param opt The optimizer to use during fitting.
+     * @param loss The loss function to minimize during training.
+     * @param buffers The gradient buffers, with one shard per thread the minibatch is split into.
+     */
+    private void fitMinibatch(float[][] x, float[][] y, int[] indicies, int start, int end, float valueClip, Optimizer opt, Loss loss, GradientBuffers buffers){
+        ArrayList<Matrix> minibatchGradient = buffers.clearMinibatchGradient();
+
+        int size = end - start;
+        int numShards = Math.min(buffers.getNumShards(), size);
 
-                ArrayList<float[][]> minibatchGradient = Utility.cloneArrays(getParameters());
-                Utility.clearArrays(minibatchGradient);
+        if(numShards == 1){
+            //accumulate straight into the minibatch gradient
+            this.calculateShardGradient(x, y, indicies, start, end, size, valueClip, loss, minibatchGradient, buffers.getSampleGradient(0));
+        } else {
+            //calculateGradient does not change the model, so the shards can share it
+            ArrayList<Callable<ArrayList<Matrix>>> tasks = new ArrayList<Callable<ArrayList<Matrix>>>(numShards);
 
-                //for each data point in the minibatch
-                for(int i = 0; i < indicies.get(mb).size(); i++){
-                    int index = indicies.get(mb).get(i);
+            for(int s = 0; s < numShards; s++){
+                int shardStart = start + s * size / numShards;
+                int shardEnd = start + (s + 1) * size / numShards;
 
-                    //calculate the gradient
-                    ArrayList<float[][]> rawGradient = calculateGradient(x[index], y[index], loss);
+                ArrayList<Matrix> shardGradient = buffers.clearShardGradient(s);
+                ArrayList<Matrix> sampleGradient = buffers.getSampleGradient(s);
 
-                    //clip the gradient if applicable
-                    if(valueClip > 0){
-                        Utility.clip(rawGradient, -valueClip, valueClip);
+                tasks.add(() -> this.calculateShardGradient(x, y, indicies, shardStart, shardEnd, size, valueClip, loss, shardGradient, sampleGradient));
+            }
+
+            ArrayList<ArrayList<Matrix>> shardGradients = Utility.runInParallel(tasks);
+
+            //reduce the shard gradients in shard order
+            for(int s = 0; s < numShards; s++){
+                Utility.addList(minibatchGradient, shardGradients.get(s), 1f);
+            }
+        }
+
+        //minibatch gradient is calculated. Let the optimizer update the parameters in place
+        opt.step(getParameters(), minibatchGradient);
+    }
+
+    /**
+     * Fits the model to a dataset, which may be stored on disk (see MappedDataset).
+     * Only a few minibatches of samples are held in memory at a time.
+     * @param data The training dataset. Its input and output sizes should match the model's.
+     * @param epochs The number of epochs to train for. Should be greater than 0.
+     * @param minibatchSize The number of training examples used in a single parameter update. Should be greater than 0.
+     * @param valueClip Clips the gradient's components to be in the range [-valueClip, valueClip]. Should be greater than 0.
+     * @param opt The optimizer to use during fitting.
+     * @param loss The loss function to minimize during training.
+     */
+    public void fit(Dataset data, int epochs, int minibatchSize, float valueClip, Optimizer opt, Loss loss){
+        this.fit(data, epochs, minibatchSize, valueClip, opt, loss, 1, null);
+    }
+
+    /**
+     * Fits the model to a dataset using multiple threads, saving checkpoints along the way. The minibatches are loaded
+     * by a DataLoader on a background thread while the previous minibatch is being trained on, so only a few
+     * minibatches of samples are held in memory at a time.
+     * @param data The training dataset. Its input and output sizes should match the model's.
+     * @param epochs The number of epochs to train for. Should be greater than 0.
+     * @param minibatchSize The number of training examples used in a single parameter update. Should be greater than 0.
+     * @param valueClip Clips the gradient's components to be in the range [-valueClip, valueClip]. Should be greater than 0.
+     * @param opt The optimizer to use during fitting.
+     * @param loss The loss function to minimize during training.
+     * @param numThreads The number of shards (and threads) each minibatch is split into. Should be >= 1.
+     * @param checkpointer Decides when and where checkpoints are saved. Null turns off checkpoints.
+     */
+    public void fit(Dataset data, int epochs, int minibatchSize, float valueClip, Optimizer opt, Loss loss, int numThreads, Checkpointer checkpointer){
+        try(DataLoader loader = new DataLoader(data, minibatchSize, DataLoader.DEFAULT_PREFETCH, 1, this.nextFitSeed())){
+            this.fit(loader, epochs, valueClip, opt, loss, numThreads, checkpointer);
+        }
+    }
+
+    /**
+     * Fits the model to the minibatches of a data loader, which prepares the next minibatches on its own threads
+     * while the current one is being trained on. Each epoch uses loader.getNumMinibatches() minibatches.
+     * The loader is not closed, so it can be used for several fit() calls.
+     * @param loader The data loader. Its dataset's input and output sizes should match the model's.
+     * @param epochs The number of epochs to train for. Should be greater than 0.
+     * @param valueClip Clips the gradient's components to be in the range [-valueClip, valueClip]. Should be greater than 0.
+     * @param opt The optimizer to use during fitting.
+     * @param loss The loss function to minimize during training.
+     * @param numThreads The number of shards (and threads) each minibatch is split into. Should be >= 1.
+     * @param checkpointer Decides when and where checkpoints are saved. Null turns off checkpoints.
+     */
+    public void fit(DataLoader loader, int epochs, float valueClip, Optimizer opt, Loss loss, int numThreads, Checkpointer checkpointer){
+        Utility.checkNotNull(loader);
+        Dataset data = loader.getDataset();
+
+        //Only the shapes of the inputs are checked
+        this.fitParameterCheck(new float[1][data.getInputSize()], new float[1][data.getOutputSize()], epochs, loader.getMinibatchSize(), valueClip, opt, loss);
+
+        if(numThreads <= 0){
+            throw new AssertionError("Number of threads should be > 0");
+        }
+
+        //The samples of a minibatch are always at the start of its buffers
+        int[] positions = new int[loader.getMinibatchSize()];
+
+        for(int i = 0; i < positions.length; i++){
+            positions[i] = i;
+        }
+
+        GradientBuffers buffers = new GradientBuffers(this.getParameters(), numThreads, true);
+
+        Checkpointer.run(checkpointer, this, () -> {
+            for(int e = 0; e < epochs; e++){
+                for(int mb = 0; mb < loader.getNumMinibatches(); mb++){
+                    DataLoader.Minibatch minibatch = loader.next();
+
+                    this.fitMinibatch(minibatch.x, minibatch.y, positions, 0, minibatch.size, valueClip, opt, loss, buffers);
+
+                    if(checkpointer != null){
+                        checkpointer.afterStep(this);
                     }
+                }
 
-                    //add it to the minibatch pool
-                    Utility.addList(minibatchGradient, rawGradient, 1.0f / indicies.get(mb).size());
+                if(checkpointer != null){
+                    checkpointer.afterEpoch(this, e);
                 }
+            }
+        });
+    }
 
-                minibatchGradient = opt.processGradient(minibatchGradient);
+    /**
+     * Calculates the clipped gradient of a shard of a minibatch, scaled by 1 / minibatchSize, and adds it to an accumulator.
+     * @param x The training inputs.
+     * @param y The training outputs.
+     * @param indicies The sample indicies, of which the shard is the range [start, end).
+     * @param start The position in indicies of the first sample of the shard.
+     * @param end The position in indicies after the last sample of the shard.
+     * @param minibatchSize The number of samples in the whole minibatch.
+     * @param valueClip The maximum absolute value of a gradient component. Values <= 0 turn off clipping.
+     * @param loss The loss function to minimize during training.
+     * @param shardGradient The accumulator to add the shard's gradient to.
+     * @param rawGradient Workspace for the gradient of a single sample.
+     * @return The accumulator.
+     */
+    private ArrayList<Matrix> calculateShardGradient(float[][] x, float[][] y, int[] indicies, int start, int end, int minibatchSize, float valueClip, Loss loss, ArrayList<Matrix> shardGradient, ArrayList<Matrix> rawGradient){
+        //for each data point in the shard
+        for(int i = start; i < end; i++){
+            int index = indicies[i];
 
-                //minibatch gradient is calculated. Add to the model's parameters
-                Utility.addList(getParameters(), minibatchGradient, -1f);
+            //calculate the gradient
+            this.calculateGradient(x[index], y[index], loss, rawGradient);
+
+            //clip the gradient if applicable
+            if(valueClip > 0){
+                Utility.clip(rawGradient, -valueClip, valueClip);
             }
 
+            //add it to the shard's pool
+            Utility.addList(shardGradient, rawGradient, 1.0f / minibatchSize);
         }
 
+        return shardGradient;
     }
 
     /**
@@ -192,6 +425,10 @@ public abstract class SimpleModel extends Model{
         Utility.checkEqual(x[0].length, this.numInputs);
         Utility.checkEqual(y[0].length, this.numOutputs);
 
+        //Check the training data once here, the losses only check each element at the full validation level
+        Utility.checkDataReal(x);
+        Utility.checkDataReal(y);
+
         //Check the rest of the parameters
         if(epochs <= 0){
             throw new AssertionError("Number of epochs should be greater than 0");
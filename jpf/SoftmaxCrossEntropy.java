@@ -0,0 +1,108 @@
+package jpf;
+
+/**
+ * Class that defines the SoftmaxCrossEntropy loss function, the categorical cross entropy -sum(yTrue * log(yPredicted)).
+ * This loss is used for classification tasks where the output is a discrete probability distribution, usually the output
+ * of a SoftmaxLayer, and the labels are a probability distribution too, usually one hot.
+ *
+ * Unlike CrossEntropy, which treats every component as a separate yes/no prediction, only the components with a non zero label
+ * contribute to the loss. When a SoftmaxLayer output layer is trained with this loss, NeuralNetwork fuses the loss and the softmax
+ * in the backward pass (see calculateSoftmaxGradient()).
+ */
+public class SoftmaxCrossEntropy implements Loss{
+
+    /**
+     * Calculates the loss for each component in the output vector, -yTrue * log(yPredicted).
+     * Predictions are clamped to the smallest normal float, so a probability that underflowed to 0 gives a large finite loss.
+     * @param yTrue The ground truth probability distribution.
+     * @param yPredicted The predicted probability distribution from a model.
+     * @return The loss calculation for each component in the output vector
+     */
+    public float[] calculateLossVector(float[] yTrue, float[] yPredicted){
+        Utility.checkArrayLengthsEqual(yTrue, yPredicted);
+
+        float[] r = new float[yTrue.length];
+
+        //Checking every element is only done at the full validation level, see Utility.setValidationLevel()
+        boolean checkElements = Utility.fullValidation();
+
+        for(int i = 0; i < r.length; i++){
+            if(checkElements){
+                Utility.checkReal(yTrue[i], yPredicted[i]);
+            }
+
+            //Components with a zero label do not contribute, which also skips the logarithm
+            if(yTrue[i] != 0){
+                r[i] = (float)(-yTrue[i] * Math.log(Math.max(yPredicted[i], Float.MIN_NORMAL)));
+            }
+        }
+
+        return r;
+    }
+
+    /**
+     * Calculates the gradient of the loss wrt each component of the prediction, -yTrue / yPredicted.
+     * Used when the predictions do not come from a fused softmax output layer.
+     * @param yTrue The ground truth probability distribution.
+     * @param yPredicted The predicted probability distribution from a model.
+     * @return The gradient vector for each component in the output vector.
+     */
+    public float[] calculateLossVectorGradient(float[] yTrue, float[] yPredicted){
+        Utility.checkArrayLengthsEqual(yTrue, yPredicted);
+
+        float[] r = new float[yTrue.length];
+
+        //Checking every element is only done at the full validation level, see Utility.setValidationLevel()
+        boolean checkElements = Utility.fullValidation();
+
+        for(int i = 0; i < r.length; i++){
+            if(checkElements){
+                Utility.checkReal(yTrue[i], yPredicted[i]);
+            }
+
+            if(yTrue[i] != 0){
+                r[i] = -yTrue[i] / Math.max(yPredicted[i], Float.MIN_NORMAL);
+            }
+        }
+
+        return r;
+    }
+
+    /**
+     * Calculates the gradient of this loss wrt the inputs of a softmax whose outputs are the probabilities p.
+     * The logarithm cancels the exponentials of the softmax, which leaves p * sum(yTrue) - yTrue, or p - yTrue for one hot labels.
+     * This needs no exponentials, logarithms or divisions and stays accurate when a probability underflows to 0.
+     * NeuralNetwork uses it in place of calculateLossVectorGradient() and the softmax backward pass when a SoftmaxLayer
+     * output layer is trained with this loss.
+     * @param yTrue The ground truth probability distribution, usually one hot.
+     * @param probabilities The output vector of the softmax.
+     * @param dest The vector where the gradient wrt the softmax inputs will be placed.
+     */
+    public void calculateSoftmaxGradient(float[] yTrue, float[] probabilities, float[] dest){
+        //Check parameters
+        Utility.checkArrayLengthsEqual(yTrue, probabilities);
+        Utility.checkArrayLengthsEqual(yTrue, dest);
+
+        float labelSum = 0;
+
+        for(int i = 0; i < yTrue.length; i++){
+            labelSum += yTrue[i];
+        }
+
+        for(int i = 0; i < yTrue.length; i++){
+            dest[i] = (probabilities[i] * labelSum) - yTrue[i];
+        }
+    }
+
+    /**
+     * Calculates the scalar loss, the sum of the component losses. This is the categorical cross entropy of the prediction.
+     * @param yTrue The ground truth probability distribution.
+     * @param yPredicted The predicted probability distribution from a model.
+     * @return The scalar loss.
+     */
+    public float calculateLossScalar(float[] yTrue, float[] yPredicted){
+        Utility.checkArrayLengthsEqual(yTrue, yPredicted);
+
+        return Utility.sum(this.calculateLossVector(yTrue, yPredicted));
+    }
+}
@@ -3,10 +3,16 @@ package jpf;
 /**
  * Class that defines the SoftmaxLayer class which is derived from the Layer abstract class.
  * This layer is used when the output needs to be a discrete probability distribution.
+ * The largest input is subtracted before exponentiating, so large inputs cannot overflow.
  */
 public class SoftmaxLayer extends Layer{
 
-    private float epsilon;
+    /**
+     * True when the network has placed the gradient of the loss wrt this layer's input vector, instead of its output vector,
+     * in dLdY. NeuralNetwork does this for a SoftmaxCrossEntropy loss on a softmax output layer (see SoftmaxCrossEntropy.calculateSoftmaxGradient()),
+     * and the backward pass then passes the gradient through unchanged.
+     */
+    private boolean fusedCrossEntropy;
 
     /**
      * Basic constructor for the SoftmaxLayer, which output a discrete probability distribution.
@@ -28,8 +34,6 @@ public class SoftmaxLayer extends Layer{
 
         this.dLdX = new float[numUnits];
         this.dLdY = new float[numUnits];
-
-        this.epsilon = 0.0001f;
     }
 
     /**
@@ -53,8 +57,15 @@ public class SoftmaxLayer extends Layer{
 
         this.dLdX = new float[numUnits];
         this.dLdY = new float[numUnits];
+    }
 
-        this.epsilon = 0.0001f;
+    /**
+     * Sets whether dLdY holds the gradient wrt the input vector, calculated by the network together with the loss.
+     * Only valid for an output layer that does not feed any other layers.
+     * @param fused True if the next backward pass receives the fused softmax cross entropy gradient.
+     */
+    void setFusedCrossEntropy(boolean fused){
+        this.fusedCrossEntropy = fused;
     }
 
 
@@ -62,49 +73,119 @@ public class SoftmaxLayer extends Layer{
         //Bring over the previous layer's output into this layer's input vector
         this.initializeInputVectorCopy();
 
-        float expSum = 0;
-
-        for(int i = 0; i < this.inputVector.length; i++){
-            expSum += (float)Math.exp((double)this.inputVector[i]);
-        }
-
-        expSum += this.epsilon;
-
-        for(int i = 0; i < this.inputVector.length; i++){
-            this.outputVector[i] = ((float)Math.exp((float) this.inputVector[i])) / expSum;
-        }
+        SoftmaxLayer.softmax(this.inputVector, this.outputVector, 0, this.inputVector.length);
     }
 
     public void backwardPass(){
         //Determine error vector from next layers
         this.initializedLdY();
 
-        //Determine sum of exponents before doing the backprop step
-        float constant = 0;
-        for(int i = 0; i < this.inputVector.length; i++){
-            constant += (float)Math.exp((double)this.inputVector[i]);
+        this.softmaxBackward(this.outputVector, this.dLdY, this.dLdX, 0, this.outputVector.length);
+    }
+
+    @Override
+    public boolean supportsBatch(){
+        return true;
+    }
+
+    @Override
+    public void forwardPassBatch(){
+        this.initializeInputBatchCopy();
+
+        int numUnits = this.inputVector.length;
+
+        //Each row of the batch is a separate probability distribution.
+        for(int r = 0; r < this.inputBatch.getNumRows(); r++){
+            SoftmaxLayer.softmax(this.inputBatch.getData(), this.outputBatch.getData(), r * numUnits, numUnits);
         }
+    }
+
+    @Override
+    public void backwardPassBatch(){
+        this.initializedLdYBatch();
 
-        for(int i = 0; i < this.inputVector.length; i++){
+        int numUnits = this.inputVector.length;
 
-            //Subtract the current exponential from the constant
-            constant -= (float)Math.exp((double) this.inputVector[i]);
+        for(int r = 0; r < this.inputBatch.getNumRows(); r++){
+            this.softmaxBackward(this.outputBatch.getData(), this.dLdYBatch.getData(), this.dLdXBatch.getData(), r * numUnits, numUnits);
+        }
+    }
+
+    /**
+     * Applies the softmax function to one vector stored inside of an array. Also used by SampledSoftmaxLayer.
+     * @param input The array containing the input vector.
+     * @param output The array to store the output vector in. May be the same array as input.
+     * @param offset The index of the first vector component in both arrays.
+     * @param length The length of the vector.
+     */
+    static void softmax(float[] input, float[] output, int offset, int length){
+        //softmax(x) = softmax(x - max(x)), and after the shift the largest exponential is 1, so nothing overflows
+        //and the sum is at least 1.
+        float max = input[offset];
+
+        for(int i = offset + 1; i < offset + length; i++){
+            if(input[i] > max){
+                max = input[i];
+            }
+        }
 
-            double exponential = Math.exp((double)this.inputVector[i]);
+        //Each exponential is calculated once, stored in the output and then normalized.
+        float expSum = 0;
 
-            //gradient from the calculus quotient rule
-            double dYdX = (constant * exponential) / (float)Math.pow((double)(constant + exponential), 2.0);
+        for(int i = offset; i < offset + length; i++){
+            float exponential = (float)Math.exp((double)(input[i] - max));
+            output[i] = exponential;
+            expSum += exponential;
+        }
 
-            this.dLdX[i] = ((float)dYdX) * this.dLdY[i];
-            //System.out.println(this.dLdX[i]);
+        for(int i = offset; i < offset + length; i++){
+            output[i] /= expSum;
+        }
+    }
 
-            //Add the current exponential to the constant
-            constant += (float)Math.exp((double) this.inputVector[i]);
+    /**
+     * Calculates dLdX for one vector stored inside of an array, using the outputs of the forward pass.
+     * @param output The array containing the output vector, the probabilities of the forward pass.
+     * @param dLdY The array containing the loss gradient wrt the output vector.
+     * @param dLdX The array to store the loss gradient wrt the input vector in.
+     * @param offset The index of the first vector component in all arrays.
+     * @param length The length of the vector.
+     */
+    private void softmaxBackward(float[] output, float[] dLdY, float[] dLdX, int offset, int length){
+        //The network already calculated the gradient wrt the inputs
+        if(this.fusedCrossEntropy){
+            System.arraycopy(dLdY, offset, dLdX, offset, length);
+            return;
         }
 
+        SoftmaxLayer.softmaxJacobianProduct(output, dLdY, dLdX, offset, length);
+    }
+
+    /**
+     * Multiplies the loss gradient wrt a softmax's output vector with the softmax jacobian, which gives the loss gradient
+     * wrt its input vector. Also used by SampledSoftmaxLayer.
+     * @param output The array containing the output vector of the softmax.
+     * @param dLdY The array containing the loss gradient wrt the output vector.
+     * @param dLdX The array to store the loss gradient wrt the input vector in. May be the same array as dLdY.
+     * @param offset The index of the first vector component in all arrays.
+     * @param length The length of the vector.
+     */
+    static void softmaxJacobianProduct(float[] output, float[] dLdY, float[] dLdX, int offset, int length){
+        //The jacobian is dYi/dXj = Yi * ([i == j] - Yj), so dLdX = Y * (dLdY - dot(dLdY, Y)), which needs no exponentials.
+        float dot = LinearAlgebra.dot(dLdY, offset, output, offset, length);
+
+        for(int i = offset; i < offset + length; i++){
+            dLdX[i] = output[i] * (dLdY[i] - dot);
+        }
     }
 
 
+    @Override
+    public Layer createReplica(){
+        //This layer has no parameters, so the replica is created the same way as when loading from disk.
+        return Layer.createLayerFromString(this.toString());
+    }
+
     public String toString(){
         int numUnits = this.outputVector.length;
         return "SOFTMAX(" + numUnits + ")";
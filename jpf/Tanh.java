@@ -6,27 +6,109 @@ package jpf;
  */
 public class Tanh extends ActivationFunction{
 
+    /**
+     * Creates a tanh activation function that calculates exact results.
+     */
+    public Tanh(){
+        this(PRECISION_EXACT);
+    }
+
+    /**
+     * Creates a tanh activation function with the given precision mode.
+     * @param precision ActivationFunction.PRECISION_EXACT, or ActivationFunction.PRECISION_FAST for a float
+     * approximation that is within 1.2E-7 of the exact result and several times faster.
+     */
+    public Tanh(int precision){
+        this.precision = ActivationFunction.checkPrecision(precision);
+    }
+
     /**
      * The main activation function. Tanh(x) outputs numbers in range (-1, 1).
      * @param x The input number.
      * @return The output number.
      */
     public float f(float x){
-        Utility.checkReal(x);
+        if(Utility.fullValidation()){
+            Utility.checkReal(x);
+        }
 
-        return (float)Math.tanh(x);
+        return this.precision == PRECISION_FAST ? FastMath.tanh(x) : (float)Math.tanh(x);
     }
 
     public float fPrime(float x){
-        Utility.checkReal(x);
+        if(Utility.fullValidation()){
+            Utility.checkReal(x);
+        }
         
-        float t = (float)Math.tanh(x);
+        float t = this.f(x);
 
         return 1 - (t * t);
     }
 
 
+    @Override
+    public void f(float[] x, float[] dest){
+        if(!LinearAlgebra.getVectorizedKernels()){
+            super.f(x, dest);
+            return;
+        }
+
+        Utility.checkArrayLengthsEqual(x, dest);
+
+        if(this.precision == PRECISION_FAST){
+            for(int i = 0; i < x.length; i++){
+                dest[i] = FastMath.tanh(x[i]);
+            }
+        } else {
+            for(int i = 0; i < x.length; i++){
+                dest[i] = (float)Math.tanh(x[i]);
+            }
+        }
+    }
+
+    @Override
+    public void fPrime(float[] x, float[] dest){
+        if(!LinearAlgebra.getVectorizedKernels()){
+            super.fPrime(x, dest);
+            return;
+        }
+
+        Utility.checkArrayLengthsEqual(x, dest);
+
+        this.f(x, dest);
+
+        for(int i = 0; i < x.length; i++){
+            float t = dest[i];
+            dest[i] = 1 - (t * t);
+        }
+    }
+
+
+    /**
+     * @return True, since the derivative of tanh is 1 - y^2 where y is the output.
+     */
+    @Override
+    public boolean supportsFPrimeFromOutput(){
+        return true;
+    }
+
+    @Override
+    public float fPrimeFromOutput(float y){
+        return 1 - (y * y);
+    }
+
+    @Override
+    public void fPrimeFromOutput(float[] y, float[] dest){
+        Utility.checkArrayLengthsEqual(y, dest);
+
+        for(int i = 0; i < y.length; i++){
+            float t = y[i];
+            dest[i] = 1 - (t * t);
+        }
+    }
+
+
     public String toString(){
-        return "TANH";
+        return this.precision == PRECISION_FAST ? "TANH(FAST)" : "TANH";
     }
 }
\ No newline at end of file
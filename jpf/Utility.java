@@ -4,9 +4,12 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Class for assorted static functions that may be useful elsewhere in the project or for the user.
@@ -14,48 +17,134 @@ import java.util.Random;
 public class Utility{
 
     /**
-     * Calculates randomized indicies and groups them into minibatches
-     * @param n The total number of indicies forming the set {0,1,2, ..., n - 1}
-     * @param minibatchSize The maximum size of minibatches, or groups, that these indicies are formed into
-     * @return The randomized indicies grouped into minibatches
+     * Validation level that skips the checks which scan data, such as the check that the training data is real.
+     * Checks that take constant time (null arguments, sizes and hyperparameters) still run.
      */
-    public static ArrayList<ArrayList<Integer>> getMinibatchIndicies(int n, int minibatchSize){
+    public static final int VALIDATION_OFF = 0;
 
-        if(n < 1){
-            throw new AssertionError("n (number of indicies) needs to be >= 1");
-        }
+    /**
+     * Validation level that checks data once where it enters the package, such as the training data at the start of fit()
+     * and the inputs of predict(), but not inside the kernels that run for every element. This is the default.
+     */
+    public static final int VALIDATION_BOUNDARY = 1;
 
-        if(minibatchSize < 1){
-            throw new AssertionError("Minibatch size needs to be >= 1");
-        }
+    /**
+     * Validation level that also checks every element inside the kernels, for example that each input of an activation
+     * function and each prediction given to a loss function is real. Useful for finding where a NaN or infinity first
+     * appears during training, but slows down the inner loops.
+     */
+    public static final int VALIDATION_FULL = 2;
 
-        //get the indicies
-        ArrayList<Integer> indicies = new ArrayList<Integer>(n);
+    /**
+     * The current validation level. Shared by all models and threads.
+     */
+    private static volatile int validationLevel = VALIDATION_BOUNDARY;
 
-        for(int i = 0; i < n; i++){
-            indicies.add(i);
+    /**
+     * Sets how thoroughly inputs are checked for errors. See VALIDATION_OFF, VALIDATION_BOUNDARY and VALIDATION_FULL.
+     * @param level The validation level.
+     */
+    public static void setValidationLevel(int level){
+        if(level != VALIDATION_OFF && level != VALIDATION_BOUNDARY && level != VALIDATION_FULL){
+            throw new AssertionError("Validation level should be VALIDATION_OFF, VALIDATION_BOUNDARY or VALIDATION_FULL");
         }
 
-        //randomly shuffle the indicies
-        Collections.shuffle(indicies);
+        Utility.validationLevel = level;
+    }
 
-        //Separate the indicies into minibatches
-        ArrayList<ArrayList<Integer>> r = new ArrayList<ArrayList<Integer>>();
+    /**
+     * @return The current validation level.
+     */
+    public static int getValidationLevel(){
+        return Utility.validationLevel;
+    }
+
+    /**
+     * @return True if data should be checked where it enters the package (VALIDATION_BOUNDARY or VALIDATION_FULL).
+     */
+    public static boolean boundaryValidation(){
+        return Utility.validationLevel >= VALIDATION_BOUNDARY;
+    }
+
+    /**
+     * Determines if the per element checks inside kernels should run. Hot loops should read this once
+     * before the loop instead of for every element.
+     * @return True if the validation level is VALIDATION_FULL.
+     */
+    public static boolean fullValidation(){
+        return Utility.validationLevel == VALIDATION_FULL;
+    }
+
+    /**
+     * Runs tasks concurrently on the shared thread pool (see LinearAlgebra.setThreadPool()) and waits for all of them to complete.
+     * If a task throws, the same error is thrown from this method once all tasks are done.
+     * @param tasks The tasks to run.
+     * @return The results of the tasks, in the same order as the tasks (not the order they completed in).
+     */
+    public static <T> ArrayList<T> runInParallel(List<Callable<T>> tasks){
+        Utility.checkNotNull(tasks);
+
+        List<Future<T>> futures = LinearAlgebra.getThreadPool().invokeAll(tasks);
 
-        ArrayList<Integer> minibatchIndicies = new ArrayList<Integer>();
-        for(int i = 0; i < indicies.size(); i++){
+        ArrayList<T> results = new ArrayList<T>(futures.size());
+
+        for(int i = 0; i < futures.size(); i++){
+            try{
+                results.add(futures.get(i).get());
+            } catch(ExecutionException e){
+                Throwable cause = e.getCause();
+
+                //Rethrow the task's error as is, so assertion errors from parameter checks keep their message.
+                if(cause instanceof Error){
+                    throw (Error)cause;
+                } else if(cause instanceof RuntimeException){
+                    throw (RuntimeException)cause;
+                }
 
-            if(minibatchIndicies.size() >= minibatchSize){
-                r.add(new ArrayList<Integer>(minibatchIndicies));
-                minibatchIndicies = new ArrayList<Integer>();
-            } else {
-                minibatchIndicies.add(indicies.get(i));
+                throw new AssertionError(cause);
+            } catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new AssertionError("Interrupted while waiting for parallel tasks to complete.");
             }
         }
 
+        return results;
+    }
 
-        if(minibatchIndicies.size() > 0){
-            r.add(new ArrayList<Integer>(minibatchIndicies));
+    /**
+     * Calculates randomized indicies and groups them into minibatches. Every index is in exactly one minibatch.
+     * The fit() methods use MinibatchIndicies instead, which reuses a single int[] of indicies for every epoch.
+     * @param n The total number of indicies forming the set {0,1,2, ..., n - 1}
+     * @param minibatchSize The maximum size of minibatches, or groups, that these indicies are formed into
+     * @return The randomized indicies grouped into minibatches
+     */
+    public static ArrayList<ArrayList<Integer>> getMinibatchIndicies(int n, int minibatchSize){
+        return Utility.getMinibatchIndicies(n, minibatchSize, new Random().nextLong());
+    }
+
+    /**
+     * Calculates randomized indicies and groups them into minibatches. Every index is in exactly one minibatch.
+     * The same seed always gives the same minibatches.
+     * @param n The total number of indicies forming the set {0,1,2, ..., n - 1}
+     * @param minibatchSize The maximum size of minibatches, or groups, that these indicies are formed into
+     * @param seed The seed of the random number generator used to shuffle the indicies.
+     * @return The randomized indicies grouped into minibatches
+     */
+    public static ArrayList<ArrayList<Integer>> getMinibatchIndicies(int n, int minibatchSize, long seed){
+        MinibatchIndicies minibatches = new MinibatchIndicies(n, minibatchSize, seed);
+        int[] indicies = minibatches.getIndicies();
+
+        //Separate the indicies into minibatches
+        ArrayList<ArrayList<Integer>> r = new ArrayList<ArrayList<Integer>>(minibatches.getNumMinibatches());
+
+        for(int mb = 0; mb < minibatches.getNumMinibatches(); mb++){
+            ArrayList<Integer> minibatchIndicies = new ArrayList<Integer>(minibatches.getEnd(mb) - minibatches.getStart(mb));
+
+            for(int i = minibatches.getStart(mb); i < minibatches.getEnd(mb); i++){
+                minibatchIndicies.add(indicies[i]);
+            }
+
+            r.add(minibatchIndicies);
         }
 
         return r;
@@ -74,6 +163,15 @@ public class Utility{
             throw new AssertionError("max parameter is less than min parameter.");
         }
 
+        if(LinearAlgebra.getVectorizedKernels()){
+            //Branch free form, which the JIT compiler can turn into SIMD min/max instructions
+            for(int i = 0; i < array.length; i++){
+                array[i] = Math.max(min, Math.min(max, array[i]));
+            }
+
+            return;
+        }
+
         for(int i = 0; i < array.length; i++){
             if(array[i] < min){
                 array[i] = min;
@@ -121,6 +219,32 @@ public class Utility{
         }
     }
 
+    /**
+     * Clips the values in the matrix to be in range (min, max)
+     * @param matrix The matrix to modify.
+     * @param min The minimum value an element can be.
+     * @param max The maximum value an element can be.
+     */
+    public static void clip(Matrix matrix, float min, float max){
+        Utility.checkNotNull(matrix);
+
+        clip(matrix.getData(), min, max);
+    }
+
+    /**
+     * Clips the values in the collection of matricies to be in range (min, max)
+     * @param matricies The collection of matricies to modify
+     * @param min The minimum value an element can be.
+     * @param max The maximum value an element can be.
+     */
+    public static void clip(List<Matrix> matricies, float min, float max){
+        Utility.checkNotNull(matricies);
+
+        for(int i = 0; i < matricies.size(); i++){
+            clip(matricies.get(i), min, max);
+        }
+    }
+
     /**
      * Computes the sum of the provided data.
      * @param a The input data to sum.
@@ -175,9 +299,7 @@ public class Utility{
     public static void clearArray(float[] a){
         Utility.checkNotNull((Object)a);
 
-        for(int i = 0; i < a.length; i++){
-            a[i] = 0f;
-        }
+        Arrays.fill(a, 0f);
     }
 
     /**
@@ -206,6 +328,28 @@ public class Utility{
         }
     }
 
+    /**
+     * Sets all the entries of the matrix to zero.
+     * @param matrix The matrix to modify.
+     */
+    public static void clearArray(Matrix matrix){
+        Utility.checkNotNull(matrix);
+
+        clearArray(matrix.getData());
+    }
+
+    /**
+     * Clears all entries in the matricies.
+     * @param matricies The list of matricies to clear.
+     */
+    public static void clearArrays(List<Matrix> matricies){
+        Utility.checkNotNull(matricies);
+
+        for(int i = 0; i < matricies.size(); i++){
+            clearArray(matricies.get(i));
+        }
+    }
+
     /**
      * Scales all elements in the array.
      * @param a The array to modify
@@ -232,6 +376,17 @@ public class Utility{
         }
     }
 
+    /**
+     * Scales all the entries in the matrix.
+     * @param matrix The matrix to modify.
+     * @param scalar The scaling factor
+     */
+    public static void scaleArray(Matrix matrix, float scalar){
+        Utility.checkNotNull(matrix);
+
+        scaleArray(matrix.getData(), scalar);
+    }
+
     /**
      * Clones the input collection of arrays
      * @param arrays The collection of arrays to clone
@@ -262,6 +417,25 @@ public class Utility{
         return ret;
     }
 
+    /**
+     * Clones the input collection of matricies
+     * @param matricies The collection of matricies to clone
+     * @return A new ArrayList of matricies identical in contents to the input.
+     */
+    public static ArrayList<Matrix> cloneArrays(List<Matrix> matricies){
+        Utility.checkNotNull(matricies);
+
+        ArrayList<Matrix> ret = new ArrayList<Matrix>(matricies.size());
+
+        for(int i = 0; i < matricies.size(); i++){
+            Utility.checkNotNull(matricies.get(i));
+
+            ret.add(matricies.get(i).copy());
+        }
+
+        return ret;
+    }
+
     /**
      * Adds one scaled 2d array to another. Used to apply a gradient to a model's parameters.
      * @param dest The first 2d array, which is also where the result is stored.
@@ -280,6 +454,19 @@ public class Utility{
         }
     }
 
+    /**
+     * Adds one scaled matrix to another. Used to apply a gradient to a model's parameters.
+     * @param dest The first matrix, which is also where the result is stored.
+     * @param b The second matrix, which is scaled.
+     * @param scalar The scalar to multiply the b matrix by.
+     */
+    public static void addArray(Matrix dest, Matrix b, float scalar){
+        Utility.checkNotNull(dest, b);
+        Utility.checkMatrixDimensionsEqual(dest, b);
+
+        LinearAlgebra.axpy(scalar, b.getData(), 0, dest.getData(), 0, dest.getSize());
+    }
+
     /**
      * Adds the one scaled list to another list.
      * @param list The list to add to. This is the destination list.
@@ -295,6 +482,21 @@ public class Utility{
         }
     }
 
+    /**
+     * Adds the one scaled list of matricies to another list.
+     * @param list The list to add to. This is the destination list.
+     * @param newList The scaled list to add to the first parameter.
+     * @param scalar The scalar to multiply newList by.
+     */
+    public static void addList(List<Matrix> list, List<Matrix> newList, float scalar){
+        Utility.checkNotNull(list, newList);
+        Utility.checkMatrixListDimensionsEqual(list, newList);
+
+        for(int i = 0; i < list.size(); i++){
+            Utility.addArray(list.get(i), newList.get(i), scalar);
+        }
+    }
+
     /**
      * Scales the list elements by a given factor.
      * @param list The list to scale.
@@ -310,6 +512,21 @@ public class Utility{
         }
     }
 
+    /**
+     * Scales the matricies in the list by a given factor.
+     * @param list The list to scale.
+     * @param scalar The factor to scale the matricies by.
+     */
+    public static void scaleList(List<Matrix> list, float scalar){
+        Utility.checkNotNull(list);
+
+        for(int i = 0; i < list.size(); i++){
+            Utility.checkNotNull(list.get(i));
+
+            scaleArray(list.get(i), scalar);
+        }
+    }
+
     /**
      * Creates a formatted string of the array contents.
      * @param array The array to turn into a string.
@@ -324,14 +541,17 @@ public class Utility{
 
         StringBuilder sb = new StringBuilder();
 
+        //Workspace for FloatFormatter, which is faster than StringBuilder.append(float) and never longer
+        char[] number = new char[FloatFormatter.MAX_LENGTH];
+
         sb.append("[");
 
         for(int i = 0; i < array.length - 1; i++){
-            sb.append(array[i]);
+            sb.append(number, 0, FloatFormatter.format(array[i], number, 0));
             sb.append(" ");
         }
 
-        sb.append(array[array.length - 1]);
+        sb.append(number, 0, FloatFormatter.format(array[array.length - 1], number, 0));
         sb.append("]");
 
         return new String(sb);
@@ -387,6 +607,17 @@ public class Utility{
         return new String(sb);
     }
 
+    /**
+     * Creates a formatted string of the collection of matricies. Uses the same format as the 2d array version.
+     * @param matricies The collection of matricies.
+     * @return The formatted string.
+     */
+    public static String arraysToString(List<Matrix> matricies){
+        Utility.checkNotNull(matricies);
+
+        return arraysToString(Matrix.toArrays(matricies));
+    }
+
     /**
      * Writes the contents to the filepath.
      * @param filePath The filepath to write to.
@@ -574,6 +805,20 @@ public class Utility{
 
     }
 
+    /**
+     * Initializes the matricies to a uniform distribution of [min, max)
+     * @param parameters The matricies to initialize
+     * @param min The minimum value an entry can be.
+     * @param max The maximum value an entry can be.
+     */
+    public static void initializeUniform(List<Matrix> parameters, float min, float max){
+        Utility.checkNotNull(parameters);
+
+        for(int i = 0; i < parameters.size(); i++){
+            initializeUniform(parameters.get(i), min, max);
+        }
+    }
+
     /**
      * Initializes the entries in the matrix to a unifrom distribution of [min, max).
      * @param matrix The matrix to initialize.
@@ -592,6 +837,18 @@ public class Utility{
         }
     }
 
+    /**
+     * Initializes the entries in the matrix to a unifrom distribution of [min, max).
+     * @param matrix The matrix to initialize.
+     * @param min The minimum value an entry can be.
+     * @param max The maximum value an entry can be.
+     */
+    public static void initializeUniform(Matrix matrix, float min, float max){
+        Utility.checkNotNull(matrix);
+
+        Utility.initializeUniform(matrix.getData(), min, max);
+    }
+
 
     /**
      * Initializes entries in the array to a uniform distribution of [min, max).
@@ -689,13 +946,14 @@ public class Utility{
 
 
     /**
-     * Reads a .csv file and places the contents into a 2d String array.
+     * Reads a .csv file and places the contents into a 2d String array. The whole file is held in memory,
+     * so use CSVReader to read numeric data from large files.
      * @param filePath A valid filepath to a .csv file.
      * @param lineDelimiter The character(s) that define where a line ends. Typically a newline (\n) character.
      * @param elementDelimiter The character(s) that define where a element within a line end. Typically a comma (,).
      * @return The 2nd String array, or null on error.
      */
-    public String[][] readFromCSV(String filePath, String lineDelimiter, String elementDelimiter){
+    public static String[][] readFromCSV(String filePath, String lineDelimiter, String elementDelimiter){
         Utility.checkNotNull(filePath, lineDelimiter, elementDelimiter);
 
         String fileContents = getTextFileContents(filePath);
@@ -723,7 +981,7 @@ public class Utility{
      * @param filepath The filepath of the csv file. Should be a valid path.
      * @return The 2d String array with the .csv contents, or null if error.
      */
-    public String[][] readFromCSV(String filepath){
+    public static String[][] readFromCSV(String filepath){
         Utility.checkNotNull(filepath);
 
         return readFromCSV(filepath, "\n", ",");
@@ -778,6 +1036,37 @@ public class Utility{
         }
     }
 
+    /**
+     * Throws an AssertionError when either object is null. Same as the varargs version, but does not allocate an array,
+     * so it can be used in methods called for every sample.
+     * @param a The first object.
+     * @param b The second object.
+     */
+    public static void checkNotNull(Object a, Object b){
+        if(a == null){
+            throw new AssertionError("Object is null where it should not be at position 0");
+        }
+
+        if(b == null){
+            throw new AssertionError("Object is null where it should not be at position 1");
+        }
+    }
+
+    /**
+     * Throws an AssertionError when any of the objects are null. Same as the varargs version, but does not allocate an array,
+     * so it can be used in methods called for every sample.
+     * @param a The first object.
+     * @param b The second object.
+     * @param c The third object.
+     */
+    public static void checkNotNull(Object a, Object b, Object c){
+        Utility.checkNotNull(a, b);
+
+        if(c == null){
+            throw new AssertionError("Object is null where it should not be at position 2");
+        }
+    }
+
 
     /**
      * Throws an assertion error if the 2d array is ragged (some arrays are of different sizes), else does nothing.
@@ -835,6 +1124,25 @@ public class Utility{
         }
     }
 
+    /**
+     * Checks the input matricies to see if the dimensions are equal (rows and columns).
+     * Throws an exception if dimensions do not match Useful on elementwise operations.
+     * @param matrix The matricies to check for same dimensions.
+     */
+    public static void checkMatrixDimensionsEqual(Matrix... matrix){
+        if(matrix == null || matrix.length == 0){
+            return;
+        }
+
+        Utility.checkNotNull((Object[])matrix);
+
+        for(int i = 1; i < matrix.length; i++){
+            if(!matrix[0].sameShape(matrix[i])){
+                throw new AssertionError("Matrix dimensions are not equal when they should be.");
+            }
+        }
+    }
+
 
     /**
      * Throws an assertion error if the input array is empty or has empty elements
@@ -893,6 +1201,28 @@ public class Utility{
         }
     }
 
+    /**
+     * Checks to see if both list's matricies are both not null and are of equal dimensions.
+     * Throws an AssertionError if an issue is present.
+     * @param listA The first list.
+     * @param listB The second list.
+     */
+    public static void checkMatrixListDimensionsEqual(List<Matrix> listA, List<Matrix> listB){
+        Utility.checkNotNull(listA, listB);
+
+        if(listA.size() != listB.size()){
+            throw new AssertionError("List sizes are not equal.");
+        }
+
+        for(int i = 0; i < listA.size(); i++){
+            Utility.checkNotNull(listA.get(i), listB.get(i));
+
+            if(!listA.get(i).sameShape(listB.get(i))){
+                throw new AssertionError("Dimensions of matrix in list do not match.");
+            }
+        }
+    }
+
     /**
      * Checks to see if the arrays are of the same length.
      * Will also check if they are null.
@@ -945,6 +1275,43 @@ public class Utility{
         }
     }
 
+    /**
+     * Checks the input float to make sure it is real (not infinity or NaN). Same as the varargs version,
+     * but does not allocate an array.
+     * @param x The input float to check.
+     */
+    public static void checkReal(float x){
+        if(!Float.isFinite(x)){
+            throw new AssertionError("Floating point number is not finite (either NaN, -inf, or inf)");
+        }
+    }
+
+    /**
+     * Checks the input floats to make sure they are real (not infinity or NaN). Same as the varargs version,
+     * but does not allocate an array.
+     * @param a The first float to check.
+     * @param b The second float to check.
+     */
+    public static void checkReal(float a, float b){
+        Utility.checkReal(a);
+        Utility.checkReal(b);
+    }
+
+    /**
+     * Checks that every value in the data is real, unless the validation level is VALIDATION_OFF.
+     * Used where data enters the package, such as at the start of fit(), so the kernels do not need to check every element.
+     * @param data The vectors to check. Null vectors are skipped.
+     */
+    public static void checkDataReal(float[][] data){
+        if(data == null || !Utility.boundaryValidation()){
+            return;
+        }
+
+        for(int i = 0; i < data.length; i++){
+            Utility.checkReal(data[i]);
+        }
+    }
+
     /**
      * Checks to see if input integers are greater than 0. Throws assertion error if <= 0
      * @param a The input integers
@@ -1005,4 +1372,17 @@ public class Utility{
 
         return true;
     }
+
+
+    /**
+     * Checks to see if the input matricies have the same shape and contain the same data. Can be used for tests.
+     * @param a The first matrix
+     * @param b The second matrix
+     * @return True if matricies are equal, else false.
+     */
+    public static boolean equal(Matrix a, Matrix b){
+        Utility.checkNotNull(a, b);
+
+        return a.sameShape(b) && Utility.equal(a.getData(), b.getData());
+    }
 }
\ No newline at end of file